@@ -0,0 +1,207 @@
+package bench.database;
+
+import main.java.database.AegisPasswordDatabase;
+import main.java.database.DatabaseSettings;
+import main.java.model.NoIDAegisEntry;
+import main.java.model.NoIDAegisTeam;
+import main.java.model.NoIDAegisUser;
+import main.java.model.UserPermissions;
+import main.java.model.info.EntryInfo;
+import main.java.model.info.TeamInfo;
+import main.java.model.info.TeamUserInfo;
+import main.java.model.info.UserInfo;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Builds a synthetic password database that looks like a real one, for the benchmarks.
+ * <p>
+ * Team sizes follow a power law: most teams have a handful of members and a few have hundreds. Entries go to teams in
+ * proportion to their size. The secure fields are random base64 of the length the client sends for them, so rows are
+ * as big as real ones. The same sizes and seed always give the same database.
+ * <p>
+ * Users, teams and entries are created in that order through the normal PasswordDatabase methods, so their ids are
+ * 1 to users, 1 to teams and 1 to entries. The benchmarks rely on that.
+ * <p>
+ * Generating the full size dataset takes a while, so datasets are kept in target/bench and copied from there. Run
+ * this class to generate one up front:
+ * <pre>
+ *     java -cp target/aegis-1.0-jar-with-dependencies.jar bench.database.DatasetGenerator 10000 1000 100000
+ * </pre>
+ */
+public class DatasetGenerator {
+    private static final File DIRECTORY = new File("target/bench");
+    private static final long SEED = 42;
+
+    public final int users;
+    public final int teams;
+    public final int entries;
+
+    private final Random random = new Random(SEED);
+
+    public DatasetGenerator(int users, int teams, int entries) {
+        if (users < 2 || teams < 1 || entries < 0) {
+            throw new IllegalArgumentException("Need at least 2 users and 1 team");
+        }
+        this.users = users;
+        this.teams = teams;
+        this.entries = entries;
+    }
+
+    /**
+     * @return the file of the dataset, which is generated first if it was not generated before. Do not write to it.
+     */
+    public File getDataset() throws IOException, SQLException {
+        File dataset = new File(DIRECTORY, "dataset-" + users + "-" + teams + "-" + entries + ".db");
+        if (!dataset.exists()) {
+            if (!DIRECTORY.exists() && !DIRECTORY.mkdirs()) {
+                throw new IOException("Unable to create " + DIRECTORY);
+            }
+
+            //Generate next to it and rename, so a generation that is cut short is not mistaken for a dataset
+            File temp = new File(DIRECTORY, dataset.getName() + ".tmp");
+            Files.deleteIfExists(temp.toPath());
+            generate(temp);
+            Files.move(temp.toPath(), dataset.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return dataset;
+    }
+
+    /**
+     * Copies the dataset to the given file, generating it first if it was not generated before
+     *
+     * @param copy where to put the copy, which is then safe to write to
+     */
+    public void copyTo(@NotNull File copy) throws IOException, SQLException {
+        File dataset = getDataset();
+        Files.deleteIfExists(new File(copy.getPath() + "-wal").toPath());
+        Files.deleteIfExists(new File(copy.getPath() + "-shm").toPath());
+        Files.copy(dataset.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Generates the dataset into a new database file
+     */
+    public void generate(@NotNull File file) throws SQLException {
+        long start = System.nanoTime();
+
+        //Nothing is lost if generating is cut short, so do not wait for the disk
+        AegisPasswordDatabase db = new AegisPasswordDatabase(file.getPath(),
+                new DatabaseSettings(1, "OFF", -64000, 0, 5000));
+        try {
+            db.reset();
+
+            for (int i = 1; i <= users; i++) {
+                expectId(i, db.createUser(user(i)), "user");
+            }
+
+            //Team sizes, and the total size of the teams before each, for picking teams in proportion to size
+            long[] sizes = new long[teams + 1];
+            for (int t = 1; t <= teams; t++) {
+                sizes[t] = sizes[t - 1] + createTeam(db, t);
+            }
+
+            for (int e = 1; e <= entries; e++) {
+                long pick = (long) (random.nextDouble() * sizes[teams]);
+                int search = Arrays.binarySearch(sizes, pick + 1);
+                int tid = search < 0 ? -search - 1 : search;
+                expectId(e, db.createEntry(new NoIDAegisEntry(entry(), tid)), "entry");
+            }
+        } finally {
+            db.close();
+        }
+
+        System.out.printf("Generated %d users, %d teams and %d entries in %.1f s%n", users, teams, entries,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Creates a team with a power law size of at least 2, made up of random users. The first member is the admin.
+     *
+     * @return the size of the team
+     */
+    private int createTeam(AegisPasswordDatabase db, int t) {
+        int max = Math.min(users, 500);
+        int size = Math.max(2, (int) (max * Math.pow(random.nextDouble(), 6)));
+
+        Set<Integer> members = new LinkedHashSet<>();
+        while (members.size() < size) {
+            members.add(1 + random.nextInt(users));
+        }
+
+        Map<Integer, TeamUserInfo> infos = new LinkedHashMap<>();
+        UserPermissions[] permissions = UserPermissions.values();
+        for (int uid : members) {
+            infos.put(uid, member(infos.isEmpty() ? UserPermissions.ADMIN
+                    : permissions[random.nextInt(permissions.length)]));
+        }
+
+        NoIDAegisTeam team = new NoIDAegisTeam(new TeamInfo("Team " + t), Collections.emptyList(), infos);
+        expectId(t, db.createTeam(team), "team");
+        return size;
+    }
+
+    private static void expectId(int expected, Optional<Integer> id, String what) {
+        if (!id.isPresent() || id.get() != expected) {
+            throw new IllegalStateException("Expected " + what + " " + expected + " but got " + id);
+        }
+    }
+
+    /**
+     * @return a user with fields the size the client sends. The user is on no teams yet.
+     */
+    NoIDAegisUser user(int i) {
+        UserInfo info = new UserInfo("First" + i, "Last" + i, base64(32), base64(16), base64(16), base64(16),
+                publicKey(), base64(32), base64(16), base64(1232));
+        return new NoIDAegisUser(info, email(i), Collections.emptyMap());
+    }
+
+    /**
+     * @return the email of the user with the given id
+     */
+    static String email(int uid) {
+        return "user" + uid + "@bench.test";
+    }
+
+    /**
+     * @return an entry with encrypted fields the size the client sends
+     */
+    EntryInfo entry() {
+        return new EntryInfo(base64(16 + random.nextInt(32)), base64(16 + random.nextInt(32)),
+                base64(16 + random.nextInt(48)), base64(16));
+    }
+
+    /**
+     * @return a new member, with a team key encrypted with RSA-2048 like the client does
+     */
+    TeamUserInfo member(UserPermissions permissions) {
+        return new TeamUserInfo(permissions, base64(256));
+    }
+
+    private String publicKey() {
+        return "-----BEGIN PUBLIC KEY-----\n" + base64(294) + "\n-----END PUBLIC KEY-----";
+    }
+
+    private String base64(int bytes) {
+        byte[] ret = new byte[bytes];
+        random.nextBytes(ret);
+        return Base64.getEncoder().encodeToString(ret);
+    }
+
+    /**
+     * Generates a dataset into target/bench, with the sizes given as arguments (users, teams, entries) or the default
+     * 10k users, 1k teams and 100k entries
+     */
+    public static void main(String[] args) throws Exception {
+        DatasetGenerator generator = args.length == 3
+                ? new DatasetGenerator(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]))
+                : new DatasetGenerator(10000, 1000, 100000);
+        System.out.println("Dataset is in " + generator.getDataset());
+    }
+}
@@ -0,0 +1,229 @@
+package bench.database;
+
+import main.java.database.AegisPasswordDatabase;
+import main.java.model.*;
+import main.java.model.info.EntryInfo;
+import main.java.model.info.TeamInfo;
+import main.java.model.info.TeamUserInfo;
+import main.java.util.Constants;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the create, read, update and delete methods of AegisPasswordDatabase on a realistic database (see
+ * DatasetGenerator), without the cache in front of it.
+ * <p>
+ * On top of the dataset, every trial adds a team of teamSize members with entryCount entries, which is what the team
+ * benchmarks work on. Users and entries are picked at random, from the whole dataset or from that team. Creates are
+ * paired with deletes, so the database does not grow during a run (except for the change log).
+ * <p>
+ * The main method writes the results as JSON to the file given as its argument, or to
+ * target/bench/PasswordDatabaseBenchmark.json, so runs on different commits can be compared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PasswordDatabaseBenchmark {
+    /**
+     * Members of the team that the team benchmarks work on
+     */
+    @Param({"10", "1000"})
+    public int teamSize;
+
+    /**
+     * Entries of the team that the team benchmarks work on
+     */
+    @Param({"100", "10000"})
+    public int entryCount;
+
+    /**
+     * Size of the dataset the team is added to. Lower these for a quick run.
+     */
+    @Param({"10000"})
+    public int datasetUsers;
+
+    @Param({"1000"})
+    public int datasetTeams;
+
+    @Param({"100000"})
+    public int datasetEntries;
+
+    private File file;
+    private AegisPasswordDatabase db;
+    private DatasetGenerator generator;
+    private final Random random = new Random(7);
+
+    private AegisTeam team;
+    private int[] entries;
+    private AegisUser member;
+    private int outsider; //A user that is not on the team
+    private EntryInfo entryInfo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        generator = new DatasetGenerator(datasetUsers, datasetTeams, datasetEntries);
+        file = File.createTempFile("bench", ".db");
+        generator.copyTo(file);
+        db = new AegisPasswordDatabase(file.getPath());
+
+        //The members of the team are random users of the dataset
+        List<Integer> uids = new ArrayList<>();
+        for (int i = 1; i <= datasetUsers; i++) {
+            uids.add(i);
+        }
+        Collections.shuffle(uids, random);
+        Map<Integer, TeamUserInfo> users = new LinkedHashMap<>();
+        for (int uid : uids.subList(0, Math.min(teamSize, datasetUsers - 1))) {
+            users.put(uid, generator.member(users.isEmpty() ? UserPermissions.ADMIN : UserPermissions.WRITE));
+        }
+        outsider = uids.get(uids.size() - 1);
+
+        int tid = get(db.createTeam(new NoIDAegisTeam(new TeamInfo("Benchmark"), Collections.emptyList(), users)));
+        entries = new int[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            entries[i] = get(db.createEntry(new NoIDAegisEntry(generator.entry(), tid)));
+        }
+
+        team = get(db.readTeam(tid));
+        member = get(db.readUser(uids.get(0)));
+        entryInfo = generator.entry();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException, IOException {
+        db.close();
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(new File(file.getPath() + "-wal").toPath());
+        Files.deleteIfExists(new File(file.getPath() + "-shm").toPath());
+    }
+
+    private static <T> T get(Optional<T> value) {
+        return value.orElseThrow(() -> new IllegalStateException("Database call failed"));
+    }
+
+    private int randomUser() {
+        return 1 + random.nextInt(datasetUsers);
+    }
+
+    private int randomEntry() {
+        return entries[random.nextInt(entries.length)];
+    }
+
+    // ----------------- Reads ------------------------
+
+    @Benchmark
+    public Optional<AegisUser> readUser() {
+        return db.readUser(randomUser());
+    }
+
+    @Benchmark
+    public Optional<AegisUser> readUserByEmail() {
+        return db.readUser(DatasetGenerator.email(randomUser()));
+    }
+
+    @Benchmark
+    public Optional<AegisTeam> readTeam() {
+        return db.readTeam(team.id);
+    }
+
+    @Benchmark
+    public Optional<AegisEntry> readEntry() {
+        return db.readEntry(randomEntry());
+    }
+
+    /**
+     * Reads a page of the entries of the team, like GET /teams/:teamid/entries does
+     */
+    @Benchmark
+    public Optional<Map<Integer, AegisEntry>> readEntriesPage() {
+        int size = Math.min(Constants.STREAM_PAGE_SIZE, entries.length);
+        int start = random.nextInt(entries.length - size + 1);
+        List<Integer> page = new ArrayList<>(size);
+        for (int i = start; i < start + size; i++) {
+            page.add(entries[i]);
+        }
+        return db.readEntries(page);
+    }
+
+    @Benchmark
+    public Optional<AegisVault> readVault() {
+        return db.readVault(member.id);
+    }
+
+    // ----------------- Updates ------------------------
+
+    @Benchmark
+    public boolean updateUser() {
+        return db.updateUser(member);
+    }
+
+    @Benchmark
+    public boolean updateTeam() {
+        return db.updateTeam(team);
+    }
+
+    @Benchmark
+    public boolean updateEntry() {
+        return db.updateEntry(new AegisEntry(entryInfo, team.id, randomEntry()));
+    }
+
+    // ----------------- Creates and deletes ------------------------
+
+    @Benchmark
+    public boolean createAndDeleteUser() {
+        int uid = get(db.createUser(generator.user(datasetUsers + 1)));
+        return db.deleteUser(uid);
+    }
+
+    @Benchmark
+    public boolean createAndDeleteTeam() {
+        Map<Integer, TeamUserInfo> admin = Collections.singletonMap(member.id, generator.member(UserPermissions.ADMIN));
+        int tid = get(db.createTeam(new NoIDAegisTeam(new TeamInfo("Other"), Collections.emptyList(), admin)));
+        return db.deleteTeam(tid);
+    }
+
+    @Benchmark
+    public boolean createAndDeleteEntry() {
+        int eid = get(db.createEntry(new NoIDAegisEntry(entryInfo, team.id)));
+        return db.deleteEntry(eid);
+    }
+
+    @Benchmark
+    public boolean addAndRemoveMember() {
+        if (!db.addMember(team.id, outsider, generator.member(UserPermissions.WRITE))) {
+            throw new IllegalStateException("Unable to add the member");
+        }
+        return db.removeMember(team.id, outsider);
+    }
+
+    /**
+     * Runs the benchmarks and writes the results as JSON
+     *
+     * @param args the file to write the results to, if not the default
+     */
+    public static void main(String[] args) throws RunnerException {
+        String result = args.length > 0 ? args[0] : "target/bench/PasswordDatabaseBenchmark.json";
+        new File(result).getAbsoluteFile().getParentFile().mkdirs();
+
+        Options opt = new OptionsBuilder()
+                .include(PasswordDatabaseBenchmark.class.getSimpleName())
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,103 @@
+package bench.model;
+
+import main.java.model.UserPermissions;
+import main.java.model.info.TeamUserInfo;
+import main.java.util.IntMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a HashMap&lt;Integer, TeamUserInfo&gt; against an IntMap for the members of a large team.
+ * <p>
+ * The build benchmarks allocate exactly one membership map each, sized up front like the tables do, so with the gc
+ * profiler gc.alloc.rate.norm is the footprint of a map of that size (the TeamUserInfo values are shared and not
+ * counted). The main method runs with
+ * the gc profiler. The lookup benchmarks do what checkRights does for every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class TeamMembershipBenchmark {
+    /**
+     * Number of members in the team
+     */
+    @Param({"10000"})
+    public int members;
+
+    private TeamUserInfo[] infos;
+    private HashMap<Integer, TeamUserInfo> hashMap;
+    private IntMap<TeamUserInfo> intMap;
+
+    /**
+     * User ids to look up, half of which are members
+     */
+    private int[] lookups;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        //User ids are not consecutive in a real team, so spread them out
+        infos = new TeamUserInfo[members];
+        for (int i = 0; i < members; i++) {
+            infos[i] = new TeamUserInfo(UserPermissions.values()[i % UserPermissions.values().length], "key" + i);
+        }
+        hashMap = buildHashMap();
+        intMap = buildIntMap();
+
+        lookups = new int[1024];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = uid(i * 7919 % members) + (i % 2); //Odd ids are never members
+        }
+    }
+
+    private static int uid(int i) {
+        return i * 10 + 1000;
+    }
+
+    @Benchmark
+    public HashMap<Integer, TeamUserInfo> buildHashMap() {
+        HashMap<Integer, TeamUserInfo> ret = new HashMap<>(members * 4 / 3 + 1);
+        for (int i = 0; i < members; i++) {
+            ret.put(uid(i), infos[i]);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public IntMap<TeamUserInfo> buildIntMap() {
+        IntMap.Builder<TeamUserInfo> ret = new IntMap.Builder<>(members);
+        for (int i = 0; i < members; i++) {
+            ret.put(uid(i), infos[i]);
+        }
+        return ret.build();
+    }
+
+    @Benchmark
+    public TeamUserInfo lookupHashMap() {
+        int uid = lookups[next++ & (lookups.length - 1)];
+        return hashMap.containsKey(uid) ? hashMap.get(uid) : null; //What checkRights did before
+    }
+
+    @Benchmark
+    public TeamUserInfo lookupIntMap() {
+        return intMap.get(lookups[next++ & (lookups.length - 1)]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(TeamMembershipBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
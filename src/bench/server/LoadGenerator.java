@@ -0,0 +1,676 @@
+package bench.server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import main.java.database.AegisPasswordDatabase;
+import main.java.database.DatabaseSettings;
+import main.java.logging.LogSettings;
+import main.java.metrics.MetricsSettings;
+import main.java.model.UserPermissions;
+import main.java.server.Server;
+import main.java.server.config.Configuration;
+import main.java.server.util.CompressionSettings;
+import main.java.server.util.EmailSettings;
+import main.java.server.util.SessionSettings;
+import main.java.server.util.ThreadSettings;
+import main.java.util.Constants;
+import main.java.util.FileOperations;
+import main.java.util.IntList;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Puts the whole server under load over HTTPS and reports the throughput and latency percentiles of every route.
+ * <p>
+ * The server runs in a child JVM, in a temporary directory with a new database, a self-signed certificate and
+ * Constants.verifyFlag turned off, so nothing is left behind and no emails are needed. Each virtual user signs up,
+ * logs in, creates a team with some entries and then loops over a weighted mix of operations, as fast as it can
+ * (or with a think time), until the run is over. Only the requests after the warmup are counted.
+ * <p>
+ * Options are given as name=value arguments:
+ * <pre>
+ *     java -cp target/aegis-1.0-jar-with-dependencies.jar bench.server.LoadGenerator users=32 duration=60
+ * </pre>
+ * <ul>
+ * <li>users: number of concurrent virtual users (16)</li>
+ * <li>warmup, duration: seconds to warm up and then measure for (10, 30)</li>
+ * <li>think: milliseconds each virtual user waits between operations (0)</li>
+ * <li>entries: entries each virtual user starts its team with (20)</li>
+ * <li>mix: weights of the operations, e.g. login:5,teams:20,entries:30,create:10,delete:5,edit:20,team:10</li>
+ * <li>out: file to also write the results to as JSON, for comparing runs</li>
+ * <li>threads: the number of request threads of the server, or "virtual" to run every request on a virtual thread
+ * (50)</li>
+ * <li>jvm: extra arguments for the server JVM, separated by spaces</li>
+ * </ul>
+ * The operations are: login (login1 and login2), teams (list the teams), entries (read the entries of the team),
+ * create and delete (an entry), edit (the secure or non-secure fields of an entry) and team (add another virtual user
+ * to the team, change their permissions and key, and remove them again, one step at a time).
+ */
+public class LoadGenerator {
+    private static final String PASSWORD = "changeit";
+    private static final Gson gson = new Gson();
+
+    private final Map<String, String> options;
+    private final int users;
+    private final int warmup;
+    private final int duration;
+    private final int think;
+    private final int entries;
+    private final String[] operations;
+    private final int[] weights;
+
+    private int port;
+    private SSLSocketFactory sslSocketFactory;
+
+    //Set by the main thread, read by the virtual users
+    private volatile boolean recording;
+    private volatile boolean stopped;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        users = Integer.parseInt(options.getOrDefault("users", "16"));
+        warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        think = Integer.parseInt(options.getOrDefault("think", "0"));
+        entries = Integer.parseInt(options.getOrDefault("entries", "20"));
+
+        String[] mix = options.getOrDefault("mix", "login:5,teams:20,entries:30,create:10,delete:5,edit:20,team:10")
+                .split(",");
+        operations = new String[mix.length];
+        weights = new int[mix.length];
+        for (int i = 0; i < mix.length; i++) {
+            String[] parts = mix[i].split(":");
+            operations[i] = parts[0].trim();
+            weights[i] = (i == 0 ? 0 : weights[i - 1]) + Integer.parseInt(parts[1].trim());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && args[0].equals("serve")) {
+            serve();
+            return;
+        }
+
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Options are name=value, got " + arg);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    /**
+     * Runs the server in the child JVM, on a new database in the working directory
+     */
+    private static void serve() throws Exception {
+        Constants.verifyFlag = false;
+        AegisPasswordDatabase db = new AegisPasswordDatabase(Constants.DB_NAME);
+        db.reset();
+        db.close();
+        Server.main(new String[0]);
+    }
+
+    private void run() throws Exception {
+        //Keep a connection open for every virtual user, instead of the 5 HttpURLConnection keeps by default
+        System.setProperty("http.maxConnections", Integer.toString(users));
+        sslSocketFactory = trustAll();
+
+        Path directory = Files.createTempDirectory("aegis-load");
+        Process server = null;
+        try {
+            server = startServer(directory);
+
+            System.out.println("Setting up " + users + " virtual users with " + entries + " entries each");
+            List<VirtualUser> vus = new ArrayList<>();
+            for (int i = 0; i < users; i++) {
+                vus.add(new VirtualUser(i));
+            }
+            for (VirtualUser vu : vus) {
+                vu.setUp();
+            }
+            for (int i = 0; i < users; i++) {
+                vus.get(i).partner = vus.get((i + 1) % users).uid;
+            }
+
+            CountDownLatch done = new CountDownLatch(users);
+            for (VirtualUser vu : vus) {
+                Thread t = new Thread(() -> {
+                    try {
+                        vu.loop();
+                    } finally {
+                        done.countDown();
+                    }
+                }, "vu-" + vu.index);
+                t.setDaemon(true);
+                t.start();
+            }
+
+            System.out.println("Warming up for " + warmup + " s");
+            Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+            recording = true;
+            long start = System.nanoTime();
+            System.out.println("Measuring for " + duration + " s");
+            Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+            recording = false;
+            double seconds = (System.nanoTime() - start) / 1e9;
+            stopped = true;
+            done.await(30, TimeUnit.SECONDS);
+
+            report(vus, seconds);
+        } finally {
+            if (server != null) {
+                server.destroy();
+                server.waitFor(10, TimeUnit.SECONDS);
+            }
+            delete(directory.toFile());
+        }
+    }
+
+    // ----------------- Server ------------------------
+
+    /**
+     * Writes a certificate and configuration to the directory and starts the server there
+     */
+    private Process startServer(Path directory) throws Exception {
+        File keyStore = directory.resolve("keystore.jks").toFile();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process p = new ProcessBuilder(keytool, "-genkeypair", "-alias", "aegis", "-keyalg", "RSA",
+                "-keysize", "2048", "-dname", "CN=localhost", "-validity", "1", "-storetype", "JKS",
+                "-keystore", keyStore.getPath(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true).start();
+        String output = read(p.getInputStream());
+        if (p.waitFor() != 0) {
+            throw new IOException("Unable to create a certificate: " + output);
+        }
+
+        String threads = options.getOrDefault("threads", Integer.toString(Constants.MAX_THREADS));
+        ThreadSettings threadSettings = threads.equals("virtual") ? new ThreadSettings(Constants.MAX_THREADS, true)
+                : new ThreadSettings(Integer.parseInt(threads), false);
+        Configuration config = new Configuration("load@localhost", "", keyStore.getPath(), PASSWORD,
+                new DatabaseSettings(), new LogSettings(), new SessionSettings(), new EmailSettings(),
+                new CompressionSettings(), new MetricsSettings(), threadSettings);
+        FileOperations.writeToFile(directory.resolve(Constants.CONFIG_FILE).toString(), gson.toJson(config));
+
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            command.add("--add-opens=java.base/java.lang=ALL-UNNAMED"); //For Hibernate
+        }
+        String jvm = options.getOrDefault("jvm", "").trim();
+        if (!jvm.isEmpty()) {
+            command.addAll(Arrays.asList(jvm.split("\\s+")));
+        }
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), LoadGenerator.class.getName(),
+                "serve"));
+
+        ProcessBuilder builder = new ProcessBuilder(command).directory(directory.toFile())
+                .redirectErrorStream(true).redirectOutput(directory.resolve("server.log").toFile());
+        builder.environment().put("PORT", Integer.toString(port));
+        Process server = builder.start();
+        System.out.println("Starting the server on port " + port + " in " + directory);
+
+        long deadline = System.currentTimeMillis() + 60000;
+        while (System.currentTimeMillis() < deadline) {
+            if (!server.isAlive()) {
+                throw new IOException("The server stopped: " + read(directory.resolve("server.log")));
+            }
+            try {
+                if (request("GET", "/sessionValid", null, null).status > 0) {
+                    return server;
+                }
+            } catch (IOException e) { //Not listening yet
+                Thread.sleep(200);
+            }
+        }
+        server.destroy();
+        throw new IOException("The server did not start: " + read(directory.resolve("server.log")));
+    }
+
+    /**
+     * @return a socket factory that trusts any certificate. Only for the self-signed certificate of our own server.
+     */
+    private static SSLSocketFactory trustAll() throws GeneralSecurityException {
+        TrustManager trustAll = new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[]{trustAll}, null);
+        return context.getSocketFactory();
+    }
+
+    // ----------------- HTTP ------------------------
+
+    private static class HttpResult {
+        private final int status;
+        private final String body;
+        private final String sessionID; //From Set-Cookie, or null
+
+        private HttpResult(int status, String body, String sessionID) {
+            this.status = status;
+            this.body = body;
+            this.sessionID = sessionID;
+        }
+    }
+
+    private HttpResult request(String method, String path, String body, String sessionID) throws IOException {
+        HttpsURLConnection con = (HttpsURLConnection) new URL("https://localhost:" + port + path).openConnection();
+        con.setSSLSocketFactory(sslSocketFactory);
+        con.setHostnameVerifier((host, session) -> host.equals("localhost"));
+        con.setRequestMethod(method);
+        con.setConnectTimeout(10000);
+        con.setReadTimeout(60000);
+        if (sessionID != null) {
+            con.setRequestProperty("Cookie", "sessionID=" + sessionID);
+        }
+        if (body != null) {
+            con.setDoOutput(true);
+            try (OutputStream out = con.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        int status = con.getResponseCode();
+        //Read the whole body, even of errors, so the connection can be kept alive
+        InputStream in = status >= 400 ? con.getErrorStream() : con.getInputStream();
+        String response = in == null ? "" : read(in);
+
+        String renewed = null;
+        List<String> cookies = con.getHeaderFields().get("Set-Cookie");
+        if (cookies != null) {
+            for (String cookie : cookies) {
+                if (cookie.startsWith("sessionID=")) {
+                    renewed = cookie.substring("sessionID=".length()).split(";")[0];
+                }
+            }
+        }
+        return new HttpResult(status, response, renewed);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream ret = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                ret.write(buffer, 0, read);
+            }
+            return new String(ret.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String read(Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "(no server log)";
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    // ----------------- Virtual users ------------------------
+
+    /**
+     * One user of the server, with its own session and team. Only its own thread touches it until the run is over.
+     */
+    private class VirtualUser {
+        private final int index;
+        private final String email;
+        private final String password = random(44); //The hashed master password
+
+        private String sessionID;
+        private int uid;
+        private int tid;
+        private int partner; //The user it adds to its team and removes again
+        private int teamStep = 0; //Where it is in adding, changing and removing the partner
+        private final List<Integer> entryIds = new ArrayList<>();
+
+        //Latencies in microseconds and failures of every route, after the warmup
+        private final Map<String, IntList.Builder> latencies = new HashMap<>();
+        private final Map<String, Integer> failures = new HashMap<>();
+
+        private VirtualUser(int index) {
+            this.index = index;
+            this.email = "vu" + index + "@load.test";
+        }
+
+        /**
+         * Signs up, logs in and creates the team. Fails the run if anything goes wrong.
+         */
+        private void setUp() throws IOException {
+            expect(call("POST /verification", "POST", "/verification", json("email", email)));
+            JsonObject user = new JsonObject();
+            user.addProperty("code", email); //verifyFlag is off, so the code is the email
+            user.addProperty("hashedMasterPassword", password);
+            for (String field : new String[]{"firstName", "lastName", "masterPasswordSalt",
+                    "encKeyDerivationSalt", "macKeyDerivationSalt", "publicKeyMAC", "encIv"}) {
+                user.addProperty(field, random(24));
+            }
+            user.addProperty("publicKey", random(392));
+            user.addProperty("privateKey", random(1644));
+            uid = Integer.parseInt(expect(call("POST /users", "POST", "/users", user.toString())).trim());
+
+            login();
+            JsonObject team = new JsonObject();
+            team.addProperty("teamName", "Team " + index);
+            team.addProperty("teamKey", random(344));
+            tid = Integer.parseInt(expect(call("POST /teams", "POST", "/teams", team.toString())).trim());
+
+            for (int i = 0; i < entries; i++) {
+                createEntry();
+            }
+        }
+
+        private void loop() {
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            while (!stopped) {
+                int pick = r.nextInt(weights[weights.length - 1]);
+                int i = 0;
+                while (weights[i] <= pick) {
+                    i++;
+                }
+
+                try {
+                    run(operations[i]);
+                    if (think > 0) {
+                        Thread.sleep(think);
+                    }
+                } catch (IOException e) {
+                    if (!stopped) {
+                        System.err.println(Thread.currentThread().getName() + ": " + e);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void run(String operation) throws IOException {
+            switch (operation) {
+                case "login":
+                    login();
+                    break;
+                case "teams":
+                    call("GET /teams", "GET", "/teams", null);
+                    break;
+                case "entries":
+                    call("GET /teams/:teamid/entries", "GET", "/teams/" + tid + "/entries", null);
+                    break;
+                case "create":
+                    createEntry();
+                    break;
+                case "delete":
+                    if (entryIds.size() <= 1) {
+                        createEntry();
+                    } else {
+                        int eid = entryIds.remove(entryIds.size() - 1);
+                        call("DELETE /teams/:teamid/entries/:entryid", "DELETE",
+                                "/teams/" + tid + "/entries/" + eid, null);
+                    }
+                    break;
+                case "edit":
+                    editEntry();
+                    break;
+                case "team":
+                    changeTeam();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation " + operation);
+            }
+        }
+
+        private void login() throws IOException {
+            expect(call("POST /login1", "POST", "/login1", json("email", email)));
+            JsonObject login = new JsonObject();
+            login.addProperty("email", email);
+            login.addProperty("hashedMasterPassword", password);
+            login.addProperty("code", ""); //Not checked with verifyFlag off
+            expect(call("POST /login2", "POST", "/login2", login.toString()));
+        }
+
+        private void createEntry() throws IOException {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("title", random(32));
+            entry.addProperty("username", random(32));
+            entry.addProperty("password", random(44));
+            entry.addProperty("iv", random(24));
+            HttpResult res = call("POST /teams/:teamid/entries", "POST", "/teams/" + tid + "/entries",
+                    entry.toString());
+            if (res.status == 200) {
+                entryIds.add(Integer.parseInt(res.body.trim()));
+            }
+        }
+
+        private void editEntry() throws IOException {
+            if (entryIds.isEmpty()) {
+                createEntry();
+                return;
+            }
+
+            int eid = entryIds.get(ThreadLocalRandom.current().nextInt(entryIds.size()));
+            JsonObject entry = new JsonObject();
+            if (ThreadLocalRandom.current().nextBoolean()) {
+                entry.addProperty("password", random(44));
+                entry.addProperty("iv", random(24));
+                call("POST /teams/:teamid/entries/:entryid/secure", "POST",
+                        "/teams/" + tid + "/entries/" + eid + "/secure", entry.toString());
+            } else {
+                entry.addProperty("title", random(32));
+                entry.addProperty("username", random(32));
+                call("POST /teams/:teamid/entries/:entryid/modify", "POST",
+                        "/teams/" + tid + "/entries/" + eid + "/modify", entry.toString());
+            }
+        }
+
+        /**
+         * Takes the next step of adding the partner to the team, changing their permissions and key and removing them
+         */
+        private void changeTeam() throws IOException {
+            JsonObject change = new JsonObject();
+            change.addProperty("uid", partner);
+            change.addProperty("tid", tid);
+            switch (teamStep) {
+                case 0:
+                    change.addProperty("permissions", UserPermissions.READ.name());
+                    change.addProperty("teamKey", random(344));
+                    call("POST /teams/modify/adduser", "POST", "/teams/modify/adduser", change.toString());
+                    break;
+                case 1:
+                    change.addProperty("permissions", UserPermissions.WRITE.name());
+                    call("POST /teams/modify/permissions", "POST", "/teams/modify/permissions", change.toString());
+                    break;
+                case 2:
+                    change.addProperty("teamKey", random(344));
+                    call("POST /teams/modify/key", "POST", "/teams/modify/key", change.toString());
+                    break;
+                default:
+                    call("DELETE /teams/:teamid/users/:userid", "DELETE",
+                            "/teams/" + tid + "/users/" + partner, null);
+            }
+            teamStep = (teamStep + 1) % 4;
+        }
+
+        /**
+         * Sends a request with the session of this user, and records how long it took under the name of its route
+         */
+        private HttpResult call(String route, String method, String path, String body) throws IOException {
+            long start = System.nanoTime();
+            HttpResult res;
+            try {
+                res = request(method, path, body, sessionID);
+            } catch (IOException e) {
+                failed(route);
+                throw e;
+            }
+            long micros = (System.nanoTime() - start) / 1000;
+
+            if (res.sessionID != null) {
+                sessionID = res.sessionID;
+            }
+            if (recording) {
+                latencies.computeIfAbsent(route, r -> new IntList.Builder()).add((int) Math.min(micros, Integer.MAX_VALUE));
+                if (res.status >= 400) {
+                    failed(route);
+                }
+            }
+            return res;
+        }
+
+        private void failed(String route) {
+            if (recording) {
+                failures.merge(route, 1, Integer::sum);
+            }
+        }
+
+        private String expect(HttpResult res) throws IOException {
+            if (res.status != 200) {
+                throw new IOException("Request failed with status " + res.status + ": " + res.body);
+            }
+            return res.body;
+        }
+    }
+
+    private static String json(String name, String value) {
+        JsonObject ret = new JsonObject();
+        ret.addProperty(name, value);
+        return ret.toString();
+    }
+
+    /**
+     * @return random base64 of the given length, like the encrypted fields the client sends
+     */
+    private static String random(int length) {
+        byte[] bytes = new byte[length * 3 / 4];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    // ----------------- Report ------------------------
+
+    private void report(List<VirtualUser> vus, double seconds) throws IOException {
+        Map<String, IntList.Builder> merged = new TreeMap<>();
+        Map<String, Integer> failures = new TreeMap<>();
+        for (VirtualUser vu : vus) {
+            vu.latencies.forEach((route, l) -> {
+                IntList.Builder all = merged.computeIfAbsent(route, r -> new IntList.Builder());
+                for (int micros : l.build().toIntArray()) {
+                    all.add(micros);
+                }
+            });
+            vu.failures.forEach((route, n) -> failures.merge(route, n, Integer::sum));
+        }
+
+        JsonArray results = new JsonArray();
+        IntList.Builder total = new IntList.Builder();
+        System.out.println();
+        System.out.printf("%d virtual users for %.1f s, server threads: %s%n", users, seconds,
+                options.getOrDefault("threads", Integer.toString(Constants.MAX_THREADS)));
+        System.out.printf("%-45s %8s %7s %9s %9s %9s %9s %9s %9s%n", "Route", "Requests", "Failed", "Req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "Max ms");
+        for (Map.Entry<String, IntList.Builder> route : merged.entrySet()) {
+            int[] sorted = route.getValue().build().toIntArray();
+            for (int micros : sorted) {
+                total.add(micros);
+            }
+            results.add(line(route.getKey(), sorted, failures.getOrDefault(route.getKey(), 0), seconds));
+        }
+        int allFailures = failures.values().stream().mapToInt(Integer::intValue).sum();
+        results.add(line("Total", total.build().toIntArray(), allFailures, seconds));
+
+        String out = options.get("out");
+        if (out != null) {
+            JsonObject json = new JsonObject();
+            json.addProperty("users", users);
+            json.addProperty("seconds", seconds);
+            json.addProperty("threads", options.getOrDefault("threads", Integer.toString(Constants.MAX_THREADS)));
+            json.addProperty("mix", Arrays.stream(operations).collect(Collectors.joining(",")));
+            json.add("routes", results);
+            FileOperations.writeToFile(out, json.toString());
+            System.out.println("Results written to " + out);
+        }
+    }
+
+    /**
+     * Prints the line of a route
+     *
+     * @return the same as JSON
+     */
+    private static JsonObject line(String route, int[] micros, int failures, double seconds) {
+        Arrays.sort(micros);
+        double throughput = micros.length / seconds;
+        System.out.printf("%-45s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", route, micros.length, failures,
+                throughput, percentile(micros, 0.5), percentile(micros, 0.9), percentile(micros, 0.99),
+                percentile(micros, 0.999), percentile(micros, 1));
+
+        JsonObject ret = new JsonObject();
+        ret.addProperty("route", route);
+        ret.addProperty("requests", micros.length);
+        ret.addProperty("failures", failures);
+        ret.addProperty("throughput", throughput);
+        ret.addProperty("p50", percentile(micros, 0.5));
+        ret.addProperty("p90", percentile(micros, 0.9));
+        ret.addProperty("p99", percentile(micros, 0.99));
+        ret.addProperty("p999", percentile(micros, 0.999));
+        ret.addProperty("max", percentile(micros, 1));
+        return ret;
+    }
+
+    /**
+     * @return the latency in milliseconds that the given fraction of the sorted latencies is at or below
+     */
+    private static double percentile(int[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000.0;
+    }
+}
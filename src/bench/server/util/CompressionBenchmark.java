@@ -0,0 +1,110 @@
+package bench.server.util;
+
+import com.google.gson.Gson;
+import main.java.server.json.response.FullEntry;
+import main.java.server.util.CompressionSettings;
+import main.java.server.util.StaticAssets;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What gzip costs and saves, at each level, for the biggest static file and for a page of entries as
+ * GET /teams/:teamid/entries sends it.
+ * <p>
+ * The bytes counter is the number of uncompressed bytes gzipped per second, so one over it is the CPU time per byte.
+ * The compressed sizes, and what the static files add up to on a first visit with and without gzip, are printed
+ * during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({"1", "6", "9"})
+    public int level;
+
+    private byte[] script;
+    private byte[] entries;
+
+    /**
+     * Counts the bytes that went in to gzip
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        StaticAssets assets = new StaticAssets("/ui", new CompressionSettings());
+        long raw = 0;
+        long gzipped = 0;
+        for (String path : assets.getPaths()) {
+            StaticAssets.Asset asset = assets.getAsset(path);
+            raw += asset.bytes.length;
+            gzipped += asset.gzipped == null ? asset.bytes.length : asset.gzipped.length;
+        }
+        System.out.println();
+        System.out.println("First visit: " + raw + " bytes, " + gzipped + " bytes gzipped");
+
+        script = assets.getAsset("/static/forge.min.js").bytes;
+
+        //The secure fields are encrypted and base64 encoded, like the client sends them
+        Random random = new Random(42);
+        List<FullEntry> page = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            page.add(new FullEntry(i, encrypted(random, 32), encrypted(random, 32), encrypted(random, 48),
+                    encrypted(random, 16)));
+        }
+        entries = new Gson().toJson(page).getBytes(StandardCharsets.UTF_8);
+
+        System.out.println("forge.min.js: " + script.length + " bytes, " + StaticAssets.gzip(script, level).length
+                + " bytes at level " + level);
+        System.out.println("500 entries: " + entries.length + " bytes, " + StaticAssets.gzip(entries, level).length
+                + " bytes at level " + level);
+    }
+
+    private static String encrypted(Random random, int length) {
+        byte[] ret = new byte[length];
+        random.nextBytes(ret);
+        return Base64.getEncoder().encodeToString(ret);
+    }
+
+    @Benchmark
+    public byte[] gzipScript(Bytes counter) {
+        counter.bytes += script.length;
+        return StaticAssets.gzip(script, level);
+    }
+
+    @Benchmark
+    public byte[] gzipEntries(Bytes counter) {
+        counter.bytes += entries.length;
+        return StaticAssets.gzip(entries, level);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(CompressionBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
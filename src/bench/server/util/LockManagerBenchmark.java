@@ -0,0 +1,109 @@
+package bench.server.util;
+
+import main.java.server.util.LockManager;
+import main.java.util.Constants;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Contention benchmark comparing the old global request monitor against the striped LockManager.
+ * <p>
+ * Each operation is a simulated request on a random team. Writes hold the team lock while "working", which is
+ * modelled as a short blocking wait since requests mostly block on SQLite, Hibernate or SMTP. Reads only take the
+ * global monitor in the "global" mode, mirroring the old synchronized request handler.
+ * <p>
+ * Run the main method to sweep the thread count and print throughput for each mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class LockManagerBenchmark {
+    /**
+     * The thread counts to sweep in main
+     */
+    private static final int[] threadCounts = {1, 2, 4, 8, 16, 32, Constants.MAX_THREADS};
+
+    /**
+     * "global" is a single monitor for every request, "striped" is the LockManager
+     */
+    @Param({"global", "striped"})
+    public String mode;
+
+    /**
+     * Number of distinct teams the requests are spread over
+     */
+    @Param({"1000"})
+    public int teams;
+
+    /**
+     * Percentage of the requests that are reads
+     */
+    @Param({"90"})
+    public int readPercent;
+
+    /**
+     * Simulated time spent inside a request in microseconds
+     */
+    @Param({"100"})
+    public int workMicros;
+
+    private final Object monitor = new Object();
+    private LockManager locks;
+
+    @Setup
+    public void setUp() {
+        locks = new LockManager();
+    }
+
+    @Benchmark
+    public void request() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int tid = random.nextInt(teams);
+        boolean read = random.nextInt(100) < readPercent;
+
+        if (mode.equals("global")) {
+            synchronized (monitor) {
+                work();
+            }
+        } else if (read) {
+            work();
+        } else {
+            try (LockManager.Locks ignored = locks.lockTeam(tid)) {
+                work();
+            }
+        }
+    }
+
+    private void work() {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(workMicros));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        StringBuilder report = new StringBuilder(String.format("%-8s %8s %14s%n", "mode", "threads", "ops/s"));
+
+        for (int threads : threadCounts) {
+            Options opt = new OptionsBuilder()
+                    .include(LockManagerBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+
+            for (RunResult result : new Runner(opt).run()) {
+                report.append(String.format("%-8s %8d %14.0f%n", result.getParams().getParam("mode"), threads,
+                        result.getPrimaryResult().getScore()));
+            }
+        }
+
+        System.out.println(report);
+    }
+}
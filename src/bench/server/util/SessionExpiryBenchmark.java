@@ -0,0 +1,125 @@
+package bench.server.util;
+
+import main.java.server.util.ExpiryScheduler;
+import main.java.util.Constants;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of expiring sessions with one million live sessions, once per second.
+ * <p>
+ * fullScan is the old reaper, which looked at every session every second. wheelTick is one tick of the
+ * ExpiryScheduler. Every session stays active, so each tick reschedules the sessions whose old deadline came up,
+ * which is the worst case for the wheel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class SessionExpiryBenchmark {
+    private static final int sessions = 1000000;
+    private static final long tick = 1000;
+
+    @State(Scope.Benchmark)
+    public static class ScanState {
+        private final Map<String, Session> sessionIDs = new ConcurrentHashMap<>();
+
+        @Setup
+        public void setUp() {
+            Random random = new Random(0);
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < sessions; i++) {
+                sessionIDs.put(Integer.toString(i, 32), new Session(now - random.nextInt((int) Constants.MAX_INACTIVE_TIME / 2)));
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class WheelState {
+        private ExpiryScheduler scheduler;
+        private long now;
+
+        @Setup
+        public void setUp() {
+            scheduler = new ExpiryScheduler(tick, 1024, false);
+            now = System.currentTimeMillis();
+
+            Random random = new Random(0);
+            for (int i = 0; i < sessions; i++) {
+                scheduler.schedule(new ActiveSession(this, now + random.nextInt((int) Constants.MAX_INACTIVE_TIME)));
+            }
+        }
+    }
+
+    @Benchmark
+    public void fullScan(ScanState state, Blackhole bh) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Session> entry : state.sessionIDs.entrySet()) {
+            if (now - entry.getValue().lastActiveTime >= Constants.MAX_INACTIVE_TIME) {
+                state.sessionIDs.remove(entry.getKey());
+            }
+            bh.consume(entry);
+        }
+    }
+
+    @Benchmark
+    public int wheelTick(WheelState state) {
+        state.now += tick;
+        state.scheduler.advance(state.now);
+        return state.scheduler.size();
+    }
+
+    /**
+     * A session as the old reaper saw it
+     */
+    private static class Session {
+        private volatile long lastActiveTime;
+
+        private Session(long lastActiveTime) {
+            this.lastActiveTime = lastActiveTime;
+        }
+    }
+
+    /**
+     * A session that is used all the time, so it never expires
+     */
+    private static class ActiveSession implements ExpiryScheduler.Expiring {
+        private final WheelState state;
+        private long expiresAt;
+
+        private ActiveSession(WheelState state, long expiresAt) {
+            this.state = state;
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public long expiresAt() {
+            if (expiresAt <= state.now) {
+                expiresAt = state.now + Constants.MAX_INACTIVE_TIME; //Refreshed since it was scheduled
+            }
+            return expiresAt;
+        }
+
+        @Override
+        public void expire() {
+            throw new IllegalStateException("Active sessions should not expire");
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SessionExpiryBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
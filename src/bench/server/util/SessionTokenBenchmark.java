@@ -0,0 +1,68 @@
+package bench.server.util;
+
+import main.java.server.util.ExpiryScheduler;
+import main.java.server.util.MemorySessionManager;
+import main.java.server.util.SessionManager;
+import main.java.server.util.SignedSessionManager;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of looking up the user of a session id, which every request does.
+ * <p>
+ * memoryLookup finds the session in the map of the MemorySessionManager. signedVerify decodes a signed token and
+ * checks its HMAC, expiry and the revocation set. Run with -prof gc to see the allocations per lookup. Both only
+ * allocate the Optional they return (and the Integer, for uids above 127).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionTokenBenchmark {
+    private static final int sessions = 10000;
+
+    private SessionManager memory;
+    private SessionManager signed;
+    private String memorySID;
+    private String signedSID;
+
+    @Setup
+    public void setUp() {
+        ExpiryScheduler scheduler = new ExpiryScheduler(1000, 1024, false);
+        memory = new MemorySessionManager(scheduler);
+        signed = new SignedSessionManager(new byte[32], scheduler);
+
+        for (int i = 0; i < sessions; i++) {
+            memorySID = memory.generateSID(i);
+            signedSID = signed.generateSID(i);
+            if (i % 10 == 0) { //Some logged out sessions, so the revocation set is not empty
+                signed.removeSessionID(signedSID);
+            }
+        }
+    }
+
+    @Benchmark
+    public Optional<Integer> memoryLookup() {
+        return memory.getUID(memorySID);
+    }
+
+    @Benchmark
+    public Optional<Integer> signedVerify() {
+        return signed.getUID(signedSID);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SessionTokenBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
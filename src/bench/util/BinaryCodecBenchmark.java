@@ -0,0 +1,121 @@
+package bench.util;
+
+import main.java.model.UserPermissions;
+import main.java.model.info.EntryInfo;
+import main.java.model.info.TeamUserInfo;
+import main.java.model.info.UserInfo;
+import main.java.util.BinaryCodec;
+import main.java.util.Serializer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the BinaryCodec against Java serialization through the Serializer for the blobs we store.
+ * <p>
+ * The main method prints the size of each blob in both formats before running the benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class BinaryCodecBenchmark {
+    private static final UserInfo user = new UserInfo("Michael", "Clarkson",
+            "5e884898da28047151d0e56f8dc6292773603d0d6aabbdd62a11ef721d1542d8", "0123456789abcdef0123456789abcdef",
+            "fedcba9876543210fedcba9876543210", "00112233445566778899aabbccddeeff", repeat("public", 60),
+            "0f1e2d3c4b5a69788796a5b4c3d2e1f0", "a1b2c3d4e5f60718293a4b5c6d7e8f90", repeat("private", 240));
+    private static final EntryInfo entry = new EntryInfo("Facebook", "mrc26@cornell.edu",
+            "Zm9vYmFyYmF6cXV4cXV1eGNvcmdl", "a1b2c3d4e5f60718293a4b5c6d7e8f90");
+    private static final TeamUserInfo teamUser = new TeamUserInfo(UserPermissions.WRITE, repeat("key", 120));
+
+    /**
+     * Which blob to encode and decode
+     */
+    @Param({"user", "entry", "teamUser"})
+    public String type;
+
+    private Object info;
+    private byte[] javaBlob;
+    private byte[] binaryBlob;
+
+    @Setup
+    public void setUp() throws Serializer.SerializationException {
+        info = info(type);
+        javaBlob = Serializer.serialize(info);
+        binaryBlob = encode(info);
+    }
+
+    @Benchmark
+    public byte[] encodeJava() throws Serializer.SerializationException {
+        return Serializer.serialize(info);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return encode(info);
+    }
+
+    @Benchmark
+    public Object decodeJava() throws Serializer.SerializationException {
+        return Serializer.deserialize(javaBlob);
+    }
+
+    @Benchmark
+    public Object decodeBinary() throws Serializer.SerializationException {
+        switch (type) {
+            case "user":
+                return BinaryCodec.decodeUser(binaryBlob);
+            case "entry":
+                return BinaryCodec.decodeEntry(binaryBlob);
+            default:
+                return BinaryCodec.decodeTeamUser(binaryBlob);
+        }
+    }
+
+    private static Object info(String type) {
+        switch (type) {
+            case "user":
+                return user;
+            case "entry":
+                return entry;
+            default:
+                return teamUser;
+        }
+    }
+
+    private static byte[] encode(Object info) {
+        if (info instanceof UserInfo) {
+            return BinaryCodec.encode((UserInfo) info);
+        } else if (info instanceof EntryInfo) {
+            return BinaryCodec.encode((EntryInfo) info);
+        }
+        return BinaryCodec.encode((TeamUserInfo) info);
+    }
+
+    private static String repeat(String s, int length) {
+        StringBuilder ret = new StringBuilder();
+        while (ret.length() < length) {
+            ret.append(s);
+        }
+        return ret.substring(0, length);
+    }
+
+    public static void main(String[] args) throws RunnerException, Serializer.SerializationException {
+        System.out.println(String.format("%-10s %10s %10s", "type", "java", "binary"));
+        for (String type : new String[]{"user", "entry", "teamUser"}) {
+            Object info = info(type);
+            System.out.println(String.format("%-10s %10d %10d", type, Serializer.serialize(info).length, encode(info).length));
+        }
+
+        Options opt = new OptionsBuilder()
+                .include(BinaryCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
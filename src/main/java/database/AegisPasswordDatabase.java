@@ -5,23 +5,26 @@ import main.java.model.*;
 import main.java.model.info.EntryInfo;
 import main.java.model.info.TeamInfo;
 import main.java.model.info.TeamUserInfo;
+import main.java.util.IntList;
+import main.java.util.IntMap;
 import main.java.util.Serializer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.function.Function;
 
 /**
  * The primary database for storing user, table, and entry info.
  * <p>
  * Note that internally there are a lot of helper methods. In general, these methods are for
- * using as a lambda to pass onto runAsTransaction (private method in AegisPasswordDatabase)
+ * using as a lambda to pass onto runAsTransaction or runAsReadTransaction (private methods in AegisPasswordDatabase)
  */
 public class AegisPasswordDatabase implements PasswordDatabase {
-    //The con to the database. All tables should use this con too
-    private final Connection con;
+    //The connections to the database. All tables should use these connections too
+    private final ConnectionManager connections;
 
     //Tables
     private final UserTable userTable;
@@ -29,6 +32,7 @@ public class AegisPasswordDatabase implements PasswordDatabase {
     private final EntryTable entryTable;
     private final TeamEntryTable teamEntryTable;
     private final TeamUserTable teamUserTable;
+    private final ChangeTable changeTable;
 
     /**
      * List of all the tables for convenience.
@@ -36,25 +40,30 @@ public class AegisPasswordDatabase implements PasswordDatabase {
     private final List<AbstractTable> tables;
 
     /**
+     * Opens the database with the default settings.
+     *
      * @param file The file name
      * @throws SQLException A
      */
     public AegisPasswordDatabase(@NotNull String file) throws SQLException {
-        try {
-            Class.forName("org.sqlite.JDBC");
-        } catch (ClassNotFoundException e) {
-            System.err.println("Getting this error probably means you do not have JDBC setup");
-            e.printStackTrace();
-        }
+        this(file, new DatabaseSettings());
+    }
 
-        con = DriverManager.getConnection("jdbc:sqlite:" + file);
+    /**
+     * @param file     The file name
+     * @param settings Settings for the connections to the database
+     * @throws SQLException A
+     */
+    public AegisPasswordDatabase(@NotNull String file, @NotNull DatabaseSettings settings) throws SQLException {
+        connections = new ConnectionManager(file, settings);
 
         //setup tables
-        userTable = new UserTable(con);
-        teamTable = new TeamTable(con);
-        entryTable = new EntryTable(con);
-        teamEntryTable = new TeamEntryTable(con);
-        teamUserTable = new TeamUserTable(con);
+        userTable = new UserTable(connections);
+        teamTable = new TeamTable(connections);
+        entryTable = new EntryTable(connections);
+        teamEntryTable = new TeamEntryTable(connections);
+        teamUserTable = new TeamUserTable(connections);
+        changeTable = new ChangeTable(connections);
 
         //Add tables to list
         tables = new ArrayList<>();
@@ -63,19 +72,68 @@ public class AegisPasswordDatabase implements PasswordDatabase {
         tables.add(entryTable);
         tables.add(teamEntryTable);
         tables.add(teamUserTable);
+        tables.add(changeTable);
+
+        //A new database has no tables yet. Those are set up by reset, which also runs the migrations
+        if (userTable.exists()) {
+            try {
+                migrate(false);
+            } catch (SQLException e) {
+                connections.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Runs the schema migrations the database does not have yet.
+     *
+     * @param fromScratch if to run every migration, regardless of the version of the database
+     * @throws SQLException if a migration failed
+     */
+    private void migrate(boolean fromScratch) throws SQLException {
+        Connection con = connections.beginWrite();
+        try {
+            if (fromScratch) {
+                SchemaMigrations.setVersion(con, 0);
+            }
+
+            if (SchemaMigrations.migrate(con) > 0 && !fromScratch) {
+                System.err.println("Migrated the database to schema version " + SchemaMigrations.latestVersion());
+            }
+        } finally {
+            connections.end();
+        }
     }
 
     /**
-     * Closes the connection to the database.
+     * Closes the connections to the database.
      *
      * @throws SQLException
      */
     public void close() throws SQLException {
-        con.close();
+        connections.close();
+    }
+
+    /**
+     * @return the number of times a cached prepared statement was reused
+     */
+    public long getStatementCacheHits() {
+        return connections.getStatementCacheHits();
+    }
+
+    /**
+     * @return the number of times a statement had to be prepared because it was not in the statement cache
+     */
+    public long getStatementCacheMisses() {
+        return connections.getStatementCacheMisses();
     }
 
     @Override
     public void reset() {
+        //Cached statements refer to the old tables
+        connections.clearStatementCaches();
+
         for (AbstractTable t : tables) {
             try {
                 t.dropTable();
@@ -93,13 +151,21 @@ public class AegisPasswordDatabase implements PasswordDatabase {
                 //e.printStackTrace();
             }
         }
+
+        try {
+            migrate(true);
+        } catch (SQLException e) {
+            System.err.println("Was unable to migrate the new tables");
+            //e.printStackTrace();
+        }
     }
 
-    //create methods
+    //create methods. Every write also records what it changed in the change log
     private int createUserHelper(NoIDAegisUser user) throws SQLException, Serializer.SerializationException {
         int uid = userTable.addUser(user);
         for (Map.Entry<Integer, TeamUserInfo> e : user.teams.entrySet()) {
             teamUserTable.addTeamAndUser(e.getKey(), uid, e.getValue());
+            changeTable.changed(Change.Kind.MEMBER, e.getKey(), uid);
         }
         return uid;
     }
@@ -107,20 +173,35 @@ public class AegisPasswordDatabase implements PasswordDatabase {
     private int createEntryHelper(NoIDAegisEntry entry) throws SQLException, Serializer.SerializationException {
         int eid = entryTable.addEntry(entry);
         teamEntryTable.addTeamAndEntry(entry.team, eid);
+        changeTable.changed(Change.Kind.ENTRY, entry.team, eid);
         return eid;
     }
 
     private int createTeamHelper(NoIDAegisTeam team) throws SQLException, Serializer.SerializationException {
         int tid = teamTable.addTeam(team);
+        changeTable.changed(Change.Kind.TEAM, tid, tid);
         for (Map.Entry<Integer, TeamUserInfo> e : team.users.entrySet()) { //users
             teamUserTable.addTeamAndUser(tid, e.getKey(), e.getValue());
+            changeTable.changed(Change.Kind.MEMBER, tid, e.getKey());
         }
         for (int eid : team.entries) { //entries
-            teamEntryTable.addTeamAndEntry(tid, eid);
+            moveEntry(tid, eid);
         }
         return tid;
     }
 
+    /**
+     * Puts an existing entry in the team. If it was in another team, that team sees it leave.
+     */
+    private void moveEntry(int tid, int eid) throws SQLException, Serializer.SerializationException {
+        Integer current = teamEntryTable.getTeams(Collections.singletonList(eid)).get(eid);
+        if (current != null && current != tid) {
+            changeTable.deleted(Change.Kind.ENTRY, current, eid);
+        }
+        teamEntryTable.addTeamAndEntry(tid, eid);
+        changeTable.changed(Change.Kind.ENTRY, tid, eid);
+    }
+
     @Override
     public @NotNull Optional<Integer> createUser(@NotNull NoIDAegisUser user) {
         return runAsTransaction(() -> createUserHelper(user));
@@ -140,7 +221,7 @@ public class AegisPasswordDatabase implements PasswordDatabase {
     //read methods
     private AegisUser readUserHelper(int uid) throws SQLException, Serializer.SerializationException {
         AegisUser temp = userTable.readUser(uid);
-        HashMap<Integer, TeamUserInfo> teams = teamUserTable.getUserPermissions(uid);
+        IntMap<TeamUserInfo> teams = teamUserTable.getUserPermissions(uid);
         return new AegisUser(temp.userInfo, temp.email, teams, temp.id);
     }
 
@@ -157,64 +238,177 @@ public class AegisPasswordDatabase implements PasswordDatabase {
 
     private AegisTeam readTeamHelper(int tid) throws SQLException, Serializer.SerializationException {
         TeamInfo info = teamTable.readTeam(tid);
-        List<Integer> entries = teamEntryTable.getEntries(tid);
-        HashMap<Integer, TeamUserInfo> users = teamUserTable.getTeamPermissions(tid);
+        IntList entries = teamEntryTable.getEntries(tid);
+        IntMap<TeamUserInfo> users = teamUserTable.getTeamPermissions(tid);
         return new AegisTeam(info, entries, users, tid);
     }
 
+    private Map<Integer, AegisUser> readUsersHelper(Collection<Integer> uids) throws SQLException, Serializer.SerializationException {
+        HashMap<Integer, AegisUser> users = userTable.readUsers(uids);
+        HashMap<Integer, IntMap<TeamUserInfo>> teams = teamUserTable.getUserPermissions(users.keySet());
+
+        Map<Integer, AegisUser> ret = new HashMap<>();
+        for (AegisUser temp : users.values()) {
+            ret.put(temp.id, new AegisUser(temp.userInfo, temp.email, teams.get(temp.id), temp.id));
+        }
+        return ret;
+    }
+
+    private Map<Integer, AegisEntry> readEntriesHelper(Collection<Integer> eids) throws SQLException, Serializer.SerializationException {
+        HashMap<Integer, EntryInfo> infos = entryTable.readEntries(eids);
+        HashMap<Integer, Integer> teams = teamEntryTable.getTeams(infos.keySet());
+
+        Map<Integer, AegisEntry> ret = new HashMap<>();
+        for (Map.Entry<Integer, EntryInfo> e : infos.entrySet()) {
+            Integer team = teams.get(e.getKey());
+            if (team == null) {
+                throw new SQLException("Unable to find entry");
+            }
+            ret.put(e.getKey(), new AegisEntry(e.getValue(), team, e.getKey()));
+        }
+        return ret;
+    }
+
+    private Map<Integer, AegisTeam> readTeamsHelper(Collection<Integer> tids) throws SQLException, Serializer.SerializationException {
+        HashMap<Integer, TeamInfo> infos = teamTable.readTeams(tids);
+        HashMap<Integer, IntList> entries = teamEntryTable.getEntries(infos.keySet());
+        HashMap<Integer, IntMap<TeamUserInfo>> users = teamUserTable.getTeamPermissions(infos.keySet());
+
+        Map<Integer, AegisTeam> ret = new HashMap<>();
+        for (Map.Entry<Integer, TeamInfo> e : infos.entrySet()) {
+            int tid = e.getKey();
+            ret.put(tid, new AegisTeam(e.getValue(), entries.get(tid), users.get(tid), tid));
+        }
+        return ret;
+    }
+
     @Override
     public @NotNull Optional<AegisUser> readUser(@NotNull String email) {
-        return runAsTransaction(() -> readUserHelper(email));
+        return runAsReadTransaction(() -> readUserHelper(email));
     }
 
     @Override
     public @NotNull Optional<AegisUser> readUser(int id) {
-        return runAsTransaction(() -> readUserHelper(id));
+        return runAsReadTransaction(() -> readUserHelper(id));
+    }
+
+    @Override
+    public @NotNull Optional<Map<Integer, AegisUser>> readUsers(@NotNull Collection<Integer> ids) {
+        return runAsReadTransaction(() -> readUsersHelper(ids));
     }
 
     @Override
     public @NotNull Optional<AegisEntry> readEntry(int id) {
-        return runAsTransaction(() -> readEntryHelper(id));
+        return runAsReadTransaction(() -> readEntryHelper(id));
+    }
+
+    @Override
+    public @NotNull Optional<Map<Integer, AegisEntry>> readEntries(@NotNull Collection<Integer> ids) {
+        return runAsReadTransaction(() -> readEntriesHelper(ids));
     }
 
     @Override
     public @NotNull Optional<AegisTeam> readTeam(int id) {
-        return runAsTransaction(() -> readTeamHelper(id));
+        return runAsReadTransaction(() -> readTeamHelper(id));
     }
 
+    @Override
+    public @NotNull Optional<Map<Integer, AegisTeam>> readTeams(@NotNull Collection<Integer> ids) {
+        return runAsReadTransaction(() -> readTeamsHelper(ids));
+    }
 
-    //update methods
-    private Success updateUserHelper(AegisUser user) throws SQLException, Serializer.SerializationException {
-        userTable.readUser(user.id); //Test if the user exists. Not sure if necessary
 
-        userTable.updateUser(user);
-        teamUserTable.deleteUser(user.id);
-        for (Map.Entry<Integer, TeamUserInfo> e : user.teams.entrySet()) {
-            teamUserTable.addTeamAndUser(e.getKey(), user.id, e.getValue());
+    //update methods. These only write the rows that actually changed
+    private Success updateUserHelper(AegisUser user) throws SQLException, Serializer.SerializationException {
+        AegisUser stored = userTable.readUser(user.id); //Also fails if the user does not exist
+        if (!stored.email.equals(user.email) || !stored.userInfo.equals(user.userInfo)) {
+            userTable.updateUser(user);
+        }
+        boolean visible = !stored.email.equals(user.email) ||
+                !stored.userInfo.firstName.equals(user.userInfo.firstName) ||
+                !stored.userInfo.lastName.equals(user.userInfo.lastName) ||
+                !stored.userInfo.publicKey.equals(user.userInfo.publicKey);
+
+        IntMap<TeamUserInfo> current = teamUserTable.getUserPermissions(user.id);
+        for (int tid : current.keyArray()) {
+            if (!user.teams.containsKey(tid)) {
+                teamUserTable.deleteTeamAndUser(tid, user.id);
+                changeTable.deleted(Change.Kind.MEMBER, tid, user.id);
+            }
+        }
+        for (int tid : user.teams.keyArray()) {
+            if (syncMember(tid, user.id, current.get(tid), user.teams.get(tid))) {
+                changeTable.changed(Change.Kind.MEMBER, tid, user.id); //Sends the user along with the membership
+            } else if (visible) {
+                changeTable.changed(Change.Kind.USER, tid, user.id);
+            }
         }
         return Success.get();
     }
 
     private Success updateTeamHelper(AegisTeam team) throws SQLException, Serializer.SerializationException {
-        teamTable.readTeam(team.id); //Test if the team exists. Not sure if necessary
+        teamTable.updateTeam(team); //Also fails if the team does not exist
+        changeTable.changed(Change.Kind.TEAM, team.id, team.id);
+
+        IntMap<TeamUserInfo> currentUsers = teamUserTable.getTeamPermissions(team.id);
+        for (int uid : currentUsers.keyArray()) {
+            if (!team.users.containsKey(uid)) {
+                teamUserTable.deleteTeamAndUser(team.id, uid);
+                changeTable.deleted(Change.Kind.MEMBER, team.id, uid);
+            }
+        }
+        for (int uid : team.users.keyArray()) {
+            if (syncMember(team.id, uid, currentUsers.get(uid), team.users.get(uid))) {
+                changeTable.changed(Change.Kind.MEMBER, team.id, uid);
+            }
+        }
 
-        teamTable.updateTeam(team);
-        teamUserTable.deleteTeam(team.id);
-        teamEntryTable.deleteTeam(team.id);
-        for (Map.Entry<Integer, TeamUserInfo> e : team.users.entrySet()) { //users
-            teamUserTable.addTeamAndUser(team.id, e.getKey(), e.getValue());
+        int[] currentEntries = teamEntryTable.getEntries(team.id).toIntArray();
+        int[] entries = team.entries.toIntArray();
+        Arrays.sort(currentEntries);
+        Arrays.sort(entries);
+        for (int eid : currentEntries) {
+            if (Arrays.binarySearch(entries, eid) < 0) {
+                teamEntryTable.deleteEntry(eid);
+                changeTable.deleted(Change.Kind.ENTRY, team.id, eid);
+            }
         }
-        for (int eid : team.entries) { //entries
-            teamEntryTable.addTeamAndEntry(team.id, eid);
+        for (int i = 0; i < team.entries.size(); i++) { //In the order of the team, which is the order they are read in
+            int eid = team.entries.getInt(i);
+            if (Arrays.binarySearch(currentEntries, eid) < 0) {
+                moveEntry(team.id, eid);
+            }
         }
         return Success.get();
     }
 
+    /**
+     * Writes the TeamAndUser row for tid and uid if it differs from what is in the database
+     *
+     * @param current the info currently in the database, or null if there is no row
+     * @param updated the info that should be in the database
+     * @return true if the row was written
+     */
+    private boolean syncMember(int tid, int uid, @Nullable TeamUserInfo current, TeamUserInfo updated) throws SQLException, Serializer.SerializationException {
+        if (current == null) {
+            teamUserTable.addTeamAndUser(tid, uid, updated);
+            return true;
+        } else if (!current.equals(updated)) {
+            teamUserTable.updateTeamAndUser(tid, uid, updated);
+            return true;
+        }
+        return false;
+    }
+
     private Success updateEntryHelper(AegisEntry entry) throws SQLException, Serializer.SerializationException {
-        entryTable.readEntry(entry.id); //Test if the entry exists. Not sure if necessary
+        entryTable.updateEntry(entry); //Also fails if the entry does not exist
 
-        entryTable.updateEntry(entry);
-        teamEntryTable.addTeamAndEntry(entry.team, entry.id);
+        Integer team = teamEntryTable.getTeams(Collections.singletonList(entry.id)).get(entry.id);
+        if (team == null || team != entry.team) {
+            moveEntry(entry.team, entry.id);
+        } else {
+            changeTable.changed(Change.Kind.ENTRY, entry.team, entry.id);
+        }
         return Success.get();
     }
 
@@ -235,22 +429,37 @@ public class AegisPasswordDatabase implements PasswordDatabase {
 
 
     //delete methods
-    private Success deleteUserHelper(int uid) throws SQLException {
+    private Success deleteUserHelper(int uid) throws SQLException, Serializer.SerializationException {
+        int[] teams = teamUserTable.getUserPermissions(uid).keyArray();
         userTable.deleteUser(uid);
         teamUserTable.deleteUser(uid);
+        for (int tid : teams) {
+            changeTable.deleted(Change.Kind.MEMBER, tid, uid);
+        }
         return Success.get();
     }
 
-    private Success deleteTeamHelper(int tid) throws SQLException {
+    private Success deleteTeamHelper(int tid) throws SQLException, Serializer.SerializationException {
+        int[] users = teamUserTable.getTeamPermissions(tid).keyArray();
         teamTable.deleteTeam(tid);
         teamUserTable.deleteTeam(tid);
         teamEntryTable.deleteTeam(tid);
+
+        //Nobody can see the changes of the team anymore. Its members only need to find out that they left it
+        changeTable.deleteTeam(tid);
+        for (int uid : users) {
+            changeTable.deleted(Change.Kind.MEMBER, tid, uid);
+        }
         return Success.get();
     }
 
-    private Success deleteEntryHelper(int eid) throws SQLException {
+    private Success deleteEntryHelper(int eid) throws SQLException, Serializer.SerializationException {
+        Integer team = teamEntryTable.getTeams(Collections.singletonList(eid)).get(eid);
         entryTable.deleteEntry(eid);
         teamEntryTable.deleteEntry(eid);
+        if (team != null) {
+            changeTable.deleted(Change.Kind.ENTRY, team, eid);
+        }
         return Success.get();
     }
 
@@ -270,6 +479,101 @@ public class AegisPasswordDatabase implements PasswordDatabase {
     }
 
 
+    //team membership methods
+    private Success addMemberHelper(int tid, int uid, TeamUserInfo info) throws SQLException, Serializer.SerializationException {
+        teamTable.readTeam(tid); //Test if the team exists
+        userTable.readUser(uid); //Test if the user exists
+
+        if (teamUserTable.getTeamAndUser(tid, uid) != null) {
+            throw new SQLException("User is already on the team");
+        }
+
+        teamUserTable.addTeamAndUser(tid, uid, info);
+        changeTable.changed(Change.Kind.MEMBER, tid, uid);
+        return Success.get();
+    }
+
+    private Success removeMemberHelper(int tid, int uid) throws SQLException {
+        if (!teamUserTable.deleteTeamAndUser(tid, uid)) {
+            throw new SQLException("User is not in the team");
+        }
+        changeTable.deleted(Change.Kind.MEMBER, tid, uid);
+        return Success.get();
+    }
+
+    /**
+     * Replaces the info of a user on a team with change applied to it
+     */
+    private Success updateMemberHelper(int tid, int uid, Function<TeamUserInfo, TeamUserInfo> change) throws SQLException, Serializer.SerializationException {
+        TeamUserInfo info = teamUserTable.getTeamAndUser(tid, uid);
+        if (info == null || !teamUserTable.updateTeamAndUser(tid, uid, change.apply(info))) {
+            throw new SQLException("User is not in the team");
+        }
+        changeTable.changed(Change.Kind.MEMBER, tid, uid);
+        return Success.get();
+    }
+
+    @Override
+    public boolean addMember(int tid, int uid, @NotNull TeamUserInfo info) {
+        return runAsTransaction(() -> addMemberHelper(tid, uid, info)).isPresent();
+    }
+
+    @Override
+    public boolean removeMember(int tid, int uid) {
+        return runAsTransaction(() -> removeMemberHelper(tid, uid)).isPresent();
+    }
+
+    @Override
+    public boolean setPermission(int tid, int uid, @NotNull UserPermissions permissions) {
+        return runAsTransaction(() -> updateMemberHelper(tid, uid, info -> info.withPermissions(permissions))).isPresent();
+    }
+
+    @Override
+    public boolean setTeamKey(int tid, int uid, @NotNull String teamKey) {
+        return runAsTransaction(() -> updateMemberHelper(tid, uid, info -> info.withTeamKey(teamKey))).isPresent();
+    }
+
+
+    //vault methods
+    private AegisVault readVaultHelper(int uid) throws SQLException, Serializer.SerializationException {
+        AegisUser user = readUserHelper(uid);
+        HashMap<Integer, TeamInfo> teams = teamTable.readTeams(user.teams.keySet());
+        HashMap<Integer, List<AegisEntry>> entries = entryTable.readUserEntries(uid);
+        return new AegisVault(user, teams, entries);
+    }
+
+    @Override
+    public @NotNull Optional<AegisVault> readVault(int uid) {
+        return runAsReadTransaction(() -> readVaultHelper(uid));
+    }
+
+
+    //change log methods
+    private ChangeLog readChangesHelper(int uid, long since) throws SQLException, Serializer.SerializationException {
+        long seq = changeTable.getSequence();
+        List<Change> changes = changeTable.getMemberChanges(uid, since);
+        for (int tid : teamUserTable.getUserPermissions(uid).keyArray()) {
+            for (Change c : changeTable.getChanges(tid, since)) {
+                if (c.kind != Change.Kind.MEMBER || c.id != uid) { //Already have those
+                    changes.add(c);
+                }
+            }
+        }
+        changes.sort(Comparator.comparingLong(c -> c.seq));
+        return new ChangeLog(seq, changes);
+    }
+
+    @Override
+    public @NotNull Optional<Long> readSequence() {
+        return runAsReadTransaction(changeTable::getSequence);
+    }
+
+    @Override
+    public @NotNull Optional<ChangeLog> readChanges(int uid, long since) {
+        return runAsReadTransaction(() -> readChangesHelper(uid, since));
+    }
+
+
     /**
      * Tries to run the given SQLfunction as a transaction. If unsuccessful, rolls back the transaction and
      * returns an empty optional.
@@ -281,11 +585,36 @@ public class AegisPasswordDatabase implements PasswordDatabase {
      * @param <R> The return type of the optional
      * @return An optional that will contain the return value if the operation was successful.
      */
-    private synchronized <R> Optional<R> runAsTransaction(CheckedSQLFunction<R> fun) {
+    private <R> Optional<R> runAsTransaction(CheckedSQLFunction<R> fun) {
+        try {
+            return runOn(connections.beginWrite(), fun);
+        } catch (SQLException e) {
+            System.err.println("Unable to start a transaction");
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Same as runAsTransaction, except that fun is run on the read-only connection. The function sees a consistent
+     * snapshot of the database and never waits on writers. Only use this for functions that do not write.
+     */
+    private <R> Optional<R> runAsReadTransaction(CheckedSQLFunction<R> fun) {
+        try {
+            return runOn(connections.beginRead(), fun);
+        } catch (SQLException e) {
+            System.err.println("Unable to start a read transaction");
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Runs fun on the given connection, which must have just been handed out by the connection manager.
+     * Commits if successful, otherwise rolls back. Always ends the transaction.
+     */
+    private <R> Optional<R> runOn(Connection con, CheckedSQLFunction<R> fun) {
         Optional<R> ret;
 
         try {
-            con.setAutoCommit(false);
             ret = Optional.ofNullable(fun.call());
             con.commit();
         } catch (SQLException | Serializer.SerializationException e) {
@@ -300,12 +629,7 @@ public class AegisPasswordDatabase implements PasswordDatabase {
 
             ret = Optional.empty();
         } finally {
-            try {
-                con.setAutoCommit(true);
-            } catch (SQLException e) {
-                System.err.println("Issue setting auto commit back to true. This is a serious issue.");
-                e.printStackTrace();
-            }
+            connections.end();
         }
 
         return ret;
@@ -0,0 +1,230 @@
+package main.java.database;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * A least recently used cache bounded by the total weight of its values, for the CachingPasswordDatabase.
+ * <p>
+ * Only one thread loads a missing key at a time. Other threads that miss on the same key wait for that load instead of
+ * going to the database as well.
+ * <p>
+ * A load that started before an invalidation is never put in the cache, since it may have read the old value. This is
+ * tracked with a generation that every invalidation bumps, so an invalidation makes all loads that are running at
+ * that time uncacheable, not just the ones for its key. Writes are rare compared to reads, so this costs little.
+ * <p>
+ * Every read of the cache takes the lock, so it is a ReentrantLock rather than a monitor. A virtual thread that
+ * waits for a monitor keeps its carrier thread, so with virtual threads a contended monitor here would stall other
+ * requests as well.
+ */
+class BoundedCache<K, V> {
+    private final long maxWeight;
+    private final ToIntFunction<V> weigher;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    //Values in least recently used order. Guarded by lock
+    private final LinkedHashMap<K, V> values = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+    private long generation = 0;
+
+    //Loads that are running right now
+    private final ConcurrentHashMap<K, CompletableFuture<Optional<V>>> loads = new ConcurrentHashMap<>();
+
+    //Metrics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxWeight the maximum total weight of the values. 0 turns the cache off.
+     * @param weigher   the weight of a value, at least 1
+     */
+    BoundedCache(long maxWeight, @NotNull ToIntFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * @return the cached value of the key, or null if it is not cached. Only hits are counted.
+     */
+    @Nullable
+    V getIfPresent(K key) {
+        lock.lock();
+        try {
+            V ret = values.get(key);
+            if (ret != null) {
+                hits.increment();
+            }
+            return ret;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the cached value of the key, or null if it is not cached. Not counted as a hit or a miss, for looking
+     * up what a write is about to change.
+     */
+    @Nullable
+    V peek(K key) {
+        lock.lock();
+        try {
+            return values.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the cached value of the key, or loads it. Empty results are not cached.
+     */
+    Optional<V> get(K key, @NotNull Supplier<Optional<V>> loader) {
+        V cached = getIfPresent(key);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        CompletableFuture<Optional<V>> mine = new CompletableFuture<>();
+        CompletableFuture<Optional<V>> running = loads.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.increment();
+            return running.join();
+        }
+
+        misses.increment();
+        try {
+            long gen = generation();
+            Optional<V> ret = loader.get();
+            ret.ifPresent(v -> put(key, v, gen));
+            mine.complete(ret);
+            return ret;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, mine);
+        }
+    }
+
+    /**
+     * @return the generation to pass to put for a value that is about to be read from the database
+     */
+    long generation() {
+        lock.lock();
+        try {
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Caches a value, unless something was invalidated since gen was taken.
+     */
+    void put(K key, @NotNull V value, long gen) {
+        lock.lock();
+        try {
+            if (gen != generation || maxWeight <= 0) {
+                return;
+            }
+
+            V old = values.put(key, value);
+            if (old != null) {
+                weight -= weigher.applyAsInt(old);
+            }
+            weight += weigher.applyAsInt(value);
+
+            Iterator<V> it = values.values().iterator();
+            while (weight > maxWeight && it.hasNext()) {
+                weight -= weigher.applyAsInt(it.next());
+                it.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts reads that were answered by put instead of get, such as bulk reads.
+     */
+    void countMisses(int count) {
+        misses.add(count);
+    }
+
+    /**
+     * Removes the key. Loads of it that are running right now are neither cached nor joined by later reads.
+     */
+    void invalidate(K key) {
+        lock.lock();
+        try {
+            generation++;
+            loads.remove(key);
+            V old = values.remove(key);
+            if (old != null) {
+                weight -= weigher.applyAsInt(old);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes every value the predicate holds for. Running loads of any key are no longer joined by later reads.
+     */
+    void invalidateIf(@NotNull Predicate<V> predicate) {
+        lock.lock();
+        try {
+            generation++;
+            loads.clear();
+            Iterator<Map.Entry<K, V>> it = values.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<K, V> e = it.next();
+                if (predicate.test(e.getValue())) {
+                    weight -= weigher.applyAsInt(e.getValue());
+                    it.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes everything
+     */
+    void clear() {
+        lock.lock();
+        try {
+            generation++;
+            loads.clear();
+            values.clear();
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    CacheStats getStats() {
+        lock.lock();
+        try {
+            return new CacheStats(hits.sum(), misses.sum(), coalesced.sum(), evictions.sum(), values.size(), weight);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
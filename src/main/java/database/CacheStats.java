@@ -0,0 +1,54 @@
+package main.java.database;
+
+/**
+ * A snapshot of the counters of one of the caches of a CachingPasswordDatabase
+ */
+public class CacheStats {
+    /**
+     * Reads answered from the cache
+     */
+    public final long hits;
+
+    /**
+     * Reads that went to the database
+     */
+    public final long misses;
+
+    /**
+     * Reads that missed but waited for a read of the same key that was already running, instead of going to the
+     * database themselves
+     */
+    public final long coalesced;
+
+    /**
+     * Values removed to make room for others
+     */
+    public final long evictions;
+
+    /**
+     * Number of values in the cache
+     */
+    public final int size;
+
+    /**
+     * Total weight of the values in the cache
+     */
+    public final long weight;
+
+    public CacheStats(long hits, long misses, long coalesced, long evictions, int size, long weight) {
+        this.hits = hits;
+        this.misses = misses;
+        this.coalesced = coalesced;
+        this.evictions = evictions;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    /**
+     * @return the fraction of reads that did not go to the database, or 0 if there were no reads
+     */
+    public double hitRate() {
+        long reads = hits + misses + coalesced;
+        return reads == 0 ? 0 : (double) (hits + coalesced) / reads;
+    }
+}
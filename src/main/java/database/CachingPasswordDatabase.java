@@ -0,0 +1,324 @@
+package main.java.database;
+
+import main.java.model.*;
+import main.java.model.info.TeamUserInfo;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * A PasswordDatabase that caches the users, teams and entries of another PasswordDatabase.
+ * <p>
+ * Every write goes straight to the wrapped database and then invalidates everything it may have changed, including
+ * the other side of a membership: a change to the members of a team invalidates the team and the users involved. A
+ * read that started before a write never puts its (possibly old) result in the cache, so after a write returns,
+ * reads see its result. Writes that fail invalidate as well, since we can not tell how far they got.
+ * <p>
+ * The caches are bounded by weight, which is one per user, team or entry plus one per membership or entry it holds,
+ * so a large team takes up as much of the cache as it does memory.
+ */
+public class CachingPasswordDatabase implements PasswordDatabase {
+    private final PasswordDatabase db;
+
+    private final BoundedCache<Integer, AegisUser> users;
+    private final BoundedCache<String, Integer> emails; //From email to the id of the user, as stored in the database
+    private final BoundedCache<Integer, AegisTeam> teams;
+    private final BoundedCache<Integer, AegisEntry> entries;
+
+    /**
+     * @param db       the database to cache
+     * @param settings the sizes of the caches
+     */
+    public CachingPasswordDatabase(@NotNull PasswordDatabase db, @NotNull DatabaseSettings settings) {
+        this.db = db;
+        users = new BoundedCache<>(settings.userCacheWeight, u -> 1 + u.teams.size());
+        emails = new BoundedCache<>(settings.userCacheWeight, id -> 1);
+        teams = new BoundedCache<>(settings.teamCacheWeight, t -> 1 + t.users.size() + t.entries.size());
+        entries = new BoundedCache<>(settings.entryCacheWeight, e -> 1);
+    }
+
+    @Override
+    public void reset() {
+        db.reset();
+        users.clear();
+        emails.clear();
+        teams.clear();
+        entries.clear();
+    }
+
+    // ----------------- Metrics ------------------------
+
+    public CacheStats getUserCacheStats() {
+        return users.getStats();
+    }
+
+    public CacheStats getTeamCacheStats() {
+        return teams.getStats();
+    }
+
+    public CacheStats getEntryCacheStats() {
+        return entries.getStats();
+    }
+
+    // ----------------- Users ------------------------
+
+    @Override
+    public @NotNull Optional<Integer> createUser(@NotNull NoIDAegisUser user) {
+        Optional<Integer> ret = db.createUser(user);
+        user.teams.keySet().forEach(teams::invalidate);
+        return ret;
+    }
+
+    @Override
+    public @NotNull Optional<AegisUser> readUser(@NotNull String email) {
+        Integer id = emails.getIfPresent(email);
+        if (id != null) {
+            //The user may have changed their email or been deleted since
+            Optional<AegisUser> ret = readUser(id).filter(u -> u.email.equals(email));
+            if (ret.isPresent()) {
+                return ret;
+            }
+        }
+
+        long gen = users.generation();
+        long emailGen = emails.generation();
+        Optional<AegisUser> ret = db.readUser(email);
+        ret.ifPresent(u -> {
+            users.put(u.id, u, gen);
+            if (u.email.equals(email)) { //Not for case insensitive matches, so the lookup above stays exact
+                emails.put(email, u.id, emailGen);
+            }
+        });
+        emails.countMisses(1);
+        return ret;
+    }
+
+    @Override
+    public @NotNull Optional<AegisUser> readUser(int id) {
+        return users.get(id, () -> db.readUser(id));
+    }
+
+    @Override
+    public @NotNull Optional<Map<Integer, AegisUser>> readUsers(@NotNull Collection<Integer> ids) {
+        return readAll(users, ids, db::readUsers);
+    }
+
+    @Override
+    public boolean updateUser(@NotNull AegisUser user) {
+        Optional<AegisUser> old = cachedOrStored(users, user.id, db::readUser);
+        boolean ret = db.updateUser(user);
+        invalidateUser(user.id, old);
+        user.teams.keySet().forEach(teams::invalidate);
+        return ret;
+    }
+
+    @Override
+    public boolean deleteUser(int id) {
+        Optional<AegisUser> old = cachedOrStored(users, id, db::readUser);
+        boolean ret = db.deleteUser(id);
+        invalidateUser(id, old);
+        return ret;
+    }
+
+    /**
+     * Invalidates the user, along with their email and every team they were a member of before the write
+     */
+    private void invalidateUser(int uid, Optional<AegisUser> old) {
+        users.invalidate(uid);
+        old.ifPresent(u -> {
+            emails.invalidate(u.email);
+            u.teams.keySet().forEach(teams::invalidate);
+        });
+    }
+
+    // ----------------- Entries ------------------------
+
+    @Override
+    public @NotNull Optional<Integer> createEntry(@NotNull NoIDAegisEntry entry) {
+        Optional<Integer> ret = db.createEntry(entry);
+        teams.invalidate(entry.team);
+        return ret;
+    }
+
+    @Override
+    public @NotNull Optional<AegisEntry> readEntry(int id) {
+        return entries.get(id, () -> db.readEntry(id));
+    }
+
+    @Override
+    public @NotNull Optional<Map<Integer, AegisEntry>> readEntries(@NotNull Collection<Integer> ids) {
+        return readAll(entries, ids, db::readEntries);
+    }
+
+    @Override
+    public boolean updateEntry(@NotNull AegisEntry entry) {
+        Optional<AegisEntry> old = cachedOrStored(entries, entry.id, db::readEntry);
+        boolean ret = db.updateEntry(entry);
+        invalidateEntry(entry.id, old);
+        teams.invalidate(entry.team);
+        return ret;
+    }
+
+    @Override
+    public boolean deleteEntry(int id) {
+        Optional<AegisEntry> old = cachedOrStored(entries, id, db::readEntry);
+        boolean ret = db.deleteEntry(id);
+        invalidateEntry(id, old);
+        return ret;
+    }
+
+    /**
+     * Invalidates the entry and the team it was in before the write
+     */
+    private void invalidateEntry(int eid, Optional<AegisEntry> old) {
+        entries.invalidate(eid);
+        old.ifPresent(e -> teams.invalidate(e.team));
+    }
+
+    // ----------------- Teams ------------------------
+
+    @Override
+    public @NotNull Optional<Integer> createTeam(@NotNull NoIDAegisTeam team) {
+        Optional<Integer> ret = db.createTeam(team);
+        invalidateMembersAndEntries(team);
+        return ret;
+    }
+
+    @Override
+    public @NotNull Optional<AegisTeam> readTeam(int id) {
+        return teams.get(id, () -> db.readTeam(id));
+    }
+
+    @Override
+    public @NotNull Optional<Map<Integer, AegisTeam>> readTeams(@NotNull Collection<Integer> ids) {
+        return readAll(teams, ids, db::readTeams);
+    }
+
+    @Override
+    public boolean updateTeam(@NotNull AegisTeam team) {
+        boolean ret = db.updateTeam(team);
+        invalidateTeam(team.id);
+        invalidateMembersAndEntries(team);
+        return ret;
+    }
+
+    @Override
+    public boolean deleteTeam(int id) {
+        boolean ret = db.deleteTeam(id);
+        invalidateTeam(id);
+        return ret;
+    }
+
+    /**
+     * Invalidates the given members and entries of a team that is being written, and the teams the entries may have
+     * been moved out of
+     */
+    private void invalidateMembersAndEntries(NoIDAegisTeam team) {
+        team.users.keySet().forEach(users::invalidate);
+        if (!team.entries.isEmpty()) {
+            Set<Integer> moved = new HashSet<>(team.entries);
+            moved.forEach(entries::invalidate);
+            teams.invalidateIf(t -> t.entries.stream().anyMatch(moved::contains));
+        }
+    }
+
+    /**
+     * Invalidates the team, its members and its entries as they are cached
+     */
+    private void invalidateTeam(int tid) {
+        teams.invalidate(tid);
+        users.invalidateIf(u -> u.teams.containsKey(tid));
+        entries.invalidateIf(e -> e.team == tid);
+    }
+
+    // ----------------- Membership ------------------------
+
+    @Override
+    public boolean addMember(int tid, int uid, @NotNull TeamUserInfo info) {
+        boolean ret = db.addMember(tid, uid, info);
+        invalidateMember(tid, uid);
+        return ret;
+    }
+
+    @Override
+    public boolean removeMember(int tid, int uid) {
+        boolean ret = db.removeMember(tid, uid);
+        invalidateMember(tid, uid);
+        return ret;
+    }
+
+    @Override
+    public boolean setPermission(int tid, int uid, @NotNull UserPermissions permissions) {
+        boolean ret = db.setPermission(tid, uid, permissions);
+        invalidateMember(tid, uid);
+        return ret;
+    }
+
+    @Override
+    public boolean setTeamKey(int tid, int uid, @NotNull String teamKey) {
+        boolean ret = db.setTeamKey(tid, uid, teamKey);
+        invalidateMember(tid, uid);
+        return ret;
+    }
+
+    private void invalidateMember(int tid, int uid) {
+        teams.invalidate(tid);
+        users.invalidate(uid);
+    }
+
+    //The change log always changes, so it is not cached
+
+    @Override
+    public @NotNull Optional<AegisVault> readVault(int uid) {
+        return db.readVault(uid); //Read in full from the database, which is a few queries anyway
+    }
+
+    @Override
+    public @NotNull Optional<Long> readSequence() {
+        return db.readSequence();
+    }
+
+    @Override
+    public @NotNull Optional<ChangeLog> readChanges(int uid, long since) {
+        return db.readChanges(uid, since);
+    }
+
+    /**
+     * Looks up a value that is about to be written, to know what else the write changes. Neither cached nor counted.
+     */
+    private static <V> Optional<V> cachedOrStored(BoundedCache<Integer, V> cache, int id,
+                                                  Function<Integer, Optional<V>> read) {
+        V cached = cache.peek(id);
+        return cached != null ? Optional.of(cached) : read.apply(id);
+    }
+
+    /**
+     * Bulk read that only asks the database for the ids that are not cached
+     */
+    private static <V> Optional<Map<Integer, V>> readAll(BoundedCache<Integer, V> cache, Collection<Integer> ids,
+                                                        Function<Collection<Integer>, Optional<Map<Integer, V>>> read) {
+        Map<Integer, V> ret = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (int id : ids) {
+            V cached = cache.getIfPresent(id);
+            if (cached != null) {
+                ret.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            long gen = cache.generation();
+            Optional<Map<Integer, V>> loaded = read.apply(missing);
+            if (!loaded.isPresent()) {
+                return Optional.empty();
+            }
+            loaded.get().forEach((id, v) -> cache.put(id, v, gen));
+            cache.countMisses(missing.size());
+            ret.putAll(loaded.get());
+        }
+        return Optional.of(ret);
+    }
+}
@@ -0,0 +1,250 @@
+package main.java.database;
+
+import org.jetbrains.annotations.NotNull;
+import org.sqlite.SQLiteConfig;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Manages the connections to the SQLite database.
+ * <p>
+ * There is one writer connection and a pool of read-only connections. The database is opened in WAL journal mode,
+ * so a read transaction sees a consistent snapshot of the database and never waits on the writer (and vice versa).
+ * Every connection is tuned with the pragmas from the DatabaseSettings.
+ * <p>
+ * A transaction binds its connection to the current thread. Tables should always get their connection through
+ * connection() so they run against the connection of the transaction they are part of.
+ * <p>
+ * Each connection also has its own cache of prepared statements (see prepare). Since a connection only runs one
+ * transaction at a time, the statements of a connection are never shared between threads.
+ */
+public class ConnectionManager {
+    /**
+     * The only connection that is allowed to write to the database
+     */
+    private final Connection writer;
+
+    /**
+     * Lock guarding the writer. A connection can only run one transaction at a time
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * Read-only connections that are not currently running a transaction
+     */
+    private final BlockingQueue<Connection> readers;
+
+    /**
+     * All the read-only connections, for closing
+     */
+    private final List<Connection> allReaders;
+
+    /**
+     * The connection of the transaction running on this thread, if any
+     */
+    private final ThreadLocal<Connection> current = new ThreadLocal<>();
+
+    /**
+     * The statement cache of each connection. This map is not modified after construction
+     */
+    private final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<>();
+
+    //Statement cache counters, shared between all the connections
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+
+    /**
+     * @param file     The file name of the database
+     * @param settings How to set up the connections
+     * @throws SQLException if we were unable to open the database
+     */
+    public ConnectionManager(@NotNull String file, @NotNull DatabaseSettings settings) throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            System.err.println("Getting this error probably means you do not have JDBC setup");
+            e.printStackTrace();
+        }
+
+        if (settings.readConnections < 1) {
+            throw new SQLException("There must be at least one read connection");
+        }
+
+        writer = DriverManager.getConnection("jdbc:sqlite:" + file);
+        setJournalModeWAL(writer);
+        applyPragmas(writer, settings);
+        statementCaches.put(writer, new StatementCache(writer, statementCacheHits, statementCacheMisses));
+
+        SQLiteConfig readConfig = new SQLiteConfig();
+        readConfig.setReadOnly(true);
+
+        readers = new ArrayBlockingQueue<>(settings.readConnections);
+        allReaders = new ArrayList<>();
+        for (int i = 0; i < settings.readConnections; i++) {
+            Connection reader = DriverManager.getConnection("jdbc:sqlite:" + file, readConfig.toProperties());
+            applyPragmas(reader, settings);
+            readers.add(reader);
+            allReaders.add(reader);
+            statementCaches.put(reader, new StatementCache(reader, statementCacheHits, statementCacheMisses));
+        }
+    }
+
+    /**
+     * Switches the database to WAL mode. This is persistent, so it only really does something on the first open.
+     */
+    private static void setJournalModeWAL(Connection con) throws SQLException {
+        try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA journal_mode=WAL")) {
+            if (!rs.next() || !rs.getString(1).equalsIgnoreCase("wal")) {
+                System.err.println("Unable to switch the database to WAL mode. Reads will block on writes.");
+            }
+        }
+    }
+
+    /**
+     * Applies the per connection pragmas in the settings to the given connection.
+     */
+    private static void applyPragmas(Connection con, DatabaseSettings settings) throws SQLException {
+        try (Statement stmt = con.createStatement()) {
+            //Pragmas can't be prepared, so make sure nothing but a keyword ends up in the synchronous pragma
+            if (!settings.synchronous.matches("[A-Za-z0-9]+")) {
+                throw new SQLException("Invalid value for synchronous: " + settings.synchronous);
+            }
+
+            stmt.execute("PRAGMA synchronous=" + settings.synchronous);
+            stmt.execute("PRAGMA cache_size=" + settings.cacheSize);
+            stmt.execute("PRAGMA mmap_size=" + settings.mmapSize);
+            stmt.execute("PRAGMA busy_timeout=" + settings.busyTimeout);
+        }
+    }
+
+    /**
+     * @return the connection of the transaction running on this thread. Outside of a transaction this is the writer,
+     * which is only meant for schema operations such as reset.
+     */
+    public Connection connection() {
+        Connection con = current.get();
+        return con != null ? con : writer;
+    }
+
+    /**
+     * Get a prepared statement for the given sql on the connection of the current transaction. Statements are
+     * cached per connection, so do not close the returned statement. Always close its result sets though, since an
+     * open result set keeps the transaction's snapshot alive.
+     *
+     * @param sql    the sql of the statement
+     * @param genKey if to set the statement to RETURN_GENERATED_KEYS.
+     * @return a prepared statement with all its parameters cleared
+     */
+    public PreparedStatement prepare(String sql, boolean genKey) throws SQLException {
+        return statementCaches.get(connection()).get(sql, genKey);
+    }
+
+    /**
+     * Closes all the cached statements. Only call this when no transactions are running, e.g. after a reset.
+     */
+    public void clearStatementCaches() {
+        statementCaches.values().forEach(StatementCache::clear);
+    }
+
+    /**
+     * @return the number of times a cached prepared statement was reused
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    /**
+     * @return the number of times a statement had to be prepared because it was not in the cache
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    /**
+     * Starts a write transaction on this thread. Blocks until the writer connection is free.
+     * Every call must be followed by a call to end.
+     *
+     * @return the writer connection with auto commit turned off
+     */
+    public Connection beginWrite() throws SQLException {
+        writeLock.lock();
+        try {
+            return begin(writer);
+        } catch (SQLException e) {
+            writeLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a read transaction on this thread. This never waits on the writer connection, only on a free
+     * connection in the read pool. Every call must be followed by a call to end.
+     *
+     * @return a read-only connection with auto commit turned off
+     */
+    public Connection beginRead() throws SQLException {
+        Connection reader;
+        try {
+            reader = readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection", e);
+        }
+
+        try {
+            return begin(reader);
+        } catch (SQLException e) {
+            readers.add(reader);
+            throw e;
+        }
+    }
+
+    private Connection begin(Connection con) throws SQLException {
+        con.setAutoCommit(false);
+        current.set(con);
+        return con;
+    }
+
+    /**
+     * Ends the transaction running on this thread. The transaction must already be committed or rolled back.
+     */
+    public void end() {
+        Connection con = current.get();
+        current.remove();
+
+        try {
+            con.setAutoCommit(true);
+        } catch (SQLException e) {
+            System.err.println("Issue setting auto commit back to true. This is a serious issue.");
+            e.printStackTrace();
+        } finally {
+            if (con == writer) {
+                writeLock.unlock();
+            } else {
+                readers.add(con);
+            }
+        }
+    }
+
+    /**
+     * Closes all the connections
+     */
+    public void close() throws SQLException {
+        clearStatementCaches();
+        try {
+            for (Connection reader : allReaders) {
+                reader.close();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package main.java.database;
+
+/**
+ * Tuning settings for the connections to the SQLite database and the caches in front of it. This is stored as part of
+ * the server configuration.
+ * <p>
+ * See https://www.sqlite.org/pragma.html for what each of the pragmas do.
+ */
+public class DatabaseSettings {
+    /**
+     * Number of read-only connections in the read pool. This is the number of reads that can run at the same time.
+     */
+    public final int readConnections;
+
+    /**
+     * Value for PRAGMA synchronous. NORMAL is safe from corruption in WAL mode and only loses the last
+     * transactions on a power failure.
+     */
+    public final String synchronous;
+
+    /**
+     * Value for PRAGMA cache_size. Negative values are in KiB, positive values are in pages. Applies per connection.
+     */
+    public final int cacheSize;
+
+    /**
+     * Value for PRAGMA mmap_size in bytes. 0 turns off memory mapped IO.
+     */
+    public final long mmapSize;
+
+    /**
+     * Value for PRAGMA busy_timeout in milliseconds, which is how long a connection waits on a locked database.
+     */
+    public final int busyTimeout;
+
+    /**
+     * Maximum weight of the user cache of the CachingPasswordDatabase: one per user plus one per team they are on.
+     * 0 turns the cache off.
+     */
+    public final long userCacheWeight;
+
+    /**
+     * Maximum weight of the team cache: one per team plus one per member and per entry
+     */
+    public final long teamCacheWeight;
+
+    /**
+     * Maximum weight of the entry cache: one per entry
+     */
+    public final long entryCacheWeight;
+
+    /**
+     * Default settings
+     */
+    public DatabaseSettings() {
+        this(4, "NORMAL", -16000, 256L * 1024 * 1024, 5000);
+    }
+
+    public DatabaseSettings(int readConnections, String synchronous, int cacheSize, long mmapSize, int busyTimeout) {
+        this(readConnections, synchronous, cacheSize, mmapSize, busyTimeout, 20000, 100000, 50000);
+    }
+
+    public DatabaseSettings(int readConnections, String synchronous, int cacheSize, long mmapSize, int busyTimeout,
+                            long userCacheWeight, long teamCacheWeight, long entryCacheWeight) {
+        this.readConnections = readConnections;
+        this.synchronous = synchronous;
+        this.cacheSize = cacheSize;
+        this.mmapSize = mmapSize;
+        this.busyTimeout = busyTimeout;
+        this.userCacheWeight = userCacheWeight;
+        this.teamCacheWeight = teamCacheWeight;
+        this.entryCacheWeight = entryCacheWeight;
+    }
+}
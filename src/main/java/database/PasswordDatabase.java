@@ -1,8 +1,11 @@
 package main.java.database;
 
 import main.java.model.*;
+import main.java.model.info.TeamUserInfo;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -10,6 +13,9 @@ import java.util.Optional;
  * <p>
  * Note that we do not provide a way to change userID, entryID, or teamID. This is intentional since
  * those numbers are intended to be unique identifying numbers for each user, entry, or team.
+ * <p>
+ * Read methods are read-only: each one sees a consistent snapshot of the database and never waits on a write in
+ * progress. Implementations must keep them safe to call from many threads at once.
  */
 public interface PasswordDatabase {
     /**
@@ -40,6 +46,15 @@ public interface PasswordDatabase {
      */
     @NotNull Optional<AegisUser> readUser(int id);
 
+    /**
+     * Reads all the given users at once, from the same snapshot of the database.
+     *
+     * @param ids the user IDs
+     * @return a map from user ID to user for every user that exists, or an empty optional if we are unable to read
+     * the users
+     */
+    @NotNull Optional<Map<Integer, AegisUser>> readUsers(@NotNull Collection<Integer> ids);
+
     /**
      * This will update all the fields of the given user, which is identifying by the id.
      *
@@ -69,6 +84,15 @@ public interface PasswordDatabase {
      */
     @NotNull Optional<AegisEntry> readEntry(int id);
 
+    /**
+     * Reads all the given entries at once, from the same snapshot of the database.
+     *
+     * @param ids the entry IDs
+     * @return a map from entry ID to entry for every entry that exists, or an empty optional if we are unable to read
+     * the entries
+     */
+    @NotNull Optional<Map<Integer, AegisEntry>> readEntries(@NotNull Collection<Integer> ids);
+
     /**
      * This will update all the fields of the given entry, which is identifying by the id.
      *
@@ -97,6 +121,15 @@ public interface PasswordDatabase {
      */
     @NotNull Optional<AegisTeam> readTeam(int id);
 
+    /**
+     * Reads all the given teams at once, from the same snapshot of the database.
+     *
+     * @param ids the team IDs
+     * @return a map from team ID to team for every team that exists, or an empty optional if we are unable to read
+     * the teams
+     */
+    @NotNull Optional<Map<Integer, AegisTeam>> readTeams(@NotNull Collection<Integer> ids);
+
     /**
      * This will update all the fields of the given team, which is identifying by the id.
      *
@@ -111,5 +144,73 @@ public interface PasswordDatabase {
      */
     boolean deleteTeam(int id);
 
+    //TEAM MEMBERSHIP METHODS. These only touch the membership of a single user, not the rest of the team.
+
+    /**
+     * @param tid  the team ID
+     * @param uid  the user ID
+     * @param info the permissions and key of the user on the team
+     * @return true if successful, otherwise false. Fails if the team or user does not exist, or the user is already
+     * on the team.
+     */
+    boolean addMember(int tid, int uid, @NotNull TeamUserInfo info);
+
+    /**
+     * @param tid the team ID
+     * @param uid the user ID
+     * @return true if successful, otherwise false.
+     */
+    boolean removeMember(int tid, int uid);
+
+    /**
+     * Changes the permissions of a user on a team and leaves their team key alone.
+     *
+     * @param tid         the team ID
+     * @param uid         the user ID
+     * @param permissions the new permissions
+     * @return true if successful, otherwise false. Fails if the user is not on the team.
+     */
+    boolean setPermission(int tid, int uid, @NotNull UserPermissions permissions);
+
+    /**
+     * Changes the team key of a user on a team and leaves their permissions alone.
+     *
+     * @param tid     the team ID
+     * @param uid     the user ID
+     * @param teamKey the new team key
+     * @return true if successful, otherwise false. Fails if the user is not on the team.
+     */
+    boolean setTeamKey(int tid, int uid, @NotNull String teamKey);
+
+    //VAULT METHODS
+
+    /**
+     * Reads the user together with every team they are on and every entry on those teams, from the same snapshot of
+     * the database. This takes the same handful of queries no matter how many teams the user is on.
+     *
+     * @param uid the user ID
+     * @return the vault or an empty optional if we are unable to read it
+     */
+    @NotNull Optional<AegisVault> readVault(int uid);
+
+    //CHANGE LOG METHODS. Every write is recorded in a change log with an increasing sequence number.
+
+    /**
+     * @return the sequence number of the latest change, 0 if nothing has changed yet, or an empty optional if we are
+     * unable to read it
+     */
+    @NotNull Optional<Long> readSequence();
+
+    /**
+     * Reads what changed after since in the teams the user is on, and in the memberships of the user on any team.
+     * Only the latest change of each entry, member and team is kept, so this never returns more than one change for
+     * each of them.
+     *
+     * @param uid   the user ID
+     * @param since a sequence number returned by an earlier call
+     * @return the changes or an empty optional if we are unable to read them
+     */
+    @NotNull Optional<ChangeLog> readChanges(int uid, long since);
+
 
 }
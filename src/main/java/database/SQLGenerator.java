@@ -1,34 +1,52 @@
 package main.java.database;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A utility class for generating prepared statements.
  * <p>
+ * The SQL for each combination of columns is only generated once, and the prepared statements come out of the
+ * statement cache of the current connection. Do not close the returned statements, but do close their result sets.
+ * <p>
  * Note that all arguments to every method assumes the argument is not null.
  */
 public class SQLGenerator {
+    /**
+     * Maximum number of ids bound into a single IN query. SQLite allows at most 999 variables per statement.
+     */
+    public static final int maxInIDs = 512;
+
     //prepared statement names. Public since it may be useful to use them in other places
     public final String insert_into;
     public final String select_from_where;
     public final String delete_from_where;
+    public final String update;
 
     /**
-     * The connection used to generate the prepared statements
+     * Provides the connection used to generate the prepared statements
      */
-    private final Connection con;
+    private final ConnectionManager connections;
 
-    public SQLGenerator(String tableName, Connection con) {
-        this.con = con;
+    //Generated SQL, keyed by the column names it was generated for
+    private final ConcurrentHashMap<List<String>, String> insertSQL = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<List<String>, String> deleteSQL = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<List<String>, String> selectSQL = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> selectInSQL = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<List<List<String>>, String> updateSQL = new ConcurrentHashMap<>();
+
+    public SQLGenerator(String tableName, ConnectionManager connections) {
+        this.connections = connections;
 
         insert_into = "INSERT INTO " + tableName + " (";
         select_from_where = "SELECT * FROM " + tableName + " WHERE ";
         delete_from_where = "DELETE FROM " + tableName + " WHERE ";
+        update = "UPDATE " + tableName + " SET ";
     }
 
 
@@ -70,23 +88,18 @@ public class SQLGenerator {
             throw new SQLException("Invalid insert into");
         }
 
-        String temp = forAllButLast(insert_into, colNames, ",", ") VALUES (");
-
-        //Make '?' array of the same size as the colNames
-        List<String> params = new ArrayList<>();
-        colNames.forEach(x -> params.add("?"));
+        String sql = insertSQL.computeIfAbsent(colNames, cols -> {
+            String temp = forAllButLast(insert_into, cols, ",", ") VALUES (");
 
-        //Insert in the optional params part
-        String sql = forAllButLast(temp, params, ",", ")");
+            //Make '?' array of the same size as the colNames
+            List<String> params = new ArrayList<>();
+            cols.forEach(x -> params.add("?"));
 
-        PreparedStatement ret;
-        if (genKey) {
-            ret = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-        } else {
-            ret = con.prepareStatement(sql);
-        }
+            //Insert in the optional params part
+            return forAllButLast(temp, params, ",", ")");
+        });
 
-        return ret;
+        return connections.prepare(sql, genKey);
     }
 
     /**
@@ -102,13 +115,8 @@ public class SQLGenerator {
             throw new SQLException("Invalid deleteID request");
         }
 
-        String query = forAllButLast(delete_from_where, colNames, "=? and ", "=?");
-        PreparedStatement ret = con.prepareStatement(query);
-        for (int i = 0; i < id.size(); i++) {
-            ret.setInt(i + 1, id.get(i));
-        }
-
-        return ret;
+        String query = deleteSQL.computeIfAbsent(colNames, cols -> forAllButLast(delete_from_where, cols, "=? and ", "=?"));
+        return setIDs(prepare(query), id);
     }
 
     /**
@@ -124,12 +132,115 @@ public class SQLGenerator {
             throw new SQLException("Invalid getID request");
         }
 
-        String query = forAllButLast(select_from_where, colNames, "=? and ", "=?");
+        String query = selectSQL.computeIfAbsent(colNames, cols -> forAllButLast(select_from_where, cols, "=? and ", "=?"));
+        return setIDs(prepare(query), id);
+    }
+
+    /**
+     * Creates the following Query: UPDATE table SET colName[0] = ?, colName[1] = ?... WHERE idColName[0] = id[0]
+     * and idColName[1] = id[1]...
+     * <p>
+     * The ids are set by this method. Requires the user to set the first colNames.size() parameters since we do not
+     * know their types.
+     *
+     * @param colNames   The names of the columns to update
+     * @param idColNames The names of the id columns
+     * @param id         the ID of the rows to update
+     * @return The prepared statement for the table to run
+     * @throws SQLException if there is an issue throws and SQL exception
+     */
+    public PreparedStatement updateID(List<String> colNames, List<String> idColNames, List<Integer> id) throws SQLException {
+        if (colNames.size() == 0 || idColNames.size() == 0 || idColNames.size() != id.size()) {
+            throw new SQLException("Invalid updateID request");
+        }
+
+        String query = updateSQL.computeIfAbsent(Arrays.asList(colNames, idColNames), key ->
+                forAllButLast(forAllButLast(update, colNames, "=?, ", "=? WHERE "), idColNames, "=? and ", "=?"));
 
-        PreparedStatement ret = con.prepareStatement(query);
+        PreparedStatement statement = prepare(query);
         for (int i = 0; i < id.size(); i++) {
-            ret.setInt(i + 1, id.get(i));
+            statement.setInt(colNames.size() + i + 1, id.get(i));
+        }
+        return statement;
+    }
+
+    /**
+     * Creates the following Query: Select * From table Where colName IN (id[0], id[1], ...)
+     * <p>
+     * The number of parameters is rounded up to a power of two by repeating the last id, so only a handful of
+     * different statements end up in the statement cache no matter how many ids are asked for.
+     *
+     * @param colName The name of the id column
+     * @param ids     The ids to select for. Requires 0 < ids.size() <= maxInIDs. Use chunk to split larger sets.
+     * @return The prepared statement for the table to run
+     * @throws SQLException if there is an issue throws and SQL exception
+     */
+    public PreparedStatement getIn(String colName, List<Integer> ids) throws SQLException {
+        if (ids.size() == 0 || ids.size() > maxInIDs) {
+            throw new SQLException("Invalid getIn request");
+        }
+
+        int params = Integer.highestOneBit(ids.size());
+        if (params < ids.size()) {
+            params <<= 1;
+        }
+
+        int size = params;
+        String query = selectInSQL.computeIfAbsent(colName + ":" + size, key -> {
+            List<String> marks = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                marks.add("?");
+            }
+            return forAllButLast(select_from_where + colName + " IN (", marks, ",", ")");
+        });
+
+        PreparedStatement statement = setIDs(prepare(query), ids);
+        for (int i = ids.size(); i < size; i++) {
+            statement.setInt(i + 1, ids.get(ids.size() - 1));
+        }
+        return statement;
+    }
+
+    /**
+     * Splits ids into lists that are small enough for getIn.
+     *
+     * @param ids the ids to split. Duplicates are kept.
+     * @return the chunks in iteration order of ids
+     */
+    public static List<List<Integer>> chunk(Collection<Integer> ids) {
+        List<List<Integer>> ret = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        for (int id : ids) {
+            if (current.size() == maxInIDs) {
+                ret.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(id);
+        }
+
+        if (!current.isEmpty()) {
+            ret.add(current);
         }
         return ret;
     }
+
+    /**
+     * Get a cached prepared statement for arbitrary sql. Use this for queries that the other methods do not cover.
+     *
+     * @param sql the sql of the statement
+     * @return a prepared statement with all its parameters cleared
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return connections.prepare(sql, false);
+    }
+
+    /**
+     * Sets the integer parameters of the statement to the given ids in order.
+     */
+    private PreparedStatement setIDs(PreparedStatement statement, List<Integer> id) throws SQLException {
+        for (int i = 0; i < id.size(); i++) {
+            statement.setInt(i + 1, id.get(i));
+        }
+        return statement;
+    }
 }
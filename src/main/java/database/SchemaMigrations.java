@@ -0,0 +1,136 @@
+package main.java.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Versioned changes to the schema of the password database.
+ * <p>
+ * The version of a database is kept in PRAGMA user_version. Migration i (counting from 1) takes a database from
+ * version i - 1 to version i. Every migration runs in its own transaction together with the version bump, so a
+ * failed migration leaves the database at the previous version and it is retried on the next startup.
+ * <p>
+ * Never edit or reorder a migration that has been released. Add a new one to the end of the list instead.
+ */
+public class SchemaMigrations {
+    private static final List<Migration> migrations = Arrays.asList(
+            //1: Look up the entries of a team without scanning the whole table
+            sql("CREATE INDEX IF NOT EXISTS TeamAndEntry_tid ON TeamAndEntry (tid)"),
+
+            //2: Look up the users of a team. The unique (uid, tid) index only helps lookups by uid
+            sql("CREATE INDEX IF NOT EXISTS TeamAndUser_tid_uid ON TeamAndUser (tid, uid)"),
+
+            //3: Case insensitive email lookups. Same as an index on lower(email), which our SQLite version lacks
+            sql("CREATE INDEX IF NOT EXISTS User_email_nocase ON User (email COLLATE NOCASE)"),
+
+            //4: The change log for delta sync. It starts out empty, so clients of an upgraded database sync in full once
+            sql("CREATE TABLE IF NOT EXISTS Change (seq integer primary key autoincrement, kind integer not null, " +
+                            "tid integer not null, id integer not null, deleted integer not null, " +
+                            "unique (kind,id,tid) ON CONFLICT REPLACE)",
+                    "CREATE INDEX IF NOT EXISTS Change_tid_seq ON Change (tid, seq)"),
+
+            //5: Emails are unique regardless of case, since that is how they are looked up. This replaces index 3
+            stmt -> {
+                checkNoCaseDuplicateEmails(stmt);
+                stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS User_email_unique_nocase ON User (email COLLATE NOCASE)");
+                stmt.execute("DROP INDEX IF EXISTS User_email_nocase");
+            }
+    );
+
+    /**
+     * A change to the schema
+     */
+    private interface Migration {
+        void apply(Statement stmt) throws SQLException;
+    }
+
+    /**
+     * @return a migration that runs the statements in order
+     */
+    private static Migration sql(String... statements) {
+        return stmt -> {
+            for (String sql : statements) {
+                stmt.execute(sql);
+            }
+        };
+    }
+
+    /**
+     * Emails that only differ in case belong to different accounts, with their own keys and teams, so they can not
+     * be merged automatically. They have to be changed by hand before the server can start.
+     *
+     * @throws SQLException listing the uid and email of every user that conflicts, if there are any
+     */
+    private static void checkNoCaseDuplicateEmails(Statement stmt) throws SQLException {
+        List<String> duplicates = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery("SELECT group_concat('uid ' || uid || ' <' || email || '>', ', ') " +
+                "FROM User GROUP BY email COLLATE NOCASE HAVING count(*) > 1")) {
+            while (rs.next()) {
+                duplicates.add(rs.getString(1));
+            }
+        }
+
+        if (!duplicates.isEmpty()) {
+            throw new SQLException("Emails are now unique regardless of case, but these users have emails that only " +
+                    "differ in case: " + String.join("; ", duplicates) + ". Give all but one user of each group " +
+                    "another email, e.g. UPDATE User SET email = '...' WHERE uid = ..., then start the server again.");
+        }
+    }
+
+    /**
+     * @return the version of a database with every migration applied
+     */
+    public static int latestVersion() {
+        return migrations.size();
+    }
+
+    /**
+     * @return the schema version of the database the connection is open on
+     */
+    public static int getVersion(Connection con) throws SQLException {
+        try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Sets the schema version without running any migrations. Use this when the tables are dropped.
+     */
+    public static void setVersion(Connection con, int version) throws SQLException {
+        try (Statement stmt = con.createStatement()) {
+            stmt.execute("PRAGMA user_version=" + version);
+        }
+    }
+
+    /**
+     * Runs every migration the database does not have yet. Requires that the tables exist.
+     *
+     * @param con a connection with auto commit turned off. Each migration is committed on it.
+     * @return the number of migrations that were run
+     * @throws SQLException if a migration failed. The failed migration is rolled back.
+     */
+    public static int migrate(Connection con) throws SQLException {
+        int version = getVersion(con);
+        if (version > latestVersion()) {
+            throw new SQLException("Database schema version " + version + " is newer than this server supports");
+        }
+
+        for (int i = version; i < latestVersion(); i++) {
+            try (Statement stmt = con.createStatement()) {
+                migrations.get(i).apply(stmt);
+                setVersion(con, i + 1);
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        }
+
+        return latestVersion() - version;
+    }
+}
@@ -0,0 +1,124 @@
+package main.java.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of prepared statements for a single connection, keyed by their SQL.
+ * <p>
+ * A connection only ever runs one transaction at a time, and so only one thread uses its cache at a time. This class
+ * is therefore not thread safe on its own. The hit and miss counters are shared between all the caches of a
+ * ConnectionManager.
+ */
+class StatementCache {
+    /**
+     * Maximum number of statements to keep open on the connection. The least recently used statement is closed
+     * when the cache is full.
+     */
+    private static final int maxStatements = 64;
+
+    private final Connection con;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * Statements in least recently used order
+     */
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+
+    StatementCache(Connection con, LongAdder hits, LongAdder misses) {
+        this.con = con;
+        this.hits = hits;
+        this.misses = misses;
+
+        statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() > maxStatements) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param sql    the sql of the statement
+     * @param genKey if to set the statement to RETURN_GENERATED_KEYS.
+     * @return a prepared statement with all its parameters cleared. Do not close it.
+     */
+    PreparedStatement get(String sql, boolean genKey) throws SQLException {
+        Key key = new Key(sql, genKey);
+        PreparedStatement ret = statements.get(key);
+
+        if (ret != null && !ret.isClosed()) {
+            try {
+                ret.clearParameters();
+                hits.increment();
+                return ret;
+            } catch (SQLException e) {
+                //The driver finalizes statements that failed to execute, so prepare it again
+                closeQuietly(ret);
+            }
+        }
+
+        misses.increment();
+        ret = genKey ? con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : con.prepareStatement(sql);
+        statements.put(key, ret);
+        return ret;
+    }
+
+    /**
+     * Closes all the cached statements. Use this after the schema has changed.
+     */
+    void clear() {
+        statements.values().forEach(StatementCache::closeQuietly);
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement p) {
+        try {
+            p.close();
+        } catch (SQLException e) { //Not a big deal, the connection will clean it up when it closes
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Key of a statement in the cache
+     */
+    private static class Key {
+        private final String sql;
+        private final boolean genKey;
+
+        private Key(String sql, boolean genKey) {
+            this.sql = sql;
+            this.genKey = genKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (genKey != key.genKey) return false;
+            return sql.equals(key.sql);
+
+        }
+
+        @Override
+        public int hashCode() {
+            int result = sql.hashCode();
+            result = 31 * result + (genKey ? 1 : 0);
+            return result;
+        }
+    }
+}
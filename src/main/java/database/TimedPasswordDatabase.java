@@ -0,0 +1,225 @@
+package main.java.database;
+
+import main.java.metrics.Histogram;
+import main.java.metrics.Metrics;
+import main.java.model.*;
+import main.java.model.info.TeamUserInfo;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * A PasswordDatabase that records how long every call to another PasswordDatabase takes, one histogram per method.
+ * Wrap the outermost database, so that the times are what the request handler sees, cache hits included.
+ */
+public class TimedPasswordDatabase implements PasswordDatabase {
+    private static final String NAME = "aegis_db_call_duration_seconds";
+
+    private final PasswordDatabase db;
+    private final Metrics metrics;
+
+    private final Histogram createUser;
+    private final Histogram readUserByEmail;
+    private final Histogram readUser;
+    private final Histogram readUsers;
+    private final Histogram updateUser;
+    private final Histogram deleteUser;
+    private final Histogram createEntry;
+    private final Histogram readEntry;
+    private final Histogram readEntries;
+    private final Histogram updateEntry;
+    private final Histogram deleteEntry;
+    private final Histogram createTeam;
+    private final Histogram readTeam;
+    private final Histogram readTeams;
+    private final Histogram updateTeam;
+    private final Histogram deleteTeam;
+    private final Histogram addMember;
+    private final Histogram removeMember;
+    private final Histogram setPermission;
+    private final Histogram setTeamKey;
+    private final Histogram readVault;
+    private final Histogram readSequence;
+    private final Histogram readChanges;
+
+    /**
+     * @param db      the database to time
+     * @param metrics where to register the histograms
+     */
+    public TimedPasswordDatabase(@NotNull PasswordDatabase db, @NotNull Metrics metrics) {
+        this.db = db;
+        this.metrics = metrics;
+
+        createUser = histogram("createUser");
+        readUserByEmail = histogram("readUserByEmail");
+        readUser = histogram("readUser");
+        readUsers = histogram("readUsers");
+        updateUser = histogram("updateUser");
+        deleteUser = histogram("deleteUser");
+        createEntry = histogram("createEntry");
+        readEntry = histogram("readEntry");
+        readEntries = histogram("readEntries");
+        updateEntry = histogram("updateEntry");
+        deleteEntry = histogram("deleteEntry");
+        createTeam = histogram("createTeam");
+        readTeam = histogram("readTeam");
+        readTeams = histogram("readTeams");
+        updateTeam = histogram("updateTeam");
+        deleteTeam = histogram("deleteTeam");
+        addMember = histogram("addMember");
+        removeMember = histogram("removeMember");
+        setPermission = histogram("setPermission");
+        setTeamKey = histogram("setTeamKey");
+        readVault = histogram("readVault");
+        readSequence = histogram("readSequence");
+        readChanges = histogram("readChanges");
+    }
+
+    private Histogram histogram(String method) {
+        return metrics.histogram(NAME, "Time spent in each method of the password database", "method", method);
+    }
+
+    private static <T> T time(Histogram histogram, Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            histogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public void reset() {
+        db.reset();
+    }
+
+    // ----------------- Users ------------------------
+
+    @Override
+    public @NotNull Optional<Integer> createUser(@NotNull NoIDAegisUser user) {
+        return time(createUser, () -> db.createUser(user));
+    }
+
+    @Override
+    public @NotNull Optional<AegisUser> readUser(@NotNull String email) {
+        return time(readUserByEmail, () -> db.readUser(email));
+    }
+
+    @Override
+    public @NotNull Optional<AegisUser> readUser(int id) {
+        return time(readUser, () -> db.readUser(id));
+    }
+
+    @Override
+    public @NotNull Optional<Map<Integer, AegisUser>> readUsers(@NotNull Collection<Integer> ids) {
+        return time(readUsers, () -> db.readUsers(ids));
+    }
+
+    @Override
+    public boolean updateUser(@NotNull AegisUser user) {
+        return time(updateUser, () -> db.updateUser(user));
+    }
+
+    @Override
+    public boolean deleteUser(int id) {
+        return time(deleteUser, () -> db.deleteUser(id));
+    }
+
+    // ----------------- Entries ------------------------
+
+    @Override
+    public @NotNull Optional<Integer> createEntry(@NotNull NoIDAegisEntry entry) {
+        return time(createEntry, () -> db.createEntry(entry));
+    }
+
+    @Override
+    public @NotNull Optional<AegisEntry> readEntry(int id) {
+        return time(readEntry, () -> db.readEntry(id));
+    }
+
+    @Override
+    public @NotNull Optional<Map<Integer, AegisEntry>> readEntries(@NotNull Collection<Integer> ids) {
+        return time(readEntries, () -> db.readEntries(ids));
+    }
+
+    @Override
+    public boolean updateEntry(@NotNull AegisEntry entry) {
+        return time(updateEntry, () -> db.updateEntry(entry));
+    }
+
+    @Override
+    public boolean deleteEntry(int id) {
+        return time(deleteEntry, () -> db.deleteEntry(id));
+    }
+
+    // ----------------- Teams ------------------------
+
+    @Override
+    public @NotNull Optional<Integer> createTeam(@NotNull NoIDAegisTeam team) {
+        return time(createTeam, () -> db.createTeam(team));
+    }
+
+    @Override
+    public @NotNull Optional<AegisTeam> readTeam(int id) {
+        return time(readTeam, () -> db.readTeam(id));
+    }
+
+    @Override
+    public @NotNull Optional<Map<Integer, AegisTeam>> readTeams(@NotNull Collection<Integer> ids) {
+        return time(readTeams, () -> db.readTeams(ids));
+    }
+
+    @Override
+    public boolean updateTeam(@NotNull AegisTeam team) {
+        return time(updateTeam, () -> db.updateTeam(team));
+    }
+
+    @Override
+    public boolean deleteTeam(int id) {
+        return time(deleteTeam, () -> db.deleteTeam(id));
+    }
+
+    // ----------------- Team membership ------------------------
+
+    @Override
+    public boolean addMember(int tid, int uid, @NotNull TeamUserInfo info) {
+        return time(addMember, () -> db.addMember(tid, uid, info));
+    }
+
+    @Override
+    public boolean removeMember(int tid, int uid) {
+        return time(removeMember, () -> db.removeMember(tid, uid));
+    }
+
+    @Override
+    public boolean setPermission(int tid, int uid, @NotNull UserPermissions permissions) {
+        return time(setPermission, () -> db.setPermission(tid, uid, permissions));
+    }
+
+    @Override
+    public boolean setTeamKey(int tid, int uid, @NotNull String teamKey) {
+        return time(setTeamKey, () -> db.setTeamKey(tid, uid, teamKey));
+    }
+
+    // ----------------- Vault ------------------------
+
+    @Override
+    public @NotNull Optional<AegisVault> readVault(int uid) {
+        return time(readVault, () -> db.readVault(uid));
+    }
+
+    // ----------------- Change log ------------------------
+
+    @Override
+    public @NotNull Optional<Long> readSequence() {
+        return time(readSequence, db::readSequence);
+    }
+
+    @Override
+    public @NotNull Optional<ChangeLog> readChanges(int uid, long since) {
+        return time(readChanges, () -> db.readChanges(uid, since));
+    }
+}
@@ -1,10 +1,15 @@
 package main.java.database.table;
 
+import main.java.database.ConnectionManager;
 import main.java.database.SQLGenerator;
+import main.java.util.Serializer;
 
-import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * An abstract table for storing common information between tables
@@ -15,25 +20,36 @@ public abstract class AbstractTable {
      */
     protected final SQLGenerator generator;
     /**
-     * Connection to the database
+     * Manager for the connections to the database. Get the connection for each operation from here.
      */
-    protected final Connection con;
+    protected final ConnectionManager connections;
     /**
      * The table name
      */
     private final String name;
 
-    public AbstractTable(String name, Connection con) {
+    public AbstractTable(String name, ConnectionManager connections) {
         this.name = name;
-        this.con = con;
+        this.connections = connections;
 
-        generator = new SQLGenerator(name, con);
+        generator = new SQLGenerator(name, connections);
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * @return true if this table has been created in the database
+     */
+    public boolean exists() throws SQLException {
+        PreparedStatement query = connections.prepare("SELECT name FROM sqlite_master WHERE type='table' AND name=?", false);
+        query.setString(1, name);
+        try (ResultSet rs = query.executeQuery()) {
+            return rs.next();
+        }
+    }
+
     /**
      * Drops this table from the database
      *
@@ -57,15 +73,41 @@ public abstract class AbstractTable {
      */
     protected abstract String setupTableColumns();
 
+    /**
+     * Runs Select * From table Where colName IN (ids) in as few queries as possible and hands every row to reader.
+     * Rows are not deduplicated, so a row may be seen more than once if ids contains duplicates.
+     *
+     * @param colName The name of the id column
+     * @param ids     The ids to select for. Nothing is run if this is empty.
+     * @param reader  Called with the result set positioned on each row
+     */
+    protected void selectIn(String colName, Collection<Integer> ids, RowReader reader) throws SQLException, Serializer.SerializationException {
+        for (List<Integer> chunk : SQLGenerator.chunk(ids)) {
+            PreparedStatement query = generator.getIn(colName, chunk);
+            try (ResultSet rs = query.executeQuery()) {
+                while (rs.next()) {
+                    reader.read(rs);
+                }
+            }
+        }
+    }
+
     /**
      * Helper function for running SQL. Use sparingly, since this does not use a prepared statement.
      *
      * @param sql The sql query to run
      */
     private void runSQL(String sql) throws SQLException {
-        Statement stmt = con.createStatement();
+        Statement stmt = connections.connection().createStatement();
         stmt.executeUpdate(sql);
         stmt.close();
     }
 
+    /**
+     * Reads a single row of a result set. Used by selectIn.
+     */
+    @FunctionalInterface
+    protected interface RowReader {
+        void read(ResultSet rs) throws SQLException, Serializer.SerializationException;
+    }
 }
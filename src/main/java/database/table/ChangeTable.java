@@ -0,0 +1,125 @@
+package main.java.database.table;
+
+import main.java.database.ConnectionManager;
+import main.java.model.Change;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The change log. Holds the latest change of every entry, membership and team, so clients can ask what changed
+ * since the last time they synced.
+ * <p>
+ * Every write to a row replaces it with a new one, and the sequence number is an autoincrement row id. Sequence
+ * numbers therefore only grow, and are never reused even if rows are deleted. Removed entries and memberships stay
+ * in the table as tombstones.
+ */
+public class ChangeTable extends AbstractTable {
+    //TableName
+    private static final String table_name = "Change";
+
+    //columns
+    private static final String seqCol = "seq"; //integer
+    private static final String kindCol = "kind"; //integer
+    private static final String tidCol = "tid"; //integer
+    private static final String idCol = "id"; //integer
+    private static final String deletedCol = "deleted"; //integer
+
+    private static final String insert = "INSERT INTO " + table_name + " (" + kindCol + ", " + tidCol + ", " +
+            idCol + ", " + deletedCol + ") VALUES (?, ?, ?, ?)";
+    private static final String select = "SELECT " + seqCol + ", " + kindCol + ", " + tidCol + ", " + idCol + ", " +
+            deletedCol + " FROM " + table_name;
+
+    public ChangeTable(ConnectionManager connections) {
+        super(table_name, connections);
+    }
+
+    /**
+     * Records that the entry, member or team was added or changed
+     */
+    public void changed(Change.Kind kind, int tid, int id) throws SQLException {
+        record(kind, tid, id, false);
+    }
+
+    /**
+     * Records that the entry or member left the team
+     */
+    public void deleted(Change.Kind kind, int tid, int id) throws SQLException {
+        record(kind, tid, id, true);
+    }
+
+    private void record(Change.Kind kind, int tid, int id, boolean deleted) throws SQLException {
+        PreparedStatement p = generator.prepare(insert);
+        p.setInt(1, kind.code);
+        p.setInt(2, tid);
+        p.setInt(3, id);
+        p.setBoolean(4, deleted);
+        p.executeUpdate();
+    }
+
+    /**
+     * Forgets every change in the team. Record the members leaving the team afterwards, so they find out.
+     */
+    public void deleteTeam(int tid) throws SQLException {
+        PreparedStatement p = generator.prepare("DELETE FROM " + table_name + " WHERE " + tidCol + " = ?");
+        p.setInt(1, tid);
+        p.executeUpdate();
+    }
+
+    /**
+     * @return the sequence number of the latest change, or 0 if nothing has changed yet
+     */
+    public long getSequence() throws SQLException {
+        PreparedStatement p = generator.prepare("SELECT seq FROM sqlite_sequence WHERE name = ?");
+        p.setString(1, table_name);
+        try (ResultSet rs = p.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * @return the changes in the team after since, in sequence order
+     */
+    public List<Change> getChanges(int tid, long since) throws SQLException {
+        PreparedStatement p = generator.prepare(select + " WHERE " + tidCol + " = ? AND " + seqCol + " > ? ORDER BY " + seqCol);
+        p.setInt(1, tid);
+        p.setLong(2, since);
+        return read(p);
+    }
+
+    /**
+     * @return the changes to the memberships of the user after since, on any team, in sequence order
+     */
+    public List<Change> getMemberChanges(int uid, long since) throws SQLException {
+        PreparedStatement p = generator.prepare(select + " WHERE " + kindCol + " = ? AND " + idCol + " = ? AND " +
+                seqCol + " > ? ORDER BY " + seqCol);
+        p.setInt(1, Change.Kind.MEMBER.code);
+        p.setInt(2, uid);
+        p.setLong(3, since);
+        return read(p);
+    }
+
+    private static List<Change> read(PreparedStatement p) throws SQLException {
+        List<Change> ret = new ArrayList<>();
+        try (ResultSet rs = p.executeQuery()) {
+            while (rs.next()) {
+                ret.add(new Change(Change.Kind.fromCode(rs.getInt(kindCol)), rs.getInt(tidCol), rs.getInt(idCol),
+                        rs.getBoolean(deletedCol), rs.getLong(seqCol)));
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    protected String setupTableColumns() {
+        return seqCol + " integer  primary key autoincrement, " +
+                kindCol + " integer  not null, " +
+                tidCol + " integer  not null, " +
+                idCol + " integer  not null, " +
+                deletedCol + " integer  not null, " +
+                "unique (" + kindCol + "," + idCol + "," + tidCol + ") ON CONFLICT REPLACE";
+    }
+}
@@ -1,16 +1,20 @@
 package main.java.database.table;
 
+import main.java.database.ConnectionManager;
 import main.java.model.AegisEntry;
 import main.java.model.NoIDAegisEntry;
 import main.java.model.info.EntryInfo;
+import main.java.util.BinaryCodec;
 import main.java.util.Serializer;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * A table representing all the entries
@@ -23,16 +27,16 @@ public class EntryTable extends AbstractTable {
     private static final String eidCol = "eid"; //Integer
     private static final String infoCol = "info"; //Blob
 
-    public EntryTable(Connection con) {
-        super(table_name, con);
+    public EntryTable(ConnectionManager connections) {
+        super(table_name, connections);
     }
 
     public int addEntry(NoIDAegisEntry entry) throws SQLException, Serializer.SerializationException {
-        try (PreparedStatement p = generator.insertInto(Collections.singletonList(infoCol), true)) {
-            p.setObject(1, Serializer.serialize(entry.entryInfo));
-            p.executeUpdate();
+        PreparedStatement p = generator.insertInto(Collections.singletonList(infoCol), true);
+        p.setBytes(1, BinaryCodec.encode(entry.entryInfo));
+        p.executeUpdate();
 
-            ResultSet rs = p.getGeneratedKeys();
+        try (ResultSet rs = p.getGeneratedKeys()) {
             if (rs.next()) {
                 long ret = rs.getLong(1);
                 if (ret == (int) ret) {
@@ -45,12 +49,17 @@ public class EntryTable extends AbstractTable {
         }
     }
 
+    /**
+     * Updates the info of an existing entry in place.
+     *
+     * @throws SQLException if the entry does not exist
+     */
     public void updateEntry(AegisEntry entry) throws SQLException, Serializer.SerializationException {
-        deleteEntry(entry.id);
-        try (PreparedStatement p = generator.insertInto(Arrays.asList(eidCol, infoCol), false)) {
-            p.setInt(1, entry.id);
-            p.setBytes(2, Serializer.serialize(entry.entryInfo));
-            p.executeUpdate();
+        PreparedStatement p = generator.updateID(Collections.singletonList(infoCol), Collections.singletonList(eidCol),
+                Collections.singletonList(entry.id));
+        p.setBytes(1, BinaryCodec.encode(entry.entryInfo));
+        if (p.executeUpdate() == 0) {
+            throw new SQLException("Entry does not exist");
         }
     }
 
@@ -58,21 +67,54 @@ public class EntryTable extends AbstractTable {
      * Reads in the EntryInfo that corresponds to an eid
      */
     public EntryInfo readEntry(int eid) throws SQLException, Serializer.SerializationException {
-        try (PreparedStatement query = generator.getID(Collections.singletonList(eidCol), Collections.singletonList(eid))) {
+        PreparedStatement query = generator.getID(Collections.singletonList(eidCol), Collections.singletonList(eid));
 
-            ResultSet rs = query.executeQuery();
+        try (ResultSet rs = query.executeQuery()) {
             if (rs.next()) {
-                return Serializer.deserialize(rs.getBytes(infoCol));
+                return BinaryCodec.decodeEntry(rs.getBytes(infoCol));
             } else {
                 throw new SQLException("Entry does not exist");
             }
         }
     }
 
-    public void deleteEntry(int eid) throws SQLException {
-        try (PreparedStatement query = generator.deleteID(Collections.singletonList(eidCol), Collections.singletonList(eid))) {
-            query.executeUpdate();
+    /**
+     * Reads in the EntryInfo of every eid that exists. Missing eids are left out of the map.
+     */
+    public HashMap<Integer, EntryInfo> readEntries(Collection<Integer> eids) throws SQLException, Serializer.SerializationException {
+        HashMap<Integer, EntryInfo> ret = new HashMap<>();
+        selectIn(eidCol, eids, rs -> ret.put(rs.getInt(eidCol), BinaryCodec.decodeEntry(rs.getBytes(infoCol))));
+        return ret;
+    }
+
+    /**
+     * Reads every entry on the teams of the user in a single query, instead of looking up the teams, then their
+     * entries, then the entries themselves.
+     *
+     * @param uid the userID
+     * @return A map from teamID to the entries of that team, in the order they were added to it. Teams without
+     * entries are left out.
+     */
+    public HashMap<Integer, List<AegisEntry>> readUserEntries(int uid) throws SQLException, Serializer.SerializationException {
+        PreparedStatement query = generator.prepare("SELECT te.tid, e." + eidCol + ", e." + infoCol +
+                " FROM TeamAndUser tu JOIN TeamAndEntry te ON te.tid = tu.tid JOIN " + table_name + " e ON e." +
+                eidCol + " = te.eid WHERE tu.uid = ? ORDER BY te.tid, te.rowid");
+        query.setInt(1, uid);
+
+        HashMap<Integer, List<AegisEntry>> ret = new HashMap<>();
+        try (ResultSet rs = query.executeQuery()) {
+            while (rs.next()) {
+                int tid = rs.getInt(1);
+                AegisEntry entry = new AegisEntry(BinaryCodec.decodeEntry(rs.getBytes(3)), tid, rs.getInt(2));
+                ret.computeIfAbsent(tid, t -> new ArrayList<>()).add(entry);
+            }
         }
+        return ret;
+    }
+
+    public void deleteEntry(int eid) throws SQLException {
+        PreparedStatement query = generator.deleteID(Collections.singletonList(eidCol), Collections.singletonList(eid));
+        query.executeUpdate();
     }
 
     @Override
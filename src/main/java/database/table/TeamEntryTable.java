@@ -1,13 +1,16 @@
 package main.java.database.table;
 
-import java.sql.Connection;
+import main.java.database.ConnectionManager;
+import main.java.util.IntList;
+import main.java.util.Serializer;
+
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.List;
+import java.util.HashMap;
 
 /**
  * A table mapping teams to entries
@@ -20,8 +23,8 @@ public class TeamEntryTable extends AbstractTable {
     private static final String eidCol = "eid"; //integer
     private static final String tidCol = "tid"; //integer
 
-    public TeamEntryTable(Connection con) {
-        super(table_name, con);
+    public TeamEntryTable(ConnectionManager connections) {
+        super(table_name, connections);
     }
 
     /**
@@ -31,11 +34,10 @@ public class TeamEntryTable extends AbstractTable {
      * @param eid the entryID
      */
     public void addTeamAndEntry(int tid, int eid) throws SQLException {
-        try (PreparedStatement preparedStatement = generator.insertInto(Arrays.asList(tidCol, eidCol), false)) {
-            preparedStatement.setInt(1, tid);
-            preparedStatement.setInt(2, eid);
-            preparedStatement.executeUpdate();
-        }
+        PreparedStatement preparedStatement = generator.insertInto(Arrays.asList(tidCol, eidCol), false);
+        preparedStatement.setInt(1, tid);
+        preparedStatement.setInt(2, eid);
+        preparedStatement.executeUpdate();
     }
 
     /**
@@ -44,8 +46,8 @@ public class TeamEntryTable extends AbstractTable {
      * @param eid the entryID
      */
     public int getTeam(int eid) throws SQLException {
-        try (PreparedStatement query = generator.getID(Collections.singletonList(eidCol), Collections.singletonList(eid))) {
-            ResultSet rs = query.executeQuery();
+        PreparedStatement query = generator.getID(Collections.singletonList(eidCol), Collections.singletonList(eid));
+        try (ResultSet rs = query.executeQuery()) {
             if (rs.next()) {
                 return rs.getInt(tidCol);
             }
@@ -60,28 +62,54 @@ public class TeamEntryTable extends AbstractTable {
      * @param tid the teamID
      * @return A list of teams
      */
-    public List<Integer> getEntries(int tid) throws SQLException {
-        List<Integer> ret = new ArrayList<>();
-        try (PreparedStatement query = generator.getID(Collections.singletonList(tidCol), Collections.singletonList(tid))) {
-            ResultSet rs = query.executeQuery();
+    public IntList getEntries(int tid) throws SQLException {
+        IntList.Builder ret = new IntList.Builder();
+        PreparedStatement query = generator.getID(Collections.singletonList(tidCol), Collections.singletonList(tid));
+        try (ResultSet rs = query.executeQuery()) {
             while (rs.next()) {
                 ret.add(rs.getInt(eidCol));
             }
         }
 
+        return ret.build();
+    }
+
+    /**
+     * Gets the team of every entry in eids that has one.
+     *
+     * @param eids the entryIDs
+     * @return A map from entryID to teamID
+     */
+    public HashMap<Integer, Integer> getTeams(Collection<Integer> eids) throws SQLException, Serializer.SerializationException {
+        HashMap<Integer, Integer> ret = new HashMap<>();
+        selectIn(eidCol, eids, rs -> ret.put(rs.getInt(eidCol), rs.getInt(tidCol)));
+        return ret;
+    }
+
+    /**
+     * Get the entries of every team in tids. Teams without entries map to an empty list.
+     *
+     * @param tids the teamIDs
+     * @return A map from teamID to the entries of that team
+     */
+    public HashMap<Integer, IntList> getEntries(Collection<Integer> tids) throws SQLException, Serializer.SerializationException {
+        HashMap<Integer, IntList.Builder> builders = new HashMap<>();
+        tids.forEach(tid -> builders.put(tid, new IntList.Builder()));
+        selectIn(tidCol, builders.keySet(), rs -> builders.get(rs.getInt(tidCol)).add(rs.getInt(eidCol)));
+
+        HashMap<Integer, IntList> ret = new HashMap<>();
+        builders.forEach((tid, builder) -> ret.put(tid, builder.build()));
         return ret;
     }
 
     public void deleteEntry(int eid) throws SQLException {
-        try (PreparedStatement query = generator.deleteID(Collections.singletonList(eidCol), Collections.singletonList(eid))) {
-            query.executeUpdate();
-        }
+        PreparedStatement query = generator.deleteID(Collections.singletonList(eidCol), Collections.singletonList(eid));
+        query.executeUpdate();
     }
 
     public void deleteTeam(int tid) throws SQLException {
-        try (PreparedStatement query = generator.deleteID(Collections.singletonList(tidCol), Collections.singletonList(tid))) {
-            query.executeUpdate();
-        }
+        PreparedStatement query = generator.deleteID(Collections.singletonList(tidCol), Collections.singletonList(tid));
+        query.executeUpdate();
     }
 
     @Override
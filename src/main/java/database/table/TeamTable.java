@@ -1,16 +1,18 @@
 package main.java.database.table;
 
+import main.java.database.ConnectionManager;
 import main.java.model.AegisTeam;
 import main.java.model.NoIDAegisTeam;
 import main.java.model.info.TeamInfo;
+import main.java.util.BinaryCodec;
 import main.java.util.Serializer;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 
 /**
  * A table representing all the teams
@@ -23,16 +25,16 @@ public class TeamTable extends AbstractTable {
     private static final String tidCol = "tidCol"; //Integer
     private static final String infoCol = "infoCol"; //Blob
 
-    public TeamTable(Connection con) {
-        super(table_name, con);
+    public TeamTable(ConnectionManager connections) {
+        super(table_name, connections);
     }
 
     public int addTeam(NoIDAegisTeam team) throws SQLException, Serializer.SerializationException {
-        try (PreparedStatement p = generator.insertInto(Collections.singletonList(infoCol), true)) {
-            p.setBytes(1, Serializer.serialize(team.teamInfo));
+        PreparedStatement p = generator.insertInto(Collections.singletonList(infoCol), true);
+        p.setBytes(1, BinaryCodec.encode(team.teamInfo));
 
-            p.executeUpdate();
-            ResultSet rs = p.getGeneratedKeys();
+        p.executeUpdate();
+        try (ResultSet rs = p.getGeneratedKeys()) {
             if (rs.next()) {
                 long ret = rs.getLong(1);
                 if (ret == (int) ret) {
@@ -44,12 +46,17 @@ public class TeamTable extends AbstractTable {
         }
     }
 
+    /**
+     * Updates the info of an existing team in place.
+     *
+     * @throws SQLException if the team does not exist
+     */
     public void updateTeam(AegisTeam team) throws SQLException, Serializer.SerializationException {
-        deleteTeam(team.id);
-        try (PreparedStatement p = generator.insertInto(Arrays.asList(tidCol, infoCol), false)) {
-            p.setInt(1, team.id);
-            p.setBytes(2, Serializer.serialize(team.teamInfo));
-            p.executeUpdate();
+        PreparedStatement p = generator.updateID(Collections.singletonList(infoCol), Collections.singletonList(tidCol),
+                Collections.singletonList(team.id));
+        p.setBytes(1, BinaryCodec.encode(team.teamInfo));
+        if (p.executeUpdate() == 0) {
+            throw new SQLException("Team does not exist");
         }
     }
 
@@ -57,21 +64,29 @@ public class TeamTable extends AbstractTable {
      * Reads in the TeamInfo that corresponds to an eid
      */
     public TeamInfo readTeam(int tid) throws SQLException, Serializer.SerializationException {
-        try (PreparedStatement query = generator.getID(Collections.singletonList(tidCol), Collections.singletonList(tid))) {
+        PreparedStatement query = generator.getID(Collections.singletonList(tidCol), Collections.singletonList(tid));
 
-            ResultSet rs = query.executeQuery();
+        try (ResultSet rs = query.executeQuery()) {
             if (rs.next()) {
-                return Serializer.deserialize(rs.getBytes(infoCol));
+                return BinaryCodec.decodeTeam(rs.getBytes(infoCol));
             } else {
                 throw new SQLException("Team does not exist");
             }
         }
     }
 
+    /**
+     * Reads in the TeamInfo of every tid that exists. Missing tids are left out of the map.
+     */
+    public HashMap<Integer, TeamInfo> readTeams(Collection<Integer> tids) throws SQLException, Serializer.SerializationException {
+        HashMap<Integer, TeamInfo> ret = new HashMap<>();
+        selectIn(tidCol, tids, rs -> ret.put(rs.getInt(tidCol), BinaryCodec.decodeTeam(rs.getBytes(infoCol))));
+        return ret;
+    }
+
     public void deleteTeam(int tid) throws SQLException {
-        try (PreparedStatement query = generator.deleteID(Collections.singletonList(tidCol), Collections.singletonList(tid))) {
-            query.executeUpdate();
-        }
+        PreparedStatement query = generator.deleteID(Collections.singletonList(tidCol), Collections.singletonList(tid));
+        query.executeUpdate();
     }
 
     @Override
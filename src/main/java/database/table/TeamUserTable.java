@@ -1,13 +1,17 @@
 package main.java.database.table;
 
+import main.java.database.ConnectionManager;
 import main.java.model.info.TeamUserInfo;
+import main.java.util.BinaryCodec;
+import main.java.util.IntMap;
 import main.java.util.Serializer;
+import org.jetbrains.annotations.Nullable;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 
@@ -23,8 +27,8 @@ public class TeamUserTable extends AbstractTable {
     private static final String tidCol = "tid"; //integer
     private static final String infoCol = "info"; //blob
 
-    public TeamUserTable(Connection con) {
-        super(table_name, con);
+    public TeamUserTable(ConnectionManager connections) {
+        super(table_name, connections);
     }
 
 
@@ -36,50 +40,116 @@ public class TeamUserTable extends AbstractTable {
      * @param info permission level
      */
     public void addTeamAndUser(int tid, int uid, TeamUserInfo info) throws SQLException, Serializer.SerializationException {
-        try (PreparedStatement preparedStatement = generator.insertInto(Arrays.asList(tidCol, uidCol, infoCol), false)) {
-            preparedStatement.setInt(1, tid);
-            preparedStatement.setInt(2, uid);
-            preparedStatement.setBytes(3, Serializer.serialize(info));
-            preparedStatement.executeUpdate();
+        PreparedStatement preparedStatement = generator.insertInto(Arrays.asList(tidCol, uidCol, infoCol), false);
+        preparedStatement.setInt(1, tid);
+        preparedStatement.setInt(2, uid);
+        preparedStatement.setBytes(3, BinaryCodec.encode(info));
+        preparedStatement.executeUpdate();
+    }
+
+    /**
+     * Replaces the info of an existing row
+     *
+     * @param tid  the teamID
+     * @param uid  the userID
+     * @param info the new permission level
+     * @return false if the user is not in the team
+     */
+    public boolean updateTeamAndUser(int tid, int uid, TeamUserInfo info) throws SQLException, Serializer.SerializationException {
+        PreparedStatement p = generator.updateID(Collections.singletonList(infoCol), Arrays.asList(tidCol, uidCol), Arrays.asList(tid, uid));
+        p.setBytes(1, BinaryCodec.encode(info));
+        return p.executeUpdate() > 0;
+    }
+
+    /**
+     * @return the info of the user on the team or null if the user is not in the team
+     */
+    @Nullable
+    public TeamUserInfo getTeamAndUser(int tid, int uid) throws SQLException, Serializer.SerializationException {
+        PreparedStatement query = generator.getID(Arrays.asList(tidCol, uidCol), Arrays.asList(tid, uid));
+        try (ResultSet rs = query.executeQuery()) {
+            if (rs.next()) {
+                return BinaryCodec.decodeTeamUser(rs.getBytes(infoCol));
+            }
+
+            return null;
         }
     }
 
-    public HashMap<Integer, TeamUserInfo> getUserPermissions(int uid) throws SQLException, Serializer.SerializationException {
-        try (PreparedStatement query = generator.getID(Collections.singletonList(uidCol), Collections.singletonList(uid))) {
-            ResultSet rs = query.executeQuery();
-            HashMap<Integer, TeamUserInfo> ret = new HashMap<>();
+    public IntMap<TeamUserInfo> getUserPermissions(int uid) throws SQLException, Serializer.SerializationException {
+        PreparedStatement query = generator.getID(Collections.singletonList(uidCol), Collections.singletonList(uid));
+        try (ResultSet rs = query.executeQuery()) {
+            IntMap.Builder<TeamUserInfo> ret = new IntMap.Builder<>();
             while (rs.next()) {
-                TeamUserInfo info = Serializer.deserialize(rs.getBytes(infoCol));
+                TeamUserInfo info = BinaryCodec.decodeTeamUser(rs.getBytes(infoCol));
                 ret.put(rs.getInt(tidCol), info);
             }
 
-            return ret;
+            return ret.build();
         }
     }
 
-    public HashMap<Integer, TeamUserInfo> getTeamPermissions(int tid) throws SQLException, Serializer.SerializationException {
-        try (PreparedStatement query = generator.getID(Collections.singletonList(tidCol), Collections.singletonList(tid))) {
-            ResultSet rs = query.executeQuery();
-            HashMap<Integer, TeamUserInfo> ret = new HashMap<>();
+    public IntMap<TeamUserInfo> getTeamPermissions(int tid) throws SQLException, Serializer.SerializationException {
+        PreparedStatement query = generator.getID(Collections.singletonList(tidCol), Collections.singletonList(tid));
+        try (ResultSet rs = query.executeQuery()) {
+            IntMap.Builder<TeamUserInfo> ret = new IntMap.Builder<>();
             while (rs.next()) {
-                TeamUserInfo info = Serializer.deserialize(rs.getBytes(infoCol));
+                TeamUserInfo info = BinaryCodec.decodeTeamUser(rs.getBytes(infoCol));
                 ret.put(rs.getInt(uidCol), info);
             }
 
-            return ret;
+            return ret.build();
         }
     }
 
+    /**
+     * Same as getUserPermissions, but for every uid in uids. Users without teams map to an empty map.
+     */
+    public HashMap<Integer, IntMap<TeamUserInfo>> getUserPermissions(Collection<Integer> uids) throws SQLException, Serializer.SerializationException {
+        HashMap<Integer, IntMap.Builder<TeamUserInfo>> builders = new HashMap<>();
+        uids.forEach(uid -> builders.put(uid, new IntMap.Builder<>()));
+        selectIn(uidCol, builders.keySet(), rs -> {
+            TeamUserInfo info = BinaryCodec.decodeTeamUser(rs.getBytes(infoCol));
+            builders.get(rs.getInt(uidCol)).put(rs.getInt(tidCol), info);
+        });
+        return build(builders);
+    }
+
+    /**
+     * Same as getTeamPermissions, but for every tid in tids. Teams without users map to an empty map.
+     */
+    public HashMap<Integer, IntMap<TeamUserInfo>> getTeamPermissions(Collection<Integer> tids) throws SQLException, Serializer.SerializationException {
+        HashMap<Integer, IntMap.Builder<TeamUserInfo>> builders = new HashMap<>();
+        tids.forEach(tid -> builders.put(tid, new IntMap.Builder<>()));
+        selectIn(tidCol, builders.keySet(), rs -> {
+            TeamUserInfo info = BinaryCodec.decodeTeamUser(rs.getBytes(infoCol));
+            builders.get(rs.getInt(tidCol)).put(rs.getInt(uidCol), info);
+        });
+        return build(builders);
+    }
+
+    private static HashMap<Integer, IntMap<TeamUserInfo>> build(HashMap<Integer, IntMap.Builder<TeamUserInfo>> builders) {
+        HashMap<Integer, IntMap<TeamUserInfo>> ret = new HashMap<>();
+        builders.forEach((id, builder) -> ret.put(id, builder.build()));
+        return ret;
+    }
+
+    /**
+     * @return false if the user is not in the team
+     */
+    public boolean deleteTeamAndUser(int tid, int uid) throws SQLException {
+        PreparedStatement query = generator.deleteID(Arrays.asList(tidCol, uidCol), Arrays.asList(tid, uid));
+        return query.executeUpdate() > 0;
+    }
+
     public void deleteTeam(int tid) throws SQLException {
-        try (PreparedStatement query = generator.deleteID(Collections.singletonList(tidCol), Collections.singletonList(tid))) {
-            query.executeUpdate();
-        }
+        PreparedStatement query = generator.deleteID(Collections.singletonList(tidCol), Collections.singletonList(tid));
+        query.executeUpdate();
     }
 
     public void deleteUser(int uid) throws SQLException {
-        try (PreparedStatement query = generator.deleteID(Collections.singletonList(uidCol), Collections.singletonList(uid))) {
-            query.executeUpdate();
-        }
+        PreparedStatement query = generator.deleteID(Collections.singletonList(uidCol), Collections.singletonList(uid));
+        query.executeUpdate();
     }
 
     @Override
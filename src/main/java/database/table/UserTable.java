@@ -1,15 +1,17 @@
 package main.java.database.table;
 
+import main.java.database.ConnectionManager;
 import main.java.model.AegisUser;
 import main.java.model.NoIDAegisUser;
 import main.java.model.info.UserInfo;
+import main.java.util.BinaryCodec;
 import main.java.util.Serializer;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 
@@ -25,17 +27,17 @@ public class UserTable extends AbstractTable {
     private static final String emailCol = "email"; //Text
     private static final String infoCol = "info"; //Blob
 
-    public UserTable(Connection con) {
-        super(table_name, con);
+    public UserTable(ConnectionManager connections) {
+        super(table_name, connections);
     }
 
     public int addUser(NoIDAegisUser user) throws SQLException, Serializer.SerializationException {
-        try (PreparedStatement p = generator.insertInto(Arrays.asList(emailCol, infoCol), true)) {
-            p.setString(1, user.email);
-            p.setBytes(2, Serializer.serialize(user.userInfo));
+        PreparedStatement p = generator.insertInto(Arrays.asList(emailCol, infoCol), true);
+        p.setString(1, user.email);
+        p.setBytes(2, BinaryCodec.encode(user.userInfo));
 
-            p.executeUpdate();
-            ResultSet rs = p.getGeneratedKeys();
+        p.executeUpdate();
+        try (ResultSet rs = p.getGeneratedKeys()) {
             if (rs.next()) {
                 long ret = rs.getLong(1);
                 if (ret == (int) ret) {
@@ -47,13 +49,18 @@ public class UserTable extends AbstractTable {
         }
     }
 
+    /**
+     * Updates the email and user info of an existing user in place.
+     *
+     * @throws SQLException if the user does not exist
+     */
     public void updateUser(AegisUser user) throws SQLException, Serializer.SerializationException {
-        deleteUser(user.id);
-        try (PreparedStatement p = generator.insertInto(Arrays.asList(uidCol, emailCol, infoCol), false)) {
-            p.setInt(1, user.id);
-            p.setString(2, user.email);
-            p.setBytes(3, Serializer.serialize(user.userInfo));
-            p.executeUpdate();
+        PreparedStatement p = generator.updateID(Arrays.asList(emailCol, infoCol), Collections.singletonList(uidCol),
+                Collections.singletonList(user.id));
+        p.setString(1, user.email);
+        p.setBytes(2, BinaryCodec.encode(user.userInfo));
+        if (p.executeUpdate() == 0) {
+            throw new SQLException("User does not exist");
         }
     }
 
@@ -62,11 +69,11 @@ public class UserTable extends AbstractTable {
      * uidCol, emailCol, and aegis user info. Sets the other fields to trivial values that will have to be set later.
      */
     public AegisUser readUser(int uid) throws SQLException, Serializer.SerializationException {
-        try (PreparedStatement query = generator.getID(Collections.singletonList(uidCol), Collections.singletonList(uid))) {
-            ResultSet rs = query.executeQuery();
+        PreparedStatement query = generator.getID(Collections.singletonList(uidCol), Collections.singletonList(uid));
+        try (ResultSet rs = query.executeQuery()) {
             if (rs.next()) {
                 String email = rs.getString(emailCol);
-                UserInfo info = Serializer.deserialize(rs.getBytes(infoCol));
+                UserInfo info = BinaryCodec.decodeUser(rs.getBytes(infoCol));
                 return new AegisUser(info, email, new HashMap<>(), uid);
             } else {
                 throw new SQLException("User does not exist");
@@ -75,12 +82,26 @@ public class UserTable extends AbstractTable {
     }
 
     /**
-     * Gets the UID of the user that corresponds to this email address.
+     * Same as readUser, but for every uid that exists. Missing uids are left out of the map.
+     */
+    public HashMap<Integer, AegisUser> readUsers(Collection<Integer> uids) throws SQLException, Serializer.SerializationException {
+        HashMap<Integer, AegisUser> ret = new HashMap<>();
+        selectIn(uidCol, uids, rs -> {
+            int uid = rs.getInt(uidCol);
+            UserInfo info = BinaryCodec.decodeUser(rs.getBytes(infoCol));
+            ret.put(uid, new AegisUser(info, rs.getString(emailCol), new HashMap<>(), uid));
+        });
+        return ret;
+    }
+
+    /**
+     * Gets the UID of the user that corresponds to this email address. Emails are matched case insensitively, and
+     * are unique regardless of case.
      */
     public int getID(String email) throws SQLException, Serializer.SerializationException {
-        try (PreparedStatement query = con.prepareStatement(generator.select_from_where + emailCol + "=?")) {
-            query.setString(1, email);
-            ResultSet rs = query.executeQuery();
+        PreparedStatement query = generator.prepare(generator.select_from_where + emailCol + "=? COLLATE NOCASE");
+        query.setString(1, email);
+        try (ResultSet rs = query.executeQuery()) {
 
             if (rs.next()) {
                 return rs.getInt(uidCol);
@@ -91,9 +112,8 @@ public class UserTable extends AbstractTable {
     }
 
     public void deleteUser(int uid) throws SQLException {
-        try (PreparedStatement query = generator.deleteID(Collections.singletonList(uidCol), Collections.singletonList(uid))) {
-            query.executeUpdate();
-        }
+        PreparedStatement query = generator.deleteID(Collections.singletonList(uidCol), Collections.singletonList(uid));
+        query.executeUpdate();
     }
 
     @Override
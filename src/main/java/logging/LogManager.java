@@ -1,5 +1,6 @@
 package main.java.logging;
 
+import main.java.metrics.Histogram;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
@@ -10,11 +11,26 @@ import org.jetbrains.annotations.NotNull;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The primary class responsible for managing the log database.
+ * <p>
+ * Logging does not write to the database directly. Entries are put on a bounded queue and a background writer
+ * thread saves them in batches, one transaction per batch. What happens when the queue is full is decided by the
+ * overflow policy in the LogSettings. Queries flush the queue first, so they always see every entry logged before
+ * them. Closing the LogManager (or shutting down the JVM) writes out whatever is still queued.
  */
 public class LogManager {
     /**
@@ -34,6 +50,44 @@ public class LogManager {
      */
     private final SessionFactory factory;
 
+    private final LogSettings settings;
+
+    /**
+     * Entries waiting to be written. The queue itself is unbounded and lock free, capacity is what bounds it.
+     */
+    private final ConcurrentLinkedQueue<LogEntry> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * One permit per free slot in the queue. An entry holds its permit until it has been written.
+     */
+    private final Semaphore capacity;
+
+    /**
+     * Writes the queued entries to the database
+     */
+    private final Thread writer;
+
+    /**
+     * Closes this LogManager when the JVM shuts down, so queued entries are not lost
+     */
+    private final Thread shutdownHook;
+
+    private volatile boolean closed = false;
+
+    //Held while closing, which waits for the writer. Not a monitor, so a virtual thread that closes does not hold on
+    //to its carrier thread meanwhile
+    private final ReentrantLock closeLock = new ReentrantLock();
+
+    //Number of entries that were put on the queue, and that left it again (written, failed or dropped). Used by flush
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+
+    //Metrics
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final Histogram batchWrites = new Histogram();
+
     /**
      * Creates a new LogManager. Reset defaults to false
      */
@@ -43,11 +97,21 @@ public class LogManager {
 
 
     /**
-     * Creates a new LoggerManager.
+     * Creates a new LoggerManager with the default settings.
      *
      * @param reset true iff we should delete the database to reset it.
      */
     public LogManager(boolean reset) {
+        this(reset, new LogSettings());
+    }
+
+    /**
+     * Creates a new LoggerManager.
+     *
+     * @param reset    true iff we should delete the database to reset it.
+     * @param settings settings for the background writer
+     */
+    public LogManager(boolean reset, LogSettings settings) {
         if (reset) { //SQLite so just delete the file if it exists
             try {
                 Files.deleteIfExists(new File(dbFileName).toPath());
@@ -57,28 +121,208 @@ public class LogManager {
         }
 
         factory = new Configuration().configure().addAnnotatedClass(LogEntry.class).buildSessionFactory();
+
+        if (settings.queueCapacity < 1 || settings.batchSize < 1) {
+            throw new IllegalArgumentException("The log queue capacity and batch size must be positive");
+        }
+
+        this.settings = settings;
+        capacity = new Semaphore(settings.queueCapacity);
+
+        writer = new Thread(this::runWriter, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        shutdownHook = new Thread(this::close, "log-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
     }
 
     /**
-     * Close this logger manager
+     * Close this logger manager. Blocks until every queued entry has been written.
      */
     public void close() {
-        factory.close();
+        closeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            LockSupport.unpark(writer);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            //Entries that were logged while the writer was stopping
+            drain();
+
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) { //We are the shutdown hook
+            }
+
+            factory.close();
+        } finally {
+            closeLock.unlock();
+        }
     }
 
     /**
-     * Adds the given log entry into the database
+     * Adds the given log entry into the database. The entry is written in the background, unless it is dropped
+     * because the queue is full.
      * <p>
      * The log entry must fulfill the spec of LogEntry
      */
     public void log(LogEntry entry) {
+        if (closed) {
+            dropped.increment();
+            return;
+        }
+
+        if (!capacity.tryAcquire()) {
+            switch (settings.overflowPolicy) {
+                case DROP_NEWEST:
+                    dropped.increment();
+                    return;
+                case DROP_OLDEST:
+                    //Take over the permit of the oldest entry. If the writer already has all of them, drop this one
+                    if (queue.poll() == null) {
+                        dropped.increment();
+                        return;
+                    }
+                    dropped.increment();
+                    processed.incrementAndGet();
+                    break;
+                case BLOCK:
+                    LockSupport.unpark(writer);
+                    capacity.acquireUninterruptibly();
+                    break;
+            }
+        }
+
+        queue.add(entry);
+        accepted.incrementAndGet();
+
+        if (getQueueDepth() >= settings.batchSize) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Blocks until every entry logged before this call has been written (or has failed to be written).
+     */
+    public void flush() {
+        long target = accepted.get();
+        while (processed.get() < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Body of the writer thread. Writes full batches as soon as they are available and partial batches after
+     * flushIntervalMillis, or when flush, close or a blocked log wakes it up.
+     */
+    private void runWriter() {
+        do {
+            if (getQueueDepth() < settings.batchSize && !closed) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(settings.flushIntervalMillis));
+            }
+        } while (drain() > 0 || !closed);
+    }
+
+    /**
+     * Writes out the queue in batches until it is empty
+     *
+     * @return the number of entries taken off the queue
+     */
+    private int drain() {
+        int total = 0;
+        List<LogEntry> batch = new ArrayList<>(settings.batchSize);
+
+        LogEntry entry;
+        do {
+            while (batch.size() < settings.batchSize && (entry = queue.poll()) != null) {
+                batch.add(entry);
+            }
+
+            if (!batch.isEmpty()) {
+                write(batch);
+                capacity.release(batch.size());
+                processed.addAndGet(batch.size());
+                total += batch.size();
+                batch.clear();
+            }
+        } while (!queue.isEmpty());
+
+        return total;
+    }
+
+    /**
+     * Saves the batch in a single transaction
+     */
+    private void write(List<LogEntry> batch) {
+        long start = System.nanoTime();
         try (Session session = factory.openSession()) {
             Transaction t = session.beginTransaction();
-            session.save(entry);
-            t.commit();
+            try {
+                for (LogEntry e : batch) {
+                    session.save(e);
+                }
+                t.commit();
+                written.add(batch.size());
+            } catch (RuntimeException e) {
+                t.rollback();
+                throw e;
+            }
+        } catch (RuntimeException e) {
+            failed.add(batch.size());
+            System.err.println("Unable to write " + batch.size() + " log entries");
+            e.printStackTrace();
+        } finally {
+            batchWrites.recordSince(start);
         }
     }
 
+    // ----------------- Metrics ------------------------
+
+    /**
+     * @return the number of entries waiting to be written, including the batch being written right now
+     */
+    public int getQueueDepth() {
+        return settings.queueCapacity - capacity.availablePermits();
+    }
+
+    /**
+     * @return the number of entries written to the database
+     */
+    public long getWrittenEntries() {
+        return written.sum();
+    }
+
+    /**
+     * @return the number of entries dropped because the queue was full or the LogManager was closed
+     */
+    public long getDroppedEntries() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of entries lost because their batch failed to write
+     */
+    public long getFailedEntries() {
+        return failed.sum();
+    }
+
+    /**
+     * @return how long each batch took to write, whether it failed or not
+     */
+    public Histogram getBatchWriteTimes() {
+        return batchWrites;
+    }
+
     /**
      * Method for logging
      *
@@ -121,6 +365,7 @@ public class LogManager {
      */
     @SuppressWarnings("unchecked") //We know that the session is unchecked, it should still be safe
     public List<LogEntry> getAllEntries() {
+        flush();
         try (Session session = factory.openSession()) {
             return session.createQuery("from " + entityName).list();
         }
@@ -132,6 +377,7 @@ public class LogManager {
      */
     @SuppressWarnings("unchecked") //We know that the session is unchecked, it should still be safe
     public List<LogEntry> getEntriesbyUid(int uid) {
+        flush();
         try (Session session = factory.openSession()) {
             String hql = "FROM " + entityName + " E WHERE E.uid = :uid";
             Query query = session.createQuery(hql);
@@ -146,6 +392,7 @@ public class LogManager {
      */
     @SuppressWarnings("unchecked") //We know that the session is unchecked, it should still be safe
     public List<LogEntry> getEntriesbyTid(int tid) {
+        flush();
         try (Session session = factory.openSession()) {
             String hql = "FROM " + entityName + " E WHERE E.tid = :tid";
             Query query = session.createQuery(hql);
@@ -154,5 +401,88 @@ public class LogManager {
         }
     }
 
+    /**
+     * Same as getEntriesbyUid, except that the entries are read a page at a time while the iterator is advanced, in
+     * order of ID. Every page is its own short query, so nothing is left open between pages.
+     *
+     * @param uid      the uid of the user we want to get the logs for
+     * @param pageSize the most entries to read at a time
+     */
+    public Iterator<List<LogEntry>> pageEntriesbyUid(int uid, int pageSize) {
+        return new Pages("uid", uid, pageSize);
+    }
+
+    /**
+     * Same as getEntriesbyTid, except that the entries are read a page at a time while the iterator is advanced, in
+     * order of ID. Every page is its own short query, so nothing is left open between pages.
+     *
+     * @param tid      the tid of the team we want to get the logs for
+     * @param pageSize the most entries to read at a time
+     */
+    public Iterator<List<LogEntry>> pageEntriesbyTid(int tid, int pageSize) {
+        return new Pages("tid", tid, pageSize);
+    }
+
+    /**
+     * Pages through the entries with the given value in a column. Each page continues after the ID of the last entry
+     * of the previous page, so entries logged while paging only show up at the end.
+     */
+    private class Pages implements Iterator<List<LogEntry>> {
+        private final String hql;
+        private final int value;
+        private final int pageSize;
+
+        private int after = 0; //IDs start at 1
+        private List<LogEntry> next = null;
+        private boolean done = false;
+
+        private Pages(String column, int value, int pageSize) {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("The page size must be positive");
+            }
+
+            this.hql = "FROM " + entityName + " E WHERE E." + column + " = :value AND E.id > :after ORDER BY E.id";
+            this.value = value;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                next = read();
+                done = next.size() < pageSize;
+                if (next.isEmpty()) {
+                    next = null;
+                }
+            }
+
+            return next != null;
+        }
+
+        @Override
+        public List<LogEntry> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            List<LogEntry> ret = next;
+            next = null;
+            after = ret.get(ret.size() - 1).getId();
+            return ret;
+        }
+
+        @SuppressWarnings("unchecked") //We know that the session is unchecked, it should still be safe
+        private List<LogEntry> read() {
+            flush();
+            try (Session session = factory.openSession()) {
+                Query query = session.createQuery(hql);
+                query.setParameter("value", value);
+                query.setParameter("after", after);
+                query.setMaxResults(pageSize);
+                return query.list();
+            }
+        }
+    }
+
     //TODO add in queries for various elements as necessary.
 }
\ No newline at end of file
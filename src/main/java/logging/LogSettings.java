@@ -0,0 +1,60 @@
+package main.java.logging;
+
+/**
+ * Settings for the background writer of the LogManager. This is stored as part of the server configuration.
+ */
+public class LogSettings {
+    /**
+     * What log does with an entry when the queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the new entry. Requests never wait on the log.
+         */
+        DROP_NEWEST,
+
+        /**
+         * Drop the oldest entry in the queue to make room. Requests never wait on the log.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Wait until there is room in the queue. Nothing is lost, but requests slow down to the speed of the log.
+         */
+        BLOCK
+    }
+
+    /**
+     * Maximum number of entries waiting to be written
+     */
+    public final int queueCapacity;
+
+    /**
+     * Maximum number of entries written in one transaction. The writer starts writing as soon as this many are waiting.
+     */
+    public final int batchSize;
+
+    /**
+     * How long the writer waits for more entries before writing a partial batch, in milliseconds
+     */
+    public final long flushIntervalMillis;
+
+    /**
+     * What to do when the queue is full
+     */
+    public final OverflowPolicy overflowPolicy;
+
+    /**
+     * Default settings
+     */
+    public LogSettings() {
+        this(10000, 256, 100, OverflowPolicy.BLOCK);
+    }
+
+    public LogSettings(int queueCapacity, int batchSize, long flushIntervalMillis, OverflowPolicy overflowPolicy) {
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.overflowPolicy = overflowPolicy;
+    }
+}
@@ -0,0 +1,106 @@
+package main.java.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with fixed buckets, from 100 microseconds to 10 seconds. Recording a duration is a binary
+ * search and two LongAdder increments, so many threads can record at once without contending on a lock or a shared
+ * counter.
+ * <p>
+ * Reading the counts while others record is fine but not atomic: a snapshot may miss a duration in one bucket that
+ * is already in the sum.
+ */
+public class Histogram {
+    /**
+     * Upper bounds of the buckets in nanoseconds. Durations longer than the last bound go in an extra bucket.
+     */
+    static final long[] BOUNDS = {
+            100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000,
+            10_000_000, 25_000_000, 50_000_000,
+            100_000_000, 250_000_000, 500_000_000,
+            1_000_000_000, 2_500_000_000L, 5_000_000_000L,
+            10_000_000_000L
+    };
+
+    private final LongAdder[] counts = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration in nanoseconds
+     */
+    public void record(long nanos) {
+        int i = Arrays.binarySearch(BOUNDS, nanos);
+        counts[i < 0 ? -i - 1 : i].increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * Records the time since start, which was taken from System.nanoTime
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * @return the number of durations in each bucket, the last one being the durations longer than every bound
+     */
+    public long[] getCounts() {
+        long[] ret = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            ret[i] = counts[i].sum();
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        return Arrays.stream(getCounts()).sum();
+    }
+
+    /**
+     * @return the sum of the durations in nanoseconds
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return an upper bound on the given quantile (e.g. 0.99), in nanoseconds. This is the bound of the bucket the
+     * quantile falls in, or Long.MAX_VALUE if it falls past the last bound. Returns 0 if nothing was recorded.
+     */
+    public long getQuantile(double quantile) {
+        long[] snapshot = getCounts();
+        long total = Arrays.stream(snapshot).sum();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return BOUNDS[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the duration in seconds, as Prometheus expects durations
+     */
+    static double seconds(long nanos) {
+        return (double) nanos / TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,209 @@
+package main.java.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * The metrics of the server, which are exported in the Prometheus text format.
+ * <p>
+ * Metrics are not kept here. The parts of the server keep their own counters (usually LongAdders) and Histograms, and
+ * are registered here once at startup, so recording never goes through this class. Metrics with the same name form a
+ * family and must have the same type, and are told apart by their labels. Labels are given as name, value pairs.
+ */
+public class Metrics {
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * Registers a counter, which is a value that only goes up (until the server restarts)
+     */
+    public synchronized void counter(@NotNull String name, @NotNull String help, @NotNull LongSupplier value,
+                                     @NotNull String... labels) {
+        family(name, help, "counter").add(labels(labels), (out, series) ->
+                out.write(name + series + " " + value.getAsLong() + "\n"));
+    }
+
+    /**
+     * Registers a gauge, which is a value that goes up and down
+     */
+    public synchronized void gauge(@NotNull String name, @NotNull String help, @NotNull DoubleSupplier value,
+                                   @NotNull String... labels) {
+        family(name, help, "gauge").add(labels(labels), (out, series) ->
+                out.write(name + series + " " + format(value.getAsDouble()) + "\n"));
+    }
+
+    /**
+     * Registers a histogram of durations, which is exported in seconds
+     */
+    public synchronized void histogram(@NotNull String name, @NotNull String help, @NotNull Histogram histogram,
+                                       @NotNull String... labels) {
+        family(name, help, "histogram").add(labels(labels), histogram(name, histogram, labels));
+    }
+
+    /**
+     * Returns the histogram with the given name and labels, registering a new one if there is none yet. Use this for
+     * histograms that nothing else holds on to, e.g. one per route.
+     */
+    @NotNull
+    public synchronized Histogram histogram(@NotNull String name, @NotNull String help, @NotNull String... labels) {
+        Family family = family(name, help, "histogram");
+        String series = labels(labels);
+        return family.histograms.computeIfAbsent(series, s -> {
+            Histogram ret = new Histogram();
+            family.add(series, histogram(name, ret, labels));
+            return ret;
+        });
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format (version 0.0.4)
+     */
+    public void write(@NotNull Writer out) throws IOException {
+        //Sample outside the lock, so a slow gauge does not hold up registering
+        Map<Family, List<Map.Entry<String, Sampler>>> snapshot = new LinkedHashMap<>();
+        synchronized (this) {
+            for (Family family : families.values()) {
+                snapshot.put(family, new ArrayList<>(family.series.entrySet()));
+            }
+        }
+
+        for (Map.Entry<Family, List<Map.Entry<String, Sampler>>> family : snapshot.entrySet()) {
+            String name = family.getKey().name;
+            out.write("# HELP " + name + " " + family.getKey().help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+            out.write("# TYPE " + name + " " + family.getKey().type + "\n");
+            for (Map.Entry<String, Sampler> series : family.getValue()) {
+                series.getValue().write(out, series.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return every metric in the Prometheus text format
+     */
+    @NotNull
+    public String write() {
+        StringWriter ret = new StringWriter();
+        try {
+            write(ret);
+        } catch (IOException e) { //Cannot happen in memory
+            throw new IllegalStateException(e);
+        }
+        return ret.toString();
+    }
+
+    private Family family(String name, String help, String type) {
+        if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+            throw new IllegalArgumentException("Invalid metric name: " + name);
+        }
+
+        Family ret = families.computeIfAbsent(name, n -> new Family(name, help, type));
+        if (!ret.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already a " + ret.type);
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the buckets of the histogram, in seconds. Buckets are cumulative, and the count is the +Inf bucket, taken
+     * from the same snapshot.
+     */
+    private static Sampler histogram(String name, Histogram histogram, String[] labels) {
+        String[] bucketLabels = new String[Histogram.BOUNDS.length + 1];
+        for (int i = 0; i < bucketLabels.length; i++) {
+            String le = i < Histogram.BOUNDS.length
+                    ? BigDecimal.valueOf(Histogram.BOUNDS[i], 9).stripTrailingZeros().toPlainString() : "+Inf";
+            String[] withLe = new String[labels.length + 2];
+            System.arraycopy(labels, 0, withLe, 0, labels.length);
+            withLe[labels.length] = "le";
+            withLe[labels.length + 1] = le;
+            bucketLabels[i] = labels(withLe);
+        }
+
+        return (out, series) -> {
+            long[] counts = histogram.getCounts();
+            long sum = histogram.getSum();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                out.write(name + "_bucket" + bucketLabels[i] + " " + cumulative + "\n");
+            }
+            out.write(name + "_sum" + series + " " + format(Histogram.seconds(sum)) + "\n");
+            out.write(name + "_count" + series + " " + cumulative + "\n");
+        };
+    }
+
+    /**
+     * @return the labels as they are written after the name of the metric, e.g. {route="GET /user"}
+     */
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name, value pairs");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+
+        StringBuilder ret = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                ret.append(',');
+            }
+            String value = labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+            ret.append(labels[i]).append("=\"").append(value).append('"');
+        }
+        return ret.append('}').toString();
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Writes the lines of one series
+     */
+    @FunctionalInterface
+    private interface Sampler {
+        void write(Writer out, String series) throws IOException;
+    }
+
+    /**
+     * All the metrics with the same name
+     */
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+
+        //From labels to the series, in the order they were registered
+        private final Map<String, Sampler> series = new LinkedHashMap<>();
+
+        //The histograms created by Metrics.histogram, so asking again returns the same one
+        private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        private void add(String labels, Sampler sampler) {
+            if (series.putIfAbsent(labels, sampler) != null) {
+                throw new IllegalArgumentException(name + labels + " is already registered");
+            }
+        }
+    }
+}
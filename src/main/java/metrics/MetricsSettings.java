@@ -0,0 +1,23 @@
+package main.java.metrics;
+
+/**
+ * Settings for the metrics endpoint. This is stored as part of the server configuration.
+ */
+public class MetricsSettings {
+    /**
+     * The token that monitoring has to send to GET /metrics, as "Authorization: Bearer &lt;token&gt;". The metrics
+     * are not for users, so if this is empty the endpoint refuses everyone.
+     */
+    public final String token;
+
+    /**
+     * Default settings, with the endpoint turned off
+     */
+    public MetricsSettings() {
+        this("");
+    }
+
+    public MetricsSettings(String token) {
+        this.token = token;
+    }
+}
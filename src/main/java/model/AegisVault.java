@@ -0,0 +1,38 @@
+package main.java.model;
+
+import main.java.model.info.TeamInfo;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything a user can see: the user with their team memberships, and every team and entry on those teams. All of
+ * it is read from the same snapshot of the database.
+ */
+public class AegisVault {
+    /**
+     * The user. Their teams hold their permissions and team key on every team.
+     */
+    @NotNull
+    public final AegisUser user;
+
+    /**
+     * The info of every team of the user, by team ID
+     */
+    @NotNull
+    public final Map<Integer, TeamInfo> teams;
+
+    /**
+     * The entries of every team of the user, by team ID and in the order they were added. Teams without entries are
+     * left out.
+     */
+    @NotNull
+    public final Map<Integer, List<AegisEntry>> entries;
+
+    public AegisVault(@NotNull AegisUser user, @NotNull Map<Integer, TeamInfo> teams, @NotNull Map<Integer, List<AegisEntry>> entries) {
+        this.user = user;
+        this.teams = teams;
+        this.entries = entries;
+    }
+}
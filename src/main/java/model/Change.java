@@ -0,0 +1,109 @@
+package main.java.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The latest change to an entry, a membership, a member, or a team, as recorded in the change log of the database.
+ */
+public class Change {
+    /**
+     * What changed
+     */
+    public enum Kind {
+        /**
+         * An entry of the team. The id is the entry ID.
+         */
+        ENTRY(0),
+
+        /**
+         * The membership of a user on the team. The id is the user ID.
+         */
+        MEMBER(1),
+
+        /**
+         * The info of the team itself. The id is the team ID.
+         */
+        TEAM(2),
+
+        /**
+         * What the other members of the team see of a user (their name, email and public key), while their
+         * membership stayed the same. The id is the user ID.
+         */
+        USER(3);
+
+        public final int code;
+
+        Kind(int code) {
+            this.code = code;
+        }
+
+        public static Kind fromCode(int code) {
+            for (Kind k : values()) {
+                if (k.code == code) {
+                    return k;
+                }
+            }
+            throw new IllegalArgumentException("Unknown change kind " + code);
+        }
+    }
+
+    @NotNull
+    public final Kind kind;
+
+    /**
+     * The team the change happened in
+     */
+    public final int tid;
+
+    /**
+     * The entry, user or team that changed
+     */
+    public final int id;
+
+    /**
+     * True if the entry left the team, the user left the team, or the team was deleted
+     */
+    public final boolean deleted;
+
+    /**
+     * Sequence number of the change. Later changes have larger numbers.
+     */
+    public final long seq;
+
+    public Change(@NotNull Kind kind, int tid, int id, boolean deleted, long seq) {
+        this.kind = kind;
+        this.tid = tid;
+        this.id = id;
+        this.deleted = deleted;
+        this.seq = seq;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Change change = (Change) o;
+
+        if (tid != change.tid) return false;
+        if (id != change.id) return false;
+        if (deleted != change.deleted) return false;
+        if (seq != change.seq) return false;
+        return kind == change.kind;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = kind.hashCode();
+        result = 31 * result + tid;
+        result = 31 * result + id;
+        result = 31 * result + (deleted ? 1 : 0);
+        result = 31 * result + (int) (seq ^ (seq >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return kind + (deleted ? " deleted " : " changed ") + id + " in team " + tid + " at " + seq;
+    }
+}
@@ -0,0 +1,27 @@
+package main.java.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * The changes a user can see since some sequence number
+ */
+public class ChangeLog {
+    /**
+     * Sequence number of the latest change in the database when the changes were read. Everything up to here is
+     * covered, so this is what to ask for changes since next time.
+     */
+    public final long seq;
+
+    /**
+     * The latest change of every entry, membership and team that changed, in sequence order
+     */
+    @NotNull
+    public final List<Change> changes;
+
+    public ChangeLog(long seq, @NotNull List<Change> changes) {
+        this.seq = seq;
+        this.changes = changes;
+    }
+}
@@ -2,9 +2,12 @@ package main.java.model;
 
 import main.java.model.info.TeamInfo;
 import main.java.model.info.TeamUserInfo;
+import main.java.util.IntList;
+import main.java.util.IntMap;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.*;
+import java.util.List;
+import java.util.Map;
 
 /**
  * AegisTeam with no ID field. Used to create an AegisTeam in the database
@@ -18,21 +21,21 @@ public class NoIDAegisTeam {
      * This list is immutable.
      */
     @NotNull
-    public final List<Integer> entries;
+    public final IntList entries;
 
     /**
-     * HashMap from userID to the permission a user has in this team.
+     * Map from userID to the permission a user has in this team.
      * This map is immutable.
      */
     @NotNull
-    public final Map<Integer, TeamUserInfo> users;
+    public final IntMap<TeamUserInfo> users;
 
     public NoIDAegisTeam(@NotNull TeamInfo teamInfo, @NotNull List<Integer> entries, @NotNull Map<Integer, TeamUserInfo> users) {
         this.teamInfo = teamInfo;
 
-        //make unmodifiable deep copies and don't store references so it's immutable.
-        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
-        this.users = Collections.unmodifiableMap(new HashMap<>(users));
+        //copy into immutable int collections (which are kept as they are) so it's immutable.
+        this.entries = IntList.copyOf(entries);
+        this.users = IntMap.copyOf(users);
     }
 
     @Override
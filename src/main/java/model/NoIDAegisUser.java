@@ -2,10 +2,9 @@ package main.java.model;
 
 import main.java.model.info.TeamUserInfo;
 import main.java.model.info.UserInfo;
+import main.java.util.IntMap;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -22,11 +21,11 @@ public class NoIDAegisUser {
     public final String email;
 
     /**
-     * HashMap from TeamID to the permission a user has in that team.
+     * Map from TeamID to the permission a user has in that team.
      * This map is immutable.
      */
     @NotNull
-    public final Map<Integer, TeamUserInfo> teams;
+    public final IntMap<TeamUserInfo> teams;
 
     /**
      * @param teams This should be the map from TeamID to Permission this user has on the team.
@@ -35,8 +34,8 @@ public class NoIDAegisUser {
         this.userInfo = userInfo;
         this.email = email;
 
-        //Make an unmodifiable deep copy so it's immutable.
-        this.teams = Collections.unmodifiableMap(new HashMap<>(teams));
+        //Copy into an immutable map (an IntMap already is one)
+        this.teams = IntMap.copyOf(teams);
     }
 
     @Override
@@ -8,6 +8,11 @@ import java.io.Serializable;
  * All the extra information associated with a entry
  */
 public class EntryInfo implements Serializable {
+    /**
+     * Pinned so old Java serialized entries stay readable. Never change it.
+     */
+    private static final long serialVersionUID = 8203884775713340765L;
+
     // ---------------- Insecure fields ----------------
     /**
      * The title of this entry e.g. Facebook, Gmail, etc.
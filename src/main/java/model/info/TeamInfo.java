@@ -8,7 +8,10 @@ import java.io.Serializable;
  * All the extra information associated with a team
  */
 public class TeamInfo implements Serializable {
-
+    /**
+     * Pinned so old Java serialized teams stay readable. Never change it.
+     */
+    private static final long serialVersionUID = -9219849880368403944L;
 
     /**
      * The name of this team
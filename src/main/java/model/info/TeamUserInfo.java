@@ -9,6 +9,12 @@ import java.io.Serializable;
  * All the extra information associated with a team and user pair
  */
 public class TeamUserInfo implements Serializable {
+    /**
+     * The UID computed for the original class. Pinned so memberships written with the Serializer stay readable when
+     * methods are added here. Never change it.
+     */
+    private static final long serialVersionUID = -1459060167024596861L;
+
     /**
      * Permission level
      */
@@ -27,6 +33,14 @@ public class TeamUserInfo implements Serializable {
         this.teamKey = teamKey;
     }
 
+    public TeamUserInfo withPermissions(@NotNull UserPermissions permissions) {
+        return new TeamUserInfo(permissions, teamKey);
+    }
+
+    public TeamUserInfo withTeamKey(@NotNull String teamKey) {
+        return new TeamUserInfo(permissions, teamKey);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
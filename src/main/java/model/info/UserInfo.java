@@ -9,6 +9,11 @@ import java.io.Serializable;
  * All the extra information associated with a user
  */
 public class UserInfo implements Serializable {
+    /**
+     * Pinned to the computed UID of the original class, since old user rows are Java serialized. Never change it.
+     */
+    private static final long serialVersionUID = -4587523955803681128L;
+
     // -------------- Information --------------
     /**
      * The user's firstname
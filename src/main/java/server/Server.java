@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import main.java.server.config.ConfigHandler;
 import main.java.server.config.Configuration;
+import main.java.server.json.JsonStream;
 import main.java.server.json.JsonTransformer;
 import main.java.server.json.request.entry.ReqChangeEntryNonSecure;
 import main.java.server.json.request.entry.ReqChangeEntrySecure;
@@ -13,7 +14,11 @@ import main.java.server.json.request.team.ReqChangeUserPermissions;
 import main.java.server.json.request.team.ReqChangeUserTKey;
 import main.java.server.json.request.team.ReqCreateTeam;
 import main.java.server.json.request.user.*;
+import main.java.metrics.Metrics;
 import main.java.server.util.RequestHandler;
+import main.java.server.util.RouteMetrics;
+import main.java.server.util.StaticAssets;
+import main.java.server.util.VirtualThreadServer;
 import main.java.util.Constants;
 
 import java.io.IOException;
@@ -21,6 +26,11 @@ import java.io.IOException;
 import static spark.Spark.*;
 
 public class Server {
+    /**
+     * The server that runs the requests on virtual threads, if they are turned on. Otherwise Spark runs its own.
+     */
+    private static VirtualThreadServer virtualThreadServer;
+
     /**
      * @return the port to run this server on
      */
@@ -37,6 +47,14 @@ public class Server {
      */
     public static void stopServer() {
         stop();
+        if (virtualThreadServer != null) {
+            try {
+                virtualThreadServer.stop();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            virtualThreadServer = null;
+        }
     }
 
     /**
@@ -46,11 +64,17 @@ public class Server {
         // --------------------------- Setup ----------------------------
         final RequestHandler requestHandler;
         final Configuration config;
+        final StaticAssets assets;
+        final JsonStream stream;
+        final Metrics metrics = new Metrics();
+        final RouteMetrics routes = new RouteMetrics(metrics);
         final Gson gson = new Gson();
 
         try {
             config = ConfigHandler.loadConfiguration();
-            requestHandler = new RequestHandler(config);
+            requestHandler = new RequestHandler(config, metrics);
+            assets = new StaticAssets("/ui", config.compression);
+            stream = new JsonStream(config.compression);
         } catch (Exception e) {
             System.err.println("There was an issue starting up the server");
             e.printStackTrace();
@@ -58,20 +82,37 @@ public class Server {
             return;
         }
 
-        //For setting up the port later
-        port(getPort());
+        if (config.threads.virtualThreads && VirtualThreadServer.isSupported()) {
+            //Run every request on its own virtual thread. Spark leaves starting the server to us then.
+            virtualThreadServer = new VirtualThreadServer(getPort(), config.keyStoreFile, config.keyStorePassword,
+                    config.threads.maxThreads);
+        } else {
+            if (config.threads.virtualThreads) {
+                System.err.println("Virtual threads need Java 21 or later, using a pool of " +
+                        config.threads.maxThreads + " threads instead");
+            }
 
-        //Define number of threads
-        threadPool(Constants.MAX_THREADS);
+            //For setting up the port later
+            port(getPort());
 
-        //Set up ssl
-        secure(config.keyStoreFile, config.keyStorePassword, null, null);
+            //Define number of threads
+            threadPool(config.threads.maxThreads);
 
-        //Setup location of our ui files
-        staticFileLocation("/ui");
+            //Set up ssl
+            secure(config.keyStoreFile, config.keyStorePassword, null, null);
+        }
+
+        //Serve our ui files from memory, precompressed
+        for (String path : assets.getPaths()) {
+            get(path, routes.time("GET static", assets::serve));
+        }
 
-        //Set all our responses to be JSON type.
-        after((req, res) -> res.type("application/json"));
+        //Set all our other responses to be JSON type.
+        after((req, res) -> {
+            if (res.raw().getContentType() == null) {
+                res.type("application/json");
+            }
+        });
 
         // ------------------------ Exceptions ------------------------
         /**
@@ -126,95 +167,95 @@ public class Server {
         /**
          * Homepage request.
          */
-        get("/", (req, res) -> {
+        get("/", routes.time("GET /", (req, res) -> {
             res.redirect("/index.html");
             return 0;
-        });
+        }));
 
         // --------------- Login requests ---------------
         /**
          * Get the salt for the master password for the login
          */
-        post("/login1", (req, res) -> {
+        post("/login1", routes.time("POST /login1", (req, res) -> {
             ReqLogin1 json = gson.fromJson(req.body(), ReqLogin1.class);
             return requestHandler.login1(req, res, json);
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Get session ID for user: returns a cookie with the session id
          * and a FullUser JSON object
          */
-        post("/login2", (req, res) -> {
+        post("/login2", routes.time("POST /login2", (req, res) -> {
             ReqLogin2 json = gson.fromJson(req.body(), ReqLogin2.class);
             return requestHandler.login2(req, res, json);
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         // --------------- User requests ---------------
 
         /**
          * Get the full user for yourself
          */
-        get("/user", requestHandler::getFullUser, new JsonTransformer());
+        get("/user", routes.time("GET /user", requestHandler::getFullUser), new JsonTransformer());
 
         /**
          * Get the partial user of the given email
          */
-        get("/user/email/:email", (req, res) -> {
+        get("/user/email/:email", routes.time("GET /user/email/:email", (req, res) -> {
             String email = req.params(":email");
             return requestHandler.getPartialUser(req, res, email);
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Get the partial user of the given email
          */
-        get("/user/uid/:uid", (req, res) -> {
+        get("/user/uid/:uid", routes.time("GET /user/uid/:uid", (req, res) -> {
             int uid = Integer.parseInt(req.params(":uid"));
             return requestHandler.getPartialUser(req, res, uid);
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Update user information that doesn't relate to security
          */
-        put("/users", (req, res) -> {
+        put("/users", routes.time("PUT /users", (req, res) -> {
             ReqUpdateUser json = gson.fromJson(req.body(), ReqUpdateUser.class);
             requestHandler.updateUserInfo(req, res, json);
             return "";
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Update user information regarding the master password
          */
-        put("/users/master", (req, res) -> {
+        put("/users/master", routes.time("PUT /users/master", (req, res) -> {
             ReqUpdateMasterPassword json = gson.fromJson(req.body(), ReqUpdateMasterPassword.class);
             requestHandler.updateUserMasterPassword(req, res, json);
             return "";
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Delete the user that corresponds to this session ID
          */
-        delete("/users", (req, res) -> {
+        delete("/users", routes.time("DELETE /users", (req, res) -> {
             requestHandler.deleteUser(req, res);
             return "";
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Create new user
          */
-        post("/users", (req, res) -> {
+        post("/users", routes.time("POST /users", (req, res) -> {
             ReqCreateUser json = gson.fromJson(req.body(), ReqCreateUser.class);
             return requestHandler.createUser(req, res, json);
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Send user an email for verification while signing up and save the email and the verification
          * code in the request handler object.
          */
-        post("/verification", (req, res) -> {
+        post("/verification", routes.time("POST /verification", (req, res) -> {
             ReqVerification json = gson.fromJson(req.body(), ReqVerification.class);
             requestHandler.generateVerificationEmail(req, res, json);
             return "";
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
 
         // --------------- Team requests ---------------
@@ -222,134 +263,161 @@ public class Server {
         /**
          * Return all teams that the logged in user is a part of (teamid list).
          */
-        get("/teams", requestHandler::getUserTeam, new JsonTransformer());
+        get("/teams", routes.time("GET /teams", requestHandler::getUserTeam), new JsonTransformer());
 
         /**
          * Return all users in the team if the logged-in user is part of the team
          * (JsonTeamUser list).
          */
-        get("/teams/:teamid/users", (req, res) -> {
+        get("/teams/:teamid/users", routes.time("GET /teams/:teamid/users", (req, res) -> {
             Integer tid = Integer.parseInt(req.params(":teamid"));
-            return requestHandler.getUsersInATeam(req, res, tid);
-        }, new JsonTransformer());
+            stream.write(req, res, requestHandler.getUsersInATeam(req, res, tid));
+            return "";
+        }));
 
 
         /**
          * Return the team information with respect to the current user.
          */
-        get("/teams/:teamid", (req, res) -> {
+        get("/teams/:teamid", routes.time("GET /teams/:teamid", (req, res) -> {
             Integer tid = Integer.parseInt(req.params(":teamid"));
             return requestHandler.getTeam(req, res, tid);
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Add the specific user to the team
          */
-        post("/teams/modify/adduser", (req, res) -> {
+        post("/teams/modify/adduser", routes.time("POST /teams/modify/adduser", (req, res) -> {
             ReqAddUserToTeam json = gson.fromJson(req.body(), ReqAddUserToTeam.class);
             requestHandler.addUserToTeam(req, res, json);
             return "";
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Changes the privileges of the user on the team
          */
-        post("/teams/modify/permissions", (req, res) -> {
+        post("/teams/modify/permissions", routes.time("POST /teams/modify/permissions", (req, res) -> {
             ReqChangeUserPermissions json = gson.fromJson(req.body(), ReqChangeUserPermissions.class);
             requestHandler.changeUserPermissions(req, res, json);
             return "";
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
 
         /**
          * Changes the team key of the specific user on the team.
          */
-        post("/teams/modify/key", (req, res) -> {
+        post("/teams/modify/key", routes.time("POST /teams/modify/key", (req, res) -> {
             ReqChangeUserTKey json = gson.fromJson(req.body(), ReqChangeUserTKey.class);
             requestHandler.changeUserTeamkey(req, res, json);
             return "";
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Delete the specified user from the specified team.
          */
-        delete("/teams/:teamid/users/:userid", (req, res) -> {
+        delete("/teams/:teamid/users/:userid", routes.time("DELETE /teams/:teamid/users/:userid", (req, res) -> {
             int tid = Integer.parseInt(req.params(":teamid"));
             int uid = Integer.parseInt(req.params(":userid"));
             requestHandler.deleteUserFromTeam(req, res, tid, uid);
             return "";
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Delete the whole team
          */
-        delete("/teams/:teamid", (req, res) -> {
+        delete("/teams/:teamid", routes.time("DELETE /teams/:teamid", (req, res) -> {
             int tid = Integer.parseInt(req.params(":teamid"));
             requestHandler.deleteTeam(req, res, tid);
             return "";
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Create new team. Returns the team id
          */
-        post("/teams", (req, res) -> {
+        post("/teams", routes.time("POST /teams", (req, res) -> {
             ReqCreateTeam json = gson.fromJson(req.body(), ReqCreateTeam.class);
             return requestHandler.createTeam(req, res, json);
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         // --------------- Entry requests ---------------
 
         /**
          * Return all entries that the logged in user has access to on
-         * the specified team (entryid list).
+         * the specified team (FullEntry list). Streamed as the entries are read.
          */
-        get("/teams/:teamid/entries", (req, res) -> {
+        get("/teams/:teamid/entries", routes.time("GET /teams/:teamid/entries", (req, res) -> {
             int tid = Integer.parseInt(req.params(":teamid"));
-            return requestHandler.getEntries(req, res, tid);
-        }, new JsonTransformer());
+            stream.write(req, res, requestHandler.getEntries(req, res, tid));
+            return "";
+        }));
 
 
         /**
          * Change the secure parts of this entry (the password)
          */
-        post("/teams/:teamid/entries/:entryid/secure", (req, res) -> {
+        post("/teams/:teamid/entries/:entryid/secure", routes.time("POST /teams/:teamid/entries/:entryid/secure", (req, res) -> {
             int tid = Integer.parseInt(req.params(":teamid"));
             int eid = Integer.parseInt(req.params(":entryid"));
             ReqChangeEntrySecure json = gson.fromJson(req.body(), ReqChangeEntrySecure.class);
             requestHandler.editEntrySecure(req, res, tid, eid, json);
             return "";
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Change the non-secure fields (title, username)
          */
-        post("/teams/:teamid/entries/:entryid/modify", (req, res) -> {
+        post("/teams/:teamid/entries/:entryid/modify", routes.time("POST /teams/:teamid/entries/:entryid/modify", (req, res) -> {
             int tid = Integer.parseInt(req.params(":teamid"));
             int eid = Integer.parseInt(req.params(":entryid"));
             ReqChangeEntryNonSecure json = gson.fromJson(req.body(), ReqChangeEntryNonSecure.class);
             requestHandler.editEntryNonSecure(req, res, tid, eid, json);
             return "";
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Delete the entry if the logged in user has required permissions.
          */
-        delete("/teams/:teamid/entries/:entryid", (req, res) -> {
+        delete("/teams/:teamid/entries/:entryid", routes.time("DELETE /teams/:teamid/entries/:entryid", (req, res) -> {
             int tid = Integer.parseInt(req.params(":teamid"));
             int eid = Integer.parseInt(req.params(":entryid"));
             requestHandler.deleteEntry(req, res, tid, eid);
             return "";
-        }, new JsonTransformer());
+        }), new JsonTransformer());
 
         /**
          * Create a new entry in the specified team
          * Returns the entry id.
          */
-        post("/teams/:teamid/entries", (req, res) -> {
+        post("/teams/:teamid/entries", routes.time("POST /teams/:teamid/entries", (req, res) -> {
             int tid = Integer.parseInt(req.params(":teamid"));
             ReqCreateEntry json = gson.fromJson(req.body(), ReqCreateEntry.class);
             return requestHandler.createEntry(req, res, tid, json);
-        }, new JsonTransformer());
+        }), new JsonTransformer());
+
+
+        // --------------- Vault requests ---------------
+
+        /**
+         * Return the user, all teams of the user and all entries on those teams (Vault). This is all the client
+         * needs to open the vault. It can get big, so it is streamed instead of rendered to a String first.
+         */
+        get("/vault", routes.time("GET /vault", (req, res) -> {
+            stream.write(req, res, requestHandler.getVault(req, res));
+            return "";
+        }));
+
+
+        // --------------- Sync requests ---------------
+
+        /**
+         * Return what changed in the teams of the logged in user since the given sequence number
+         * (Sync). Use 0 to get everything, and the seq of the response next time.
+         */
+        get("/sync/:since", routes.time("GET /sync/:since", (req, res) -> {
+            long since = Long.parseLong(req.params(":since"));
+            stream.write(req, res, requestHandler.getChanges(req, res, since));
+            return "";
+        }));
 
 
         // --------------- Utility requests ---------------
@@ -357,30 +425,56 @@ public class Server {
         /**
          * Returns true if the session is valid, false otherwise.
          */
-        get("/sessionValid", requestHandler::isLoggedIn, new JsonTransformer());
+        get("/sessionValid", routes.time("GET /sessionValid", requestHandler::isLoggedIn), new JsonTransformer());
 
 
         /**
          * Logs the user out of the session.
          */
-        get("/logout", requestHandler::logOut, new JsonTransformer());
+        get("/logout", routes.time("GET /logout", requestHandler::logOut), new JsonTransformer());
 
 
         // --------------- Log requests ---------------
 
         /**
-         * Get logs for yourself
+         * Get logs for yourself. Streamed as the logs are read.
          */
-        get("/logs/user", requestHandler::getUserLogs, new JsonTransformer());
+        get("/logs/user", routes.time("GET /logs/user", (req, res) -> {
+            stream.write(req, res, requestHandler.getUserLogs(req, res));
+            return "";
+        }));
 
         /**
          * Get logs by team id
          */
 
-        get("/logs/teams/:teamid", (req, res) -> {
+        get("/logs/teams/:teamid", routes.time("GET /logs/teams/:teamid", (req, res) -> {
             Integer tid = Integer.parseInt(req.params(":teamid"));
-            return requestHandler.getTeamLogs(req, res, tid);
-        }, new JsonTransformer());
+            stream.write(req, res, requestHandler.getTeamLogs(req, res, tid));
+            return "";
+        }));
+
+
+        // --------------- Monitoring requests ---------------
+
+        /**
+         * Get the metrics of the server in the Prometheus text format. Needs the configured metrics token.
+         */
+        get("/metrics", routes.time("GET /metrics", (req, res) -> {
+            String body = requestHandler.getMetrics(req, res);
+            res.type("text/plain; version=0.0.4; charset=utf-8");
+            return body;
+        }));
+
+        if (virtualThreadServer != null) {
+            try {
+                virtualThreadServer.start();
+            } catch (Exception e) {
+                System.err.println("There was an issue starting up the server");
+                e.printStackTrace();
+                stopServer();
+            }
+        }
     }
 
 }
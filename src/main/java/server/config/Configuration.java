@@ -1,5 +1,12 @@
 package main.java.server.config;
 
+import main.java.database.DatabaseSettings;
+import main.java.logging.LogSettings;
+import main.java.metrics.MetricsSettings;
+import main.java.server.util.CompressionSettings;
+import main.java.server.util.EmailSettings;
+import main.java.server.util.SessionSettings;
+import main.java.server.util.ThreadSettings;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -31,6 +38,48 @@ public class Configuration {
     @NotNull
     public final String keyStorePassword;
 
+    /**
+     * Settings for the connections to the password database
+     */
+    @NotNull
+    public final DatabaseSettings database;
+
+    /**
+     * Settings for writing the log
+     */
+    @NotNull
+    public final LogSettings logging;
+
+    /**
+     * Settings for the sessions of logged in users
+     */
+    @NotNull
+    public final SessionSettings sessions;
+
+    /**
+     * Settings for sending emails
+     */
+    @NotNull
+    public final EmailSettings smtp;
+
+    /**
+     * Settings for gzipping responses and caching the static files
+     */
+    @NotNull
+    public final CompressionSettings compression;
+
+    /**
+     * Settings for the metrics endpoint
+     */
+    @NotNull
+    public final MetricsSettings metrics;
+
+    /**
+     * Settings for the threads that requests run on
+     */
+    @NotNull
+    public final ThreadSettings threads;
+
     /**
      * Default configuration that sets everything to empty. This is just for a default and really should not be used.
      */
@@ -39,9 +88,26 @@ public class Configuration {
     }
 
     public Configuration(@NotNull String email, @NotNull String emailPassword, @NotNull String keyStoreFile, @NotNull String keyStorePassword) {
+        this(email, emailPassword, keyStoreFile, keyStorePassword, new DatabaseSettings(), new LogSettings(),
+                new SessionSettings(), new EmailSettings(), new CompressionSettings(), new MetricsSettings(),
+                new ThreadSettings());
+    }
+
+    public Configuration(@NotNull String email, @NotNull String emailPassword, @NotNull String keyStoreFile,
+                         @NotNull String keyStorePassword, @NotNull DatabaseSettings database,
+                         @NotNull LogSettings logging, @NotNull SessionSettings sessions,
+                         @NotNull EmailSettings smtp, @NotNull CompressionSettings compression,
+                         @NotNull MetricsSettings metrics, @NotNull ThreadSettings threads) {
         this.email = email;
         this.emailPassword = emailPassword;
         this.keyStorePassword = keyStorePassword;
         this.keyStoreFile = keyStoreFile;
+        this.database = database;
+        this.logging = logging;
+        this.sessions = sessions;
+        this.smtp = smtp;
+        this.compression = compression;
+        this.metrics = metrics;
+        this.threads = threads;
     }
 }
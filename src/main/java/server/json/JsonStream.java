@@ -0,0 +1,104 @@
+package main.java.server.json;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import main.java.server.util.CompressingOutputStream;
+import main.java.server.util.CompressionSettings;
+import org.jetbrains.annotations.NotNull;
+import spark.Request;
+import spark.Response;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Writes a response as JSON straight to the output stream of the response. Unlike JsonTransformer, the JSON is never
+ * held in memory as one String, so use this for responses that can get big. Responses that turn out big enough are
+ * gzipped on the fly if the client accepts it (see CompressingOutputStream).
+ * <p>
+ * Routes that use this should return an empty string, without a transformer. Spark leaves the response alone once it
+ * is committed. The status is sent with the first bytes of the body, so once those are out a failing body can not be
+ * turned into an error response anymore. The connection is aborted instead, so the client sees a broken response
+ * rather than taking the truncated JSON for the whole thing. Still do all the checks that can fail before writing.
+ */
+public class JsonStream {
+    private static final Gson gson = new Gson();
+
+    private final CompressionSettings settings;
+
+    public JsonStream(@NotNull CompressionSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * A response body that writes itself to the JsonWriter, a piece at a time
+     */
+    @FunctionalInterface
+    public interface Body {
+        void write(JsonWriter writer, Gson gson) throws IOException;
+    }
+
+    /**
+     * Writes model as the body of the response to req
+     */
+    public void write(Request req, Response res, Object model) throws IOException {
+        write(req, res, (writer, gson) -> gson.toJson(model, model.getClass(), writer));
+    }
+
+    /**
+     * Writes the body of the response to req, and commits the response
+     */
+    public void write(Request req, Response res, Body body) throws IOException {
+        res.type("application/json");
+        res.header("Vary", "Accept-Encoding");
+
+        boolean gzip = CompressingOutputStream.acceptsGzip(req.headers("Accept-Encoding"));
+        CompressingOutputStream out = new CompressingOutputStream(res.raw(), gzip, settings);
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        try {
+            body.write(writer, gson);
+            writer.flush();
+            out.finish();
+        } catch (IOException | RuntimeException e) {
+            if (res.raw().isCommitted()) {
+                abort(req, e);
+            } else {
+                res.raw().reset(); //Drop the partial body and its headers, so the exception handler can send an error
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the connection without finishing the response, so the client can tell it did not get all of it
+     */
+    private static void abort(Request req, Throwable cause) {
+        org.eclipse.jetty.server.Request base = org.eclipse.jetty.server.Request.getBaseRequest(req.raw());
+        if (base != null) {
+            base.getHttpChannel().abort(cause);
+        }
+    }
+
+    /**
+     * A body that is a JSON array of every element of every page. The next page is only asked for once the previous
+     * one is written, so only one page is in memory at a time.
+     *
+     * @param type  the type of the elements
+     * @param pages the pages, which may read from the database as they are iterated
+     */
+    public static <T> Body array(Class<T> type, Iterator<? extends Collection<? extends T>> pages) {
+        return (writer, gson) -> {
+            writer.beginArray();
+            while (pages.hasNext()) {
+                for (T element : pages.next()) {
+                    gson.toJson(element, type, writer);
+                }
+            }
+            writer.endArray();
+        };
+    }
+}
@@ -0,0 +1,38 @@
+package main.java.server.json.response;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The changes to the teams of the current user since a sequence number the client synced to before
+ */
+public class Sync {
+    /**
+     * The sequence number this sync brings the client up to. Send it as since on the next sync.
+     */
+    public final long seq;
+
+    /**
+     * True if teams holds every team of the user in full. The client should drop everything it had.
+     */
+    public final boolean full;
+
+    /**
+     * The teams with changes, and only those
+     */
+    @NotNull
+    public final List<TeamSync> teams = new ArrayList<>();
+
+    /**
+     * Ids of the teams the user left, or that were deleted
+     */
+    @NotNull
+    public final List<Integer> deletedTeams = new ArrayList<>();
+
+    public Sync(long seq, boolean full) {
+        this.seq = seq;
+        this.full = full;
+    }
+}
@@ -0,0 +1,53 @@
+package main.java.server.json.response;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What changed in one team since the last sync
+ */
+public class TeamSync {
+    /**
+     * The team, with respect to the current user
+     */
+    @NotNull
+    public final Team team;
+
+    /**
+     * True if entries and users are all the entries and users of the team, and not just the ones that changed. The
+     * client should replace what it has for the team. This happens when the user just joined the team, or their
+     * permissions or key on it changed.
+     */
+    public final boolean full;
+
+    /**
+     * Entries that were added to the team or changed
+     */
+    @NotNull
+    public final List<FullEntry> entries = new ArrayList<>();
+
+    /**
+     * Users that were added to the team or changed
+     */
+    @NotNull
+    public final List<TeamUser> users = new ArrayList<>();
+
+    /**
+     * Ids of the entries that were deleted or moved to another team
+     */
+    @NotNull
+    public final List<Integer> deletedEntries = new ArrayList<>();
+
+    /**
+     * Ids of the users that left the team
+     */
+    @NotNull
+    public final List<Integer> deletedUsers = new ArrayList<>();
+
+    public TeamSync(@NotNull Team team, boolean full) {
+        this.team = team;
+        this.full = full;
+    }
+}
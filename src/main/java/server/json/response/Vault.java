@@ -0,0 +1,28 @@
+package main.java.server.json.response;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything the current user needs to open their vault: the user, every team with the user's team key, and every
+ * entry on those teams.
+ */
+public class Vault {
+    /**
+     * The current user, with the keys needed to decrypt the team keys
+     */
+    @NotNull
+    public final FullUser user;
+
+    /**
+     * Every team of the user together with its entries
+     */
+    @NotNull
+    public final List<VaultTeam> teams = new ArrayList<>();
+
+    public Vault(@NotNull FullUser user) {
+        this.user = user;
+    }
+}
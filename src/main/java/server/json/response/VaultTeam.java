@@ -0,0 +1,27 @@
+package main.java.server.json.response;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One team in the vault of the current user
+ */
+public class VaultTeam {
+    /**
+     * The team, with respect to the current user
+     */
+    @NotNull
+    public final Team team;
+
+    /**
+     * All the entries of the team
+     */
+    @NotNull
+    public final List<FullEntry> entries = new ArrayList<>();
+
+    public VaultTeam(@NotNull Team team) {
+        this.team = team;
+    }
+}
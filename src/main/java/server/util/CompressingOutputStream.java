@@ -0,0 +1,144 @@
+package main.java.server.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The body of a response that is only gzipped if it turns out to be big enough. The first minGzipSize bytes are held
+ * back. If the body ends before that, it is sent as is. Otherwise the Content-Encoding header is set and the whole body
+ * is gzipped from the start.
+ * <p>
+ * Call finish once the body is written, otherwise a small body is never sent. This does not close the output stream
+ * of the response.
+ */
+public class CompressingOutputStream extends OutputStream {
+    private final HttpServletResponse res;
+    private final int minGzipSize;
+    private final int level;
+
+    //The bytes held back until we know if to gzip. Null once we know
+    @Nullable
+    private ByteArrayOutputStream pending;
+
+    //Where the body goes once we know if to gzip. Null until then
+    @Nullable
+    private OutputStream out;
+
+    /**
+     * @param res      the response to write the body of
+     * @param gzip     if the client accepts gzip. If not, everything is passed straight through
+     * @param settings when and how to gzip
+     */
+    public CompressingOutputStream(@NotNull HttpServletResponse res, boolean gzip, @NotNull CompressionSettings settings) throws IOException {
+        this.res = res;
+        this.minGzipSize = settings.minGzipSize;
+        this.level = settings.gzipLevel;
+
+        if (gzip) {
+            pending = new ByteArrayOutputStream(Math.min(minGzipSize, 64 * 1024));
+        } else {
+            out = res.getOutputStream();
+        }
+    }
+
+    /**
+     * @return true if the Accept-Encoding header value allows gzip
+     */
+    public static boolean acceptsGzip(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        boolean any = false; //What * says, which only counts if gzip is not listed itself
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+                return !hasZeroQuality(parts);
+            } else if (name.equals("*")) {
+                any = !hasZeroQuality(parts);
+            }
+        }
+        return any;
+    }
+
+    private static boolean hasZeroQuality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the body is being gzipped
+     */
+    public boolean isGzipped() {
+        return out instanceof GZIPOutputStream;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+        if (out == null) {
+            if (pending.size() + len < minGzipSize) {
+                pending.write(b, off, len);
+                return;
+            }
+
+            res.setHeader("Content-Encoding", "gzip");
+            out = new GZIPOutputStream(res.getOutputStream(), 8192) {
+                {
+                    def.setLevel(level);
+                }
+            };
+            pending.writeTo(out);
+            pending = null;
+        }
+
+        out.write(b, off, len);
+    }
+
+    /**
+     * Only flushes once we know if to gzip. Flushing a gzip stream does not force out its compressed data.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Sends whatever is left of the body and commits the response. Nothing may be written afterwards.
+     */
+    public void finish() throws IOException {
+        if (out == null) { //Too small to gzip
+            res.setContentLength(pending.size());
+            out = res.getOutputStream();
+            pending.writeTo(out);
+            pending = null;
+        } else if (isGzipped()) {
+            ((GZIPOutputStream) out).finish();
+        }
+
+        out.flush();
+        res.flushBuffer();
+    }
+}
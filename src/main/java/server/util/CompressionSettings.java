@@ -0,0 +1,35 @@
+package main.java.server.util;
+
+/**
+ * Settings for compressing responses and caching the static files of the UI
+ */
+public class CompressionSettings {
+    /**
+     * Streamed JSON responses of at least this many bytes are gzipped if the client accepts it. Smaller ones are sent
+     * as is, since gzip would barely shrink them.
+     */
+    public final int minGzipSize;
+
+    /**
+     * The gzip level for JSON responses, from 1 (fastest) to 9 (smallest). The static files always use 9, since they
+     * are only compressed once, at startup.
+     */
+    public final int gzipLevel;
+
+    /**
+     * How many seconds browsers may use the static files of the UI without asking again. HTML files are always
+     * revalidated instead. The other files are not renamed when they change, so a new release can take this long to
+     * reach everyone.
+     */
+    public final int staticMaxAge;
+
+    public CompressionSettings() {
+        this(1024, 6, 24 * 60 * 60);
+    }
+
+    public CompressionSettings(int minGzipSize, int gzipLevel, int staticMaxAge) {
+        this.minGzipSize = minGzipSize;
+        this.gzipLevel = gzipLevel;
+        this.staticMaxAge = staticMaxAge;
+    }
+}
@@ -1,64 +1,410 @@
 package main.java.server.util;
 
+import main.java.metrics.Histogram;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.mail.*;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A server that sends emails
+ * <p>
+ * Sending does not talk to the SMTP server directly. Emails are put on a bounded queue and sent by a few worker
+ * threads, so a request never waits on SMTP. Each worker keeps its SMTP connection open and sends everything that is
+ * queued over it in one go, and closes it after it has been idle for a while. Emails that fail are tried again after
+ * an exponential backoff, up to a maximum number of attempts.
  */
-public class EmailServer {
+public class EmailServer implements AutoCloseable {
+    /**
+     * Timeout for connecting to and reading from the SMTP server, in milliseconds
+     */
+    private static final String timeoutMillis = "10000";
+
     private final String from;
     private final String password;
-    private final String host;
+    private final EmailSettings settings;
+
+    /**
+     * The mail session. This is built once and shared by all the connections.
+     */
+    private final Session session;
+
+    /**
+     * Emails waiting for a worker
+     */
+    private final BlockingQueue<Pending> queue;
+
+    /**
+     * Puts emails back on the queue once their backoff is over
+     */
+    private final ScheduledExecutorService retries;
+
+    private final Thread[] workers;
+
+    private volatile boolean closed = false;
 
+    //Held while closing, which waits for the workers. Not a monitor, so a virtual thread that closes does not hold on
+    //to its carrier thread meanwhile
+    private final ReentrantLock closeLock = new ReentrantLock();
+
+    //Number of emails that were queued, and that were sent or given up on. Used by flush
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+
+    //Metrics
+    private final AtomicInteger waitingForRetry = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final Histogram sendTimes = new Histogram();
+
+    /**
+     * Creates the server and starts its workers.
+     *
+     * @param from     the account to send from
+     * @param password the password of the account. If empty, we do not log in.
+     * @param settings the SMTP server and the settings of the queue
+     */
+    public EmailServer(@NotNull String from, @NotNull String password, @NotNull EmailSettings settings) {
+        if (settings.workers < 1 || settings.queueCapacity < 1 || settings.batchSize < 1 || settings.maxAttempts < 1) {
+            throw new IllegalArgumentException("The email workers, queue capacity, batch size and attempts must be " +
+                    "positive");
+        }
 
-    public EmailServer(String from, String password, Optional<String> host) {
         this.from = from;
         this.password = password;
-        this.host = host.orElse("localhost");
+        this.settings = settings;
+
+        String prefix = settings.ssl ? "mail.smtps." : "mail.smtp.";
+        Properties properties = new Properties();
+        properties.setProperty(prefix + "host", settings.host);
+        properties.setProperty(prefix + "port", Integer.toString(settings.port));
+        properties.setProperty(prefix + "auth", Boolean.toString(!password.isEmpty()));
+        properties.setProperty(prefix + "connectiontimeout", timeoutMillis);
+        properties.setProperty(prefix + "timeout", timeoutMillis);
+        session = Session.getInstance(properties);
+
+        queue = new LinkedBlockingQueue<>(settings.queueCapacity);
+        retries = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "email-retry");
+            t.setDaemon(true);
+            return t;
+        });
+
+        workers = new Thread[settings.workers];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this::runWorker, "email-sender-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
     }
 
-    public synchronized boolean sendEmail(Email email) {
-        //Get System Properties
-        Properties properties = System.getProperties();
+    /**
+     * Queues the email to be sent in the background.
+     *
+     * @return false if the email was dropped because the queue is full or this server is closed
+     */
+    public boolean sendEmail(@NotNull Email email) {
+        if (closed || !queue.offer(new Pending(email))) {
+            dropped.increment();
+            return false;
+        }
+
+        accepted.incrementAndGet();
+        return true;
+    }
 
-        //setup mail server
-        //properties.setProperty("mail.smtp.host", this.host);
-        properties.put("mail.smtp.host", "smtp.gmail.com");
-        properties.put("mail.smtp.socketFactory.port", "465");
-        properties.put("mail.smtp.socketFactory.class", "javax.net.ssl.SSLSocketFactory");
-        properties.put("mail.smtp.auth", "true");
-        properties.put("mail.smtp.port", "587");
+    /**
+     * Blocks until every email queued before this call has been sent or given up on.
+     */
+    public void flush() {
+        long target = accepted.get();
+        while (processed.get() < target && isRunning()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
 
-        //get the default session object
-        Session session = Session.getDefaultInstance(properties, new javax.mail.Authenticator() {
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(from, password);
+    private boolean isRunning() {
+        for (Thread worker : workers) {
+            if (worker.isAlive()) {
+                return true;
             }
-        });
+        }
+        return false;
+    }
 
+    /**
+     * Stops accepting emails and sends what is left in the queue. Emails that are waiting for a retry are given up.
+     */
+    @Override
+    public void close() {
+        closeLock.lock();
         try {
-            //Create a default mime message object
-            MimeMessage message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(this.from));
-            message.addRecipient(Message.RecipientType.TO, new InternetAddress(email.to));
-            message.setSubject(email.subject);
-            message.setContent(email.body, "text/html");
-
-            //Send the message
-            Transport.send(message);
-            return true;
-
-        } catch (MessagingException mex) {
-            mex.printStackTrace();
-            return false;
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            for (Runnable r : retries.shutdownNow()) {
+                r.run(); //Retry tasks see that we are closed and give up
+            }
+            try {
+                retries.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } finally {
+            closeLock.unlock();
+        }
+    }
+
+    /**
+     * Body of a worker thread. Takes up to a batch of emails off the queue and sends them over its connection.
+     */
+    private void runWorker() {
+        Transport transport = null;
+        List<Pending> batch = new ArrayList<>(settings.batchSize);
+
+        while (!closed || !queue.isEmpty()) {
+            Pending first;
+            try {
+                first = closed ? queue.poll() : queue.poll(settings.idleTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) { //We were closed, send what is left
+                continue;
+            }
+
+            if (first == null) { //Idle, do not hold on to the connection
+                transport = disconnect(transport);
+                continue;
+            }
+
+            batch.add(first);
+            queue.drainTo(batch, settings.batchSize - 1);
+            for (Pending p : batch) {
+                transport = send(transport, p);
+            }
+            batch.clear();
+        }
+
+        disconnect(transport);
+    }
+
+    /**
+     * Sends one email, connecting first if needed. If it fails it is queued for a retry or given up on.
+     *
+     * @param transport the open connection of the worker, or null if it has none
+     * @return the connection to use for the next email, or null if it was closed
+     */
+    @Nullable
+    private Transport send(@Nullable Transport transport, Pending p) {
+        MimeMessage message;
+        try {
+            message = message(p.email);
+        } catch (MessagingException e) { //A malformed address, trying again will not help
+            giveUp(p, e);
+            return transport;
         }
 
+        p.attempts++;
+        boolean reused = transport != null;
+        long start = System.nanoTime();
+        try {
+            transport = connect(transport);
+            transport.sendMessage(message, message.getAllRecipients());
+            sendTimes.recordSince(start);
+            sent.increment();
+            processed.incrementAndGet();
+            return transport;
+        } catch (MessagingException e) {
+            //The server may have closed a connection that sat idle. That is not the fault of the email
+            boolean stale = reused && !transport.isConnected();
+            transport = disconnect(transport);
+            if (stale) {
+                p.attempts--;
+                return send(null, p);
+            }
+
+            if (isPermanent(e)) {
+                giveUp(p, e);
+            } else {
+                retry(p, e);
+            }
+            return null;
+        }
+    }
+
+    private Transport connect(@Nullable Transport transport) throws MessagingException {
+        if (transport != null) {
+            return transport;
+        }
+
+        Transport ret = session.getTransport(settings.ssl ? "smtps" : "smtp");
+        if (password.isEmpty()) {
+            ret.connect(settings.host, settings.port, null, null);
+        } else {
+            ret.connect(settings.host, settings.port, from, password);
+        }
+        connections.increment();
+        return ret;
+    }
+
+    /**
+     * Closes the connection, ignoring errors
+     *
+     * @return null
+     */
+    @Nullable
+    private static Transport disconnect(@Nullable Transport transport) {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) { //Most likely it was closed already
+            }
+        }
+        return null;
+    }
+
+    private MimeMessage message(Email email) throws MessagingException {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress(from));
+        message.addRecipient(Message.RecipientType.TO, new InternetAddress(email.to));
+        message.setSubject(email.subject);
+        message.setContent(email.body, "text/html");
+        return message;
+    }
+
+    /**
+     * @return true if the server refused the address of the email, so trying again will not help
+     */
+    private static boolean isPermanent(MessagingException e) {
+        if (e instanceof SendFailedException) {
+            Address[] invalid = ((SendFailedException) e).getInvalidAddresses();
+            return invalid != null && invalid.length > 0;
+        }
+        return false;
+    }
+
+    /**
+     * Puts the email back on the queue after its backoff, or gives up on it if it is out of attempts
+     */
+    private void retry(Pending p, MessagingException cause) {
+        if (p.attempts >= settings.maxAttempts || closed) {
+            giveUp(p, cause);
+            return;
+        }
+
+        long delay = settings.retryBackoffMillis << Math.min(p.attempts - 1, 20);
+        retried.increment();
+        waitingForRetry.incrementAndGet();
+        try {
+            retries.schedule(() -> {
+                waitingForRetry.decrementAndGet();
+                if (closed || !queue.offer(p)) {
+                    giveUp(p, cause);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) { //Closed in the meantime
+            waitingForRetry.decrementAndGet();
+            giveUp(p, cause);
+        }
+    }
+
+    private void giveUp(Pending p, MessagingException cause) {
+        failed.increment();
+        processed.incrementAndGet();
+        System.err.println("Unable to send email to " + p.email.to + " after " + p.attempts + " attempts");
+        cause.printStackTrace();
+    }
+
+    // ----------------- Metrics ------------------------
+
+    /**
+     * @return the number of emails waiting to be sent, including the ones waiting for a retry
+     */
+    public int getQueueDepth() {
+        return queue.size() + waitingForRetry.get();
+    }
+
+    /**
+     * @return the number of emails sent
+     */
+    public long getSentEmails() {
+        return sent.sum();
+    }
+
+    /**
+     * @return the number of times an email was put back on the queue after it failed
+     */
+    public long getRetriedEmails() {
+        return retried.sum();
+    }
+
+    /**
+     * @return the number of emails given up on
+     */
+    public long getFailedEmails() {
+        return failed.sum();
+    }
+
+    /**
+     * @return the number of emails dropped because the queue was full or the server was closed
+     */
+    public long getDroppedEmails() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of connections opened to the SMTP server
+     */
+    public long getOpenedConnections() {
+        return connections.sum();
+    }
+
+    /**
+     * @return how long each email that was sent took, including connecting if the worker had no connection
+     */
+    public Histogram getSendTimes() {
+        return sendTimes;
+    }
+
+    /**
+     * An email on the queue
+     */
+    private static class Pending {
+        private final Email email;
+
+        /**
+         * Number of times we tried to send it. Only the worker that holds it touches this.
+         */
+        private int attempts = 0;
+
+        private Pending(Email email) {
+            this.email = email;
+        }
     }
 
     public static class Email {
@@ -0,0 +1,72 @@
+package main.java.server.util;
+
+/**
+ * Settings for sending emails through SMTP. This is stored as part of the server configuration. The account to send
+ * from is the email and emailPassword of the configuration.
+ */
+public class EmailSettings {
+    /**
+     * The SMTP server
+     */
+    public final String host;
+
+    /**
+     * Port of the SMTP server
+     */
+    public final int port;
+
+    /**
+     * If to connect with SSL (SMTPS). Only turn this off for a local server.
+     */
+    public final boolean ssl;
+
+    /**
+     * Number of threads sending emails. Each keeps its own connection open.
+     */
+    public final int workers;
+
+    /**
+     * Maximum number of emails waiting to be sent. Emails are dropped while the queue is full.
+     */
+    public final int queueCapacity;
+
+    /**
+     * Maximum number of emails a worker sends at once over its connection
+     */
+    public final int batchSize;
+
+    /**
+     * How often to try an email before giving up on it
+     */
+    public final int maxAttempts;
+
+    /**
+     * How long to wait before the first retry of an email, in milliseconds. Every further retry waits twice as long.
+     */
+    public final long retryBackoffMillis;
+
+    /**
+     * How long a worker keeps its connection open without sending anything, in milliseconds
+     */
+    public final long idleTimeoutMillis;
+
+    /**
+     * Default settings, which send through Gmail
+     */
+    public EmailSettings() {
+        this("smtp.gmail.com", 465, true, 2, 1000, 20, 5, 1000, 30000);
+    }
+
+    public EmailSettings(String host, int port, boolean ssl, int workers, int queueCapacity, int batchSize,
+                         int maxAttempts, long retryBackoffMillis, long idleTimeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.ssl = ssl;
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+}
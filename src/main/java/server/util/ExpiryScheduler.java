@@ -0,0 +1,160 @@
+package main.java.server.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Expires items (session ids, verification codes, ...) once they have been inactive for too long.
+ * <p>
+ * This is a hashed timing wheel. Every item sits in the bucket of the tick it expires at, and every tick only looks
+ * at the items in its own bucket, so the cost of a tick does not depend on the total number of items. Items that
+ * were refreshed after they were scheduled are simply moved to the bucket of their new expiry time when their old
+ * bucket comes up. Refreshing an item is therefore just a write to the item and never touches the wheel.
+ * <p>
+ * A single daemon thread advances the wheel, and one scheduler can be shared by all the managers of a server.
+ */
+public class ExpiryScheduler {
+    /**
+     * Something that expires. Implementations must be thread safe, since expiresAt and expire are called from the
+     * scheduler thread.
+     */
+    public interface Expiring {
+        /**
+         * @return the time in milliseconds at which this item expires. This may move later over time.
+         */
+        long expiresAt();
+
+        /**
+         * Called once from the scheduler thread after expiresAt has passed.
+         */
+        void expire();
+    }
+
+    private final long tickMillis;
+
+    /**
+     * The buckets of the wheel. Bucket i holds the items that expire at a tick t with t % buckets.length == i
+     */
+    private final ConcurrentLinkedQueue<Expiring>[] buckets;
+
+    /**
+     * The tick that is being (or was last) processed. Items are never scheduled into a tick before this
+     */
+    private volatile long currentTick;
+
+    /**
+     * Number of items in the wheel
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Runs advance every tick. Null if the wheel is advanced by hand.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates a scheduler with a one second tick that advances itself on a daemon thread.
+     */
+    public ExpiryScheduler() {
+        this(1000, 1024, true);
+    }
+
+    /**
+     * @param tickMillis the resolution of the wheel in milliseconds. Items expire at most this late.
+     * @param wheelSize  number of buckets. Ideally wheelSize * tickMillis is longer than the lifetime of an item, so
+     *                   that most items are looked at only once.
+     * @param start      if to advance the wheel on a daemon thread. If false, call advance yourself (for testing).
+     */
+    @SuppressWarnings("unchecked")
+    public ExpiryScheduler(long tickMillis, int wheelSize, boolean start) {
+        this.tickMillis = tickMillis;
+        buckets = new ConcurrentLinkedQueue[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+        currentTick = System.currentTimeMillis() / tickMillis;
+
+        if (start) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "expiry-scheduler");
+                t.setDaemon(true);
+                return t;
+            });
+            executor.scheduleAtFixedRate(() -> advance(System.currentTimeMillis()), tickMillis, tickMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Adds an item to the wheel. An item must only be scheduled once, refreshing it does not need a reschedule.
+     */
+    public void schedule(Expiring item) {
+        size.incrementAndGet();
+        insert(item);
+    }
+
+    private void insert(Expiring item) {
+        long tick = Math.max(item.expiresAt() / tickMillis, currentTick + 1);
+        buckets[(int) (tick % buckets.length)].add(item);
+    }
+
+    /**
+     * Expires everything that expired before now. Called every tick by the scheduler thread.
+     *
+     * @param now the current time in milliseconds
+     */
+    public void advance(long now) {
+        long nowTick = now / tickMillis;
+        List<Expiring> notDue = new ArrayList<>();
+
+        //After a long pause every bucket is due, but each only needs to be looked at once
+        if (nowTick - currentTick > buckets.length) {
+            currentTick = nowTick - buckets.length;
+        }
+
+        while (currentTick < nowTick) {
+            currentTick++;
+
+            ConcurrentLinkedQueue<Expiring> bucket = buckets[(int) (currentTick % buckets.length)];
+            Expiring item;
+            while ((item = bucket.poll()) != null) {
+                if (item.expiresAt() <= now) {
+                    size.decrementAndGet();
+                    try {
+                        item.expire();
+                    } catch (RuntimeException e) { //Do not let one item kill the scheduler thread
+                        e.printStackTrace();
+                    }
+                } else {
+                    notDue.add(item); //Refreshed, or due in a later round of the wheel
+                }
+            }
+
+            notDue.forEach(this::insert);
+            notDue.clear();
+        }
+    }
+
+    /**
+     * @return the number of items waiting to expire
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Stops the scheduler thread. Items that have not expired yet never will.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package main.java.server.util;
+
+import main.java.metrics.Histogram;
+import main.java.util.Constants;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Class responsible for serializing conflicting writes in the request handler.
+ * <p>
+ * Every team id and user id maps onto one of a fixed number of striped locks. A write locks the stripes of every
+ * team and user it touches, so only requests that work on the same team or user wait on each other. Reads do not
+ * take any locks.
+ * <p>
+ * To avoid deadlocks, stripes are always acquired team stripes first and then user stripes, each in ascending order.
+ * Operations whose footprint is not known up front (deleting a whole user or team) use lockAll instead, which waits
+ * for every other write to finish.
+ */
+public class LockManager {
+    /**
+     * Striped locks for teams, indexed by stripe
+     */
+    private final ReentrantLock[] teamLocks;
+
+    /**
+     * Striped locks for users, indexed by stripe
+     */
+    private final ReentrantLock[] userLocks;
+
+    /**
+     * Normal writes hold the read side of this lock, lockAll holds the write side.
+     */
+    private final ReentrantReadWriteLock globalLock;
+
+    /**
+     * How long each write waited for its locks
+     */
+    private final Histogram waits = new Histogram();
+
+    /**
+     * Creates a lock manager with the default amount of stripes
+     */
+    public LockManager() {
+        this(Constants.LOCK_STRIPES);
+    }
+
+    /**
+     * @param stripes the number of stripes for each of teams and users. Requires stripes > 0
+     */
+    public LockManager(int stripes) {
+        teamLocks = new ReentrantLock[stripes];
+        userLocks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            teamLocks[i] = new ReentrantLock();
+            userLocks[i] = new ReentrantLock();
+        }
+
+        globalLock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Lock a single user.
+     */
+    public Locks lockUser(int uid) {
+        return lock(Collections.emptyList(), Collections.singletonList(uid));
+    }
+
+    /**
+     * Lock a single team.
+     */
+    public Locks lockTeam(int tid) {
+        return lock(Collections.singletonList(tid), Collections.emptyList());
+    }
+
+    /**
+     * Lock a team along with one user, e.g. for changing the membership of that user in that team.
+     */
+    public Locks lockTeamAndUser(int tid, int uid) {
+        return lock(Collections.singletonList(tid), Collections.singletonList(uid));
+    }
+
+    /**
+     * Lock all the given teams and users. Blocks until all the locks are held.
+     *
+     * @param tids the team ids to lock
+     * @param uids the user ids to lock
+     * @return the held locks. Close this to release them (preferably using try with resources)
+     */
+    public Locks lock(@NotNull Collection<Integer> tids, @NotNull Collection<Integer> uids) {
+        long start = System.nanoTime();
+        List<Lock> held = new ArrayList<>();
+
+        Lock global = globalLock.readLock();
+        global.lock();
+        held.add(global);
+
+        for (int stripe : stripes(tids)) {
+            teamLocks[stripe].lock();
+            held.add(teamLocks[stripe]);
+        }
+
+        for (int stripe : stripes(uids)) {
+            userLocks[stripe].lock();
+            held.add(userLocks[stripe]);
+        }
+
+        waits.recordSince(start);
+        return new Locks(held);
+    }
+
+    /**
+     * Waits until no other write is running and locks out all other writes. Use this for operations that touch
+     * an unbounded amount of teams and users.
+     */
+    public Locks lockAll() {
+        long start = System.nanoTime();
+        Lock global = globalLock.writeLock();
+        global.lock();
+        waits.recordSince(start);
+        return new Locks(Collections.singletonList(global));
+    }
+
+    /**
+     * @return how long writes waited to get their locks, including the ones that did not have to wait
+     */
+    public Histogram getWaitTimes() {
+        return waits;
+    }
+
+    /**
+     * @return the sorted, distinct stripes that the given ids map onto
+     */
+    private SortedSet<Integer> stripes(Collection<Integer> ids) {
+        SortedSet<Integer> ret = new TreeSet<>();
+        for (int id : ids) {
+            ret.add(Math.floorMod(id, teamLocks.length));
+        }
+        return ret;
+    }
+
+    /**
+     * A set of held locks. Closing releases them in reverse acquisition order.
+     */
+    public static class Locks implements AutoCloseable {
+        private final List<Lock> held;
+
+        private Locks(List<Lock> held) {
+            this.held = held;
+        }
+
+        @Override
+        public void close() {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+        }
+    }
+}
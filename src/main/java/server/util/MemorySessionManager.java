@@ -0,0 +1,274 @@
+package main.java.server.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static main.java.util.Constants.MAX_INACTIVE_TIME;
+import static main.java.util.Constants.MAX_SESSIONS_PER_USER;
+
+/**
+ * Session manager that keeps every session id in memory. Sessions are lost when the server restarts, unless they are
+ * also kept in a SessionStore.
+ */
+public class MemorySessionManager implements SessionManager {
+    //Constants
+    private static final int session_id_size = 130; //Size of a session id in bits
+    private static final long persist_interval = 1000 * 30; //How often the last active time is written to the store
+
+    //map from username to sessionID
+    private final ConcurrentHashMap<String, SessionID> sessionIDs;
+
+    //map from uid to the sessions of that user. Every change to the sessions of a user happens inside a compute on
+    //this map, which keeps the two maps consistent
+    private final ConcurrentHashMap<Integer, List<SessionID>> userSessions = new ConcurrentHashMap<>();
+
+    //Logging in once more ends the least recently used session of the user
+    private final int maxSessionsPerUser;
+
+    //Removes inactive session ids
+    private final ExpiryScheduler scheduler;
+
+    //Keeps the sessions across restarts. Null if they are only kept in memory
+    @Nullable
+    private final SessionStore store;
+
+    //Makes sure two new session ids are never the same. Not a monitor, so virtual threads can wait for it without
+    //holding on to their carrier thread
+    private final ReentrantLock generateLock = new ReentrantLock();
+
+    //useful fields
+    private static final SecureRandom random = new SecureRandom();
+
+
+    /**
+     * Constructor for session manager with its own expiry scheduler
+     */
+    public MemorySessionManager() {
+        this(new ExpiryScheduler());
+    }
+
+    /**
+     * @param scheduler the scheduler that removes inactive session ids
+     */
+    public MemorySessionManager(@NotNull ExpiryScheduler scheduler) {
+        sessionIDs = new ConcurrentHashMap<>();
+        this.scheduler = scheduler;
+        this.maxSessionsPerUser = MAX_SESSIONS_PER_USER;
+        this.store = null;
+    }
+
+    /**
+     * Constructor for a session manager that picks up the sessions that were active when the server stopped
+     *
+     * @param scheduler          the scheduler that removes inactive session ids
+     * @param maxSessionsPerUser the maximum number of sessions of a user
+     * @param store              the store to load the sessions from and keep them in, or null to only keep them in
+     *                           memory
+     * @throws SQLException if the sessions could not be loaded
+     */
+    public MemorySessionManager(@NotNull ExpiryScheduler scheduler, int maxSessionsPerUser,
+                                @Nullable SessionStore store) throws SQLException {
+        if (maxSessionsPerUser < 1) {
+            throw new IllegalArgumentException("Users must be allowed at least one session");
+        }
+
+        this.scheduler = scheduler;
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        this.store = store;
+
+        List<SessionStore.Record> records = store == null ? new ArrayList<>()
+                : store.load(System.currentTimeMillis() - MAX_INACTIVE_TIME);
+        sessionIDs = new ConcurrentHashMap<>(Math.max(16, records.size() * 2));
+        for (SessionStore.Record r : records) {
+            SessionID sid = new SessionID(r.uid, r.sid, r.lastActiveTime);
+            sessionIDs.put(sid.sid, sid);
+            userSessions.computeIfAbsent(r.uid, k -> new ArrayList<>()).add(sid);
+            scheduler.schedule(sid);
+        }
+    }
+
+    /**
+     * Create a session ID for the given user id and add it to the hashmap to keep track of.
+     */
+    @Override
+    public String generateSID(int uid) {
+        SessionID sid;
+        generateLock.lock();
+        try {
+            sid = new SessionID(uid, generateSID(), System.currentTimeMillis());
+
+            userSessions.compute(uid, (k, sessions) -> {
+                if (sessions == null) {
+                    sessions = new ArrayList<>();
+                }
+                while (sessions.size() >= maxSessionsPerUser) {
+                    SessionID oldest = sessions.stream().min(Comparator.comparingLong(x -> x.lastActiveTime)).get();
+                    sessions.remove(oldest);
+                    forget(oldest);
+                }
+
+                sessions.add(sid);
+                sessionIDs.put(sid.sid, sid);
+                if (store != null) {
+                    store.put(sid.sid, uid, sid.lastActiveTime);
+                }
+                return sessions;
+            });
+        } finally {
+            generateLock.unlock();
+        }
+
+        scheduler.schedule(sid);
+        return sid.sid;
+    }
+
+    @Override
+    public Optional<Integer> getUID(String sessionID) {
+        //The scheduler removes expired sessions a little late, so check here as well
+        Optional<SessionID> sid = Optional.ofNullable(sessionIDs.get(sessionID)).filter(this::isSessionIdValid);
+        sid.ifPresent(SessionID::refresh);
+        return sid.map(x -> x.uid);
+    }
+
+    /**
+     * @return the number of session ids, including ones that have expired but were not removed yet
+     */
+    @Override
+    public int getSessionCount() {
+        return sessionIDs.size();
+    }
+
+    @Override
+    public void removeSessionID(@NotNull String sessionID) {
+        SessionID sid = sessionIDs.get(sessionID);
+        if (sid != null) {
+            remove(sid);
+        }
+    }
+
+    /**
+     * Removes every session of the user. The sessions of a user are looked up in an index, so this does not depend on
+     * the total number of sessions.
+     */
+    @Override
+    public void removeAllSessions(int uid) {
+        userSessions.computeIfPresent(uid, (k, sessions) -> {
+            sessions.forEach(this::forget);
+            return null;
+        });
+    }
+
+    /**
+     * Removes the session from both maps and the store
+     */
+    private void remove(SessionID sid) {
+        userSessions.computeIfPresent(sid.uid, (k, sessions) -> {
+            if (sessions.remove(sid)) {
+                forget(sid);
+            }
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    /**
+     * Removes the session from the session id map and the store. Must be called inside a compute on userSessions.
+     */
+    private void forget(SessionID sid) {
+        if (sessionIDs.remove(sid.sid, sid) && store != null) {
+            store.remove(sid.sid);
+        }
+    }
+
+    /**
+     * @return a randomly generated session ID that is not currently being used
+     */
+    private String generateSID() {
+        String ret;
+        do {
+            ret = new BigInteger(session_id_size, random).toString(32);
+        } while (sessionIDs.containsKey(ret));
+
+        return ret;
+    }
+
+    /**
+     * @return if the given session id is valid
+     */
+    private boolean isSessionIdValid(SessionID sid) {
+        return System.currentTimeMillis() - sid.lastActiveTime < MAX_INACTIVE_TIME;
+    }
+
+    /**
+     * Inner class for a session ID
+     */
+    private class SessionID implements ExpiryScheduler.Expiring {
+        private final int uid; //The user corresponding to this session id
+
+        @NotNull
+        private final String sid; //The session id
+
+        private volatile long lastActiveTime; //The last time this session ID was interacted with
+
+        private volatile long persistedActiveTime; //The last active time that was given to the store
+
+        private SessionID(int uid, @NotNull String sid, long lastActiveTime) {
+            this.uid = uid;
+            this.sid = sid;
+            this.lastActiveTime = lastActiveTime;
+            this.persistedActiveTime = lastActiveTime;
+        }
+
+        /**
+         * Refreshes this session ID to the current system time.
+         */
+        private void refresh() {
+            long now = System.currentTimeMillis();
+            lastActiveTime = now;
+
+            //Every request refreshes the session, but the store only needs to be roughly up to date
+            if (store != null && now - persistedActiveTime >= persist_interval) {
+                persistedActiveTime = now;
+                store.put(sid, uid, now);
+                if (sessionIDs.get(sid) != this) { //Logged out or expired in the meantime, so do not bring it back
+                    store.remove(sid);
+                }
+            }
+        }
+
+        @Override
+        public long expiresAt() {
+            return lastActiveTime + MAX_INACTIVE_TIME;
+        }
+
+        @Override
+        public void expire() {
+            remove(this);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            SessionID sessionID = (SessionID) o;
+
+            return sid.equals(sessionID.sid);
+
+        }
+
+        @Override
+        public int hashCode() {
+            return sid.hashCode();
+        }
+    }
+}
@@ -1,16 +1,21 @@
 package main.java.server.util;
 
 import main.java.database.AegisPasswordDatabase;
+import main.java.database.CacheStats;
+import main.java.database.CachingPasswordDatabase;
 import main.java.database.PasswordDatabase;
+import main.java.database.TimedPasswordDatabase;
 import main.java.logging.LogEntry;
 import main.java.logging.LogLevel;
 import main.java.logging.LogManager;
+import main.java.metrics.Metrics;
 import main.java.model.*;
 import main.java.model.info.EntryInfo;
 import main.java.model.info.TeamInfo;
 import main.java.model.info.TeamUserInfo;
 import main.java.model.info.UserInfo;
 import main.java.server.config.Configuration;
+import main.java.server.json.JsonStream;
 import main.java.server.json.request.entry.ReqChangeEntryNonSecure;
 import main.java.server.json.request.entry.ReqChangeEntrySecure;
 import main.java.server.json.request.entry.ReqCreateEntry;
@@ -26,14 +31,18 @@ import org.jetbrains.annotations.Nullable;
 import spark.Request;
 import spark.Response;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.function.Supplier;
 
 import static main.java.logging.LogConstants.SERVER_IP;
 import static main.java.util.Constants.FAILED_LOGIN_MESSAGE;
 
 
 /**
- * Class for handling server requests. All the methods in here are synchronized.
+ * Class for handling server requests. Requests may run concurrently. Reads do not take any locks, while writes
+ * lock the teams and users they touch through the LockManager so that only conflicting writes are serialized.
  */
 public class RequestHandler {
     //Useful fields
@@ -42,26 +51,46 @@ public class RequestHandler {
     private final SessionManager sidManager;
     private final EmailServer emailServer;
     private final VerificationCodeManager vcManager;
+    private final LockManager locks;
+    private final Metrics metrics;
 
     //Configuration of this server
     private final Configuration config;
 
     /**
-     * Construct a new request handler. This could run into issues.
+     * Construct a new request handler with metrics of its own. This could run into issues.
      *
      * @param config The configuration of this server
      * @throws Exception An exception can be thrown if there are issues with initializations. This is probably
      *                   due to the log or database
      */
     public RequestHandler(Configuration config) throws Exception {
+        this(config, new Metrics());
+    }
+
+    /**
+     * Construct a new request handler. This could run into issues.
+     *
+     * @param config  The configuration of this server
+     * @param metrics where to register the metrics of the database, log, emails, sessions and locks
+     * @throws Exception An exception can be thrown if there are issues with initializations. This is probably
+     *                   due to the log or database
+     */
+    public RequestHandler(Configuration config, Metrics metrics) throws Exception {
         this.config = config;
-        logger = new LogManager();
+        this.metrics = metrics;
+        logger = new LogManager(false, config.logging);
 
         try {
-            db = new AegisPasswordDatabase(Constants.DB_NAME);
-            sidManager = new SessionManager();
-            emailServer = new EmailServer(config.email, config.emailPassword, Optional.empty());
-            vcManager = new VerificationCodeManager();
+            AegisPasswordDatabase aegisDb = new AegisPasswordDatabase(Constants.DB_NAME, config.database);
+            CachingPasswordDatabase cachingDb = new CachingPasswordDatabase(aegisDb, config.database);
+            db = new TimedPasswordDatabase(cachingDb, metrics);
+            ExpiryScheduler expiryScheduler = new ExpiryScheduler();
+            sidManager = SessionManager.create(config.sessions, expiryScheduler);
+            emailServer = new EmailServer(config.email, config.emailPassword, config.smtp);
+            vcManager = new VerificationCodeManager(expiryScheduler);
+            locks = new LockManager();
+            registerMetrics(aegisDb, cachingDb);
 
             //Log success
             logger.log(LogLevel.DEBUG, "Request Handler Setup Successful", SERVER_IP);
@@ -74,14 +103,71 @@ public class RequestHandler {
 
     }
 
+    /**
+     * Registers the metrics that the parts of the request handler keep
+     */
+    private void registerMetrics(AegisPasswordDatabase aegisDb, CachingPasswordDatabase cachingDb) {
+        metrics.counter("aegis_db_statement_cache_hits_total", "Prepared statements reused from the cache",
+                aegisDb::getStatementCacheHits);
+        metrics.counter("aegis_db_statement_cache_misses_total", "Prepared statements that had to be prepared",
+                aegisDb::getStatementCacheMisses);
+        registerCacheMetrics("user", cachingDb::getUserCacheStats);
+        registerCacheMetrics("team", cachingDb::getTeamCacheStats);
+        registerCacheMetrics("entry", cachingDb::getEntryCacheStats);
+
+        metrics.histogram("aegis_lock_wait_seconds", "Time writes waited for their team and user locks",
+                locks.getWaitTimes());
+
+        if (sidManager instanceof SignedSessionManager) {
+            //Signed sessions are not kept track of, only their revocations
+            metrics.gauge("aegis_session_revocations", "Logged out sessions and users whose tokens are still refused",
+                    ((SignedSessionManager) sidManager)::getRevocationCount);
+        } else {
+            metrics.gauge("aegis_sessions", "Sessions the server keeps track of", sidManager::getSessionCount);
+        }
+
+        metrics.gauge("aegis_log_queue_depth", "Log entries waiting to be written", logger::getQueueDepth);
+        metrics.counter("aegis_log_written_total", "Log entries written", logger::getWrittenEntries);
+        metrics.counter("aegis_log_dropped_total", "Log entries dropped because the queue was full",
+                logger::getDroppedEntries);
+        metrics.counter("aegis_log_failed_total", "Log entries lost because their batch failed to write",
+                logger::getFailedEntries);
+        metrics.histogram("aegis_log_batch_write_seconds", "Time to write a batch of log entries",
+                logger.getBatchWriteTimes());
+
+        metrics.gauge("aegis_email_queue_depth", "Emails waiting to be sent or retried", emailServer::getQueueDepth);
+        metrics.counter("aegis_email_sent_total", "Emails sent", emailServer::getSentEmails);
+        metrics.counter("aegis_email_retried_total", "Email sends that failed and were retried",
+                emailServer::getRetriedEmails);
+        metrics.counter("aegis_email_failed_total", "Emails given up on", emailServer::getFailedEmails);
+        metrics.counter("aegis_email_dropped_total", "Emails dropped because the queue was full",
+                emailServer::getDroppedEmails);
+        metrics.counter("aegis_email_connections_total", "Connections opened to the SMTP server",
+                emailServer::getOpenedConnections);
+        metrics.histogram("aegis_email_send_seconds", "Time to send an email", emailServer.getSendTimes());
+    }
+
+    private void registerCacheMetrics(String cache, Supplier<CacheStats> stats) {
+        metrics.counter("aegis_cache_hits_total", "Reads answered from the cache", () -> stats.get().hits,
+                "cache", cache);
+        metrics.counter("aegis_cache_misses_total", "Reads that went to the database", () -> stats.get().misses,
+                "cache", cache);
+        metrics.counter("aegis_cache_coalesced_total", "Reads that waited for the same read already running",
+                () -> stats.get().coalesced, "cache", cache);
+        metrics.counter("aegis_cache_evictions_total", "Values removed to make room for others",
+                () -> stats.get().evictions, "cache", cache);
+        metrics.gauge("aegis_cache_weight", "Total weight of the values in the cache", () -> stats.get().weight,
+                "cache", cache);
+    }
+
     // ---------------------------- Request Processing ----------------------------
-    // Remember to make all these methods synchronized
+    // Any method that writes to the database must hold the locks for the teams and users it touches
     // ---------------------------- Login Related ----------------------------
 
     /**
      * Return the salt for a given user
      */
-    public synchronized Salt login1(Request req, Response res, ReqLogin1 json) throws RequestException {
+    public Salt login1(Request req, Response res, ReqLogin1 json) throws RequestException {
         Optional<AegisUser> user = db.readUser(json.email);
 
         if (user.isPresent()) {
@@ -91,7 +177,7 @@ public class RequestHandler {
 
                 //Send email
                 EmailServer.Email vcEmail = EmailTemplates.generateLoginVerificationEmail(json.email, code);
-                emailServer.sendEmail(vcEmail);
+                sendEmail(vcEmail, req.ip());
 
                 logger.log(LogLevel.INFO, "Login verification code sent: " + code, req.ip());
             }
@@ -109,7 +195,7 @@ public class RequestHandler {
      *
      * @return A full user object representing this user
      */
-    public synchronized FullUser login2(Request req, Response res, ReqLogin2 json) throws RequestException {
+    public FullUser login2(Request req, Response res, ReqLogin2 json) throws RequestException {
         Optional<AegisUser> opUser = db.readUser(json.email);
         AegisUser user;
 
@@ -152,8 +238,8 @@ public class RequestHandler {
     /**
      * Get a full user object of yourself
      */
-    public synchronized FullUser getFullUser(Request req, Response res) throws RequestException {
-        int uid = getUIDFromSID(req);
+    public FullUser getFullUser(Request req, Response res) throws RequestException {
+        int uid = getUIDFromSID(req, res);
         AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
         return new FullUser(user);
     }
@@ -163,8 +249,8 @@ public class RequestHandler {
      *
      * @param email the email you are trying to get the partial user of
      */
-    public synchronized PartialUser getPartialUser(Request req, Response res, String email) throws RequestException {
-        int myUID = getUIDFromSID(req);
+    public PartialUser getPartialUser(Request req, Response res, String email) throws RequestException {
+        int myUID = getUIDFromSID(req, res);
 
         //Log this request
         logger.log(LogLevel.INFO, "Requesting user public info: " + email, req.ip(), Optional.of(myUID), Optional.empty(), Optional.empty());
@@ -178,8 +264,8 @@ public class RequestHandler {
      *
      * @param uid the uid you are trying to get the partial user of
      */
-    public synchronized PartialUser getPartialUser(Request req, Response res, int uid) throws RequestException {
-        int myUID = getUIDFromSID(req);
+    public PartialUser getPartialUser(Request req, Response res, int uid) throws RequestException {
+        int myUID = getUIDFromSID(req, res);
 
         //Log this request
         logger.log(LogLevel.INFO, "Requesting user public info: " + uid, req.ip(), Optional.of(myUID), Optional.empty(), Optional.empty());
@@ -191,83 +277,93 @@ public class RequestHandler {
     /**
      * Update the user information
      */
-    public synchronized void updateUserInfo(Request req, Response res, ReqUpdateUser json) throws RequestException {
-        int uid = getUIDFromSID(req);
-
-        // Old user
-        AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
-
-        //Setup new fields
-        String firstName = getOrElseString(json.firstName, user.userInfo.firstName);
-        String lastName = getOrElseString(json.lastName, user.userInfo.lastName);
-        String email = getOrElseString(json.email, user.email);
-
-        // Update the user
-        boolean b = db.updateUser(user.withEmail(email)
-                .withUserInfo(user.userInfo.withFirstNameAndLastName(firstName, lastName)));
+    public void updateUserInfo(Request req, Response res, ReqUpdateUser json) throws RequestException {
+        int uid = getUIDFromSID(req, res);
+
+        try (LockManager.Locks ignored = locks.lockUser(uid)) {
+            // Old user
+            AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
+
+            //Setup new fields
+            String firstName = getOrElseString(json.firstName, user.userInfo.firstName);
+            String lastName = getOrElseString(json.lastName, user.userInfo.lastName);
+            String email = getOrElseString(json.email, user.email);
+
+            // Update the user
+            boolean b = db.updateUser(user.withEmail(email)
+                    .withUserInfo(user.userInfo.withFirstNameAndLastName(firstName, lastName)));
+
+            //Log
+            if (b) {
+                logger.log(LogLevel.INFO, "User Info Update Successful", req.ip(), Optional.of(user.id),
+                        Optional.empty(), Optional.empty());
+            } else {
+                logger.log(LogLevel.ERROR, "User Info Update Failed", req.ip(), Optional.of(user.id),
+                        Optional.empty(), Optional.empty());
+            }
 
-        //Log
-        if (b) {
-            logger.log(LogLevel.INFO, "User Info Update Successful", req.ip(), Optional.of(user.id),
-                    Optional.empty(), Optional.empty());
-        } else {
-            logger.log(LogLevel.ERROR, "User Info Update Failed", req.ip(), Optional.of(user.id),
-                    Optional.empty(), Optional.empty());
+            throwInternalException(b);
         }
-
-        throwInternalException(b);
     }
 
     /**
      * Update the user information regarding the master password
      */
-    public synchronized void updateUserMasterPassword(Request req, Response res, ReqUpdateMasterPassword json) throws RequestException {
-        int uid = getUIDFromSID(req);
-
-        // Old user
-        AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
-
-        // Update the user
-        boolean b = db.updateUser(user.withUserInfo(user.userInfo.withMasterPasswordUpdate(json)));
+    public void updateUserMasterPassword(Request req, Response res, ReqUpdateMasterPassword json) throws RequestException {
+        int uid = getUIDFromSID(req, res);
+
+        try (LockManager.Locks ignored = locks.lockUser(uid)) {
+            // Old user
+            AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
+
+            // Update the user
+            boolean b = db.updateUser(user.withUserInfo(user.userInfo.withMasterPasswordUpdate(json)));
+
+            //Log
+            if (b) {
+                //Log out everywhere else, since someone who knew the old password may be logged in
+                sidManager.removeAllSessions(uid);
+                res.cookie("sessionID", sidManager.generateSID(uid));
+                logger.log(LogLevel.WARNING, "Master Password Update Successful", req.ip(), Optional.of(user.id),
+                        Optional.empty(), Optional.empty());
+            } else {
+                logger.log(LogLevel.ERROR, "Master Password Update Failed", req.ip(), Optional.of(user.id),
+                        Optional.empty(), Optional.empty());
+            }
 
-        //Log
-        if (b) {
-            logger.log(LogLevel.WARNING, "Master Password Update Successful", req.ip(), Optional.of(user.id),
-                    Optional.empty(), Optional.empty());
-        } else {
-            logger.log(LogLevel.ERROR, "Master Password Update Failed", req.ip(), Optional.of(user.id),
-                    Optional.empty(), Optional.empty());
+            throwInternalException(b);
         }
-
-        throwInternalException(b);
     }
 
     /**
      * Delete the user corresponding to this session ID
      */
-    public synchronized void deleteUser(Request req, Response res) throws RequestException {
-        int uid = getUIDFromSID(req);
-
-        AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
-
-        checkAdminDelete(req, user, Optional.empty());
+    public void deleteUser(Request req, Response res) throws RequestException {
+        int uid = getUIDFromSID(req, res);
+
+        try (LockManager.Locks ignored = locks.lockAll()) {
+            AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
+
+            checkAdminDelete(req, user, Optional.empty());
+
+            boolean b = db.deleteUser(uid);
+            if (b) {
+                sidManager.removeAllSessions(uid);
+                logger.log(LogLevel.INFO, "User Delete Successful", req.ip(), Optional.of(uid),
+                        Optional.empty(), Optional.empty());
+            } else {
+                logger.log(LogLevel.ERROR, "User Delete Failed", req.ip(), Optional.of(uid),
+                        Optional.empty(), Optional.empty());
+            }
 
-        boolean b = db.deleteUser(uid);
-        if (b) {
-            logger.log(LogLevel.INFO, "User Delete Successful", req.ip(), Optional.of(uid),
-                    Optional.empty(), Optional.empty());
-        } else {
-            logger.log(LogLevel.ERROR, "User Delete Failed", req.ip(), Optional.of(uid),
-                    Optional.empty(), Optional.empty());
+            throwInternalException(b);
         }
-
-        throwInternalException(b);
     }
 
     /**
      * Send a verification email for user creation
      */
-    public synchronized void generateVerificationEmail(Request req, Response res, ReqVerification json) throws RequestException {
+    public void generateVerificationEmail(Request req, Response res, ReqVerification json) throws RequestException {
         if (db.readUser(json.email).isPresent()) {
             logger.log(LogLevel.INFO, "Username already exists", req.ip());
             throw new MessageException("Username already exists");
@@ -279,7 +375,7 @@ public class RequestHandler {
 
             //Send email
             EmailServer.Email vcEmail = EmailTemplates.generateVerificationEmail(json.email, code);
-            emailServer.sendEmail(vcEmail);
+            sendEmail(vcEmail, req.ip());
         } else {
             //Just add the verification code in
             code = json.email;
@@ -292,7 +388,7 @@ public class RequestHandler {
     /**
      * Attempts to create the user
      */
-    public synchronized int createUser(Request req, Response res, ReqCreateUser json) throws RequestException {
+    public int createUser(Request req, Response res, ReqCreateUser json) throws RequestException {
         Optional<String> optionalEmail = vcManager.getEmail(json.code);
         if (!optionalEmail.isPresent()) {
             logger.log(LogLevel.WARNING, "Invalid Verification Code", SERVER_IP,
@@ -316,7 +412,7 @@ public class RequestHandler {
             //send confirmation email
             if (Constants.verifyFlag) {
                 EmailServer.Email confirmation = EmailTemplates.generateSignUpConfirmation(email, json.firstName);
-                emailServer.sendEmail(confirmation);
+                sendEmail(confirmation, req.ip());
             }
 
             //Log succcess!
@@ -339,17 +435,19 @@ public class RequestHandler {
     /**
      * Return all the Aegis Teams that the user is a part of
      */
-    public synchronized ArrayList<Team> getUserTeam(Request req, Response res) throws RequestException {
-        int uid = getUIDFromSID(req);
+    public ArrayList<Team> getUserTeam(Request req, Response res) throws RequestException {
+        int uid = getUIDFromSID(req, res);
         AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
 
+        Map<Integer, AegisTeam> userTeams = getOptional(db.readTeams(user.teams.keySet()), LogLevel.ERROR,
+                "Unable to locate teams.", req.ip(), Optional.of(uid), Optional.empty(), Optional.empty());
+
         //Return value
         ArrayList<Team> teams = new ArrayList<>();
 
-        for (Map.Entry<Integer, TeamUserInfo> entry : user.teams.entrySet()) {
-            int tid = entry.getKey();
-            TeamUserInfo info = entry.getValue();
-            AegisTeam team = getTeamOptional(db.readTeam(tid), tid, req.ip());
+        for (int tid : user.teams.keyArray()) {
+            TeamUserInfo info = user.teams.get(tid);
+            AegisTeam team = getTeamOptional(Optional.ofNullable(userTeams.get(tid)), tid, req.ip());
             teams.add(new Team(tid, team.teamInfo.teamName, info.permissions, info.teamKey));
         }
 
@@ -362,20 +460,22 @@ public class RequestHandler {
     /**
      * Return all Aegis users in the team if the logged-in user part of the team
      */
-    public synchronized ArrayList<TeamUser> getUsersInATeam(Request req, Response res, int tid) throws RequestException {
-        int uid = getUIDFromSID(req);
+    public ArrayList<TeamUser> getUsersInATeam(Request req, Response res, int tid) throws RequestException {
+        int uid = getUIDFromSID(req, res);
         AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
         checkRights(req, user, tid, UserPermissions.READ);
 
         AegisTeam team = getTeamOptional(db.readTeam(tid), tid, req.ip());
 
+        Map<Integer, AegisUser> teamUsers = getOptional(db.readUsers(team.users.keySet()), LogLevel.ERROR,
+                "Unable to locate users.", req.ip(), Optional.of(uid), Optional.of(tid), Optional.empty());
+
         ArrayList<TeamUser> users = new ArrayList<>();
 
-        for (Map.Entry<Integer, TeamUserInfo> entry : team.users.entrySet()) {
-            int entryUID = entry.getKey();
-            TeamUserInfo info = entry.getValue();
+        for (int entryUID : team.users.keyArray()) {
+            TeamUserInfo info = team.users.get(entryUID);
 
-            AegisUser u = getUserOptional(db.readUser(entryUID), entryUID, req.ip());
+            AegisUser u = getUserOptional(Optional.ofNullable(teamUsers.get(entryUID)), entryUID, req.ip());
             TeamUser ju = new TeamUser(u, info.permissions, info.teamKey);
             users.add(ju);
         }
@@ -389,8 +489,8 @@ public class RequestHandler {
     /**
      * Return team information.
      */
-    public synchronized Team getTeam(Request req, Response res, int tid) throws RequestException {
-        int uid = getUIDFromSID(req);
+    public Team getTeam(Request req, Response res, int tid) throws RequestException {
+        int uid = getUIDFromSID(req, res);
         AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
         checkRights(req, user, tid, UserPermissions.READ);
 
@@ -413,303 +513,500 @@ public class RequestHandler {
     /**
      * Add the specified user to the specified team.
      */
-    public synchronized void addUserToTeam(Request req, Response res, ReqAddUserToTeam json) throws RequestException {
+    public void addUserToTeam(Request req, Response res, ReqAddUserToTeam json) throws RequestException {
         //check to make sure that the session id is valid
-        int uid = getUIDFromSID(req);
-        AegisUser currentUser = getUserOptional(db.readUser(uid), uid, req.ip());
-        checkRights(req, currentUser, json.tid, UserPermissions.ADMIN);
+        int uid = getUIDFromSID(req, res);
 
-        //Double check user exists
-        AegisUser user = getUserOptional(db.readUser(json.uid), json.uid, req.ip());
-        AegisTeam team = getTeamOptional(db.readTeam(json.tid), json.tid, req.ip());
+        try (LockManager.Locks ignored = locks.lockTeamAndUser(json.tid, json.uid)) {
+            AegisUser currentUser = getUserOptional(db.readUser(uid), uid, req.ip());
+            checkRights(req, currentUser, json.tid, UserPermissions.ADMIN);
 
-        Map<Integer, TeamUserInfo> users = new HashMap<>(team.users);
-        if (users.containsKey(json.uid)) {
-            throw new MessageException("This user is already on the team.");
-        }
+            //Double check user exists
+            AegisUser user = getUserOptional(db.readUser(json.uid), json.uid, req.ip());
+            AegisTeam team = getTeamOptional(db.readTeam(json.tid), json.tid, req.ip());
 
-        users.put(json.uid, new TeamUserInfo(json.permissions, json.teamKey));
+            if (team.users.containsKey(json.uid)) {
+                throw new MessageException("This user is already on the team.");
+            }
 
-        boolean b = db.updateTeam(team.withUsers(users));
-        if (b) {
-            logger.log(LogLevel.INFO, "Added user " + user.email +
-                            " to team " + team.teamInfo.teamName, req.ip(),
-                    Optional.of(uid), Optional.of(json.tid), Optional.empty());
+            boolean b = db.addMember(json.tid, json.uid, new TeamUserInfo(json.permissions, json.teamKey));
+            if (b) {
+                logger.log(LogLevel.INFO, "Added user " + user.email +
+                                " to team " + team.teamInfo.teamName, req.ip(),
+                        Optional.of(uid), Optional.of(json.tid), Optional.empty());
 
-        } else {
-            logger.log(LogLevel.ERROR, "Unable to add user " + user.email +
-                            " to team " + team.teamInfo.teamName, req.ip(),
-                    Optional.of(uid), Optional.of(json.tid), Optional.empty());
-        }
+            } else {
+                logger.log(LogLevel.ERROR, "Unable to add user " + user.email +
+                                " to team " + team.teamInfo.teamName, req.ip(),
+                        Optional.of(uid), Optional.of(json.tid), Optional.empty());
+            }
 
-        throwInternalException(b);
+            throwInternalException(b);
+        }
     }
 
     /**
      * Change user permissions of specified user on specified team.
      */
-    public synchronized void changeUserPermissions(Request req, Response res, ReqChangeUserPermissions json) throws RequestException {
+    public void changeUserPermissions(Request req, Response res, ReqChangeUserPermissions json) throws RequestException {
         //check to make sure that the session id is valid
-        int uid = getUIDFromSID(req);
-        AegisUser currentUser = getUserOptional(db.readUser(uid), uid, req.ip());
-        checkRights(req, currentUser, json.tid, UserPermissions.ADMIN);
+        int uid = getUIDFromSID(req, res);
 
-        //Double check user exists
-        AegisUser user = getUserOptional(db.readUser(json.uid), json.uid, req.ip());
-        AegisTeam team = getTeamOptional(db.readTeam(json.tid), json.tid, req.ip());
+        try (LockManager.Locks ignored = locks.lockTeamAndUser(json.tid, json.uid)) {
+            AegisUser currentUser = getUserOptional(db.readUser(uid), uid, req.ip());
+            checkRights(req, currentUser, json.tid, UserPermissions.ADMIN);
 
-        //Make sure we aren't removing the only admin
-        if (!json.permissions.equals(UserPermissions.ADMIN)) {
-            checkAdminDelete(req, user, Optional.of(team));
-        }
+            //Double check user exists
+            AegisUser user = getUserOptional(db.readUser(json.uid), json.uid, req.ip());
+            AegisTeam team = getTeamOptional(db.readTeam(json.tid), json.tid, req.ip());
 
-        Map<Integer, TeamUserInfo> users = new HashMap<>(team.users);
+            //Make sure we aren't removing the only admin
+            if (!json.permissions.equals(UserPermissions.ADMIN)) {
+                checkAdminDelete(req, user, Optional.of(team));
+            }
 
-        //Check that the user is in the team
-        @Nullable TeamUserInfo info = users.get(json.uid);
-        if (info == null) {
-            logger.log(LogLevel.ERROR, "User was not in the team: " + json.uid, req.ip(), Optional.of(uid), Optional.of(json.tid), Optional.empty());
-            throw new MessageException("User was not in the team");
-        }
+            //Check that the user is in the team
+            if (!team.users.containsKey(json.uid)) {
+                logger.log(LogLevel.ERROR, "User was not in the team: " + json.uid, req.ip(), Optional.of(uid), Optional.of(json.tid), Optional.empty());
+                throw new MessageException("User was not in the team");
+            }
 
+            boolean b = db.setPermission(json.tid, json.uid, json.permissions);
+            if (b) {
+                logger.log(LogLevel.INFO, "Change user " + user.email +
+                                " permissions to team " + team.teamInfo.teamName, req.ip(),
+                        Optional.of(uid), Optional.of(json.tid), Optional.empty());
 
-        users.put(json.uid, new TeamUserInfo(json.permissions, info.teamKey));
-        boolean b = db.updateTeam(team.withUsers(users));
-        if (b) {
-            logger.log(LogLevel.INFO, "Change user " + user.email +
-                            " permissions to team " + team.teamInfo.teamName, req.ip(),
-                    Optional.of(uid), Optional.of(json.tid), Optional.empty());
+            } else {
+                logger.log(LogLevel.ERROR, "Unable to change user " + user.email +
+                                " permissions to team " + team.teamInfo.teamName, req.ip(),
+                        Optional.of(uid), Optional.of(json.tid), Optional.empty());
+            }
 
-        } else {
-            logger.log(LogLevel.ERROR, "Unable to change user " + user.email +
-                            " permissions to team " + team.teamInfo.teamName, req.ip(),
-                    Optional.of(uid), Optional.of(json.tid), Optional.empty());
+            throwInternalException(b);
         }
-
-        throwInternalException(b);
     }
 
     /**
      * Change the User's Team AES Key.
      */
-    public synchronized void changeUserTeamkey(Request req, Response res, ReqChangeUserTKey json) throws RequestException {
+    public void changeUserTeamkey(Request req, Response res, ReqChangeUserTKey json) throws RequestException {
         //check to make sure that the session id is valid
-        int uid = getUIDFromSID(req);
-        AegisUser currentUser = getUserOptional(db.readUser(uid), uid, req.ip());
-        checkRights(req, currentUser, json.tid, UserPermissions.ADMIN);
+        int uid = getUIDFromSID(req, res);
 
-        //Double check user exists
-        AegisUser user = getUserOptional(db.readUser(json.uid), json.uid, req.ip());
-        AegisTeam team = getTeamOptional(db.readTeam(json.tid), json.tid, req.ip());
+        try (LockManager.Locks ignored = locks.lockTeamAndUser(json.tid, json.uid)) {
+            AegisUser currentUser = getUserOptional(db.readUser(uid), uid, req.ip());
+            checkRights(req, currentUser, json.tid, UserPermissions.ADMIN);
 
-        //Check that the user is in the team
-        Map<Integer, TeamUserInfo> users = new HashMap<>(team.users);
-        @Nullable TeamUserInfo info = users.get(json.uid);
-        if (info == null) {
-            logger.log(LogLevel.ERROR, "User was not in the team: " + json.uid, req.ip(), Optional.of(uid), Optional.of(json.tid), Optional.empty());
-            throw new MessageException("User was not in the team");
-        }
+            //Double check user exists
+            AegisUser user = getUserOptional(db.readUser(json.uid), json.uid, req.ip());
+            AegisTeam team = getTeamOptional(db.readTeam(json.tid), json.tid, req.ip());
 
+            //Check that the user is in the team
+            if (!team.users.containsKey(json.uid)) {
+                logger.log(LogLevel.ERROR, "User was not in the team: " + json.uid, req.ip(), Optional.of(uid), Optional.of(json.tid), Optional.empty());
+                throw new MessageException("User was not in the team");
+            }
 
-        users.put(json.uid, new TeamUserInfo(info.permissions, json.teamKey));
+            boolean b = db.setTeamKey(json.tid, json.uid, json.teamKey);
+            if (b) {
+                logger.log(LogLevel.INFO, "Changed user " + user.email +
+                                " key to team " + team.teamInfo.teamName, req.ip(),
+                        Optional.of(uid), Optional.of(json.tid), Optional.empty());
 
-        boolean b = db.updateTeam(team.withUsers(users));
-        if (b) {
-            logger.log(LogLevel.INFO, "Changed user " + user.email +
-                            " key to team " + team.teamInfo.teamName, req.ip(),
-                    Optional.of(uid), Optional.of(json.tid), Optional.empty());
+            } else {
+                logger.log(LogLevel.ERROR, "Unable to change user " + user.email +
+                                " key to team " + team.teamInfo.teamName, req.ip(),
+                        Optional.of(uid), Optional.of(json.tid), Optional.empty());
+            }
 
-        } else {
-            logger.log(LogLevel.ERROR, "Unable to change user " + user.email +
-                            " key to team " + team.teamInfo.teamName, req.ip(),
-                    Optional.of(uid), Optional.of(json.tid), Optional.empty());
+            throwInternalException(b);
         }
-
-        throwInternalException(b);
     }
 
     /**
      * Delete the specified user from the specified team.
      */
-    public synchronized void deleteUserFromTeam(Request req, Response res, int tid, int uid) throws RequestException {
-        int userId = getUIDFromSID(req);
-        AegisUser user = getUserOptional(db.readUser(userId), userId, req.ip());
-        checkRights(req, user, tid, UserPermissions.ADMIN);
+    public void deleteUserFromTeam(Request req, Response res, int tid, int uid) throws RequestException {
+        int userId = getUIDFromSID(req, res);
 
-        AegisUser delUser = getUserOptional(db.readUser(uid), userId, req.ip());
-        AegisTeam team = getTeamOptional(db.readTeam(tid), tid, req.ip());
+        try (LockManager.Locks ignored = locks.lockTeamAndUser(tid, uid)) {
+            AegisUser user = getUserOptional(db.readUser(userId), userId, req.ip());
+            checkRights(req, user, tid, UserPermissions.ADMIN);
 
-        checkAdminDelete(req, delUser, Optional.of(team));
+            AegisUser delUser = getUserOptional(db.readUser(uid), userId, req.ip());
+            AegisTeam team = getTeamOptional(db.readTeam(tid), tid, req.ip());
 
-        Map<Integer, TeamUserInfo> users = new HashMap<>(team.users);
+            checkAdminDelete(req, delUser, Optional.of(team));
 
-        users.remove(uid);
-        boolean b = db.updateTeam(team.withUsers(users));
+            //Check that the user is in the team
+            if (!team.users.containsKey(uid)) {
+                logger.log(LogLevel.ERROR, "User was not in the team: " + uid, req.ip(), Optional.of(userId), Optional.of(tid), Optional.empty());
+                throw new MessageException("User was not in the team");
+            }
 
-        if (b) {
-            logger.log(LogLevel.INFO, "User: " + delUser.email + " successfully deleted from team", req.ip(),
-                    Optional.of(userId), Optional.of(tid), Optional.empty());
+            boolean b = db.removeMember(tid, uid);
 
-        } else {
-            logger.log(LogLevel.WARNING, "User: " + delUser.email + " failed to delete from team", req.ip(),
-                    Optional.of(userId), Optional.of(tid), Optional.empty());
+            if (b) {
+                logger.log(LogLevel.INFO, "User: " + delUser.email + " successfully deleted from team", req.ip(),
+                        Optional.of(userId), Optional.of(tid), Optional.empty());
 
-        }
+            } else {
+                logger.log(LogLevel.WARNING, "User: " + delUser.email + " failed to delete from team", req.ip(),
+                        Optional.of(userId), Optional.of(tid), Optional.empty());
+
+            }
 
-        throwInternalException(b);
+            throwInternalException(b);
+        }
     }
 
     /**
      * Delete the entire team
      */
-    public synchronized void deleteTeam(Request req, Response res, int tid) throws RequestException {
-        int userId = getUIDFromSID(req);
-        AegisUser user = getUserOptional(db.readUser(userId), userId, req.ip());
-        checkRights(req, user, tid, UserPermissions.ADMIN);
+    public void deleteTeam(Request req, Response res, int tid) throws RequestException {
+        int userId = getUIDFromSID(req, res);
 
-        //Check that team exists
-        AegisTeam team = getTeamOptional(db.readTeam(tid), tid, req.ip());
+        try (LockManager.Locks ignored = locks.lockAll()) {
+            AegisUser user = getUserOptional(db.readUser(userId), userId, req.ip());
+            checkRights(req, user, tid, UserPermissions.ADMIN);
 
-        boolean b = db.deleteTeam(tid);
+            //Check that team exists
+            AegisTeam team = getTeamOptional(db.readTeam(tid), tid, req.ip());
 
-        if (b) {
-            logger.log(LogLevel.INFO, "Successfully deleted team", req.ip(),
-                    Optional.of(userId), Optional.of(tid), Optional.empty());
-        } else {
-            logger.log(LogLevel.WARNING, "Failed to delete team", req.ip(),
-                    Optional.of(userId), Optional.of(tid), Optional.empty());
+            boolean b = db.deleteTeam(tid);
 
-        }
+            if (b) {
+                logger.log(LogLevel.INFO, "Successfully deleted team", req.ip(),
+                        Optional.of(userId), Optional.of(tid), Optional.empty());
+            } else {
+                logger.log(LogLevel.WARNING, "Failed to delete team", req.ip(),
+                        Optional.of(userId), Optional.of(tid), Optional.empty());
+
+            }
 
-        throwInternalException(b);
+            throwInternalException(b);
+        }
     }
 
     /**
      * Create a new team
      */
-    public synchronized int createTeam(Request req, Response res, ReqCreateTeam json) throws RequestException {
-        int uid = getUIDFromSID(req);
-
-        // Add the logged in user to the team
-        HashMap<Integer, TeamUserInfo> members = new HashMap<>();
-        members.put(uid, new TeamUserInfo(UserPermissions.ADMIN, json.teamKey));
-
-        return getOptional(db.createTeam(
-                new NoIDAegisTeam(
-                        new TeamInfo(json.teamName),
-                        new ArrayList<>(),
-                        members
-                )), LogLevel.ERROR, "Could not create team " + json.teamName, req.ip(),
-                Optional.of(uid), Optional.empty(), Optional.empty());
+    public int createTeam(Request req, Response res, ReqCreateTeam json) throws RequestException {
+        int uid = getUIDFromSID(req, res);
+
+        try (LockManager.Locks ignored = locks.lockUser(uid)) {
+            // Add the logged in user to the team
+            HashMap<Integer, TeamUserInfo> members = new HashMap<>();
+            members.put(uid, new TeamUserInfo(UserPermissions.ADMIN, json.teamKey));
+
+            return getOptional(db.createTeam(
+                    new NoIDAegisTeam(
+                            new TeamInfo(json.teamName),
+                            new ArrayList<>(),
+                            members
+                    )), LogLevel.ERROR, "Could not create team " + json.teamName, req.ip(),
+                    Optional.of(uid), Optional.empty(), Optional.empty());
+        }
     }
 
     // ---------------------------- Entry Related ----------------------------
 
     /**
-     * Return the full entry for all the entries in this team
+     * Return the full entry for all the entries in this team. The entries are read and written a page at a time, so
+     * a big team never has all its entries in memory at once. If a page can not be read once the response is
+     * committed, JsonStream aborts the connection.
      */
-    public synchronized ArrayList<FullEntry> getEntries(Request req, Response res, int tid) throws RequestException {
-        int uid = getUIDFromSID(req);
+    public JsonStream.Body getEntries(Request req, Response res, int tid) throws RequestException {
+        int uid = getUIDFromSID(req, res);
         AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
         checkRights(req, user, tid, UserPermissions.READ);
 
         AegisTeam team = getTeamOptional(db.readTeam(tid), tid, req.ip());
 
-        ArrayList<Integer> eids = new ArrayList<>(team.entries);
-        ArrayList<FullEntry> entries = new ArrayList<>();
+        Iterator<List<Integer>> pages = pages(team.entries, Constants.STREAM_PAGE_SIZE).iterator();
+        return JsonStream.array(FullEntry.class, new Iterator<List<FullEntry>>() {
+            @Override
+            public boolean hasNext() {
+                return pages.hasNext();
+            }
+
+            @Override
+            public List<FullEntry> next() {
+                List<Integer> page = pages.next();
+                Map<Integer, AegisEntry> teamEntries = db.readEntries(page).orElseThrow(() -> {
+                    logger.log(LogLevel.ERROR, "Unable to locate entries.", req.ip(), Optional.of(uid), Optional.of(tid), Optional.empty());
+                    return new IllegalStateException("Unable to locate entries.");
+                });
+
+                //Entries that were deleted or moved since the team was read are left out
+                ArrayList<FullEntry> entries = new ArrayList<>();
+                for (int eid : page) {
+                    AegisEntry e = teamEntries.get(eid);
+                    if (e != null && e.team == tid) {
+                        entries.add(new FullEntry(e));
+                    }
+                }
+                return entries;
+            }
+        });
+    }
 
-        for (int eid : eids) {
-            AegisEntry e = getEntryOptional(db.readEntry(eid), eid, req.ip());
-            FullEntry je = new FullEntry(e);
-            entries.add(je);
+    /**
+     * Edit the secure portions of an entry
+     */
+    public void editEntrySecure(Request req, Response res, int tid, int eid, ReqChangeEntrySecure json) throws RequestException {
+        int uid = getUIDFromSID(req, res);
+
+        try (LockManager.Locks ignored = locks.lockTeam(tid)) {
+            AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
+            checkRights(req, user, tid, UserPermissions.WRITE);
+
+            AegisEntry entry = getEntryOptional(db.readEntry(eid), eid, req.ip());
+            checkEntryInTeam(req, user, entry, tid);
+
+            boolean b = db.updateEntry(new AegisEntry(
+                    new EntryInfo(entry.entryInfo.title, entry.entryInfo.username, json.password, json.iv),
+                    entry.team, entry.id)
+            );
+
+            if (b) {
+                logger.log(LogLevel.INFO, "Secure Entry Edit Successful", req.ip(),
+                        Optional.of(uid), Optional.of(tid), Optional.of(eid));
+            } else {
+                logger.log(LogLevel.ERROR, "Secure Entry Edit Unsuccessful", req.ip(),
+                        Optional.of(uid), Optional.of(tid), Optional.of(eid));
+            }
         }
+    }
 
-        return entries;
+    /**
+     * Edit the non-secure portions of an entry
+     */
+    public void editEntryNonSecure(Request req, Response res, int tid, int eid, ReqChangeEntryNonSecure json) throws RequestException {
+        int uid = getUIDFromSID(req, res);
+
+        try (LockManager.Locks ignored = locks.lockTeam(tid)) {
+            AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
+            checkRights(req, user, tid, UserPermissions.WRITE);
+
+            AegisEntry entry = getEntryOptional(db.readEntry(eid), eid, req.ip());
+            checkEntryInTeam(req, user, entry, tid);
+            String title = getOrElseString(json.title, entry.entryInfo.title);
+            String username = getOrElseString(json.username, entry.entryInfo.username);
+
+            boolean b = db.updateEntry(new AegisEntry(
+                    new EntryInfo(title, username, entry.entryInfo.password, entry.entryInfo.iv),
+                    entry.team, entry.id)
+            );
+
+            if (b) {
+                logger.log(LogLevel.INFO, "Non-secure Entry Edit Successful", req.ip(),
+                        Optional.of(uid), Optional.of(tid), Optional.of(eid));
+            } else {
+                logger.log(LogLevel.ERROR, "Non-secure Entry Edit Unsuccessful", req.ip(),
+                        Optional.of(uid), Optional.of(tid), Optional.of(eid));
+            }
+        }
     }
 
     /**
-     * Edit the secure portions of an entry
+     * Delete the specified password entry on the team.
      */
-    public synchronized void editEntrySecure(Request req, Response res, int tid, int eid, ReqChangeEntrySecure json) throws RequestException {
-        int uid = getUIDFromSID(req);
-        AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
-        checkRights(req, user, tid, UserPermissions.WRITE);
+    public void deleteEntry(Request req, Response res, int tid, int eid) throws RequestException {
+        int uid = getUIDFromSID(req, res);
 
-        AegisEntry entry = getEntryOptional(db.readEntry(eid), eid, req.ip());
+        try (LockManager.Locks ignored = locks.lockTeam(tid)) {
+            AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
+            checkRights(req, user, tid, UserPermissions.ADMIN);
 
-        boolean b = db.updateEntry(new AegisEntry(
-                new EntryInfo(entry.entryInfo.title, entry.entryInfo.username, json.password, json.iv),
-                entry.team, entry.id)
-        );
+            AegisEntry entry = getEntryOptional(db.readEntry(eid), eid, req.ip());
+            checkEntryInTeam(req, user, entry, tid);
 
-        if (b) {
-            logger.log(LogLevel.INFO, "Secure Entry Edit Successful", req.ip(),
-                    Optional.of(uid), Optional.of(tid), Optional.of(eid));
-        } else {
-            logger.log(LogLevel.ERROR, "Secure Entry Edit Unsuccessful", req.ip(),
-                    Optional.of(uid), Optional.of(tid), Optional.of(eid));
+            boolean b = db.deleteEntry(eid);
+
+            if (b) {
+                logger.log(LogLevel.INFO, "Delete Entry Successful", req.ip(),
+                        Optional.of(uid), Optional.of(tid), Optional.of(eid));
+            } else {
+                logger.log(LogLevel.ERROR, "Delete Entry Unsuccessful", req.ip(),
+                        Optional.of(uid), Optional.of(tid), Optional.of(eid));
+            }
         }
     }
 
     /**
-     * Edit the non-secure portions of an entry
+     * Create a new password entry in the team.
      */
-    public synchronized void editEntryNonSecure(Request req, Response res, int tid, int eid, ReqChangeEntryNonSecure json) throws RequestException {
-        int uid = getUIDFromSID(req);
-        AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
-        checkRights(req, user, tid, UserPermissions.WRITE);
+    public int createEntry(Request req, Response res, int tid, ReqCreateEntry json) throws RequestException {
+        int uid = getUIDFromSID(req, res);
+
+        try (LockManager.Locks ignored = locks.lockTeam(tid)) {
+            AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
+            checkRights(req, user, tid, UserPermissions.WRITE);
+
+            return getOptional(db.createEntry(
+                    new NoIDAegisEntry(
+                            new EntryInfo(json.title, json.username, json.password, json.iv),
+                            tid
+                    )), LogLevel.ERROR, "Unable to create entry", req.ip(),
+                    Optional.of(uid), Optional.of(tid), Optional.empty());
+        }
+    }
 
-        AegisEntry entry = getEntryOptional(db.readEntry(eid), eid, req.ip());
-        String title = getOrElseString(json.title, entry.entryInfo.title);
-        String username = getOrElseString(json.username, entry.entryInfo.username);
+    // ---------------------------- Vault ----------------------------
 
-        boolean b = db.updateEntry(new AegisEntry(
-                new EntryInfo(title, username, entry.entryInfo.password, entry.entryInfo.iv),
-                entry.team, entry.id)
-        );
+    /**
+     * Return the user, every team of the user and every entry on those teams at once. Opening the vault this way
+     * takes a few queries in total, instead of a request (and its queries) per team.
+     */
+    public Vault getVault(Request req, Response res) throws RequestException {
+        int uid = getUIDFromSID(req, res);
+        AegisVault vault = getOptional(db.readVault(uid), LogLevel.ERROR, "Unable to read the vault.", req.ip(),
+                Optional.of(uid), Optional.empty(), Optional.empty());
 
-        if (b) {
-            logger.log(LogLevel.INFO, "Non-secure Entry Edit Successful", req.ip(),
-                    Optional.of(uid), Optional.of(tid), Optional.of(eid));
-        } else {
-            logger.log(LogLevel.ERROR, "Non-secure Entry Edit Unsuccessful", req.ip(),
-                    Optional.of(uid), Optional.of(tid), Optional.of(eid));
+        Vault ret = new Vault(new FullUser(vault.user));
+        for (int tid : vault.user.teams.keyArray()) {
+            TeamUserInfo info = vault.user.teams.get(tid);
+            TeamInfo team = getOptional(Optional.ofNullable(vault.teams.get(tid)), LogLevel.ERROR,
+                    "Unable to locate team.", req.ip(), Optional.of(uid), Optional.of(tid), Optional.empty());
+
+            VaultTeam vaultTeam = new VaultTeam(new Team(tid, team.teamName, info.permissions, info.teamKey));
+            for (AegisEntry entry : vault.entries.getOrDefault(tid, Collections.emptyList())) {
+                vaultTeam.entries.add(new FullEntry(entry));
+            }
+            ret.teams.add(vaultTeam);
         }
+
+        logger.log(LogLevel.INFO, "Vault successfully returned to user", req.ip(),
+                Optional.of(uid), Optional.empty(), Optional.empty());
+        return ret;
     }
 
+    // ---------------------------- Sync ----------------------------
+
     /**
-     * Delete the specified password entry on the team.
+     * Return what changed in the teams of the user since the given sequence number, instead of every team, entry
+     * and user. A since of 0 or less returns everything.
      */
-    public synchronized void deleteEntry(Request req, Response res, int tid, int eid) throws RequestException {
-        int uid = getUIDFromSID(req);
+    public Sync getChanges(Request req, Response res, long since) throws RequestException {
+        int uid = getUIDFromSID(req, res);
+
+        //Read the changes before the data, so anything that changes in between is sent again on the next sync
+        long seq;
+        List<Change> changes;
+        if (since <= 0) {
+            seq = getOptional(db.readSequence(), LogLevel.ERROR, "Unable to read the change log.", req.ip(),
+                    Optional.of(uid), Optional.empty(), Optional.empty());
+            changes = Collections.emptyList();
+        } else {
+            ChangeLog log = getOptional(db.readChanges(uid, since), LogLevel.ERROR, "Unable to read the change log.",
+                    req.ip(), Optional.of(uid), Optional.empty(), Optional.empty());
+            seq = log.seq;
+            changes = log.changes;
+        }
+
         AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
-        checkRights(req, user, tid, UserPermissions.ADMIN);
+        Sync sync = new Sync(seq, since <= 0);
 
-        boolean b = db.deleteEntry(eid);
+        //Sort the changes by team. A team that joined after the changes were read is sent on the next sync
+        TreeMap<Integer, TeamChanges> teamChanges = new TreeMap<>();
+        if (since <= 0) {
+            for (int tid : user.teams.keyArray()) {
+                teamChanges.put(tid, new TeamChanges(true));
+            }
+        }
+        for (Change c : changes) {
+            if (c.kind == Change.Kind.MEMBER && c.id == uid && c.deleted) {
+                if (!user.teams.containsKey(c.tid)) {
+                    sync.deletedTeams.add(c.tid);
+                }
+                continue;
+            }
+            if (!user.teams.containsKey(c.tid)) { //Left the team after the changes were read
+                continue;
+            }
 
-        if (b) {
-            logger.log(LogLevel.INFO, "Delete Entry Successful", req.ip(),
-                    Optional.of(uid), Optional.of(tid), Optional.of(eid));
-        } else {
-            logger.log(LogLevel.ERROR, "Delete Entry Unsuccessful", req.ip(),
-                    Optional.of(uid), Optional.of(tid), Optional.of(eid));
+            //If we just joined the team, or our permissions on it changed, we do not know what the client has
+            boolean full = c.kind == Change.Kind.MEMBER && c.id == uid;
+            TeamChanges t = teamChanges.computeIfAbsent(c.tid, tid -> new TeamChanges(full));
+            t.full |= full;
+            if (c.kind == Change.Kind.ENTRY) {
+                (c.deleted ? t.deletedEntries : t.entries).add(c.id);
+            } else if (c.kind == Change.Kind.MEMBER) {
+                (c.deleted ? t.deletedUsers : t.users).add(c.id);
+            } else if (c.kind == Change.Kind.USER) {
+                t.users.add(c.id);
+            }
+        }
+
+        Map<Integer, AegisTeam> teams = getOptional(db.readTeams(teamChanges.keySet()), LogLevel.ERROR,
+                "Unable to locate teams.", req.ip(), Optional.of(uid), Optional.empty(), Optional.empty());
+        Set<Integer> eids = new HashSet<>();
+        Set<Integer> uids = new HashSet<>();
+        for (Map.Entry<Integer, TeamChanges> e : teamChanges.entrySet()) {
+            AegisTeam team = teams.get(e.getKey());
+            if (team != null && e.getValue().full) {
+                e.getValue().entries = new LinkedHashSet<>(team.entries);
+                e.getValue().users = new LinkedHashSet<>(team.users.keySet());
+            }
+            eids.addAll(e.getValue().entries);
+            uids.addAll(e.getValue().users);
+        }
+
+        Map<Integer, AegisEntry> entries = getOptional(db.readEntries(eids), LogLevel.ERROR,
+                "Unable to locate entries.", req.ip(), Optional.of(uid), Optional.empty(), Optional.empty());
+        Map<Integer, AegisUser> users = getOptional(db.readUsers(uids), LogLevel.ERROR,
+                "Unable to locate users.", req.ip(), Optional.of(uid), Optional.empty(), Optional.empty());
+
+        //Entries and users that were deleted or moved since the changes were read are left out, the next sync has them
+        for (Map.Entry<Integer, TeamChanges> e : teamChanges.entrySet()) {
+            int tid = e.getKey();
+            TeamChanges t = e.getValue();
+            AegisTeam team = teams.get(tid);
+            TeamUserInfo info = team == null ? null : team.users.get(uid);
+            if (info == null) {
+                continue;
+            }
+
+            TeamSync teamSync = new TeamSync(new Team(tid, team.teamInfo.teamName, info.permissions, info.teamKey),
+                    t.full);
+            for (int eid : t.entries) {
+                AegisEntry entry = entries.get(eid);
+                if (entry != null && entry.team == tid) {
+                    teamSync.entries.add(new FullEntry(entry));
+                }
+            }
+            for (int memberUID : t.users) {
+                AegisUser member = users.get(memberUID);
+                TeamUserInfo memberInfo = team.users.get(memberUID);
+                if (member != null && memberInfo != null) {
+                    teamSync.users.add(new TeamUser(member, memberInfo.permissions, memberInfo.teamKey));
+                }
+            }
+            teamSync.deletedEntries.addAll(t.deletedEntries);
+            teamSync.deletedUsers.addAll(t.deletedUsers);
+            sync.teams.add(teamSync);
         }
+
+        logger.log(LogLevel.INFO, "Changes since " + since + " successfully returned to user", req.ip(),
+                Optional.of(uid), Optional.empty(), Optional.empty());
+        return sync;
     }
 
     /**
-     * Create a new password entry in the team.
+     * The changes to one team, while a sync is put together
      */
-    public synchronized int createEntry(Request req, Response res, int tid, ReqCreateEntry json) throws RequestException {
-        int uid = getUIDFromSID(req);
-        AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
-        checkRights(req, user, tid, UserPermissions.WRITE);
-
-        return getOptional(db.createEntry(
-                new NoIDAegisEntry(
-                        new EntryInfo(json.title, json.username, json.password, json.iv),
-                        tid
-                )), LogLevel.ERROR, "Unable to create entry", req.ip(),
-                Optional.of(uid), Optional.of(tid), Optional.empty());
+    private static class TeamChanges {
+        private boolean full;
+        private Set<Integer> entries = new LinkedHashSet<>();
+        private Set<Integer> users = new LinkedHashSet<>();
+        private final List<Integer> deletedEntries = new ArrayList<>();
+        private final List<Integer> deletedUsers = new ArrayList<>();
+
+        private TeamChanges(boolean full) {
+            this.full = full;
+        }
     }
 
     // ---------------------------- Utility requests ----------------------------
@@ -717,9 +1014,9 @@ public class RequestHandler {
     /**
      * Checks if the current cookie is still valid
      */
-    public synchronized boolean isLoggedIn(Request req, Response res) throws RequestException {
+    public boolean isLoggedIn(Request req, Response res) throws RequestException {
         try {
-            getUIDFromSID(req);
+            getUIDFromSID(req, res);
         } catch (RequestException e) {
             return false;
         }
@@ -730,9 +1027,9 @@ public class RequestHandler {
     /**
      * handler for user sign out
      */
-    public synchronized boolean logOut(Request req, Response res) throws RequestException {
+    public boolean logOut(Request req, Response res) throws RequestException {
         //check to make sure that the session id is valid
-        int uid = getUIDFromSID(req);
+        int uid = getUIDFromSID(req, res);
 
 
         //Remove the session id
@@ -745,22 +1042,41 @@ public class RequestHandler {
     }
 
     /**
-     * @return a list of the logs corresponding to the userid of the session
+     * @return the logs corresponding to the userid of the session, read a page at a time while they are written
      */
-    public List<LogEntry> getUserLogs(Request req, Response res) throws RequestException {
-        int uid = getUIDFromSID(req);
-        return logger.getEntriesbyUid(uid);
+    public JsonStream.Body getUserLogs(Request req, Response res) throws RequestException {
+        int uid = getUIDFromSID(req, res);
+        return JsonStream.array(LogEntry.class, logger.pageEntriesbyUid(uid, Constants.STREAM_PAGE_SIZE));
     }
 
     /**
-     * @return a list of the logs corresponding to the teamid of the session
+     * @return the logs corresponding to the teamid of the session, read a page at a time while they are written
      */
-    public List<LogEntry> getTeamLogs(Request req, Response res, int tid) throws RequestException {
-        int uid = getUIDFromSID(req);
+    public JsonStream.Body getTeamLogs(Request req, Response res, int tid) throws RequestException {
+        int uid = getUIDFromSID(req, res);
         AegisUser user = getUserOptional(db.readUser(uid), uid, req.ip());
         checkRights(req, user, tid, UserPermissions.ADMIN);
 
-        return logger.getEntriesbyTid(tid);
+        return JsonStream.array(LogEntry.class, logger.pageEntriesbyTid(tid, Constants.STREAM_PAGE_SIZE));
+    }
+
+    // ---------------------------- Metrics ----------------------------
+
+    /**
+     * @return the metrics in the Prometheus text format. Only for monitoring, which has to send the configured token.
+     */
+    public String getMetrics(Request req, Response res) throws RequestException {
+        String expected = "Bearer " + config.metrics.token;
+        String actual = Optional.ofNullable(req.headers("Authorization")).orElse("");
+
+        //Compare in constant time, so the token can not be guessed a character at a time
+        if (config.metrics.token.isEmpty() || !MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                actual.getBytes(StandardCharsets.UTF_8))) {
+            logger.log(LogLevel.AUTH_ERROR, "Invalid metrics token", req.ip());
+            throw new UnauthorizedException("Invalid metrics token");
+        }
+
+        return metrics.write();
     }
 
     // ------------------------------- helper methods -------------------------------
@@ -769,13 +1085,14 @@ public class RequestHandler {
      * Throw exception if user's role grants required rights to perform an action.
      */
     private void checkRights(@NotNull Request req, @NotNull AegisUser user, int tid, @NotNull UserPermissions reqRole) throws RightsException {
-        if (!user.teams.containsKey(tid)) {
+        @Nullable TeamUserInfo info = user.teams.get(tid);
+        if (info == null) {
             logger.log(LogLevel.ERROR, "User is not part of this team", req.ip(), Optional.of(user.id),
                     Optional.of(tid), Optional.empty());
             throw new RightsException("You are not part of the team in question");
         }
 
-        UserPermissions role = user.teams.get(tid).permissions;
+        UserPermissions role = info.permissions;
         if (role.level < reqRole.level) { // Check for sufficient rights
             logger.log(LogLevel.ERROR, "User does not have appropriate rights", req.ip(), Optional.of(user.id),
                     Optional.of(tid), Optional.empty());
@@ -783,6 +1100,18 @@ public class RequestHandler {
         }
     }
 
+    /**
+     * Throw exception if the entry is not part of the team. Rights and locks are taken for the team in the url, so
+     * an entry of another team must not be changed through it.
+     */
+    private void checkEntryInTeam(@NotNull Request req, @NotNull AegisUser user, @NotNull AegisEntry entry, int tid) throws RightsException {
+        if (entry.team != tid) {
+            logger.log(LogLevel.ERROR, "Entry is not part of this team", req.ip(), Optional.of(user.id),
+                    Optional.of(tid), Optional.of(entry.id));
+            throw new RightsException("The entry is not part of the team in question");
+        }
+    }
+
     /**
      * Make sure you don't delete the only admin of a team.
      *
@@ -795,7 +1124,7 @@ public class RequestHandler {
             AegisTeam team = teamOptional.get();
             @Nullable TeamUserInfo info = team.users.get(user.id);
             if (info != null && info.permissions.equals(UserPermissions.ADMIN)) {
-                long admins = team.users.entrySet().stream().filter(e -> e.getValue().permissions.equals(UserPermissions.ADMIN)).count();
+                long admins = team.users.values().stream().filter(u -> u.permissions.equals(UserPermissions.ADMIN)).count();
                 if (admins < 2) {
                     logger.log(LogLevel.ERROR, "Cannot delete the only admin of a team", req.ip(), Optional.of(user.id),
                             Optional.of(team.id), Optional.empty());
@@ -804,8 +1133,10 @@ public class RequestHandler {
             }
         } else {
             // Otherwise check if user is not the only admin on any of the teams they are part of
-            for (int tid : user.teams.keySet()) {
-                AegisTeam team = getTeamOptional(db.readTeam(tid), tid, req.ip());
+            Map<Integer, AegisTeam> teams = getOptional(db.readTeams(user.teams.keySet()), LogLevel.ERROR,
+                    "Unable to locate teams.", req.ip(), Optional.of(user.id), Optional.empty(), Optional.empty());
+            for (int tid : user.teams.keyArray()) {
+                AegisTeam team = getTeamOptional(Optional.ofNullable(teams.get(tid)), tid, req.ip());
                 checkAdminDelete(req, user, Optional.of(team));
             }
         }
@@ -858,6 +1189,17 @@ public class RequestHandler {
         return getOptional(optional, LogLevel.ERROR, "Unable to locate entry.", ip, Optional.empty(), Optional.empty(), Optional.of(eid));
     }
 
+    /**
+     * Splits ids into consecutive pages of at most size ids
+     */
+    private static List<List<Integer>> pages(@NotNull List<Integer> ids, int size) {
+        List<List<Integer>> ret = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += size) {
+            ret.add(ids.subList(i, Math.min(i + size, ids.size())));
+        }
+        return ret;
+    }
+
     /**
      * Throws an InternalException if b evaluates to false
      */
@@ -865,16 +1207,27 @@ public class RequestHandler {
         if (!b) throw new InternalException();
     }
 
+    /**
+     * Queues the email to be sent in the background, and logs it if the queue is full
+     */
+    private void sendEmail(@NotNull EmailServer.Email email, @NotNull String ip) {
+        if (!emailServer.sendEmail(email)) {
+            logger.log(LogLevel.WARNING, "Email queue is full, dropped email to " + email.to, ip);
+        }
+    }
 
     /**
      * Attempts to get the user id from the session id cookie. If we cannot get a user, throws an exception
      *
      * @param req a spark request
+     * @param res the response, which gets a new session id cookie if the session id had to be renewed
      * @return the uid corresponding to this session
      */
-    private int getUIDFromSID(Request req) throws SessionIDException {
+    private int getUIDFromSID(Request req, Response res) throws SessionIDException {
         String sid = Optional.ofNullable(req.cookie("sessionID")).orElse("");
-        return sidManager.getUID(sid).orElseThrow(() -> new SessionIDException(sid, req.ip()));
+        int uid = sidManager.getUID(sid).orElseThrow(() -> new SessionIDException(sid, req.ip()));
+        sidManager.renewSID(sid).ifPresent(renewed -> res.cookie("sessionID", renewed));
+        return uid;
     }
 
 
@@ -0,0 +1,55 @@
+package main.java.server.util;
+
+import main.java.metrics.Histogram;
+import main.java.metrics.Metrics;
+import org.jetbrains.annotations.NotNull;
+import spark.Route;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times the routes of the server. Wrap each route when it is defined, with a name for it like "GET /teams/:teamid".
+ * <p>
+ * The time covers the route itself: from after the before filters until it returns or throws. Streamed responses are
+ * written inside the route, so their time includes sending them, while responses rendered by a transformer are
+ * rendered after it returns. A route that throws is counted as failed, whatever status the exception is turned
+ * into.
+ */
+public class RouteMetrics {
+    private final Metrics metrics;
+
+    //From the name of a route to its failures, so routes with the same name share them
+    private final Map<String, LongAdder> failures = new HashMap<>();
+
+    public RouteMetrics(@NotNull Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return route, timed under the given name. Routes with the same name share their metrics.
+     */
+    public synchronized Route time(@NotNull String name, @NotNull Route route) {
+        Histogram times = metrics.histogram("aegis_http_request_duration_seconds",
+                "Time spent handling each route", "route", name);
+        LongAdder failed = failures.computeIfAbsent(name, n -> {
+            LongAdder ret = new LongAdder();
+            metrics.counter("aegis_http_request_failures_total", "Requests whose route threw an exception",
+                    ret::sum, "route", name);
+            return ret;
+        });
+
+        return (req, res) -> {
+            long start = System.nanoTime();
+            try {
+                return route.handle(req, res);
+            } catch (Exception e) {
+                failed.increment();
+                throw e;
+            } finally {
+                times.recordSince(start);
+            }
+        };
+    }
+}
@@ -2,146 +2,75 @@ package main.java.server.util;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.math.BigInteger;
-import java.security.SecureRandom;
-import java.util.Map;
+import java.sql.SQLException;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-
-import static main.java.util.Constants.MAX_INACTIVE_TIME;
 
 /**
- * Class responsible for managing sessionIDs
+ * Issues session ids to users that logged in, and maps them back to the user.
  */
-public class SessionManager {
-    //Constants
-    private static final int session_id_size = 130; //Size of a session id in bits
-
-    //map from username to sessionID
-    private final ConcurrentHashMap<String, SessionID> sessionIDs;
-
-    //useful fields
-    private static final SecureRandom random = new SecureRandom();
-
-
-    /**
-     * Constructor for session manager
-     */
-    public SessionManager() {
-        sessionIDs = new ConcurrentHashMap<>();
-
-        //Start the reaper thread for session ids
-        new Thread(this::reaper).start();
-    }
-
+public interface SessionManager {
     /**
-     * Reaper thread for removing inactive sessionIDs
+     * Creates the session manager for the given settings.
+     *
+     * @param settings  which kind of sessions to use
+     * @param scheduler the scheduler that removes inactive sessions
+     * @throws SQLException if the session store could not be opened
      */
-    private void reaper() {
-        while (true) {
-            for (Map.Entry<String, SessionID> entry : sessionIDs.entrySet()) {
-                if (!isSessionIdValid(entry.getValue())) {
-                    sessionIDs.remove(entry.getKey());
-                }
-            }
-
-            //Sleep for a second so the reaper isn't constantly running
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    static SessionManager create(@NotNull SessionSettings settings, @NotNull ExpiryScheduler scheduler)
+            throws SQLException {
+        switch (settings.mode) {
+            case SIGNED:
+                return new SignedSessionManager(settings.getSigningKey(), scheduler);
+            case MEMORY:
+            default:
+                SessionStore store = settings.storeFile == null || settings.storeFile.isEmpty() ? null
+                        : new SessionStore(settings.storeFile, settings.storeFlushIntervalMillis);
+                return new MemorySessionManager(scheduler, settings.maxSessionsPerUser, store);
         }
     }
 
     /**
-     * Create a session ID for the given user id and add it to the hashmap to keep track of.
+     * Starts a new session for the user.
      *
      * @param uid the uid of the user
      * @return the session id as a string
      */
-    public synchronized String generateSID(int uid) {
-        SessionID sid = new SessionID(uid);
-        sessionIDs.put(sid.sid, sid);
-        return sid.sid;
-    }
+    String generateSID(int uid);
 
     /**
+     * Looks up the user of a session and marks the session as active.
+     *
      * @param sessionID the session id as a string
      * @return the corresponding user id or empty optional if there is no valid session id.
      */
-    public Optional<Integer> getUID(String sessionID) {
-        Optional<SessionID> sid = Optional.ofNullable(sessionIDs.get(sessionID));
-        sid.ifPresent(SessionID::refresh);
-        return sid.map(x -> x.uid);
-    }
+    Optional<Integer> getUID(String sessionID);
 
     /**
-     * Remove the given session ID, which effectively logs the user out.
+     * Some session ids have to be replaced to keep the session alive. Call this after getUID succeeded.
      *
-     * @param sessionID
+     * @param sessionID a valid session id
+     * @return the session id the client should use from now on, or empty if it can keep using the one it has
      */
-    public void removeSessionID(@NotNull String sessionID) {
-        sessionIDs.remove(sessionID);
+    default Optional<String> renewSID(@NotNull String sessionID) {
+        return Optional.empty();
     }
 
     /**
-     * @return a randomly generated session ID that is not currently being used
+     * @return the number of sessions this server is keeping track of
      */
-    private String generateSID() {
-        String ret;
-        do {
-            ret = new BigInteger(session_id_size, random).toString(32);
-        } while (sessionIDs.containsKey(ret));
-
-        return ret;
-    }
+    int getSessionCount();
 
     /**
-     * @return if the given session id is valid
+     * Remove the given session ID, which effectively logs the user out.
+     *
+     * @param sessionID the session id as a string
      */
-    private boolean isSessionIdValid(SessionID sid) {
-        return System.currentTimeMillis() - sid.lastActiveTime < MAX_INACTIVE_TIME;
-    }
+    void removeSessionID(@NotNull String sessionID);
 
     /**
-     * Inner class for a session ID
+     * Ends every session of the user, for example after their master password changed.
+     *
+     * @param uid the uid of the user
      */
-    private class SessionID {
-        private final int uid; //The user corresponding to this session id
-
-        @NotNull
-        private final String sid; //The session id
-
-        private long lastActiveTime; //The last time this session ID was interacted with
-
-        private SessionID(int uid) {
-            this.uid = uid;
-            this.sid = generateSID();
-            this.lastActiveTime = System.currentTimeMillis();
-        }
-
-        /**
-         * Refreshes this session ID to the current system time.
-         */
-        private void refresh() {
-            lastActiveTime = System.currentTimeMillis();
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            SessionID sessionID = (SessionID) o;
-
-            return sid.equals(sessionID.sid);
-
-        }
-
-        @Override
-        public int hashCode() {
-            return sid.hashCode();
-        }
-    }
+    void removeAllSessions(int uid);
 }
@@ -0,0 +1,84 @@
+package main.java.server.util;
+
+import main.java.util.Constants;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Settings for the sessions of logged in users. This is stored as part of the server configuration.
+ */
+public class SessionSettings {
+    /**
+     * Where sessions live
+     */
+    public enum Mode {
+        /**
+         * Sessions are kept in the memory of the server. Restarting logs everyone out, and there can only be one server.
+         */
+        MEMORY,
+
+        /**
+         * Session ids are tokens signed by the server that carry the user and expiry time. Any server with the same
+         * signing key accepts them, and they survive restarts. Only logged out tokens are kept in memory, and only on
+         * the server that logged them out: the other servers accept them until they expire.
+         */
+        SIGNED
+    }
+
+    /**
+     * Which kind of sessions to use
+     */
+    public final Mode mode;
+
+    /**
+     * Base64 encoded HMAC key for signed sessions. Every server behind the same load balancer needs the same key. If
+     * empty, a random key is generated at startup.
+     */
+    public final String signingKey;
+
+    /**
+     * Maximum number of in-memory sessions a user can have at the same time. Signed sessions are not limited.
+     */
+    public final int maxSessionsPerUser;
+
+    /**
+     * File of the SQLite database that keeps in-memory sessions across restarts. If empty, they are not kept.
+     */
+    public final String storeFile;
+
+    /**
+     * How often session changes are written to the store, in milliseconds
+     */
+    public final long storeFlushIntervalMillis;
+
+    /**
+     * Default settings
+     */
+    public SessionSettings() {
+        this(Mode.MEMORY, "", Constants.MAX_SESSIONS_PER_USER, "", 1000);
+    }
+
+    public SessionSettings(Mode mode, String signingKey, int maxSessionsPerUser, String storeFile,
+                           long storeFlushIntervalMillis) {
+        this.mode = mode;
+        this.signingKey = signingKey;
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        this.storeFile = storeFile;
+        this.storeFlushIntervalMillis = storeFlushIntervalMillis;
+    }
+
+    /**
+     * @return the decoded signing key, or a new random key if none is set
+     */
+    byte[] getSigningKey() {
+        if (signingKey == null || signingKey.isEmpty()) {
+            System.err.println("No session signing key is configured, generating one. Sessions will not survive a " +
+                    "restart or work across servers.");
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            return key;
+        }
+        return Base64.getDecoder().decode(signingKey);
+    }
+}
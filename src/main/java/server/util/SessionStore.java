@@ -0,0 +1,240 @@
+package main.java.server.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the sessions of a MemorySessionManager in a SQLite database, so users stay logged in across restarts.
+ * <p>
+ * Changes are written behind: they are collected in memory and written in one transaction every flush interval.
+ * Several changes to the same session in one interval only write its latest state. Sessions that change in the last
+ * interval before a crash are lost, which only means their users have to log in again.
+ * <p>
+ * The database holds live session ids, so it must be protected like the password database.
+ * <p>
+ * The connection is guarded by a ReentrantLock rather than a monitor, since it is held while waiting on the database
+ * and a virtual thread cannot give up its carrier thread while it holds a monitor.
+ */
+public class SessionStore implements AutoCloseable {
+    private final Connection con;
+
+    /**
+     * Guards the connection and closed
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Latest unwritten state of each changed session, keyed by session id. A negative uid marks a removed session.
+     */
+    private final ConcurrentHashMap<String, Record> dirty = new ConcurrentHashMap<>();
+
+    /**
+     * Runs flush every flush interval
+     */
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Closes this store when the JVM shuts down, so the last changes are not lost
+     */
+    private final Thread shutdownHook;
+
+    private boolean closed = false;
+
+    /**
+     * A session as stored in the database
+     */
+    public static class Record {
+        public final String sid;
+        public final int uid;
+        public final long lastActiveTime;
+
+        public Record(String sid, int uid, long lastActiveTime) {
+            this.sid = sid;
+            this.uid = uid;
+            this.lastActiveTime = lastActiveTime;
+        }
+    }
+
+    /**
+     * Opens (and creates if needed) the session database.
+     *
+     * @param file                the file name of the database
+     * @param flushIntervalMillis how often changes are written, in milliseconds
+     * @throws SQLException if we were unable to open the database
+     */
+    public SessionStore(@NotNull String file, long flushIntervalMillis) throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            System.err.println("Getting this error probably means you do not have JDBC setup");
+            e.printStackTrace();
+        }
+
+        con = DriverManager.getConnection("jdbc:sqlite:" + file);
+        try (Statement stmt = con.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("CREATE TABLE IF NOT EXISTS Session (sid TEXT PRIMARY KEY, uid INTEGER NOT NULL, " +
+                    "lastActiveTime INTEGER NOT NULL) WITHOUT ROWID");
+        }
+        con.setAutoCommit(false);
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-store");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+
+        shutdownHook = new Thread(this::close, "session-store-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Deletes the sessions that were last active before the given time and returns the rest.
+     *
+     * @param activeSince the oldest last active time of a session that has not expired
+     */
+    public List<Record> load(long activeSince) throws SQLException {
+        List<Record> ret = new ArrayList<>();
+        lock.lock();
+        try (PreparedStatement delete = con.prepareStatement("DELETE FROM Session WHERE lastActiveTime < ?");
+             Statement select = con.createStatement()) {
+            delete.setLong(1, activeSince);
+            delete.executeUpdate();
+
+            try (ResultSet rs = select.executeQuery("SELECT sid, uid, lastActiveTime FROM Session")) {
+                while (rs.next()) {
+                    ret.add(new Record(rs.getString(1), rs.getInt(2), rs.getLong(3)));
+                }
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+        return ret;
+    }
+
+    /**
+     * Stores a new session, or the new last active time of a session.
+     */
+    public void put(@NotNull String sid, int uid, long lastActiveTime) {
+        dirty.put(sid, new Record(sid, uid, lastActiveTime));
+    }
+
+    /**
+     * Removes a session
+     */
+    public void remove(@NotNull String sid) {
+        dirty.put(sid, new Record(sid, -1, 0));
+    }
+
+    /**
+     * @return the number of changes waiting to be written
+     */
+    public int getPendingChanges() {
+        return dirty.size();
+    }
+
+    /**
+     * Writes every change made before this call.
+     */
+    public void flush() throws SQLException {
+        lock.lock();
+        try {
+            flushLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLocked() throws SQLException {
+        if (closed || dirty.isEmpty()) {
+            return;
+        }
+
+        List<Record> batch = new ArrayList<>(dirty.size());
+        for (String sid : dirty.keySet()) {
+            Record r = dirty.remove(sid); //A change made after this is picked up by the next flush
+            if (r != null) {
+                batch.add(r);
+            }
+        }
+
+        try (PreparedStatement upsert = con.prepareStatement("INSERT OR REPLACE INTO Session VALUES (?, ?, ?)");
+             PreparedStatement delete = con.prepareStatement("DELETE FROM Session WHERE sid = ?")) {
+            for (Record r : batch) {
+                if (r.uid < 0) {
+                    delete.setString(1, r.sid);
+                    delete.addBatch();
+                } else {
+                    upsert.setString(1, r.sid);
+                    upsert.setInt(2, r.uid);
+                    upsert.setLong(3, r.lastActiveTime);
+                    upsert.addBatch();
+                }
+            }
+            upsert.executeBatch();
+            delete.executeBatch();
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            //Put the batch back, unless the session changed again in the meantime
+            for (Record r : batch) {
+                dirty.putIfAbsent(r.sid, r);
+            }
+            throw e;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) { //Try again next time
+            System.err.println("Unable to write " + dirty.size() + " session changes");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the remaining changes and closes the database
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            flusher.shutdownNow();
+            flushQuietly();
+            closed = true;
+
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) { //We are the shutdown hook
+            }
+
+            try {
+                con.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
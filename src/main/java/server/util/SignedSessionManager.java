@@ -0,0 +1,402 @@
+package main.java.server.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static main.java.util.Constants.MAX_INACTIVE_TIME;
+
+/**
+ * Session manager whose session ids are tokens signed by the server, so it does not need to remember them. Any server
+ * with the same signing key accepts the tokens of the others, and sessions survive a restart.
+ * <p>
+ * A token is the base64url encoding (without padding) of
+ * <pre>
+ * version (1) | uid (4) | session nonce (8) | session start (8) | expires at (8) | HMAC-SHA256 of the above (16)
+ * </pre>
+ * with all numbers big endian and times in milliseconds. Tokens expire after MAX_INACTIVE_TIME like in-memory
+ * sessions do. To slide the expiry, renewSID hands out a new token for the same session once the current one is
+ * a minute old.
+ * <p>
+ * Logging out revokes the nonce of the session, which stops every token of that session from working on this server.
+ * removeAllSessions sets a time before which no session of the user may have started. Revocations are only kept
+ * until the tokens they cover have expired. Since tokens are not kept track of, there is no limit on the number of
+ * sessions of a user.
+ * <p>
+ * Security limitation: revocations only live in the memory of the server that made them, and are not shared with
+ * the other servers that have the same key. Behind a load balancer, a logged out token, or every token of a user who
+ * changed their master password, keeps working on the other servers until it expires, which is up to
+ * MAX_INACTIVE_TIME later. Use MEMORY sessions where that is not acceptable.
+ * <p>
+ * Checking a token does not allocate: it is decoded and its HMAC computed into per thread buffers.
+ */
+public class SignedSessionManager implements SessionManager {
+    //Constants
+    private static final byte version = 1;
+    private static final int payloadSize = 1 + 4 + 8 + 8 + 8;
+    private static final int macSize = 16; //Truncated HMAC-SHA256, like HMAC-SHA256-128 in RFC 4868
+    private static final int tokenSize = payloadSize + macSize;
+    private static final int tokenLength = tokenSize / 3 * 4; //tokenSize is a multiple of 3, so there is no padding
+    private static final int blockSize = 64; //Block size of SHA-256
+    private static final int digestSize = 32;
+
+    /**
+     * How old a token has to be before renewSID replaces it
+     */
+    private static final long renewAfter = 1000 * 60;
+
+    //Value of every base64url character, or -1
+    private static final byte[] base64Values = new byte[128];
+
+    static {
+        Arrays.fill(base64Values, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            base64Values[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    //The HMAC key xor'ed with the inner and outer pads
+    private final byte[] innerPad = new byte[blockSize];
+    private final byte[] outerPad = new byte[blockSize];
+
+    //Buffers for checking tokens, one set per thread
+    private final ThreadLocal<Verifier> verifiers = ThreadLocal.withInitial(Verifier::new);
+
+    //Nonces of the sessions that were logged out, sorted. Replaced on every change so readers need no lock.
+    private volatile long[] revoked = new long[0];
+
+    //Users whose sessions were all ended, sorted by uid, and the time they were ended at. Replaced on every change.
+    private volatile RevokedUsers revokedUsers = new RevokedUsers(new int[0], new long[0]);
+
+    //Serializes the changes to revoked and revokedUsers. Not a monitor, so it never pins a virtual thread.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    //Removes revocations once they are no longer needed
+    private final ExpiryScheduler scheduler;
+
+    //useful fields
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param key       the HMAC key. Every server that should accept the same tokens needs the same key.
+     * @param scheduler the scheduler that removes old revocations
+     */
+    public SignedSessionManager(@NotNull byte[] key, @NotNull ExpiryScheduler scheduler) {
+        if (key.length > blockSize) {
+            key = newDigest().digest(key);
+        }
+        for (int i = 0; i < blockSize; i++) {
+            byte b = i < key.length ? key[i] : 0;
+            innerPad[i] = (byte) (b ^ 0x36);
+            outerPad[i] = (byte) (b ^ 0x5c);
+        }
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public String generateSID(int uid) {
+        long now = System.currentTimeMillis();
+        //A session started in the same millisecond as removeAllSessions must still be accepted
+        long start = Math.max(now, revokedUsers.notBefore(uid) + 1);
+        return issue(uid, random.nextLong(), start, now);
+    }
+
+    @Override
+    public Optional<Integer> getUID(String sessionID) {
+        int uid = verifiers.get().verify(sessionID, System.currentTimeMillis());
+        return uid < 0 ? Optional.empty() : Optional.of(uid);
+    }
+
+    @Override
+    public Optional<String> renewSID(@NotNull String sessionID) {
+        long now = System.currentTimeMillis();
+        Verifier v = verifiers.get();
+        int uid = v.verify(sessionID, now);
+        if (uid < 0 || now - v.issuedAt < renewAfter) {
+            return Optional.empty();
+        }
+        return Optional.of(issue(uid, v.nonce, v.sessionStart, now));
+    }
+
+    /**
+     * @return 0, since signed sessions are not kept track of. See getRevocationCount for what this server remembers.
+     */
+    @Override
+    public int getSessionCount() {
+        return 0;
+    }
+
+    /**
+     * @return the number of logged out sessions and users whose sessions were all ended, whose tokens this server
+     * still refuses
+     */
+    public int getRevocationCount() {
+        return revoked.length + revokedUsers.uids.length;
+    }
+
+    @Override
+    public void removeSessionID(@NotNull String sessionID) {
+        long now = System.currentTimeMillis();
+        Verifier v = verifiers.get();
+        if (v.verify(sessionID, now) < 0) {
+            return; //Nothing to revoke, and we do not want to store nonces of forged tokens
+        }
+
+        long nonce = v.nonce;
+        lock.lock();
+        try {
+            int i = Arrays.binarySearch(revoked, nonce);
+            if (i >= 0) {
+                return;
+            }
+            i = -i - 1;
+            long[] updated = new long[revoked.length + 1];
+            System.arraycopy(revoked, 0, updated, 0, i);
+            updated[i] = nonce;
+            System.arraycopy(revoked, i, updated, i + 1, revoked.length - i);
+            revoked = updated;
+        } finally {
+            lock.unlock();
+        }
+
+        //Every token of the session was issued by now, so they have all expired by this time
+        long expiresAt = now + MAX_INACTIVE_TIME;
+        scheduler.schedule(new ExpiryScheduler.Expiring() {
+            @Override
+            public long expiresAt() {
+                return expiresAt;
+            }
+
+            @Override
+            public void expire() {
+                unrevoke(nonce);
+            }
+        });
+    }
+
+    /**
+     * Stops every token issued for the user so far from working on this server
+     */
+    @Override
+    public void removeAllSessions(int uid) {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            revokedUsers = revokedUsers.with(uid, now);
+        } finally {
+            lock.unlock();
+        }
+
+        long expiresAt = now + MAX_INACTIVE_TIME;
+        scheduler.schedule(new ExpiryScheduler.Expiring() {
+            @Override
+            public long expiresAt() {
+                return expiresAt;
+            }
+
+            @Override
+            public void expire() {
+                lock.lock();
+                try {
+                    //Unless the sessions of the user were ended again since
+                    if (revokedUsers.notBefore(uid) == now) {
+                        revokedUsers = revokedUsers.without(uid);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+    }
+
+    private void unrevoke(long nonce) {
+        lock.lock();
+        try {
+            int i = Arrays.binarySearch(revoked, nonce);
+            if (i < 0) {
+                return;
+            }
+            long[] updated = new long[revoked.length - 1];
+            System.arraycopy(revoked, 0, updated, 0, i);
+            System.arraycopy(revoked, i + 1, updated, i, updated.length - i);
+            revoked = updated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String issue(int uid, long nonce, long sessionStart, long now) {
+        ByteBuffer token = ByteBuffer.allocate(tokenSize);
+        token.put(version).putInt(uid).putLong(nonce).putLong(sessionStart).putLong(now + MAX_INACTIVE_TIME);
+        verifiers.get().mac(token.array());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) { //Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes and checks tokens. Holds the fields of the last token it verified.
+     */
+    private class Verifier {
+        private final MessageDigest digest = newDigest();
+        private final byte[] token = new byte[tokenSize];
+        private final byte[] mac = new byte[digestSize];
+
+        private long nonce;
+        private long sessionStart;
+        private long issuedAt;
+
+        /**
+         * @return the uid of a valid token, or -1 if the token is malformed, forged, expired or revoked
+         */
+        private int verify(String sessionID, long now) {
+            if (sessionID == null || sessionID.length() != tokenLength || !decode(sessionID)) {
+                return -1;
+            }
+
+            mac(token);
+            int diff = 0; //Constant time, so the time it takes does not give away how much of the MAC is right
+            for (int i = 0; i < macSize; i++) {
+                diff |= mac[i] ^ token[payloadSize + i];
+            }
+            if (diff != 0 || token[0] != version) {
+                return -1;
+            }
+
+            int uid = getInt(1);
+            nonce = getLong(5);
+            sessionStart = getLong(13);
+            long expiresAt = getLong(21);
+            issuedAt = expiresAt - MAX_INACTIVE_TIME;
+
+            if (expiresAt <= now || Arrays.binarySearch(revoked, nonce) >= 0
+                    || sessionStart <= revokedUsers.notBefore(uid)) {
+                return -1;
+            }
+            return uid;
+        }
+
+        /**
+         * Computes the HMAC of the payload of a token into mac, and writes it to the end of the token.
+         */
+        private void mac(byte[] t) {
+            try {
+                digest.update(innerPad);
+                digest.update(t, 0, payloadSize);
+                digest.digest(mac, 0, digestSize);
+                digest.update(outerPad);
+                digest.update(mac, 0, digestSize);
+                digest.digest(mac, 0, digestSize);
+            } catch (DigestException e) { //Only thrown if mac is too small
+                throw new IllegalStateException(e);
+            }
+            if (t != token) {
+                System.arraycopy(mac, 0, t, payloadSize, macSize);
+            }
+        }
+
+        /**
+         * Decodes base64url into token
+         *
+         * @return false if there is an invalid character
+         */
+        private boolean decode(String s) {
+            int j = 0;
+            for (int i = 0; i < tokenLength; i += 4) {
+                int bits = 0;
+                for (int k = 0; k < 4; k++) {
+                    char c = s.charAt(i + k);
+                    int value = c < 128 ? base64Values[c] : -1;
+                    if (value < 0) {
+                        return false;
+                    }
+                    bits = bits << 6 | value;
+                }
+                token[j++] = (byte) (bits >> 16);
+                token[j++] = (byte) (bits >> 8);
+                token[j++] = (byte) bits;
+            }
+            return true;
+        }
+
+        private int getInt(int off) {
+            return (token[off] & 0xFF) << 24 | (token[off + 1] & 0xFF) << 16 | (token[off + 2] & 0xFF) << 8
+                    | (token[off + 3] & 0xFF);
+        }
+
+        private long getLong(int off) {
+            return (long) getInt(off) << 32 | (getInt(off + 4) & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Immutable sorted list of users and the time their sessions were ended at
+     */
+    private static class RevokedUsers {
+        private final int[] uids;
+        private final long[] notBefore;
+
+        private RevokedUsers(int[] uids, long[] notBefore) {
+            this.uids = uids;
+            this.notBefore = notBefore;
+        }
+
+        /**
+         * @return the time the sessions of the user were ended at, or Long.MIN_VALUE if they were not
+         */
+        private long notBefore(int uid) {
+            int i = Arrays.binarySearch(uids, uid);
+            return i < 0 ? Long.MIN_VALUE : notBefore[i];
+        }
+
+        private RevokedUsers with(int uid, long time) {
+            int i = Arrays.binarySearch(uids, uid);
+            if (i >= 0) {
+                long[] times = notBefore.clone();
+                times[i] = time;
+                return new RevokedUsers(uids, times);
+            }
+
+            i = -i - 1;
+            int[] u = new int[uids.length + 1];
+            long[] t = new long[uids.length + 1];
+            System.arraycopy(uids, 0, u, 0, i);
+            System.arraycopy(notBefore, 0, t, 0, i);
+            u[i] = uid;
+            t[i] = time;
+            System.arraycopy(uids, i, u, i + 1, uids.length - i);
+            System.arraycopy(notBefore, i, t, i + 1, uids.length - i);
+            return new RevokedUsers(u, t);
+        }
+
+        private RevokedUsers without(int uid) {
+            int i = Arrays.binarySearch(uids, uid);
+            if (i < 0) {
+                return this;
+            }
+
+            int[] u = new int[uids.length - 1];
+            long[] t = new long[uids.length - 1];
+            System.arraycopy(uids, 0, u, 0, i);
+            System.arraycopy(notBefore, 0, t, 0, i);
+            System.arraycopy(uids, i + 1, u, i, u.length - i);
+            System.arraycopy(notBefore, i + 1, t, i, u.length - i);
+            return new RevokedUsers(u, t);
+        }
+    }
+}
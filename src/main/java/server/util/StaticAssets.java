@@ -0,0 +1,256 @@
+package main.java.server.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import spark.Request;
+import spark.Response;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The static files of the UI. They are read from the classpath once at startup and held in memory, and the text
+ * files are gzipped right away at the best compression, so serving a file never touches the disk or compresses.
+ * <p>
+ * Every file has a strong ETag, so browsers can check that their copy is still good without downloading it again.
+ * HTML files must always be checked, since they are what points to the other files. The other files may be used
+ * without checking for staticMaxAge seconds. Hidden files (starting with a dot) are left out.
+ */
+public class StaticAssets {
+    private static final Map<String, String> types = new HashMap<>();
+
+    static {
+        types.put("html", "text/html; charset=utf-8");
+        types.put("css", "text/css; charset=utf-8");
+        types.put("js", "application/javascript; charset=utf-8");
+        types.put("json", "application/json");
+        types.put("svg", "image/svg+xml");
+        types.put("png", "image/png");
+        types.put("jpg", "image/jpeg");
+        types.put("gif", "image/gif");
+        types.put("ico", "image/x-icon");
+    }
+
+    //Types that gzip well. Images are already compressed
+    private static final Set<String> compressible = new HashSet<>(Arrays.asList("html", "css", "js", "json", "svg"));
+
+    private final Map<String, Asset> assets = new HashMap<>();
+
+    /**
+     * @param location the classpath directory of the files, e.g. /ui. It may be in a jar.
+     * @param settings how long browsers may cache the files
+     * @throws IOException if the files could not be read
+     */
+    public StaticAssets(@NotNull String location, @NotNull CompressionSettings settings) throws IOException {
+        URL url = StaticAssets.class.getResource(location);
+        if (url == null) {
+            throw new IOException("Unable to find the static files in " + location);
+        }
+
+        URI uri;
+        try {
+            uri = url.toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+
+        if (uri.getScheme().equals("jar")) {
+            FileSystem fs;
+            try {
+                fs = FileSystems.newFileSystem(uri, Collections.emptyMap());
+            } catch (FileSystemAlreadyExistsException e) {
+                fs = FileSystems.getFileSystem(uri);
+            }
+            load(fs.getPath(location), settings);
+        } else {
+            load(Paths.get(uri), settings);
+        }
+    }
+
+    private void load(Path root, CompressionSettings settings) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+
+        for (Path file : files) {
+            StringBuilder path = new StringBuilder();
+            boolean hidden = false;
+            for (Path name : root.relativize(file)) {
+                path.append('/').append(name.toString());
+                hidden |= name.toString().startsWith(".");
+            }
+
+            if (!hidden) {
+                assets.put(path.toString(), new Asset(path.toString(), Files.readAllBytes(file), settings));
+            }
+        }
+    }
+
+    /**
+     * @return the URL path of every file, e.g. /static/script.js
+     */
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(assets.keySet());
+    }
+
+    /**
+     * @return the file at the URL path, or null if there is none
+     */
+    @Nullable
+    public Asset getAsset(@NotNull String path) {
+        return assets.get(path);
+    }
+
+    /**
+     * Route for the files. Sends the file at the path of the request, gzipped if the client accepts it, or just a
+     * 304 if the client already has it. Commits the response, so return the empty string this returns from the route.
+     */
+    public Object serve(Request req, Response res) throws IOException {
+        HttpServletResponse raw = res.raw();
+        Asset asset = assets.get(req.pathInfo());
+        if (asset == null) {
+            raw.sendError(404);
+            return "";
+        }
+
+        boolean gzip = asset.gzipped != null && CompressingOutputStream.acceptsGzip(req.headers("Accept-Encoding"));
+        String etag = gzip ? asset.gzipETag : asset.etag;
+
+        raw.setContentType(asset.type);
+        raw.setHeader("ETag", etag);
+        raw.setHeader("Cache-Control", asset.cacheControl);
+        if (asset.gzipped != null) {
+            raw.setHeader("Vary", "Accept-Encoding");
+        }
+
+        if (matches(req.headers("If-None-Match"), etag)) {
+            raw.setStatus(304);
+        } else {
+            byte[] body = gzip ? asset.gzipped : asset.bytes;
+            if (gzip) {
+                raw.setHeader("Content-Encoding", "gzip");
+            }
+            raw.setContentLength(body.length);
+            raw.getOutputStream().write(body);
+        }
+
+        raw.flushBuffer();
+        return "";
+    }
+
+    /**
+     * @return true if the If-None-Match header value lists the ETag. The comparison is weak, as the spec asks for.
+     */
+    private static boolean matches(@Nullable String ifNoneMatch, @NotNull String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return data gzipped at the given level
+     */
+    public static byte[] gzip(@NotNull byte[] data, int level) {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(ret) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            out.write(data);
+        } catch (IOException e) { //Cannot happen in memory
+            throw new IllegalStateException(e);
+        }
+        return ret.toByteArray();
+    }
+
+    /**
+     * A file, ready to send
+     */
+    public static class Asset {
+        /**
+         * The content type to send
+         */
+        @NotNull
+        public final String type;
+
+        /**
+         * The contents of the file
+         */
+        @NotNull
+        public final byte[] bytes;
+
+        /**
+         * The contents gzipped, or null if the file is not worth gzipping
+         */
+        @Nullable
+        public final byte[] gzipped;
+
+        /**
+         * Strong ETags of the contents and of the gzipped contents. They differ, since the bytes that are sent differ.
+         */
+        @NotNull
+        public final String etag;
+        @NotNull
+        public final String gzipETag;
+
+        /**
+         * The Cache-Control header to send
+         */
+        @NotNull
+        public final String cacheControl;
+
+        private Asset(String path, byte[] bytes, CompressionSettings settings) {
+            int dot = path.lastIndexOf('.');
+            String extension = dot < 0 ? "" : path.substring(dot + 1).toLowerCase(Locale.ROOT);
+
+            this.type = types.getOrDefault(extension, "application/octet-stream");
+            this.bytes = bytes;
+
+            byte[] gzipped = compressible.contains(extension) ? gzip(bytes, Deflater.BEST_COMPRESSION) : null;
+            this.gzipped = gzipped != null && gzipped.length < bytes.length ? gzipped : null;
+
+            String hash = hash(bytes);
+            this.etag = "\"" + hash + "\"";
+            this.gzipETag = "\"" + hash + "-gzip\"";
+            this.cacheControl = extension.equals("html") ? "no-cache" : "public, max-age=" + settings.staticMaxAge;
+        }
+
+        private static String hash(byte[] bytes) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+                StringBuilder ret = new StringBuilder();
+                for (int i = 0; i < 16; i++) {
+                    ret.append(String.format("%02x", digest[i]));
+                }
+                return ret.toString();
+            } catch (NoSuchAlgorithmException e) { //Every JVM has SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
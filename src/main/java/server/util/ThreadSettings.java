@@ -0,0 +1,30 @@
+package main.java.server.util;
+
+import main.java.util.Constants;
+
+/**
+ * Settings for the threads that requests run on
+ */
+public class ThreadSettings {
+    /**
+     * The number of threads in the pool that requests run on. Every request holds its thread while it waits on the
+     * database or the log, so this is also how many requests can be handled at once. With virtual threads, the pool
+     * only accepts connections and reads requests.
+     */
+    public final int maxThreads;
+
+    /**
+     * Run every request on its own virtual thread instead of the pool, so requests that wait do not hold up others.
+     * Needs Java 21 or later, on older versions the pool is used.
+     */
+    public final boolean virtualThreads;
+
+    public ThreadSettings() {
+        this(Constants.MAX_THREADS, false);
+    }
+
+    public ThreadSettings(int maxThreads, boolean virtualThreads) {
+        this.maxThreads = maxThreads;
+        this.virtualThreads = virtualThreads;
+    }
+}
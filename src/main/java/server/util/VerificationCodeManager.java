@@ -3,9 +3,9 @@ package main.java.server.util;
 import org.jetbrains.annotations.NotNull;
 
 import java.security.SecureRandom;
-import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static main.java.util.Constants.MAX_VERIFICATION_TIME;
 
@@ -20,38 +20,30 @@ public class VerificationCodeManager {
     //map from verification code to username
     private final ConcurrentHashMap<String, VerificationCode> verificationCodes;
 
+    //Removes verification codes after timeout
+    private final ExpiryScheduler scheduler;
+
+    //Makes sure two new codes are never the same. Not a monitor, so virtual threads can wait for it without holding
+    //on to their carrier thread
+    private final ReentrantLock generateLock = new ReentrantLock();
+
     //Useful fields
     private final static SecureRandom random = new SecureRandom();
 
 
     /**
-     * Constructor for session manager
+     * Constructor for verification code manager with its own expiry scheduler
      */
     public VerificationCodeManager() {
-        verificationCodes = new ConcurrentHashMap<>();
-
-        //Start the reaper thread for session ids
-        new Thread(this::reaper).start();
+        this(new ExpiryScheduler());
     }
 
     /**
-     * Reaper thread for removing verifications codes after timeout
+     * @param scheduler the scheduler that removes verification codes after timeout
      */
-    private void reaper() {
-        while (true) {
-            for (Map.Entry<String, VerificationCode> entry : verificationCodes.entrySet()) {
-                if (!isVerificationCodeValid(entry.getValue())) {
-                    verificationCodes.remove(entry.getKey());
-                }
-            }
-
-            //Sleep for a second so the reaper isn't constantly running
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+    public VerificationCodeManager(@NotNull ExpiryScheduler scheduler) {
+        verificationCodes = new ConcurrentHashMap<>();
+        this.scheduler = scheduler;
     }
 
     /**
@@ -59,11 +51,17 @@ public class VerificationCodeManager {
      *
      * @return the verification code as a string
      */
-    public synchronized String generateVerificationCode(String email) {
-        String code = generateVerificationCode();
-        VerificationCode vc = new VerificationCode(code, email);
-        verificationCodes.put(code, vc);
-        return code;
+    public String generateVerificationCode(String email) {
+        VerificationCode vc;
+        generateLock.lock();
+        try {
+            vc = new VerificationCode(generateVerificationCode(), email);
+            verificationCodes.put(vc.code, vc);
+        } finally {
+            generateLock.unlock();
+        }
+        scheduler.schedule(vc);
+        return vc.code;
     }
 
     /**
@@ -72,6 +70,7 @@ public class VerificationCodeManager {
     public void addVerificationCode(String code, String email) {
         VerificationCode vc = new VerificationCode(code, email);
         verificationCodes.put(code, vc);
+        scheduler.schedule(vc);
     }
 
     /**
@@ -86,7 +85,7 @@ public class VerificationCodeManager {
      * If the verification code is invalid, returns empty optional.
      */
     public Optional<String> getEmail(String code) {
-        return Optional.ofNullable(verificationCodes.get(code)).map(x -> x.email);
+        return Optional.ofNullable(verificationCodes.get(code)).filter(this::isVerificationCodeValid).map(x -> x.email);
     }
 
     /**
@@ -112,7 +111,7 @@ public class VerificationCodeManager {
         return System.currentTimeMillis() - vCode.time < MAX_VERIFICATION_TIME;
     }
 
-    private class VerificationCode {
+    private class VerificationCode implements ExpiryScheduler.Expiring {
         @NotNull
         private String code;
 
@@ -128,6 +127,16 @@ public class VerificationCodeManager {
             this.code = code;
         }
 
+        @Override
+        public long expiresAt() {
+            return time + MAX_VERIFICATION_TIME;
+        }
+
+        @Override
+        public void expire() {
+            verificationCodes.remove(code, this);
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -0,0 +1,146 @@
+package main.java.server.util;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.jetbrains.annotations.NotNull;
+import spark.globalstate.ServletFlag;
+import spark.route.RouteMatcherFactory;
+import spark.ssl.SslStores;
+import spark.webserver.JettyHandler;
+import spark.webserver.MatcherFilter;
+import spark.webserver.jetty.SocketConnectorFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the Spark routes from a Jetty server that runs every request on its own virtual thread.
+ * <p>
+ * Spark runs requests on the thread pool of Jetty, so a request that waits on the database, the log or the mail
+ * server holds one of its threads until it is done, and a burst of slow requests makes the rest queue. Virtual
+ * threads give up their carrier thread while they wait instead.
+ * <p>
+ * Spark has no way to change how it runs requests, so this tells Spark that it runs in a servlet container, which
+ * keeps it from starting Jetty, and starts Jetty the way Spark would, with the same handler in front of the routes.
+ * Jetty still accepts connections and reads requests on its pool of platform threads, since its selectors would tie
+ * up a carrier thread for good. Each request is then put in async mode and handed to a new virtual thread, which
+ * frees the pool thread right away. Create this before the first route is added, and start it after the routes are
+ * added.
+ * <p>
+ * Virtual threads need Java 21. The server is built for Java 8, so the executor is looked up at runtime.
+ */
+public class VirtualThreadServer {
+    private final int port;
+    private final String keyStoreFile;
+    private final String keyStorePassword;
+    private final int ioThreads;
+
+    private volatile Server server;
+
+    /**
+     * Keeps Spark from starting its own server
+     *
+     * @param port             the port to listen on
+     * @param keyStoreFile     the keystore with the certificate of the server
+     * @param keyStorePassword the password of the keystore
+     * @param ioThreads        the maximum number of platform threads that accept connections and read requests
+     * @throws IllegalStateException if this Java does not have virtual threads
+     */
+    public VirtualThreadServer(int port, @NotNull String keyStoreFile, @NotNull String keyStorePassword,
+                               int ioThreads) {
+        if (!isSupported()) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later");
+        }
+
+        this.port = port;
+        this.keyStoreFile = keyStoreFile;
+        this.keyStorePassword = keyStorePassword;
+        this.ioThreads = ioThreads;
+        ServletFlag.runFromServlet();
+    }
+
+    /**
+     * @return whether this Java has virtual threads
+     */
+    public static boolean isSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts serving the routes that Spark has so far, and the ones that are added after this
+     */
+    public void start() throws Exception {
+        ExecutorService requests = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        server = new Server(new QueuedThreadPool(ioThreads));
+
+        ServerConnector connector = SocketConnectorFactory.createSecureSocketConnector(server, "0.0.0.0", port,
+                SslStores.create(keyStoreFile, keyStorePassword, null, null));
+        server.setConnectors(new Connector[]{connector});
+
+        MatcherFilter filter = new MatcherFilter(RouteMatcherFactory.get(), false, false);
+        filter.init(null);
+        server.setHandler(new Handoff(new JettyHandler(filter), requests));
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting for running requests to finish
+     */
+    public void stop() throws Exception {
+        Server running = server;
+        if (running != null) {
+            running.stop();
+            server = null;
+        }
+    }
+
+    /**
+     * Hands every request to the executor and returns, leaving the request open until the executor is done with it
+     */
+    private static class Handoff extends HandlerWrapper {
+        private final ExecutorService requests;
+
+        private Handoff(Handler routes, ExecutorService requests) {
+            this.requests = requests;
+            setHandler(routes);
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request,
+                           HttpServletResponse response) {
+            AsyncContext async = request.startAsync();
+            async.setTimeout(0); //Requests take as long as they take, like they do on the pool
+            requests.execute(() -> {
+                try {
+                    super.handle(target, baseRequest, request, response);
+                } catch (Exception e) { //Spark handles exceptions of routes, so the connection failed
+                    if (!response.isCommitted()) {
+                        response.setStatus(500);
+                    }
+                } finally {
+                    async.complete();
+                }
+            });
+        }
+
+        @Override
+        protected void doStop() throws Exception {
+            super.doStop();
+            requests.shutdown();
+        }
+    }
+}
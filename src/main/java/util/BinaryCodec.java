@@ -0,0 +1,281 @@
+package main.java.util;
+
+import main.java.model.UserPermissions;
+import main.java.model.info.EntryInfo;
+import main.java.model.info.TeamInfo;
+import main.java.model.info.TeamUserInfo;
+import main.java.model.info.UserInfo;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding for the info blobs we store in the database.
+ * <p>
+ * A blob is a header of three bytes (magic, format version, type) followed by the fields of the type in declaration
+ * order. Strings are written as a varint byte length followed by their UTF-8 bytes. Permissions are written as their
+ * level.
+ * <p>
+ * Rows written before this codec existed hold Java serialized objects. Those are recognized by the Java
+ * serialization stream magic and read with the Serializer, so they keep working and get rewritten in this format the
+ * next time they are written.
+ */
+public class BinaryCodec {
+    /**
+     * First byte of every blob in this format. Java serialized blobs start with 0xAC instead.
+     */
+    private static final byte magic = (byte) 0xAE;
+
+    /**
+     * Current version of the format. Bump this (and keep reading the old versions) when changing a layout.
+     */
+    private static final byte version = 1;
+
+    //First two bytes of a Java serialization stream
+    private static final byte javaMagic0 = (byte) 0xAC;
+    private static final byte javaMagic1 = (byte) 0xED;
+
+    //Type tags
+    private static final byte userType = 1;
+    private static final byte entryType = 2;
+    private static final byte teamType = 3;
+    private static final byte teamUserType = 4;
+
+    // ---------------------------- Encoding ----------------------------
+
+    public static byte[] encode(@NotNull UserInfo info) {
+        return new Writer(userType)
+                .string(info.firstName)
+                .string(info.lastName)
+                .string(info.hashedMasterPassword)
+                .string(info.masterPasswordSalt)
+                .string(info.encKeyDerivationSalt)
+                .string(info.macKeyDerivationSalt)
+                .string(info.publicKey)
+                .string(info.publicKeyMAC)
+                .string(info.encIv)
+                .string(info.privateKey)
+                .toBytes();
+    }
+
+    public static byte[] encode(@NotNull EntryInfo info) {
+        return new Writer(entryType)
+                .string(info.title)
+                .string(info.username)
+                .string(info.password)
+                .string(info.iv)
+                .toBytes();
+    }
+
+    public static byte[] encode(@NotNull TeamInfo info) {
+        return new Writer(teamType)
+                .string(info.teamName)
+                .toBytes();
+    }
+
+    public static byte[] encode(@NotNull TeamUserInfo info) {
+        return new Writer(teamUserType)
+                .varint(info.permissions.level)
+                .string(info.teamKey)
+                .toBytes();
+    }
+
+    // ---------------------------- Decoding ----------------------------
+
+    public static UserInfo decodeUser(byte[] blob) throws Serializer.SerializationException {
+        if (isJavaSerialized(blob)) {
+            return legacy(blob, UserInfo.class);
+        }
+
+        try {
+            Reader r = new Reader(blob, userType);
+            UserInfo ret = new UserInfo(r.string(), r.string(), r.string(), r.string(), r.string(), r.string(),
+                    r.string(), r.string(), r.string(), r.string());
+            r.end();
+            return ret;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new Serializer.SerializationException("Malformed user info");
+        }
+    }
+
+    public static EntryInfo decodeEntry(byte[] blob) throws Serializer.SerializationException {
+        if (isJavaSerialized(blob)) {
+            return legacy(blob, EntryInfo.class);
+        }
+
+        try {
+            Reader r = new Reader(blob, entryType);
+            EntryInfo ret = new EntryInfo(r.string(), r.string(), r.string(), r.string());
+            r.end();
+            return ret;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new Serializer.SerializationException("Malformed entry info");
+        }
+    }
+
+    public static TeamInfo decodeTeam(byte[] blob) throws Serializer.SerializationException {
+        if (isJavaSerialized(blob)) {
+            return legacy(blob, TeamInfo.class);
+        }
+
+        try {
+            Reader r = new Reader(blob, teamType);
+            TeamInfo ret = new TeamInfo(r.string());
+            r.end();
+            return ret;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new Serializer.SerializationException("Malformed team info");
+        }
+    }
+
+    public static TeamUserInfo decodeTeamUser(byte[] blob) throws Serializer.SerializationException {
+        if (isJavaSerialized(blob)) {
+            return legacy(blob, TeamUserInfo.class);
+        }
+
+        try {
+            Reader r = new Reader(blob, teamUserType);
+            TeamUserInfo ret = new TeamUserInfo(permissions(r.varint()), r.string());
+            r.end();
+            return ret;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new Serializer.SerializationException("Malformed team user info");
+        }
+    }
+
+    /**
+     * @return true if the blob was written by the Serializer instead of this codec
+     */
+    public static boolean isJavaSerialized(byte[] blob) {
+        return blob.length >= 2 && blob[0] == javaMagic0 && blob[1] == javaMagic1;
+    }
+
+    private static <R> R legacy(byte[] blob, Class<R> type) throws Serializer.SerializationException {
+        Object ret = Serializer.deserialize(blob);
+        if (!type.isInstance(ret)) {
+            throw new Serializer.SerializationException("Expected a " + type.getSimpleName() + " but found a " + ret.getClass().getSimpleName());
+        }
+        return type.cast(ret);
+    }
+
+    private static UserPermissions permissions(int level) {
+        for (UserPermissions p : UserPermissions.values()) {
+            if (p.level == level) {
+                return p;
+            }
+        }
+        throw new IllegalArgumentException("Unknown permission level " + level);
+    }
+
+    /**
+     * Builds up a blob. Fields are kept as UTF-8 until toBytes so the blob can be allocated at its exact size.
+     */
+    private static class Writer {
+        private final byte type;
+        private final byte[][] fields = new byte[10][];
+        private final int[] ints = new int[10];
+        private int count = 0;
+        private int size = 3;
+
+        private Writer(byte type) {
+            this.type = type;
+        }
+
+        private Writer string(String s) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            fields[count++] = utf8;
+            size += varintSize(utf8.length) + utf8.length;
+            return this;
+        }
+
+        private Writer varint(int value) {
+            ints[count++] = value;
+            size += varintSize(value);
+            return this;
+        }
+
+        private byte[] toBytes() {
+            ByteBuffer buf = ByteBuffer.allocate(size);
+            buf.put(magic).put(version).put(type);
+            for (int i = 0; i < count; i++) {
+                if (fields[i] != null) {
+                    putVarint(buf, fields[i].length);
+                    buf.put(fields[i]);
+                } else {
+                    putVarint(buf, ints[i]);
+                }
+            }
+            return buf.array();
+        }
+
+        private static int varintSize(int value) {
+            int size = 1;
+            while ((value & ~0x7F) != 0) {
+                value >>>= 7;
+                size++;
+            }
+            return size;
+        }
+
+        private static void putVarint(ByteBuffer buf, int value) {
+            while ((value & ~0x7F) != 0) {
+                buf.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buf.put((byte) value);
+        }
+    }
+
+    /**
+     * Reads the fields of a blob in order. Throws BufferUnderflowException or IllegalArgumentException on bad input.
+     */
+    private static class Reader {
+        private final ByteBuffer buf;
+
+        private Reader(byte[] blob, byte type) {
+            buf = ByteBuffer.wrap(blob);
+            if (buf.get() != magic) {
+                throw new IllegalArgumentException("Unknown blob format");
+            }
+            if (buf.get() != version) {
+                throw new IllegalArgumentException("Unknown blob version");
+            }
+            if (buf.get() != type) {
+                throw new IllegalArgumentException("Wrong blob type");
+            }
+        }
+
+        private int varint() {
+            int ret = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = buf.get();
+                ret |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return ret;
+                }
+            }
+            throw new IllegalArgumentException("Varint is too long");
+        }
+
+        private String string() {
+            int length = varint();
+            if (length < 0 || length > buf.remaining()) {
+                throw new BufferUnderflowException();
+            }
+
+            String ret = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+            //Through Buffer, since ByteBuffer.position(int) only exists from Java 9 on
+            ((Buffer) buf).position(buf.position() + length);
+            return ret;
+        }
+
+        private void end() {
+            if (buf.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes in blob");
+            }
+        }
+    }
+}
@@ -27,6 +27,17 @@ public class Constants {
      */
     public static final int MAX_THREADS = 50;
 
+    /**
+     * The number of entries or log entries read from the database at a time while a long list of them is streamed
+     * back to the client
+     */
+    public static final int STREAM_PAGE_SIZE = 500;
+
+    /**
+     * The number of striped locks used for each of teams and users when serializing conflicting requests
+     */
+    public static final int LOCK_STRIPES = 64;
+
 
     /**
      * The name of the configuration
@@ -50,6 +61,12 @@ public class Constants {
      */
     public static final long MAX_INACTIVE_TIME = 1000 * 60 * 10; //Currently set to 10 minutes
 
+    /**
+     * Default maximum number of sessions a user can have at the same time. Logging in once more ends the session that
+     * was used least recently.
+     */
+    public static final int MAX_SESSIONS_PER_USER = 10;
+
     /**
      * Maximum amount of time you have to use a verification code
      * Measured in milliseconds.
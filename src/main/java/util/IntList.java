@@ -0,0 +1,136 @@
+package main.java.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of ints backed by an int array. This is a List&lt;Integer&gt; as well, but getInt, contains(int)
+ * and toIntArray do not box.
+ */
+public final class IntList extends AbstractList<Integer> implements RandomAccess {
+    private static final IntList empty = new IntList(new int[0]);
+
+    private final int[] values;
+
+    private IntList(int[] values) {
+        this.values = values;
+    }
+
+    public static IntList empty() {
+        return empty;
+    }
+
+    /**
+     * @return a list of the values. The array is copied.
+     */
+    public static IntList of(@NotNull int... values) {
+        return values.length == 0 ? empty : new IntList(values.clone());
+    }
+
+    /**
+     * @return a list with the values of the collection. If it is an IntList, it is returned as is.
+     */
+    public static IntList copyOf(@NotNull Collection<Integer> values) {
+        if (values instanceof IntList) {
+            return (IntList) values;
+        }
+
+        int[] ret = new int[values.size()];
+        int i = 0;
+        for (int v : values) {
+            ret[i++] = v;
+        }
+        return ret.length == 0 ? empty : new IntList(ret);
+    }
+
+    public int getInt(int index) {
+        return values[index];
+    }
+
+    @Override
+    public Integer get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    public boolean contains(int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (o instanceof Integer) {
+            int value = (Integer) o;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == value) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a copy of the values
+     */
+    public int[] toIntArray() {
+        return values.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof IntList) {
+            return Arrays.equals(values, ((IntList) o).values);
+        }
+        return super.equals(o);
+    }
+
+    /**
+     * Same as the hashCode of any other List with these values
+     */
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+
+    /**
+     * Fills an IntList
+     */
+    public static final class Builder {
+        private int[] values;
+        private int size = 0;
+
+        public Builder() {
+            this(8);
+        }
+
+        public Builder(int expected) {
+            values = new int[Math.max(expected, 1)];
+        }
+
+        public Builder add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+            return this;
+        }
+
+        public IntList build() {
+            return size == 0 ? empty : new IntList(Arrays.copyOf(values, size));
+        }
+    }
+}
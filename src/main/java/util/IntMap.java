@@ -0,0 +1,280 @@
+package main.java.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * An immutable map from int to non-null values.
+ * <p>
+ * Keys and values are kept in two arrays with open addressing (linear probing), so there are no boxed keys or entry
+ * objects, and get(int) does not allocate. A slot is empty iff its value is null. This is a Map&lt;Integer, V&gt; as
+ * well, so it can be passed to code that does not care, but the int methods should be used where speed matters.
+ * Iteration is in no particular order.
+ *
+ * @param <V> the type of the values
+ */
+public final class IntMap<V> extends AbstractMap<Integer, V> {
+    private static final IntMap<?> empty = new IntMap<>(new int[1], new Object[1], 0);
+
+    private final int[] keys;
+    private final Object[] values;
+    private final int size;
+
+    private IntMap(int[] keys, Object[] values, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> IntMap<V> empty() {
+        return (IntMap<V>) empty;
+    }
+
+    /**
+     * @return an IntMap with the entries of the map. If the map is an IntMap, it is returned as is.
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> IntMap<V> copyOf(@NotNull Map<Integer, ? extends V> map) {
+        if (map instanceof IntMap) {
+            return (IntMap<V>) map;
+        }
+
+        Builder<V> builder = new Builder<>(map.size());
+        map.forEach(builder::put);
+        return builder.build();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the value of the key, or null if there is none
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof Integer ? get((int) (Integer) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return a new array with the keys of this map
+     */
+    public int[] keyArray() {
+        int[] ret = new int[size];
+        int j = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                ret[j++] = keys[i];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Calls the action with every key and value, without boxing the keys
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachEntry(@NotNull IntObjConsumer<? super V> action) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                action.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    @NotNull
+    @Override
+    public Set<Entry<Integer, V>> entrySet() {
+        return new AbstractSet<Entry<Integer, V>>() {
+            @Override
+            public Iterator<Entry<Integer, V>> iterator() {
+                return new Iterator<Entry<Integer, V>>() {
+                    private int next = advance(0);
+
+                    private int advance(int i) {
+                        while (i < values.length && values[i] == null) {
+                            i++;
+                        }
+                        return i;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Entry<Integer, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<Integer, V> ret = new SimpleImmutableEntry<>(keys[next], (V) values[next]);
+                        next = advance(next + 1);
+                        return ret;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IntMap)) return super.equals(o);
+
+        IntMap<?> that = (IntMap<?>) o;
+        if (size != that.size) return false;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null && !values[i].equals(that.get(keys[i]))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Same as the hashCode of any other Map with these entries
+     */
+    @Override
+    public int hashCode() {
+        int ret = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                ret += keys[i] ^ values[i].hashCode();
+            }
+        }
+        return ret;
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9; //Fibonacci hashing, so consecutive ids spread over the table
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Table size for the given number of keys, which keeps the table at most 3/4 full
+     */
+    private static int capacity(int expected) {
+        int ret = 2;
+        while (ret * 3 / 4 < expected) {
+            ret <<= 1;
+        }
+        return ret;
+    }
+
+    /**
+     * A consumer of an int key and its value
+     */
+    @FunctionalInterface
+    public interface IntObjConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    /**
+     * Fills an IntMap. A builder can only build once.
+     */
+    public static final class Builder<V> {
+        private int[] keys;
+        private Object[] values;
+        private int size = 0;
+
+        public Builder() {
+            this(0);
+        }
+
+        /**
+         * @param expected the number of keys that will be put, so the table does not have to grow
+         */
+        public Builder(int expected) {
+            int capacity = capacity(expected);
+            keys = new int[capacity];
+            values = new Object[capacity];
+        }
+
+        /**
+         * Puts the value for the key, replacing the value it had
+         */
+        public Builder<V> put(int key, @NotNull V value) {
+            if (value == null) {
+                throw new NullPointerException("IntMap does not allow null values");
+            }
+
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (values[i] != null) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return this;
+                }
+                i = (i + 1) & mask;
+            }
+
+            keys[i] = key;
+            values[i] = value;
+            size++;
+            if (size > keys.length * 3 / 4) {
+                grow();
+            }
+            return this;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new Object[oldValues.length * 2];
+
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldValues.length; j++) {
+                if (oldValues[j] != null) {
+                    int i = slot(oldKeys[j], mask);
+                    while (values[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+
+        public IntMap<V> build() {
+            if (keys == null) {
+                throw new IllegalStateException("This builder was already built");
+            }
+
+            IntMap<V> ret = size == 0 ? empty() : new IntMap<>(keys, values, size);
+            keys = null;
+            values = null;
+            return ret;
+        }
+    }
+}
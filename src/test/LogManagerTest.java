@@ -5,6 +5,10 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 import static org.junit.Assert.*;
 
 /**
@@ -90,4 +94,101 @@ public class LogManagerTest {
             assertNotNull(e.getTime());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void batchedWrites() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            lm.log(new LogEntry(LogLevel.DEBUG, "message " + i));
+        }
+
+        assertEquals(1000, lm.getAllEntries().size());
+        assertEquals(1000, lm.getWrittenEntries());
+        assertEquals(0, lm.getQueueDepth());
+        assertEquals(0, lm.getDroppedEntries());
+    }
+
+    @Test
+    public void pagedQueries() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            LogEntry entry = new LogEntry(LogLevel.DEBUG, "" + i);
+            entry.setTid(i % 2);
+            lm.log(entry);
+        }
+
+        //Team 0 has the 13 even messages, so the last page is partly full
+        Iterator<List<LogEntry>> pages = lm.pageEntriesbyTid(0, 5);
+        List<Integer> sizes = new ArrayList<>();
+        List<String> read = new ArrayList<>();
+        while (pages.hasNext()) {
+            List<LogEntry> page = pages.next();
+            sizes.add(page.size());
+            page.forEach(e -> read.add(e.getMessage()));
+        }
+        assertEquals(Arrays.asList(5, 5, 3), sizes);
+        assertEquals(IntStream.range(0, 13).mapToObj(i -> "" + 2 * i).collect(Collectors.toList()), read);
+
+        //A full last page is followed by an empty read, not an empty page
+        pages = lm.pageEntriesbyTid(1, 4);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(4, pages.next().size());
+        }
+        assertFalse(pages.hasNext());
+
+        //Entries logged while paging show up at the end
+        pages = lm.pageEntriesbyUid(LogConstants.NO_USER, 20);
+        assertEquals(20, pages.next().size());
+        lm.log(new LogEntry(LogLevel.DEBUG, "late"));
+        List<LogEntry> last = pages.next();
+        assertEquals(6, last.size());
+        assertEquals("late", last.get(5).getMessage());
+        assertFalse(pages.hasNext());
+    }
+
+    @Test
+    public void closeWritesQueuedEntries() throws Exception {
+        lm.close();
+        //Writer that never wakes up on its own
+        lm = new LogManager(false, new LogSettings(100, 1000, 1000000, LogSettings.OverflowPolicy.BLOCK));
+        for (int i = 0; i < 10; i++) {
+            lm.log(new LogEntry(LogLevel.DEBUG, "message " + i));
+        }
+        lm.close();
+
+        lm = new LogManager(false);
+        assertEquals(10, lm.getAllEntries().size());
+    }
+
+    @Test
+    public void dropNewest() throws Exception {
+        lm.close();
+        //Writer that does not wake up before the batch is full, and the queue fills up long before that
+        lm = new LogManager(false, new LogSettings(10, 1000, 1000000, LogSettings.OverflowPolicy.DROP_NEWEST));
+        for (int i = 0; i < 15; i++) {
+            lm.log(new LogEntry(LogLevel.DEBUG, "" + i));
+        }
+
+        assertEquals(5, lm.getDroppedEntries());
+        assertEquals(10, lm.getQueueDepth());
+        assertEquals(messages(0, 10), lm.getAllEntries().stream().map(LogEntry::getMessage).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        lm.close();
+        lm = new LogManager(false, new LogSettings(10, 1000, 1000000, LogSettings.OverflowPolicy.DROP_OLDEST));
+        for (int i = 0; i < 15; i++) {
+            lm.log(new LogEntry(LogLevel.DEBUG, "" + i));
+        }
+
+        assertEquals(5, lm.getDroppedEntries());
+        assertEquals(10, lm.getQueueDepth());
+        assertEquals(messages(5, 15), lm.getAllEntries().stream().map(LogEntry::getMessage).collect(Collectors.toList()));
+    }
+
+    /**
+     * @return the messages from start (inclusive) to end (exclusive)
+     */
+    private static List<String> messages(int start, int end) {
+        return IntStream.range(start, end).mapToObj(Integer::toString).collect(Collectors.toList());
+    }
+}
@@ -7,6 +7,16 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 import test.database.DatabaseTests;
 import test.java.ServerTest;
+import test.metrics.MetricsTest;
+import test.server.util.CompressingOutputStreamTest;
+import test.server.util.EmailServerTest;
+import test.server.util.ExpirySchedulerTest;
+import test.server.util.LockManagerTest;
+import test.server.util.MemorySessionManagerTest;
+import test.server.util.SessionStoreTest;
+import test.server.util.SignedSessionManagerTest;
+import test.util.BinaryCodecTest;
+import test.util.IntMapTest;
 import test.util.SerializerTest;
 
 @RunWith(Suite.class)
@@ -14,6 +24,16 @@ import test.util.SerializerTest;
         DatabaseTests.class,
         LogManagerTest.class,
         SerializerTest.class,
+        BinaryCodecTest.class,
+        IntMapTest.class,
+        LockManagerTest.class,
+        ExpirySchedulerTest.class,
+        MemorySessionManagerTest.class,
+        SignedSessionManagerTest.class,
+        SessionStoreTest.class,
+        EmailServerTest.class,
+        CompressingOutputStreamTest.class,
+        MetricsTest.class,
         ServerTest.class
 })
 
@@ -1,22 +1,25 @@
 package test.database;
 
 import main.java.database.AegisPasswordDatabase;
-import main.java.model.AegisEntry;
-import main.java.model.AegisTeam;
-import main.java.model.AegisUser;
-import main.java.model.UserPermissions;
+import main.java.database.SchemaMigrations;
+import main.java.model.*;
 import main.java.model.info.EntryInfo;
 import main.java.model.info.TeamInfo;
 import main.java.model.info.TeamUserInfo;
 import main.java.model.info.UserInfo;
+import main.java.util.BinaryCodec;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import test.util.BaselineBlobs;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Optional;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
 
 import static org.junit.Assert.*;
 
@@ -258,4 +261,401 @@ public class AegisPasswordDatabaseTest {
         at = db.readTeam(testID).get();
         assertEquals(testTeam, at);
     }
+
+    @Test
+    public void testConcurrentReadsSeeSnapshot() throws Exception {
+        db.createTeam(testTeam);
+
+        //Two versions of the team that differ in both the team info and the users
+        HashMap<Integer, TeamUserInfo> otherUsers = new HashMap<>(teamUsers);
+        otherUsers.remove(3);
+        AegisTeam other = new AegisTeam(new TeamInfo(teamName + "2"), teamEntries, otherUsers, testID);
+
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 100; i++) {
+                db.updateTeam(i % 2 == 0 ? other : testTeam);
+            }
+        });
+        writer.start();
+
+        //Every read has to be exactly one of the versions, never a mix of the two
+        while (writer.isAlive()) {
+            AegisTeam at = db.readTeam(testID).get();
+            assertTrue(at.equals(testTeam) || at.equals(other));
+        }
+        writer.join();
+    }
+
+    @Test
+    public void testStatementCache() throws Exception {
+        db.createUser(testUser);
+        db.readUser(testID);
+
+        //The second read uses the same statements as the first, just on possibly another connection
+        long misses = db.getStatementCacheMisses();
+        long hits = db.getStatementCacheHits();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(testUser, db.readUser(testID).get());
+        }
+
+        assertTrue(db.getStatementCacheHits() > hits);
+        assertTrue(db.getStatementCacheMisses() - misses <= 2 * 4); //At most two statements per read connection
+    }
+
+    @Test
+    public void testBulkRead() throws Exception {
+        assertTrue(db.readUsers(Collections.emptyList()).get().isEmpty());
+        assertTrue(db.readEntries(Arrays.asList(1, 2)).get().isEmpty());
+
+        db.createUser(testUser);
+        db.createEntry(testEntry);
+        db.createEntry(testEntry);
+        db.createTeam(testTeam);
+
+        //Missing ids are left out
+        Map<Integer, AegisEntry> entries = db.readEntries(Arrays.asList(1, 2, 3)).get();
+        assertEquals(2, entries.size());
+        assertEquals(db.readEntry(1).get(), entries.get(1));
+        assertEquals(db.readEntry(2).get(), entries.get(2));
+
+        Map<Integer, AegisUser> users = db.readUsers(Arrays.asList(testID, testID + 1)).get();
+        assertEquals(Collections.singletonMap(testID, testUser), users);
+
+        Map<Integer, AegisTeam> teams = db.readTeams(Collections.singletonList(testID)).get();
+        assertEquals(Collections.singletonMap(testID, testTeam), teams);
+    }
+
+    @Test
+    public void testBulkReadManyIDs() throws Exception {
+        //More ids than fit in a single query
+        List<Integer> eids = new ArrayList<>();
+        for (int i = 0; i < 700; i++) {
+            eids.add(db.createEntry(testEntry).get());
+        }
+        eids.add(-1);
+
+        Map<Integer, AegisEntry> entries = db.readEntries(eids).get();
+        assertEquals(700, entries.size());
+        for (int i = 0; i < 700; i++) {
+            assertEquals(new AegisEntry(testEntry.entryInfo, entryTeam, eids.get(i)), entries.get(eids.get(i)));
+        }
+    }
+
+    @Test
+    public void testReadVault() throws Exception {
+        assertFalse(db.readVault(testID).isPresent());
+
+        db.createUser(testUser);
+        db.createEntry(testEntry);
+        db.createEntry(testEntry);
+        db.createTeam(testTeam);
+        int eid = db.createEntry(new AegisEntry(testEntry.entryInfo, 2, testID)).get();
+        int tid = db.createTeam(new AegisTeam(new TeamInfo("other"), Collections.singletonList(eid),
+                Collections.singletonMap(2, teamUsers.get(2)), testID)).get();
+        assertEquals(2, tid); //The user is already on team 2. Team 3 does not exist
+
+        AegisVault vault = db.readVault(testID).get();
+        assertEquals(testUser, vault.user);
+        assertEquals(new HashSet<>(Arrays.asList(testID, tid)), vault.teams.keySet());
+        assertEquals(testTeam.teamInfo, vault.teams.get(testID));
+        assertEquals("other", vault.teams.get(tid).teamName);
+        assertEquals(Arrays.asList(db.readEntry(1).get(), db.readEntry(2).get()), vault.entries.get(testID));
+        assertEquals(Collections.singletonList(db.readEntry(eid).get()), vault.entries.get(tid));
+
+        //The entries of a team leave with the user
+        assertTrue(db.removeMember(tid, testID));
+        vault = db.readVault(testID).get();
+        assertEquals(Collections.singleton(testID), vault.teams.keySet());
+        assertEquals(Collections.singleton(testID), vault.entries.keySet());
+
+        //Teams without entries are left out of the entries
+        assertTrue(db.deleteEntry(1));
+        assertTrue(db.deleteEntry(2));
+        vault = db.readVault(testID).get();
+        assertEquals(Collections.singleton(testID), vault.teams.keySet());
+        assertTrue(vault.entries.isEmpty());
+    }
+
+    @Test
+    public void testTeamMembership() throws Exception {
+        db.createTeam(testTeam);
+        db.createUser(testUser);
+        TeamUserInfo info = new TeamUserInfo(UserPermissions.READ, "key");
+
+        assertFalse(db.addMember(testID, testID, info)); //Already on the team
+        assertTrue(db.removeMember(testID, testID));
+        long seq = db.readSequence().get();
+        assertFalse(db.removeMember(testID, testID)); //Not on the team anymore
+        assertEquals(seq, (long) db.readSequence().get()); //So nobody is told they left
+        assertFalse(db.readTeam(testID).get().users.containsKey(testID));
+        assertFalse(db.readUser(testID).get().teams.containsKey(testID));
+
+        assertFalse(db.addMember(testID, testID + 10, info)); //User does not exist
+        assertFalse(db.addMember(testID + 10, testID, info)); //Team does not exist
+        assertTrue(db.addMember(testID, testID, info));
+        assertEquals(info, db.readUser(testID).get().teams.get(testID));
+
+        assertTrue(db.setPermission(testID, testID, UserPermissions.ADMIN));
+        assertEquals(new TeamUserInfo(UserPermissions.ADMIN, "key"), db.readTeam(testID).get().users.get(testID));
+        assertTrue(db.setTeamKey(testID, testID, "key2"));
+        assertEquals(new TeamUserInfo(UserPermissions.ADMIN, "key2"), db.readTeam(testID).get().users.get(testID));
+
+        assertFalse(db.setPermission(testID, testID + 10, UserPermissions.READ));
+        assertFalse(db.setTeamKey(testID, testID + 10, "key"));
+
+        //The rest of the team is left alone
+        AegisTeam team = db.readTeam(testID).get();
+        assertEquals(teamEntries, team.entries);
+        assertEquals(teamUsers.get(2), team.users.get(2));
+        assertEquals(teamUsers.get(3), team.users.get(3));
+    }
+
+    @Test
+    public void testUpdateIsAtomic() throws Exception {
+        db.createUser(testUser);
+        int other = db.createUser(new AegisUser(testUser.userInfo, userEmail + "a", new HashMap<>(), testID)).get();
+
+        //Taking the email of another user fails and leaves the teams alone as well
+        userAccess.remove(1);
+        AegisUser update = new AegisUser(testUser.userInfo, userEmail + "a", userAccess, testID);
+        assertFalse(db.updateUser(update));
+        assertEquals(testUser, db.readUser(testID).get());
+        assertEquals(other, (int) db.readUser(userEmail + "a").get().id);
+
+        //Updating something that does not exist fails
+        assertFalse(db.updateEntry(testEntry));
+        assertFalse(db.readEntry(testID).isPresent());
+    }
+
+    @Test
+    public void testLegacyBlobsAreMigratedOnWrite() throws Exception {
+        db.createUser(testUser);
+        db.createTeam(testTeam);
+        db.createEntry(testEntry);
+
+        //Write the info the way the original classes stored it
+        try (Connection con = DriverManager.getConnection("jdbc:sqlite:test.db")) {
+            setBlob(con, "UPDATE User SET info=? WHERE uid=1", BaselineBlobs.USER);
+            setBlob(con, "UPDATE Entry SET info=? WHERE eid=1", BaselineBlobs.ENTRY);
+            setBlob(con, "UPDATE Team SET infoCol=? WHERE tidCol=1", BaselineBlobs.TEAM);
+            setBlob(con, "UPDATE TeamAndUser SET info=? WHERE tid=1 AND uid=1", BaselineBlobs.TEAM_USER);
+        }
+
+        AegisUser user = db.readUser(testID).get();
+        assertEquals(BaselineBlobs.USER_INFO, user.userInfo);
+        assertEquals(BaselineBlobs.TEAM_USER_INFO, user.teams.get(testID));
+        assertEquals(BaselineBlobs.ENTRY_INFO, db.readEntry(testID).get().entryInfo);
+        AegisTeam team = db.readTeam(testID).get();
+        assertEquals(BaselineBlobs.TEAM_INFO, team.teamInfo);
+        assertEquals(BaselineBlobs.TEAM_USER_INFO, team.users.get(testID));
+
+        //Writing the team rewrites its info and the changed membership in the binary format
+        db.updateTeam(testTeam);
+        team = db.readTeam(testID).get();
+        assertEquals(testTeam.teamInfo, team.teamInfo);
+        assertEquals(testTeam.users.get(testID), team.users.get(testID));
+        try (Connection con = DriverManager.getConnection("jdbc:sqlite:test.db");
+             Statement stmt = con.createStatement()) {
+            assertFalse(BinaryCodec.isJavaSerialized(getBlob(stmt, "SELECT infoCol FROM Team WHERE tidCol=1")));
+            assertFalse(BinaryCodec.isJavaSerialized(getBlob(stmt, "SELECT info FROM TeamAndUser WHERE tid=1 AND uid=1")));
+        }
+    }
+
+    private static void setBlob(Connection con, String sql, byte[] blob) throws SQLException {
+        try (PreparedStatement p = con.prepareStatement(sql)) {
+            p.setBytes(1, blob);
+            assertEquals(1, p.executeUpdate());
+        }
+    }
+
+    private static byte[] getBlob(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            assertTrue(rs.next());
+            return rs.getBytes(1);
+        }
+    }
+
+    @Test
+    public void testMigrations() throws Exception {
+        db.createUser(testUser);
+        db.createTeam(testTeam);
+        try (Connection con = DriverManager.getConnection("jdbc:sqlite:test.db")) {
+            assertEquals(SchemaMigrations.latestVersion(), SchemaMigrations.getVersion(con));
+            assertTrue(usesIndex(con, "SELECT * FROM TeamAndEntry WHERE tid=1"));
+            assertTrue(usesIndex(con, "SELECT * FROM TeamAndUser WHERE tid=1"));
+
+            //Turn it into a database from before the migrations
+            Statement stmt = con.createStatement();
+            stmt.execute("DROP INDEX TeamAndEntry_tid");
+            stmt.execute("DROP INDEX TeamAndUser_tid_uid");
+            stmt.execute("DROP INDEX User_email_unique_nocase");
+            stmt.execute("DROP TABLE Change");
+            SchemaMigrations.setVersion(con, 0);
+            assertFalse(usesIndex(con, "SELECT * FROM TeamAndEntry WHERE tid=1"));
+        }
+
+        //Opening the database migrates it without touching the data
+        db.close();
+        db = new AegisPasswordDatabase("test.db");
+        try (Connection con = DriverManager.getConnection("jdbc:sqlite:test.db")) {
+            assertEquals(SchemaMigrations.latestVersion(), SchemaMigrations.getVersion(con));
+            assertTrue(usesIndex(con, "SELECT * FROM TeamAndEntry WHERE tid=1"));
+            assertTrue(usesIndex(con, "SELECT * FROM User WHERE email='a' COLLATE NOCASE"));
+            assertTrue(usesIndex(con, "SELECT * FROM Change WHERE tid=1 AND seq>0"));
+        }
+        assertEquals(testUser, db.readUser(testID).get());
+        assertEquals(testTeam, db.readTeam(testID).get());
+        assertEquals(Optional.of(0L), db.readSequence()); //The change log starts out empty
+    }
+
+    @Test
+    public void testChangeLog() throws Exception {
+        db.createUser(testUser);
+        db.createTeam(testTeam);
+        int eid = db.createEntry(testEntry).get();
+        //Creating the team wrote the membership of the user again, so that is its latest change
+        assertEquals(Arrays.asList("MEMBER 2 1", "MEMBER 3 1", "TEAM 1 1", "MEMBER 1 2", "MEMBER 1 3", "MEMBER 1 1",
+                "ENTRY 1 2", "ENTRY 1 1"), describe(db.readChanges(testID, 0).get().changes));
+
+        long seq = db.readSequence().get();
+        assertEquals(seq, db.readChanges(testID, 0).get().seq);
+        assertTrue(db.readChanges(testID, seq).get().changes.isEmpty());
+
+        //Only the latest change of each entry and member is kept
+        EntryInfo info = new EntryInfo("title", "username", "password", "iv");
+        assertTrue(db.updateEntry(new AegisEntry(info, entryTeam, eid)));
+        assertTrue(db.removeMember(testID, 3));
+        assertTrue(db.setPermission(testID, 2, UserPermissions.READ));
+        assertTrue(db.updateEntry(new AegisEntry(info, entryTeam, eid)));
+        ChangeLog log = db.readChanges(testID, seq).get();
+        assertEquals(Arrays.asList("MEMBER 1 3 deleted", "MEMBER 1 2", "ENTRY 1 1"), describe(log.changes));
+        assertEquals((long) db.readSequence().get(), log.seq);
+
+        //A moved entry leaves a tombstone in its old team
+        seq = log.seq;
+        assertTrue(db.updateEntry(new AegisEntry(info, 2, eid)));
+        assertEquals(Arrays.asList("ENTRY 1 1 deleted", "ENTRY 2 1"), describe(db.readChanges(testID, seq).get().changes));
+
+        //Users only see the teams they are on, and their own memberships
+        assertEquals(Arrays.asList("TEAM 1 1", "MEMBER 1 1", "ENTRY 1 2", "MEMBER 1 3 deleted", "MEMBER 1 2",
+                "ENTRY 1 1 deleted"),
+                describe(db.readChanges(2, 0).get().changes));
+    }
+
+    @Test
+    public void testChangeLogUserUpdate() throws Exception {
+        db.createUser(testUser);
+        db.createTeam(testTeam);
+        long seq = db.readSequence().get();
+
+        //Other members do not see the master password, so nothing is recorded
+        UserInfo i = testUser.userInfo;
+        UserInfo password = new UserInfo(i.firstName, i.lastName, "new hash", "new salt", i.encKeyDerivationSalt,
+                i.macKeyDerivationSalt, i.publicKey, i.publicKeyMAC, "new iv", "new private key");
+        assertTrue(db.updateUser(new AegisUser(password, userEmail, userAccess, testID)));
+        assertEquals(password, db.readUser(testID).get().userInfo);
+        assertTrue(db.readChanges(testID, seq).get().changes.isEmpty());
+
+        //They do see the name, which does not change the memberships themselves
+        UserInfo name = password.withFirstNameAndLastName("new first", "new last");
+        assertTrue(db.updateUser(new AegisUser(name, userEmail, userAccess, testID)));
+        assertEquals(new HashSet<>(Arrays.asList("USER 1 1", "USER 2 1", "USER 3 1")),
+                new HashSet<>(describe(db.readChanges(testID, seq).get().changes)));
+
+        //A membership that changes as well is recorded as a membership change only
+        seq = db.readSequence().get();
+        Map<Integer, TeamUserInfo> teams = new HashMap<>(userAccess);
+        teams.put(2, new TeamUserInfo(UserPermissions.READ, teamPassword));
+        assertTrue(db.updateUser(new AegisUser(name.withPublicKey("new public key"), userEmail, teams, testID)));
+        assertEquals(new HashSet<>(Arrays.asList("USER 1 1", "MEMBER 2 1", "USER 3 1")),
+                new HashSet<>(describe(db.readChanges(testID, seq).get().changes)));
+    }
+
+    @Test
+    public void testChangeLogDelete() throws Exception {
+        db.createUser(testUser);
+        db.createTeam(testTeam);
+        int eid = db.createEntry(testEntry).get();
+        long seq = db.readSequence().get();
+
+        assertTrue(db.deleteEntry(eid));
+        assertEquals(Collections.singletonList("ENTRY 1 1 deleted"), describe(db.readChanges(testID, seq).get().changes));
+
+        //Members of a deleted team find out they left it, and the rest of its changes are gone
+        seq = db.readSequence().get();
+        assertTrue(db.deleteTeam(testID));
+        assertEquals(Collections.singletonList("MEMBER 1 1 deleted"), describe(db.readChanges(testID, seq).get().changes));
+        assertEquals(Collections.singletonList("MEMBER 1 2 deleted"), describe(db.readChanges(2, 0).get().changes));
+        assertTrue(db.readSequence().get() > seq);
+
+        seq = db.readSequence().get();
+        assertTrue(db.deleteUser(testID));
+        assertEquals(Arrays.asList("MEMBER 2 1 deleted", "MEMBER 3 1 deleted"),
+                describe(db.readChanges(testID, seq).get().changes));
+    }
+
+    /**
+     * @return the changes without their sequence numbers, as "kind tid id [deleted]"
+     */
+    private static List<String> describe(List<Change> changes) {
+        List<String> ret = new ArrayList<>();
+        for (Change c : changes) {
+            ret.add(c.kind + " " + c.tid + " " + c.id + (c.deleted ? " deleted" : ""));
+        }
+        return ret;
+    }
+
+    @Test
+    public void testEmailIsCaseInsensitive() throws Exception {
+        db.createUser(testUser);
+        assertEquals(testUser, db.readUser(userEmail.toUpperCase()).get());
+
+        //So another user can not take the same email in another case
+        assertFalse(db.createUser(new NoIDAegisUser(testUser.userInfo, userEmail.toUpperCase(), new HashMap<>())).isPresent());
+        int uid = db.createUser(new NoIDAegisUser(testUser.userInfo, "other" + userEmail, new HashMap<>())).get();
+        assertFalse(db.updateUser(new AegisUser(testUser.userInfo, userEmail.toUpperCase(), new HashMap<>(), uid)));
+    }
+
+    @Test
+    public void testMigrationRejectsEmailsThatDifferInCase() throws Exception {
+        db.createUser(testUser);
+        try (Connection con = DriverManager.getConnection("jdbc:sqlite:test.db")) {
+            //A database from before emails were unique regardless of case
+            Statement stmt = con.createStatement();
+            stmt.execute("DROP INDEX User_email_unique_nocase");
+            stmt.execute("INSERT INTO User (uid, email, info) SELECT 2, upper(email), info FROM User");
+            SchemaMigrations.setVersion(con, 4);
+        }
+
+        db.close();
+        try {
+            db = new AegisPasswordDatabase("test.db");
+            fail("Expected the migration to fail");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("uid 1 <" + userEmail + ">"));
+            assertTrue(e.getMessage().contains("uid 2 <" + userEmail.toUpperCase() + ">"));
+        }
+        try (Connection con = DriverManager.getConnection("jdbc:sqlite:test.db")) {
+            assertEquals(4, SchemaMigrations.getVersion(con));
+            con.createStatement().execute("UPDATE User SET email = 'other' || email WHERE uid = 2");
+        }
+
+        //Once one of them is changed, the database opens
+        db = new AegisPasswordDatabase("test.db");
+        assertEquals(testUser, db.readUser(userEmail).get());
+    }
+
+    /**
+     * @return true if SQLite plans to use an index for the query
+     */
+    private static boolean usesIndex(Connection con, String sql) throws Exception {
+        try (ResultSet rs = con.createStatement().executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rs.next()) {
+                if (rs.getString("detail").contains("INDEX")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
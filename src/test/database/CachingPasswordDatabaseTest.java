@@ -0,0 +1,269 @@
+package test.database;
+
+import main.java.database.AegisPasswordDatabase;
+import main.java.database.CacheStats;
+import main.java.database.CachingPasswordDatabase;
+import main.java.database.DatabaseSettings;
+import main.java.database.PasswordDatabase;
+import main.java.model.*;
+import main.java.model.info.EntryInfo;
+import main.java.model.info.TeamInfo;
+import main.java.model.info.TeamUserInfo;
+import main.java.model.info.UserInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the caching password database never serves data that was changed by a write
+ */
+public class CachingPasswordDatabaseTest {
+    private final String email = "mrc26@cornell.edu";
+    private final UserInfo userInfo = new UserInfo("Michael", "Clarkson", "password", "salt1", "saltEnc", "saltMAC",
+            "public", "publicMAC", "iv", "private");
+    private final TeamUserInfo admin = new TeamUserInfo(UserPermissions.ADMIN, "team key");
+    private final TeamUserInfo reader = new TeamUserInfo(UserPermissions.READ, "team key");
+
+    private AegisPasswordDatabase aegis;
+    private CachingPasswordDatabase db;
+
+    @Before
+    public void setUp() throws Exception {
+        aegis = new AegisPasswordDatabase("cache_test.db");
+        aegis.reset();
+        db = new CachingPasswordDatabase(aegis, new DatabaseSettings());
+
+        //User 1 is the admin of team 1, user 2 reads it. Entry 1 is in team 1, team 2 is empty
+        db.createUser(new NoIDAegisUser(userInfo, email, Collections.emptyMap()));
+        db.createUser(new NoIDAegisUser(userInfo, "other@cornell.edu", Collections.emptyMap()));
+        Map<Integer, TeamUserInfo> users = new HashMap<>();
+        users.put(1, admin);
+        users.put(2, reader);
+        db.createTeam(new NoIDAegisTeam(new TeamInfo("team 1"), Collections.emptyList(), users));
+        db.createTeam(new NoIDAegisTeam(new TeamInfo("team 2"), Collections.emptyList(), Collections.singletonMap(1, admin)));
+        db.createEntry(new NoIDAegisEntry(new EntryInfo("title", "username", "password", "iv"), 1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        aegis.reset();
+        aegis.close();
+    }
+
+    @Test
+    public void testHits() throws Exception {
+        assertEquals(db.readUser(1), db.readUser(1));
+        assertEquals(db.readUser(email), db.readUser(email));
+        assertEquals(db.readTeam(1), db.readTeam(1));
+        assertEquals(db.readEntries(Arrays.asList(1, 2)), db.readEntries(Arrays.asList(1, 2)));
+
+        CacheStats users = db.getUserCacheStats();
+        assertEquals(1, users.misses);
+        assertEquals(2, users.hits); //The first read by email goes to the database by email
+        assertEquals(1, users.size);
+        assertEquals(3, users.weight); //The user and their two teams
+        assertEquals(1, db.getTeamCacheStats().misses);
+        assertEquals(1, db.getTeamCacheStats().hits);
+        assertEquals(3, db.getEntryCacheStats().misses); //Entry 2 does not exist, so it is asked for both times
+        assertEquals(1, db.getEntryCacheStats().hits);
+        assertEquals(2.0 / 3, users.hitRate(), 1e-9);
+    }
+
+    @Test
+    public void testMembershipChanges() throws Exception {
+        db.readUser(2);
+        db.readTeam(1);
+
+        assertTrue(db.setPermission(1, 2, UserPermissions.WRITE));
+        assertEquals(UserPermissions.WRITE, db.readUser(2).get().teams.get(1).permissions);
+        assertEquals(UserPermissions.WRITE, db.readTeam(1).get().users.get(2).permissions);
+
+        assertTrue(db.setTeamKey(1, 2, "new key"));
+        assertEquals("new key", db.readUser(2).get().teams.get(1).teamKey);
+        assertEquals("new key", db.readTeam(1).get().users.get(2).teamKey);
+
+        assertTrue(db.removeMember(1, 2));
+        assertFalse(db.readUser(2).get().teams.containsKey(1));
+        assertFalse(db.readTeam(1).get().users.containsKey(2));
+
+        assertTrue(db.addMember(2, 2, reader));
+        assertEquals(reader, db.readUser(2).get().teams.get(2));
+        assertEquals(reader, db.readTeam(2).get().users.get(2));
+    }
+
+    @Test
+    public void testUpdateUserUpdatesTeams() throws Exception {
+        AegisUser user = db.readUser(2).get();
+        db.readTeam(1);
+        db.readTeam(2);
+
+        //Leave team 1, join team 2, change email
+        AegisUser updated = new AegisUser(user.userInfo, "new@cornell.edu", Collections.singletonMap(2, reader), 2);
+        assertTrue(db.updateUser(updated));
+        assertFalse(db.readTeam(1).get().users.containsKey(2));
+        assertEquals(reader, db.readTeam(2).get().users.get(2));
+        assertFalse(db.readUser("other@cornell.edu").isPresent());
+        assertEquals(updated, db.readUser("new@cornell.edu").get());
+
+        assertTrue(db.deleteUser(2));
+        assertFalse(db.readUser(2).isPresent());
+        assertFalse(db.readUser("new@cornell.edu").isPresent());
+        assertFalse(db.readTeam(2).get().users.containsKey(2));
+    }
+
+    @Test
+    public void testEntryChanges() throws Exception {
+        AegisEntry entry = db.readEntry(1).get();
+        db.readTeam(1);
+        db.readTeam(2);
+
+        //Move the entry to team 2
+        assertTrue(db.updateEntry(new AegisEntry(entry.entryInfo, 2, 1)));
+        assertEquals(2, db.readEntry(1).get().team);
+        assertEquals(Collections.emptyList(), db.readTeam(1).get().entries);
+        assertEquals(Collections.singletonList(1), db.readTeam(2).get().entries);
+
+        int eid = db.createEntry(new NoIDAegisEntry(entry.entryInfo, 1)).get();
+        assertEquals(Collections.singletonList(eid), db.readTeam(1).get().entries);
+
+        assertTrue(db.deleteEntry(1));
+        assertFalse(db.readEntry(1).isPresent());
+        assertEquals(Collections.emptyList(), db.readTeam(2).get().entries);
+    }
+
+    @Test
+    public void testWritesOnlyInvalidateTheirTeams() throws Exception {
+        AegisEntry entry = aegis.readEntry(1).get(); //Not through the cache, so the team is looked up in the database
+        db.readTeam(1);
+        db.readTeam(2);
+
+        assertTrue(db.updateEntry(new AegisEntry(new EntryInfo("new title", "username", "password", "iv"), 1, 1)));
+        assertTrue(db.updateUser(new AegisUser(userInfo, "other@cornell.edu", Collections.singletonMap(1, reader), 2)));
+        assertEquals(1, db.getTeamCacheStats().size); //Team 2 has neither the entry nor user 2, so it stays cached
+
+        long hits = db.getTeamCacheStats().hits;
+        assertEquals(reader, db.readTeam(1).get().users.get(2));
+        db.readTeam(2);
+        assertEquals(hits + 1, db.getTeamCacheStats().hits);
+
+        assertTrue(db.deleteEntry(entry.id));
+        assertEquals(1, db.getTeamCacheStats().size);
+        assertEquals(Collections.emptyList(), db.readTeam(1).get().entries);
+    }
+
+    @Test
+    public void testTeamChanges() throws Exception {
+        AegisTeam team = db.readTeam(1).get();
+        db.readUser(1);
+        db.readUser(2);
+        db.readEntry(1);
+
+        //Drop user 2 and the entry
+        AegisTeam updated = new AegisTeam(team.teamInfo, Collections.emptyList(), Collections.singletonMap(1, admin), 1);
+        assertTrue(db.updateTeam(updated));
+        assertEquals(updated, db.readTeam(1).get());
+        assertFalse(db.readUser(2).get().teams.containsKey(1));
+        assertFalse(db.readEntry(1).isPresent());
+
+        assertTrue(db.deleteTeam(1));
+        assertFalse(db.readTeam(1).isPresent());
+        assertFalse(db.readUser(1).get().teams.containsKey(1));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        db = new CachingPasswordDatabase(aegis, new DatabaseSettings(4, "NORMAL", -16000, 0, 5000, 3, 100, 100));
+
+        db.readUser(1); //Weight 3, fills the cache
+        db.readUser(2); //Weight 2, evicts user 1
+        CacheStats stats = db.getUserCacheStats();
+        assertEquals(1, stats.evictions);
+        assertEquals(1, stats.size);
+        assertEquals(2, stats.weight);
+
+        assertTrue(db.readUser(1).isPresent());
+        assertEquals(3, db.getUserCacheStats().misses);
+    }
+
+    @Test
+    public void testStampede() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        CountDownLatch readStarted = new CountDownLatch(1);
+        CountDownLatch finishRead = new CountDownLatch(1);
+
+        //Make team reads slow so the other threads pile up behind the first one
+        PasswordDatabase slow = (PasswordDatabase) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{PasswordDatabase.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("readTeam")) {
+                        reads.incrementAndGet();
+                        readStarted.countDown();
+                        finishRead.await();
+                    }
+                    try {
+                        return method.invoke(aegis, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        db = new CachingPasswordDatabase(slow, new DatabaseSettings());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Optional<AegisTeam>>> futures = new ArrayList<>();
+        futures.add(executor.submit(() -> db.readTeam(1)));
+        readStarted.await();
+        for (int i = 1; i < 8; i++) {
+            futures.add(executor.submit(() -> db.readTeam(1)));
+        }
+        while (db.getTeamCacheStats().coalesced < 7) {
+            Thread.sleep(1);
+        }
+        finishRead.countDown();
+
+        for (Future<Optional<AegisTeam>> f : futures) {
+            assertEquals("team 1", f.get().get().teamInfo.teamName);
+        }
+        executor.shutdown();
+        assertEquals(1, reads.get());
+    }
+
+    @Test
+    public void testReadDuringWriteIsNotCached() throws Exception {
+        CountDownLatch readStarted = new CountDownLatch(1);
+        CountDownLatch finishRead = new CountDownLatch(1);
+
+        //Hold a read of user 2 until a membership change has gone through
+        PasswordDatabase slow = (PasswordDatabase) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{PasswordDatabase.class}, (proxy, method, args) -> {
+                    Object ret;
+                    try {
+                        ret = method.invoke(aegis, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    if (method.getName().equals("readUser") && readStarted.getCount() > 0) {
+                        readStarted.countDown();
+                        finishRead.await();
+                    }
+                    return ret;
+                });
+        db = new CachingPasswordDatabase(slow, new DatabaseSettings());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Optional<AegisUser>> stale = executor.submit(() -> db.readUser(2));
+        readStarted.await();
+        assertTrue(db.setPermission(1, 2, UserPermissions.WRITE));
+        finishRead.countDown();
+
+        assertEquals(UserPermissions.READ, stale.get().get().teams.get(1).permissions); //Read before the write
+        assertEquals(UserPermissions.WRITE, db.readUser(2).get().teams.get(1).permissions);
+        executor.shutdown();
+    }
+}
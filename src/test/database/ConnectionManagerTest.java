@@ -0,0 +1,167 @@
+package test.database;
+
+import main.java.database.ConnectionManager;
+import main.java.database.DatabaseSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the read pool, the WAL journal mode and the pragmas of the connection manager
+ */
+public class ConnectionManagerTest {
+    private static final String FILE = "connection_test.db";
+
+    private final DatabaseSettings settings = new DatabaseSettings(2, "FULL", -2000, 0, 1234);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private ConnectionManager connections;
+
+    @Before
+    public void setUp() throws Exception {
+        deleteFiles();
+        connections = new ConnectionManager(FILE, settings);
+        try (Statement stmt = connections.connection().createStatement()) {
+            stmt.execute("CREATE TABLE Item (id INTEGER PRIMARY KEY)");
+            stmt.execute("INSERT INTO Item VALUES (1)");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        connections.close();
+        deleteFiles();
+    }
+
+    private static void deleteFiles() throws Exception {
+        Files.deleteIfExists(Paths.get(FILE));
+        Files.deleteIfExists(Paths.get(FILE + "-wal"));
+        Files.deleteIfExists(Paths.get(FILE + "-shm"));
+    }
+
+    @Test
+    public void testJournalModeIsWAL() throws Exception {
+        assertEquals("wal", queryString(connections.connection(), "PRAGMA journal_mode").toLowerCase());
+
+        Connection reader = connections.beginRead();
+        try {
+            assertEquals("wal", queryString(reader, "PRAGMA journal_mode").toLowerCase());
+            reader.commit();
+        } finally {
+            connections.end();
+        }
+    }
+
+    @Test
+    public void testPragmasFromSettings() throws Exception {
+        Connection writer = connections.beginWrite();
+        try {
+            assertPragmas(writer);
+            writer.commit();
+        } finally {
+            connections.end();
+        }
+
+        Connection reader = connections.beginRead();
+        try {
+            assertPragmas(reader);
+            reader.commit();
+        } finally {
+            connections.end();
+        }
+    }
+
+    private void assertPragmas(Connection con) throws SQLException {
+        //FULL is 2, see https://www.sqlite.org/pragma.html#pragma_synchronous
+        assertEquals(2, queryLong(con, "PRAGMA synchronous"));
+        assertEquals(settings.cacheSize, queryLong(con, "PRAGMA cache_size"));
+        assertEquals(settings.mmapSize, queryLong(con, "PRAGMA mmap_size"));
+        assertEquals(settings.busyTimeout, queryLong(con, "PRAGMA busy_timeout"));
+    }
+
+    @Test(expected = SQLException.class)
+    public void testInvalidSynchronous() throws Exception {
+        new ConnectionManager(FILE, new DatabaseSettings(1, "OFF; DROP TABLE Item", 0, 0, 0));
+    }
+
+    @Test
+    public void testReadConnectionRejectsWrites() throws Exception {
+        Connection reader = connections.beginRead();
+        try (Statement stmt = reader.createStatement()) {
+            stmt.executeUpdate("INSERT INTO Item VALUES (2)");
+            fail("The read connection wrote to the database");
+        } catch (SQLException e) {
+            reader.rollback();
+        } finally {
+            connections.end();
+        }
+
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void testReadSeesSnapshot() throws Exception {
+        Connection reader = connections.beginRead();
+        try {
+            //The first read starts the snapshot
+            assertEquals(1, queryLong(reader, "SELECT count(*) FROM Item"));
+
+            //The writer does not wait for the open read, and the read does not see the write
+            executor.submit(() -> {
+                Connection writer = connections.beginWrite();
+                try (Statement stmt = writer.createStatement()) {
+                    stmt.executeUpdate("INSERT INTO Item VALUES (2)");
+                    writer.commit();
+                } finally {
+                    connections.end();
+                }
+                return null;
+            }).get(5, TimeUnit.SECONDS);
+
+            assertEquals(1, queryLong(reader, "SELECT count(*) FROM Item"));
+            reader.commit();
+        } finally {
+            connections.end();
+        }
+
+        //A new read sees the write
+        assertEquals(2, count());
+    }
+
+    private long count() throws SQLException {
+        Connection reader = connections.beginRead();
+        try {
+            long count = queryLong(reader, "SELECT count(*) FROM Item");
+            reader.commit();
+            return count;
+        } finally {
+            connections.end();
+        }
+    }
+
+    private static String queryString(Connection con, String sql) throws SQLException {
+        try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+
+    private static long queryLong(Connection con, String sql) throws SQLException {
+        try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            assertTrue(rs.next());
+            return rs.getLong(1);
+        }
+    }
+}
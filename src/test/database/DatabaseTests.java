@@ -7,6 +7,8 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(Suite.class)
 @SuiteClasses({
         AegisPasswordDatabaseTest.class,
+        CachingPasswordDatabaseTest.class,
+        ConnectionManagerTest.class,
         SQLInjectTest.class,
 })
 
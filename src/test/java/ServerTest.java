@@ -11,7 +11,6 @@ import spark.utils.IOUtils;
 
 import java.io.*;
 import java.net.*;
-import java.security.Security;
 import java.util.List;
 import java.util.Map;
 
@@ -88,7 +87,6 @@ public class ServerTest {
         /**
          * Transport Security (SSL) Workaround for your “localhost” development environment
          */
-        Security.addProvider(new com.sun.net.ssl.internal.ssl.Provider());
         javax.net.ssl.HttpsURLConnection.setDefaultHostnameVerifier(
                 (hostname, sslSession) -> {
                     if (hostname.equals("localhost")) {
@@ -334,6 +332,37 @@ public class ServerTest {
         System.out.println("DeleteEntryTest succeeded");
     }
 
+    @Test
+    public void cannotChangeEntryOfOtherTeamTest() {
+        Integer mainUserId = Integer.valueOf(createUser(EMAIL, PASSWORD, FIRSTNAME, LASTNAME, HASHEDMASTERPASSWORD, MASTERPASSWORDSALT, ENCKEYDERIVATIONSALT, MACKEYDERIVATIONSALT, PUBLICKEY, PUBLICKEYMAC, ENCIV, PRIVATEKEY));
+        UrlResponse res_login = loginUser(EMAIL, PASSWORD, HASHEDMASTERPASSWORD, MASTERPASSWORDSALT);
+        String sessionID = res_login.sessionID;
+
+        Integer teamId = Integer.valueOf(createTeam(TEAMNAME, sessionID, ENCRYPTEDTEAMKEY));
+        Integer otherTeamId = Integer.valueOf(createTeam(TEAMNAME, sessionID, ENCRYPTEDTEAMKEY));
+        Integer entryId = Integer.valueOf(
+                createEntry(teamId, ENTRYTITLE, ENTRYUSERNAME, ENTRYPASSWORD, IV, sessionID));
+
+        JsonObject jo = new JsonObject();
+        jo.addProperty("title", ENTRYTITLE2);
+        UrlResponse res = doMethod("POST", "/teams/"+otherTeamId+"/entries/"+entryId+"/modify", jo.toString(), "sessionID="+sessionID);
+        assertNotNull(res);
+        assertEquals(403, res.status);
+
+        JsonObject jo2 = new JsonObject();
+        jo2.addProperty("password", ENTRYPASSWORD2);
+        jo2.addProperty("iv", IV2);
+        UrlResponse res2 = doMethod("POST", "/teams/"+otherTeamId+"/entries/"+entryId+"/secure", jo2.toString(), "sessionID="+sessionID);
+        assertNotNull(res2);
+        assertEquals(403, res2.status);
+
+        UrlResponse res3 = doMethod("DELETE", "/teams/"+otherTeamId+"/entries/"+entryId, "", "sessionID="+sessionID);
+        assertNotNull(res3);
+        assertEquals(403, res3.status);
+
+        System.out.println("CannotChangeEntryOfOtherTeamTest succeeded");
+    }
+
     @Test
     public void canCreateEntryTest() {
         Integer mainUserId = Integer.valueOf(createUser(EMAIL, PASSWORD, FIRSTNAME, LASTNAME, HASHEDMASTERPASSWORD, MASTERPASSWORDSALT, ENCKEYDERIVATIONSALT, MACKEYDERIVATIONSALT, PUBLICKEY, PUBLICKEYMAC, ENCIV, PRIVATEKEY));
@@ -349,6 +378,90 @@ public class ServerTest {
         System.out.println("CreateEntryTest succeeded: "+entryId);
     }
 
+    //-------------------- Vault resource test cases ---------------------------
+    @Test
+    public void canGetVaultTest() {
+        Integer mainUserId = Integer.valueOf(createUser(EMAIL, PASSWORD, FIRSTNAME, LASTNAME, HASHEDMASTERPASSWORD, MASTERPASSWORDSALT, ENCKEYDERIVATIONSALT, MACKEYDERIVATIONSALT, PUBLICKEY, PUBLICKEYMAC, ENCIV, PRIVATEKEY));
+        UrlResponse res_login = loginUser(EMAIL, PASSWORD, HASHEDMASTERPASSWORD, MASTERPASSWORDSALT);
+        String sessionID = res_login.sessionID;
+
+        Integer teamId = Integer.valueOf(createTeam(TEAMNAME, sessionID, ENCRYPTEDTEAMKEY));
+        Integer entryId = Integer.valueOf(
+                createEntry(teamId, ENTRYTITLE, ENTRYUSERNAME, ENTRYPASSWORD, IV, sessionID));
+
+        UrlResponse res = doMethod("GET", "/vault", "", "sessionID="+sessionID);
+        assertResponseNotNull(res);
+        assertEquals(200, res.status);
+        JsonObject vault = (new JsonParser()).parse(res.body).getAsJsonObject();
+        assertEquals((int) mainUserId, vault.getAsJsonObject("user").get("id").getAsInt());
+        JsonObject team = vault.getAsJsonArray("teams").get(0).getAsJsonObject();
+        assertEquals((int) teamId, team.getAsJsonObject("team").get("id").getAsInt());
+        assertEquals((int) entryId, team.getAsJsonArray("entries").get(0).getAsJsonObject().get("id").getAsInt());
+
+        System.out.println("GetVaultTest succeeded: "+res.body);
+    }
+
+    //-------------------- Sync resource test cases ---------------------------
+    @Test
+    public void canSyncTest() {
+        Integer mainUserId = Integer.valueOf(createUser(EMAIL, PASSWORD, FIRSTNAME, LASTNAME, HASHEDMASTERPASSWORD, MASTERPASSWORDSALT, ENCKEYDERIVATIONSALT, MACKEYDERIVATIONSALT, PUBLICKEY, PUBLICKEYMAC, ENCIV, PRIVATEKEY));
+        UrlResponse res_login = loginUser(EMAIL, PASSWORD, HASHEDMASTERPASSWORD, MASTERPASSWORDSALT);
+        String sessionID = res_login.sessionID;
+
+        Integer teamId = Integer.valueOf(createTeam(TEAMNAME, sessionID, ENCRYPTEDTEAMKEY));
+
+        //A full sync has the team
+        UrlResponse res = doMethod("GET", "/sync/0", "", "sessionID="+sessionID);
+        assertResponseNotNull(res);
+        assertEquals(200, res.status);
+        JsonObject full = (new JsonParser()).parse(res.body).getAsJsonObject();
+        assertTrue(full.get("full").getAsBoolean());
+        assertEquals(1, full.getAsJsonArray("teams").size());
+        long seq = full.get("seq").getAsLong();
+
+        //A delta sync only has the new entry
+        Integer entryId = Integer.valueOf(
+                createEntry(teamId, ENTRYTITLE, ENTRYUSERNAME, ENTRYPASSWORD, IV, sessionID));
+        res = doMethod("GET", "/sync/"+seq, "", "sessionID="+sessionID);
+        assertResponseNotNull(res);
+        JsonObject delta = (new JsonParser()).parse(res.body).getAsJsonObject();
+        assertFalse(delta.get("full").getAsBoolean());
+        JsonObject team = delta.getAsJsonArray("teams").get(0).getAsJsonObject();
+        assertEquals(1, team.getAsJsonArray("entries").size());
+        assertEquals((int) entryId, team.getAsJsonArray("entries").get(0).getAsJsonObject().get("id").getAsInt());
+        assertEquals(0, team.getAsJsonArray("users").size());
+
+        //Changing our name only sends us again, not the whole team
+        seq = delta.get("seq").getAsLong();
+        JsonObject jo = new JsonObject();
+        jo.addProperty("email", EMAIL);
+        jo.addProperty("firstName", "New" + FIRSTNAME);
+        jo.addProperty("lastName", LASTNAME);
+        assertResponseNotNull(doMethod("PUT", "/users", jo.toString(), "sessionID="+sessionID));
+        res = doMethod("GET", "/sync/"+seq, "", "sessionID="+sessionID);
+        assertResponseNotNull(res);
+        team = (new JsonParser()).parse(res.body).getAsJsonObject().getAsJsonArray("teams").get(0).getAsJsonObject();
+        assertFalse(team.get("full").getAsBoolean());
+        assertEquals(0, team.getAsJsonArray("entries").size());
+        assertEquals(1, team.getAsJsonArray("users").size());
+
+        System.out.println("SyncTest succeeded: "+res.body);
+    }
+
+    @Test
+    public void metricsNeedTokenTest() {
+        //No metrics token is configured, so nobody gets in, logged in or not
+        UrlResponse res = doMethod("GET", "/metrics", "", "");
+        assertNotNull(res);
+        assertEquals(401, res.status);
+
+        createUser(EMAIL, PASSWORD, FIRSTNAME, LASTNAME, HASHEDMASTERPASSWORD, MASTERPASSWORDSALT, ENCKEYDERIVATIONSALT, MACKEYDERIVATIONSALT, PUBLICKEY, PUBLICKEYMAC, ENCIV, PRIVATEKEY);
+        String sessionID = loginUser(EMAIL, PASSWORD, HASHEDMASTERPASSWORD, MASTERPASSWORDSALT).sessionID;
+        res = doMethod("GET", "/metrics", "", "sessionID="+sessionID);
+        assertNotNull(res);
+        assertEquals(401, res.status);
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////
     // helper methods and classes
@@ -484,8 +597,7 @@ public class ServerTest {
                                     String body, String cookie, UrlResponse res)
             throws IOException {
         setDefault(new CookieManager(null, CookiePolicy.ACCEPT_ALL));
-        URL url = new URL(null, "https://localhost:" + PORT + path,
-                new sun.net.www.protocol.https.Handler());
+        URL url = new URL("https://localhost:" + PORT + path);
         HttpURLConnection conn = (HttpURLConnection) url.openConnection();
 
         /**
@@ -500,9 +612,9 @@ public class ServerTest {
 
         conn.connect();
 
+        res.status = conn.getResponseCode(); //Set before the body, which throws for error statuses
         String response = IOUtils.toString(conn.getInputStream());
         res.body = response;
-        res.status = conn.getResponseCode();
         res.headers = conn.getHeaderFields();
         if (res.headers.containsKey("Set-Cookie")) {
             res.sessionID = res.headers.get("Set-Cookie").get(0).substring("sessionID=".length());
@@ -0,0 +1,97 @@
+package test.metrics;
+
+import main.java.metrics.Histogram;
+import main.java.metrics.Metrics;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the histograms and the Prometheus text format
+ */
+public class MetricsTest {
+    @Test
+    public void testHistogramBuckets() {
+        Histogram h = new Histogram();
+        h.record(50_000);          //Below the first bound
+        h.record(100_000);         //Exactly on the first bound, which is inclusive
+        h.record(3_000_000);       //Between 2.5 ms and 5 ms
+        h.record(60_000_000_000L); //Past the last bound
+
+        long[] counts = h.getCounts();
+        assertEquals(17, counts.length);
+        assertEquals(2, counts[0]);
+        assertEquals(1, counts[5]);
+        assertEquals(1, counts[16]);
+        assertEquals(4, h.getCount());
+        assertEquals(60_003_150_000L, h.getSum());
+    }
+
+    @Test
+    public void testHistogramQuantile() {
+        Histogram h = new Histogram();
+        assertEquals(0, h.getQuantile(0.99));
+
+        for (int i = 0; i < 99; i++) {
+            h.record(200_000);
+        }
+        h.record(700_000_000);
+
+        assertEquals(250_000, h.getQuantile(0.5));
+        assertEquals(250_000, h.getQuantile(0.99));
+        assertEquals(1_000_000_000, h.getQuantile(1));
+    }
+
+    @Test
+    public void testPrometheusFormat() {
+        Metrics metrics = new Metrics();
+        AtomicLong sent = new AtomicLong(3);
+        metrics.counter("test_sent_total", "Things sent", sent::get);
+        metrics.gauge("test_queue", "Things \\ waiting", () -> 1.5, "queue", "a\"b");
+        Histogram h = metrics.histogram("test_seconds", "Time taken", "route", "GET /x");
+        h.record(1_000_000);
+        h.record(20_000_000_000L);
+        sent.incrementAndGet();
+
+        String text = metrics.write();
+        assertTrue(text.startsWith("# HELP test_sent_total Things sent\n# TYPE test_sent_total counter\n" +
+                "test_sent_total 4\n"));
+        assertTrue(text.contains("# HELP test_queue Things \\\\ waiting\n"));
+        assertTrue(text.contains("test_queue{queue=\"a\\\"b\"} 1.5\n"));
+        assertTrue(text.contains("# TYPE test_seconds histogram\n"));
+        assertTrue(text.contains("test_seconds_bucket{route=\"GET /x\",le=\"0.0001\"} 0\n"));
+        assertTrue(text.contains("test_seconds_bucket{route=\"GET /x\",le=\"0.001\"} 1\n"));
+        assertTrue(text.contains("test_seconds_bucket{route=\"GET /x\",le=\"10\"} 1\n"));
+        assertTrue(text.contains("test_seconds_bucket{route=\"GET /x\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("test_seconds_sum{route=\"GET /x\"} 20.001\n"));
+        assertTrue(text.contains("test_seconds_count{route=\"GET /x\"} 2\n"));
+    }
+
+    @Test
+    public void testSameHistogramForSameLabels() {
+        Metrics metrics = new Metrics();
+        Histogram a = metrics.histogram("test_seconds", "Time taken", "route", "a");
+        assertSame(a, metrics.histogram("test_seconds", "Time taken", "route", "a"));
+        assertNotSame(a, metrics.histogram("test_seconds", "Time taken", "route", "b"));
+
+        //Only one HELP and TYPE for the family
+        String text = metrics.write();
+        assertEquals(text.indexOf("# TYPE"), text.lastIndexOf("# TYPE"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateSeries() {
+        Metrics metrics = new Metrics();
+        metrics.counter("test_total", "Things", () -> 1, "kind", "a");
+        metrics.counter("test_total", "Things", () -> 2, "kind", "a");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMixedTypes() {
+        Metrics metrics = new Metrics();
+        metrics.counter("test_total", "Things", () -> 1);
+        metrics.gauge("test_total", "Things", () -> 1);
+    }
+}
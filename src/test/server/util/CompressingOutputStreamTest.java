@@ -0,0 +1,153 @@
+package test.server.util;
+
+import main.java.server.util.CompressingOutputStream;
+import main.java.server.util.CompressionSettings;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for gzipping responses only once they are big enough
+ */
+public class CompressingOutputStreamTest {
+    private static final CompressionSettings settings = new CompressionSettings(100, 6, 60);
+
+    private ByteArrayOutputStream body;
+    private Map<String, String> headers;
+    private int contentLength;
+    private HttpServletResponse res;
+
+    @Before
+    public void setUp() {
+        body = new ByteArrayOutputStream();
+        headers = new HashMap<>();
+        contentLength = -1;
+
+        ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+        };
+
+        //Only what CompressingOutputStream uses
+        res = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getOutputStream":
+                            return out;
+                        case "setHeader":
+                            headers.put((String) args[0], (String) args[1]);
+                            return null;
+                        case "setContentLength":
+                            contentLength = (Integer) args[0];
+                            return null;
+                        case "flushBuffer":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] ret = new byte[length];
+        Arrays.fill(ret, (byte) 'a');
+        return ret;
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                ret.write(buffer, 0, read);
+            }
+        }
+        return ret.toByteArray();
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(CompressingOutputStream.acceptsGzip("gzip"));
+        assertTrue(CompressingOutputStream.acceptsGzip("gzip, deflate, br"));
+        assertTrue(CompressingOutputStream.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(CompressingOutputStream.acceptsGzip("x-gzip"));
+        assertTrue(CompressingOutputStream.acceptsGzip("*"));
+
+        assertFalse(CompressingOutputStream.acceptsGzip(null));
+        assertFalse(CompressingOutputStream.acceptsGzip(""));
+        assertFalse(CompressingOutputStream.acceptsGzip("deflate, br"));
+        assertFalse(CompressingOutputStream.acceptsGzip("gzip;q=0"));
+        assertFalse(CompressingOutputStream.acceptsGzip("gzip;q=0.0, *"));
+        assertFalse(CompressingOutputStream.acceptsGzip("*;q=0"));
+    }
+
+    @Test
+    public void testSmallBodyIsNotGzipped() throws IOException {
+        CompressingOutputStream out = new CompressingOutputStream(res, true, settings);
+        out.write(bytes(50));
+        out.write(bytes(49));
+        out.flush();
+        assertEquals(0, body.size()); //Held back until we know
+        out.finish();
+
+        assertFalse(out.isGzipped());
+        assertFalse(headers.containsKey("Content-Encoding"));
+        assertEquals(99, contentLength);
+        assertArrayEquals(bytes(99), body.toByteArray());
+    }
+
+    @Test
+    public void testBigBodyIsGzipped() throws IOException {
+        CompressingOutputStream out = new CompressingOutputStream(res, true, settings);
+        out.write(bytes(60));
+        out.write(bytes(40));
+        assertTrue(out.isGzipped());
+        for (int i = 0; i < 100; i++) {
+            out.write('a');
+        }
+        out.finish();
+
+        assertEquals("gzip", headers.get("Content-Encoding"));
+        assertEquals(-1, contentLength);
+        assertTrue(body.size() < 200);
+        assertArrayEquals(bytes(200), gunzip(body.toByteArray()));
+    }
+
+    @Test
+    public void testPassesThroughWithoutGzip() throws IOException {
+        CompressingOutputStream out = new CompressingOutputStream(res, false, settings);
+        out.write(bytes(10));
+        assertEquals(10, body.size());
+        out.write(bytes(1000));
+        out.finish();
+
+        assertFalse(out.isGzipped());
+        assertTrue(headers.isEmpty());
+        assertArrayEquals(bytes(1010), body.toByteArray());
+    }
+}
@@ -0,0 +1,139 @@
+package test.server.util;
+
+import main.java.server.util.EmailServer;
+import main.java.server.util.EmailSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for sending emails in the background, against a local SMTP server
+ */
+public class EmailServerTest {
+    private LocalSmtpServer smtp;
+    private EmailServer emails;
+
+    @Before
+    public void setUp() throws Exception {
+        smtp = new LocalSmtpServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (emails != null) {
+            emails.close();
+        }
+        smtp.close();
+    }
+
+    /**
+     * One worker that tries an email 3 times, 10 ms apart at first
+     */
+    private EmailServer start(long idleTimeoutMillis) {
+        emails = new EmailServer("aegis@localhost", "",
+                new EmailSettings("localhost", smtp.getPort(), false, 1, 100, 20, 3, 10, idleTimeoutMillis));
+        return emails;
+    }
+
+    private static EmailServer.Email email(int i) {
+        return new EmailServer.Email("user" + i + "@localhost", "Subject " + i, "<p>Body " + i + "</p>");
+    }
+
+    @Test
+    public void testSendsOverOneConnection() {
+        start(10000);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(emails.sendEmail(email(i)));
+        }
+        emails.flush();
+
+        List<LocalSmtpServer.Message> messages = smtp.getMessages();
+        assertEquals(10, messages.size());
+        for (int i = 0; i < 10; i++) {
+            LocalSmtpServer.Message m = messages.get(i);
+            assertEquals("aegis@localhost", m.from);
+            assertEquals(1, m.to.size());
+            assertEquals("user" + i + "@localhost", m.to.get(0));
+            assertTrue(m.data.contains("Subject: Subject " + i));
+            assertTrue(m.data.contains("<p>Body " + i + "</p>"));
+        }
+
+        assertEquals(10, emails.getSentEmails());
+        assertEquals(0, emails.getQueueDepth());
+        assertEquals(1, emails.getOpenedConnections());
+        assertEquals(1, smtp.getConnections());
+    }
+
+    @Test
+    public void testRetry() {
+        start(10000);
+        smtp.failNext(2);
+        emails.sendEmail(email(0));
+        emails.flush();
+
+        assertEquals(1, smtp.getMessages().size());
+        assertEquals(1, emails.getSentEmails());
+        assertEquals(2, emails.getRetriedEmails());
+        assertEquals(0, emails.getFailedEmails());
+    }
+
+    @Test
+    public void testGivesUp() {
+        start(10000);
+        smtp.failNext(3);
+        emails.sendEmail(email(0));
+        emails.flush();
+
+        assertEquals(0, smtp.getMessages().size());
+        assertEquals(0, emails.getSentEmails());
+        assertEquals(2, emails.getRetriedEmails());
+        assertEquals(1, emails.getFailedEmails());
+    }
+
+    @Test
+    public void testReconnects() throws Exception {
+        start(10000);
+        emails.sendEmail(email(0));
+        emails.flush();
+
+        //A connection the server dropped is replaced right away, without counting as a failed attempt
+        smtp.dropConnections();
+        emails.sendEmail(email(1));
+        emails.flush();
+        assertEquals(2, smtp.getMessages().size());
+        assertEquals(0, emails.getRetriedEmails());
+        assertEquals(2, emails.getOpenedConnections());
+    }
+
+    @Test
+    public void testClosesIdleConnection() throws Exception {
+        start(50);
+        emails.sendEmail(email(0));
+        emails.flush();
+        Thread.sleep(300);
+
+        emails.sendEmail(email(1));
+        emails.flush();
+        assertEquals(2, smtp.getMessages().size());
+        assertEquals(2, emails.getOpenedConnections());
+        assertEquals(0, emails.getRetriedEmails());
+    }
+
+    @Test
+    public void testClose() {
+        start(10000);
+        for (int i = 0; i < 5; i++) {
+            emails.sendEmail(email(i));
+        }
+        emails.close();
+
+        //Everything queued before close is sent, everything after is dropped
+        assertEquals(5, smtp.getMessages().size());
+        assertFalse(emails.sendEmail(email(5)));
+        assertEquals(1, emails.getDroppedEmails());
+    }
+}
@@ -0,0 +1,109 @@
+package test.server.util;
+
+import main.java.server.util.ExpiryScheduler;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the timing wheel that expires sessions and verification codes
+ */
+public class ExpirySchedulerTest {
+    private static final long tick = 1000;
+
+    private ExpiryScheduler scheduler;
+    private long start;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new ExpiryScheduler(tick, 8, false); //Wheel spans 8 seconds
+        start = System.currentTimeMillis();
+    }
+
+    @Test
+    public void testExpires() throws Exception {
+        Item item = new Item(start + 5 * tick);
+        scheduler.schedule(item);
+        assertEquals(1, scheduler.size());
+
+        scheduler.advance(start + 4 * tick);
+        assertFalse(item.expired);
+
+        scheduler.advance(start + 6 * tick);
+        assertTrue(item.expired);
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        Item item = new Item(start + 2 * tick);
+        scheduler.schedule(item);
+
+        item.expiresAt = start + 5 * tick;
+        scheduler.advance(start + 3 * tick);
+        assertFalse(item.expired);
+        assertEquals(1, scheduler.size());
+
+        scheduler.advance(start + 6 * tick);
+        assertTrue(item.expired);
+    }
+
+    @Test
+    public void testLongerThanWheel() throws Exception {
+        Item item = new Item(start + 20 * tick);
+        scheduler.schedule(item);
+
+        scheduler.advance(start + 10 * tick);
+        assertFalse(item.expired);
+        scheduler.advance(start + 19 * tick);
+        assertFalse(item.expired);
+
+        scheduler.advance(start + 21 * tick);
+        assertTrue(item.expired);
+    }
+
+    @Test
+    public void testLongPause() throws Exception {
+        Item[] items = new Item[100];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new Item(start + i * tick);
+            scheduler.schedule(items[i]);
+        }
+
+        scheduler.advance(start + 1000 * tick);
+        for (Item item : items) {
+            assertTrue(item.expired);
+        }
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void testAlreadyExpired() throws Exception {
+        Item item = new Item(start - 10 * tick);
+        scheduler.schedule(item);
+
+        scheduler.advance(start + tick);
+        assertTrue(item.expired);
+    }
+
+    private static class Item implements ExpiryScheduler.Expiring {
+        private volatile long expiresAt;
+        private volatile boolean expired = false;
+
+        private Item(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public long expiresAt() {
+            return expiresAt;
+        }
+
+        @Override
+        public void expire() {
+            assertFalse(expired);
+            expired = true;
+        }
+    }
+}
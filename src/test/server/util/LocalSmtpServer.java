@@ -0,0 +1,177 @@
+package test.server.util;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A plain SMTP server on localhost that keeps the messages it receives in memory, so emails can be tested without a
+ * real mail server. It speaks just enough SMTP for JavaMail, without TLS or authentication.
+ */
+public class LocalSmtpServer implements AutoCloseable {
+    /**
+     * A received message
+     */
+    public static class Message {
+        public final String from;
+        public final List<String> to;
+
+        /**
+         * Headers and body, as sent
+         */
+        public final String data;
+
+        private Message(String from, List<String> to, String data) {
+            this.from = from;
+            this.to = to;
+            this.data = data;
+        }
+    }
+
+    private final ServerSocket server;
+    private final List<Message> messages = new CopyOnWriteArrayList<>();
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * Starts the server on a free port
+     */
+    public LocalSmtpServer() throws IOException {
+        server = new ServerSocket(0);
+        Thread acceptor = new Thread(this::accept, "local-smtp");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return the messages received so far, in order
+     */
+    public List<Message> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * @return the number of connections accepted so far
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Answers the next count messages with a temporary failure instead of accepting them
+     */
+    public void failNext(int count) {
+        failures.set(count);
+    }
+
+    /**
+     * Closes every open connection without a goodbye, like a server that times out idle clients
+     */
+    public void dropConnections() throws IOException {
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        dropConnections();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket client = server.accept();
+                connections.incrementAndGet();
+                clients.add(client);
+                Thread t = new Thread(() -> serve(client), "local-smtp-client");
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) { //Closed
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try (Socket c = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(c.getOutputStream(), StandardCharsets.UTF_8)) {
+            reply(out, "220 localhost ESMTP");
+
+            String from = null;
+            List<String> to = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.toUpperCase();
+                if (command.startsWith("EHLO") || command.startsWith("HELO")) {
+                    reply(out, "250 localhost");
+                } else if (command.startsWith("MAIL FROM:")) {
+                    from = address(line);
+                    to.clear();
+                    reply(out, "250 OK");
+                } else if (command.startsWith("RCPT TO:")) {
+                    to.add(address(line));
+                    reply(out, "250 OK");
+                } else if (command.equals("DATA")) {
+                    reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                    String data = readData(in);
+                    if (failures.getAndUpdate(n -> Math.max(n - 1, 0)) > 0) {
+                        reply(out, "451 Try again later");
+                    } else {
+                        messages.add(new Message(from, new ArrayList<>(to), data));
+                        reply(out, "250 OK");
+                    }
+                } else if (command.equals("RSET")) {
+                    from = null;
+                    to.clear();
+                    reply(out, "250 OK");
+                } else if (command.equals("NOOP")) {
+                    reply(out, "250 OK");
+                } else if (command.equals("QUIT")) {
+                    reply(out, "221 Bye");
+                    return;
+                } else {
+                    reply(out, "502 Command not implemented");
+                }
+            }
+        } catch (IOException e) { //The client went away, or we dropped it
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private static String readData(BufferedReader in) throws IOException {
+        StringBuilder data = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null && !line.equals(".")) {
+            data.append(line.startsWith("..") ? line.substring(1) : line).append("\r\n");
+        }
+        return data.toString();
+    }
+
+    private static String address(String line) {
+        int start = line.indexOf('<');
+        int end = line.indexOf('>');
+        return start >= 0 && end > start ? line.substring(start + 1, end) : line.substring(line.indexOf(':') + 1).trim();
+    }
+
+    private static void reply(Writer out, String line) throws IOException {
+        out.write(line + "\r\n");
+        out.flush();
+    }
+}
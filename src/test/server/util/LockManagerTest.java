@@ -0,0 +1,159 @@
+package test.server.util;
+
+import main.java.server.util.LockManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the striped team and user locks of the request handler
+ */
+public class LockManagerTest {
+    private static final int stripes = 4;
+
+    private LockManager locks;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        locks = new LockManager(stripes);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTeamsBeforeUsers() throws Exception {
+        try (LockManager.Locks ignored = locks.lockUser(0)) {
+            //Has to take team 1 and then wait for user 0
+            Future<?> both = lockInThread(() -> locks.lockTeamAndUser(1, 0));
+            assertBlocked(both);
+
+            Future<?> team = lockInThread(() -> locks.lockTeam(1));
+            assertBlocked(team);
+        }
+    }
+
+    @Test
+    public void testAscendingOrder() throws Exception {
+        try (LockManager.Locks ignored = locks.lock(Collections.singletonList(2), Collections.singletonList(2))) {
+            //Has to wait for team 2 before it takes team 3, and for user 2 before user 3
+            Future<?> teams = lockInThread(() -> locks.lock(Arrays.asList(3, 2), Collections.emptyList()));
+            Future<?> users = lockInThread(() -> locks.lock(Collections.emptyList(), Arrays.asList(3, 2)));
+            assertBlocked(teams);
+            assertBlocked(users);
+
+            lockInThread(() -> locks.lockTeam(3)).get(5, TimeUnit.SECONDS);
+            lockInThread(() -> locks.lockUser(3)).get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testStripesAreShared() throws Exception {
+        try (LockManager.Locks ignored = locks.lockTeam(1)) {
+            assertBlocked(lockInThread(() -> locks.lockTeam(1 + stripes)));
+            lockInThread(() -> locks.lockTeam(2)).get(5, TimeUnit.SECONDS);
+            lockInThread(() -> locks.lockUser(1)).get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testLockAllWaitsForStripes() throws Exception {
+        Future<?> all;
+        try (LockManager.Locks ignored = locks.lockTeamAndUser(1, 2)) {
+            all = lockInThread(() -> locks.lockAll());
+            assertBlocked(all);
+        }
+        all.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testLockAllExcludesStripes() throws Exception {
+        Future<?> team;
+        Future<?> user;
+        try (LockManager.Locks ignored = locks.lockAll()) {
+            team = lockInThread(() -> locks.lockTeam(1));
+            user = lockInThread(() -> locks.lockUser(2));
+            assertBlocked(team);
+            assertBlocked(user);
+        }
+        team.get(5, TimeUnit.SECONDS);
+        user.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testNoDeadlockUnderContention() throws Exception {
+        int threads = 8;
+        int iterations = 2000;
+        AtomicInteger done = new AtomicInteger();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < iterations; i++) {
+                    LockManager.Locks held;
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            held = locks.lockTeamAndUser(random.nextInt(16), random.nextInt(16));
+                            break;
+                        case 1:
+                            held = locks.lock(Arrays.asList(random.nextInt(16), random.nextInt(16)),
+                                    Arrays.asList(random.nextInt(16), random.nextInt(16)));
+                            break;
+                        case 2:
+                            held = locks.lockUser(random.nextInt(16));
+                            break;
+                        default:
+                            held = i % 100 == 0 ? locks.lockAll() : locks.lockTeam(random.nextInt(16));
+                            break;
+                    }
+                    held.close();
+                    done.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS); //Times out on a deadlock
+        }
+        assertEquals(threads * iterations, done.get());
+    }
+
+    /**
+     * Takes the locks on another thread and releases them right away
+     */
+    private Future<?> lockInThread(Callable<LockManager.Locks> lock) {
+        return executor.submit(() -> {
+            lock.call().close();
+            return null;
+        });
+    }
+
+    /**
+     * Asserts that the locking thread is still waiting
+     */
+    private static void assertBlocked(Future<?> future) throws Exception {
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+            fail("Expected the locks to be held by another thread");
+        } catch (TimeoutException expected) {
+            //Still waiting
+        }
+    }
+}
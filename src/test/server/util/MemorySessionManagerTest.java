@@ -0,0 +1,111 @@
+package test.server.util;
+
+import main.java.server.util.ExpiryScheduler;
+import main.java.server.util.MemorySessionManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static main.java.util.Constants.MAX_INACTIVE_TIME;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the session manager that keeps sessions in memory
+ */
+public class MemorySessionManagerTest {
+    private ExpiryScheduler scheduler;
+    private MemorySessionManager sessions;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new ExpiryScheduler(1000, 8, false);
+        sessions = new MemorySessionManager(scheduler, 3, null);
+    }
+
+    @Test
+    public void testRemoveAllSessions() throws Exception {
+        String a = sessions.generateSID(1);
+        String b = sessions.generateSID(1);
+        String other = sessions.generateSID(2);
+
+        sessions.removeAllSessions(1);
+        assertEquals(Optional.empty(), sessions.getUID(a));
+        assertEquals(Optional.empty(), sessions.getUID(b));
+        assertEquals(Optional.of(2), sessions.getUID(other));
+        assertEquals(1, sessions.getSessionCount());
+
+        sessions.removeAllSessions(1); //Nothing left to remove
+        String c = sessions.generateSID(1);
+        assertEquals(Optional.of(1), sessions.getUID(c));
+    }
+
+    @Test
+    public void testSessionCap() throws Exception {
+        String first = sessions.generateSID(1);
+        String second = sessions.generateSID(1);
+        String third = sessions.generateSID(1);
+        Thread.sleep(5);
+        sessions.getUID(first); //Now second is the least recently used
+
+        String fourth = sessions.generateSID(1);
+        assertEquals(Optional.of(1), sessions.getUID(first));
+        assertEquals(Optional.empty(), sessions.getUID(second));
+        assertEquals(Optional.of(1), sessions.getUID(third));
+        assertEquals(Optional.of(1), sessions.getUID(fourth));
+        assertEquals(3, sessions.getSessionCount());
+    }
+
+    @Test
+    public void testRemoveAndExpireUpdateIndex() throws Exception {
+        String a = sessions.generateSID(1);
+        sessions.generateSID(1);
+        sessions.removeSessionID(a);
+        scheduler.advance(System.currentTimeMillis() + MAX_INACTIVE_TIME + 1000);
+        assertEquals(0, sessions.getSessionCount());
+
+        //The removed sessions no longer count against the cap
+        List<String> sids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            sids.add(sessions.generateSID(1));
+        }
+        for (String sid : sids) {
+            assertEquals(Optional.of(1), sessions.getUID(sid));
+        }
+    }
+
+    @Test
+    public void testConcurrentRemoveAll() throws Exception {
+        sessions = new MemorySessionManager(scheduler, 1000, null);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int uid = t % 2;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    String sid = sessions.generateSID(uid);
+                    if (i % 3 == 0) {
+                        sessions.removeSessionID(sid);
+                    }
+                    if (i % 100 == 0) {
+                        sessions.removeAllSessions(uid);
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+
+        //Nothing is left in the session map once the index says the user has no sessions
+        sessions.removeAllSessions(0);
+        sessions.removeAllSessions(1);
+        assertEquals(0, sessions.getSessionCount());
+    }
+}
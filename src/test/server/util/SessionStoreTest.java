@@ -0,0 +1,93 @@
+package test.server.util;
+
+import main.java.server.util.ExpiryScheduler;
+import main.java.server.util.MemorySessionManager;
+import main.java.server.util.SessionStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Optional;
+
+import static main.java.util.Constants.MAX_INACTIVE_TIME;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for keeping in-memory sessions across restarts
+ */
+public class SessionStoreTest {
+    private static final String file = "sessions_test.db";
+
+    private ExpiryScheduler scheduler;
+    private SessionStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            Files.deleteIfExists(new File(file + suffix).toPath());
+        }
+        scheduler = new ExpiryScheduler(1000, 8, false);
+        store = new SessionStore(file, 1000000); //Only written when flushed by hand
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        MemorySessionManager sessions = new MemorySessionManager(scheduler, 10, store);
+        String kept = sessions.generateSID(1);
+        String loggedOut = sessions.generateSID(2);
+        sessions.removeSessionID(loggedOut);
+        store.close();
+
+        store = new SessionStore(file, 1000000);
+        sessions = new MemorySessionManager(scheduler, 10, store);
+        assertEquals(1, sessions.getSessionCount());
+        assertEquals(Optional.of(1), sessions.getUID(kept));
+        assertEquals(Optional.empty(), sessions.getUID(loggedOut));
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        store.put("a", 1, 10);
+        store.put("a", 1, 20);
+        store.put("b", 2, 10);
+        store.remove("b");
+        assertEquals(2, store.getPendingChanges());
+
+        store.flush();
+        assertEquals(0, store.getPendingChanges());
+
+        List<SessionStore.Record> records = store.load(0);
+        assertEquals(1, records.size());
+        assertEquals("a", records.get(0).sid);
+        assertEquals(1, records.get(0).uid);
+        assertEquals(20, records.get(0).lastActiveTime);
+    }
+
+    @Test
+    public void testExpiredAreNotLoaded() throws Exception {
+        long now = System.currentTimeMillis();
+        store.put("old", 1, now - MAX_INACTIVE_TIME - 1);
+        store.put("new", 2, now);
+        store.flush();
+
+        MemorySessionManager sessions = new MemorySessionManager(scheduler, 10, store);
+        assertEquals(1, sessions.getSessionCount());
+        assertEquals(Optional.of(2), sessions.getUID("new"));
+        assertEquals(1, store.load(0).size()); //Deleted from the store as well
+
+        //Loaded sessions expire like any other
+        scheduler.advance(now + MAX_INACTIVE_TIME + 1000);
+        assertEquals(Optional.empty(), sessions.getUID("new"));
+        assertEquals(0, sessions.getSessionCount());
+        store.flush();
+        assertEquals(0, store.load(0).size());
+    }
+}
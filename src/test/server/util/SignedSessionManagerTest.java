@@ -0,0 +1,167 @@
+package test.server.util;
+
+import main.java.server.util.ExpiryScheduler;
+import main.java.server.util.SignedSessionManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+
+import static main.java.util.Constants.MAX_INACTIVE_TIME;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the session manager that issues signed session tokens
+ */
+public class SignedSessionManagerTest {
+    private static final byte[] key = "0123456789abcdef0123456789abcdef".getBytes();
+
+    private ExpiryScheduler scheduler;
+    private SignedSessionManager sessions;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new ExpiryScheduler(1000, 8, false);
+        sessions = new SignedSessionManager(key, scheduler);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        String sid = sessions.generateSID(42);
+        assertEquals(Optional.of(42), sessions.getUID(sid));
+        assertEquals(Optional.empty(), sessions.renewSID(sid)); //Too new to renew
+
+        //Another server with the same key accepts it, one with a different key does not
+        assertEquals(Optional.of(42), new SignedSessionManager(key, scheduler).getUID(sid));
+        assertEquals(Optional.empty(), new SignedSessionManager("other".getBytes(), scheduler).getUID(sid));
+    }
+
+    @Test
+    public void testMatchesHmac() throws Exception {
+        long now = System.currentTimeMillis();
+        assertEquals(Optional.of(7), sessions.getUID(token(7, 1, now, now + MAX_INACTIVE_TIME, key)));
+
+        //Keys longer than a block are hashed first
+        byte[] longKey = new byte[100];
+        Arrays.fill(longKey, (byte) 3);
+        assertEquals(Optional.of(7), new SignedSessionManager(longKey, scheduler)
+                .getUID(token(7, 1, now, now + MAX_INACTIVE_TIME, longKey)));
+    }
+
+    @Test
+    public void testTampered() throws Exception {
+        String sid = sessions.generateSID(42);
+        char[] chars = sid.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            char old = chars[i];
+            chars[i] = old == 'A' ? 'B' : 'A';
+            assertEquals(Optional.empty(), sessions.getUID(new String(chars)));
+            chars[i] = old;
+        }
+
+        assertEquals(Optional.empty(), sessions.getUID(""));
+        assertEquals(Optional.empty(), sessions.getUID(sid + "A"));
+        assertEquals(Optional.empty(), sessions.getUID(sid.substring(1) + "="));
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        long now = System.currentTimeMillis();
+        String sid = token(42, 1, now - 2 * MAX_INACTIVE_TIME, now - 1, key);
+        assertEquals(Optional.empty(), sessions.getUID(sid));
+        assertEquals(Optional.empty(), sessions.renewSID(sid));
+    }
+
+    @Test
+    public void testRenew() throws Exception {
+        long now = System.currentTimeMillis();
+        long start = now - 5 * 60 * 1000;
+        String sid = token(42, 1, start, now - 2 * 60 * 1000 + MAX_INACTIVE_TIME, key);
+        assertEquals(Optional.of(42), sessions.getUID(sid));
+
+        String renewed = sessions.renewSID(sid).orElseThrow(AssertionError::new);
+        assertEquals(Optional.of(42), sessions.getUID(renewed));
+        assertEquals(Optional.empty(), sessions.renewSID(renewed));
+
+        //Same session, later expiry
+        ByteBuffer decoded = ByteBuffer.wrap(Base64.getUrlDecoder().decode(renewed));
+        assertEquals(1, decoded.getLong(5));
+        assertEquals(start, decoded.getLong(13));
+        assertTrue(decoded.getLong(21) >= now + MAX_INACTIVE_TIME);
+    }
+
+    @Test
+    public void testRevoke() throws Exception {
+        long now = System.currentTimeMillis();
+        String sid = token(42, 1, now - 5 * 60 * 1000, now - 2 * 60 * 1000 + MAX_INACTIVE_TIME, key);
+        String renewed = sessions.renewSID(sid).orElseThrow(AssertionError::new);
+        String other = sessions.generateSID(42);
+
+        sessions.removeSessionID(renewed);
+        assertEquals(Optional.empty(), sessions.getUID(renewed));
+        assertEquals(Optional.empty(), sessions.getUID(sid)); //Older tokens of the session are revoked as well
+        assertEquals(Optional.of(42), sessions.getUID(other));
+        assertEquals(1, sessions.getRevocationCount());
+        assertEquals(0, sessions.getSessionCount()); //Only revocations are kept track of
+
+        //Forged tokens are not remembered
+        sessions.removeSessionID(token(42, 2, now, now + MAX_INACTIVE_TIME, "other".getBytes()));
+        assertEquals(1, sessions.getRevocationCount());
+
+        //The revocation is dropped once every token of the session has expired
+        scheduler.advance(System.currentTimeMillis() + MAX_INACTIVE_TIME + 1000);
+        assertEquals(0, sessions.getRevocationCount());
+    }
+
+    @Test
+    public void testRemoveAllSessions() throws Exception {
+        String a = sessions.generateSID(1);
+        String other = sessions.generateSID(2);
+
+        sessions.removeAllSessions(1);
+        assertEquals(Optional.empty(), sessions.getUID(a));
+        assertEquals(Optional.of(2), sessions.getUID(other));
+
+        //A session started right after still works, also in the same millisecond
+        String b = sessions.generateSID(1);
+        assertEquals(Optional.of(1), sessions.getUID(b));
+        assertEquals(1, sessions.getRevocationCount());
+
+        scheduler.advance(System.currentTimeMillis() + MAX_INACTIVE_TIME + 1000);
+        assertEquals(0, sessions.getRevocationCount());
+    }
+
+    @Test
+    public void testRevocationsAreNotShared() throws Exception {
+        //A known limitation: a revocation only applies to the server that made it
+        SignedSessionManager other = new SignedSessionManager(key, scheduler);
+        String sid = sessions.generateSID(42);
+        String sid2 = sessions.generateSID(7);
+
+        sessions.removeSessionID(sid);
+        sessions.removeAllSessions(7);
+        assertEquals(Optional.empty(), sessions.getUID(sid));
+        assertEquals(Optional.empty(), sessions.getUID(sid2));
+        assertEquals(Optional.of(42), other.getUID(sid));
+        assertEquals(Optional.of(7), other.getUID(sid2));
+    }
+
+    /**
+     * Builds a token by hand with javax.crypto
+     */
+    private static String token(int uid, long nonce, long start, long expiresAt, byte[] key) throws Exception {
+        ByteBuffer token = ByteBuffer.allocate(45);
+        token.put((byte) 1).putInt(uid).putLong(nonce).putLong(start).putLong(expiresAt);
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        mac.update(token.array(), 0, 29);
+        token.put(mac.doFinal(), 0, 16);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+    }
+}
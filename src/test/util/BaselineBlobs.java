@@ -0,0 +1,60 @@
+package test.util;
+
+import main.java.model.UserPermissions;
+import main.java.model.info.EntryInfo;
+import main.java.model.info.TeamInfo;
+import main.java.model.info.TeamUserInfo;
+import main.java.model.info.UserInfo;
+
+import java.util.Base64;
+
+/**
+ * Info blobs the way the original classes stored them, written with the Serializer before the binary codec existed.
+ * They were generated once from the original classes and are checked in as is, so decoding them catches any change to
+ * the info classes that breaks old databases. Never regenerate them from the current classes.
+ */
+public class BaselineBlobs {
+    public static final UserInfo USER_INFO = new UserInfo("Michael", "Clarkson", "password", "salt1", "saltEnc",
+            "saltMAC", "public", "publicMAC", "iv", "private");
+    public static final EntryInfo ENTRY_INFO = new EntryInfo("Facebook", "mrc26@cornell.edu", "password", "iv");
+    public static final TeamInfo TEAM_INFO = new TeamInfo("CS5430");
+    public static final TeamUserInfo TEAM_USER_INFO = new TeamUserInfo(UserPermissions.WRITE, "team key");
+
+    /**
+     * The serialized USER_INFO
+     */
+    public static final byte[] USER = decode(
+            "rO0ABXNyAB1tYWluLmphdmEubW9kZWwuaW5mby5Vc2VySW5mb8BV10SXug6YAgAKTAAFZW5jSXZ0ABJMamF2YS9sYW5nL1N0cmlu" +
+            "ZztMABRlbmNLZXlEZXJpdmF0aW9uU2FsdHEAfgABTAAJZmlyc3ROYW1lcQB+AAFMABRoYXNoZWRNYXN0ZXJQYXNzd29yZHEAfgAB" +
+            "TAAIbGFzdE5hbWVxAH4AAUwAFG1hY0tleURlcml2YXRpb25TYWx0cQB+AAFMABJtYXN0ZXJQYXNzd29yZFNhbHRxAH4AAUwACnBy" +
+            "aXZhdGVLZXlxAH4AAUwACXB1YmxpY0tleXEAfgABTAAMcHVibGljS2V5TUFDcQB+AAF4cHQAAml2dAAHc2FsdEVuY3QAB01pY2hh" +
+            "ZWx0AAhwYXNzd29yZHQACENsYXJrc29udAAHc2FsdE1BQ3QABXNhbHQxdAAHcHJpdmF0ZXQABnB1YmxpY3QACXB1YmxpY01BQw==");
+
+    /**
+     * The serialized ENTRY_INFO
+     */
+    public static final byte[] ENTRY = decode(
+            "rO0ABXNyAB5tYWluLmphdmEubW9kZWwuaW5mby5FbnRyeUluZm9x2g28yqD9XQIABEwAAml2dAASTGphdmEvbGFuZy9TdHJpbmc7" +
+            "TAAIcGFzc3dvcmRxAH4AAUwABXRpdGxlcQB+AAFMAAh1c2VybmFtZXEAfgABeHB0AAJpdnQACHBhc3N3b3JkdAAIRmFjZWJvb2t0" +
+            "ABFtcmMyNkBjb3JuZWxsLmVkdQ==");
+
+    /**
+     * The serialized TEAM_INFO
+     */
+    public static final byte[] TEAM = decode(
+            "rO0ABXNyAB1tYWluLmphdmEubW9kZWwuaW5mby5UZWFtSW5mb4AMg2H2NqoYAgABTAAIdGVhbU5hbWV0ABJMamF2YS9sYW5nL1N0" +
+            "cmluZzt4cHQABkNTNTQzMA==");
+
+    /**
+     * The serialized TEAM_USER_INFO
+     */
+    public static final byte[] TEAM_USER = decode(
+            "rO0ABXNyACFtYWluLmphdmEubW9kZWwuaW5mby5UZWFtVXNlckluZm/rwGCCLpOogwIAAkwAC3Blcm1pc3Npb25zdAAhTG1haW4v" +
+            "amF2YS9tb2RlbC9Vc2VyUGVybWlzc2lvbnM7TAAHdGVhbUtleXQAEkxqYXZhL2xhbmcvU3RyaW5nO3hwfnIAH21haW4uamF2YS5t" +
+            "b2RlbC5Vc2VyUGVybWlzc2lvbnMAAAAAAAAAABIAAHhyAA5qYXZhLmxhbmcuRW51bQAAAAAAAAAAEgAAeHB0AAVXUklURXQACHRl" +
+            "YW0ga2V5");
+
+    private static byte[] decode(String base64) {
+        return Base64.getDecoder().decode(base64);
+    }
+}
@@ -0,0 +1,91 @@
+package test.util;
+
+import main.java.model.UserPermissions;
+import main.java.model.info.EntryInfo;
+import main.java.model.info.TeamInfo;
+import main.java.model.info.TeamUserInfo;
+import main.java.model.info.UserInfo;
+import main.java.util.BinaryCodec;
+import main.java.util.Serializer;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the binary codec of the info blobs
+ */
+public class BinaryCodecTest {
+    private final UserInfo user = new UserInfo("Michael", "Clarkson", "password", "salt1", "saltEnc", "saltMAC",
+            "public", "publicMAC", "iv", "private");
+    private final EntryInfo entry = new EntryInfo("Facebook", "mrc26@cornell.edu", "password", "iv");
+    private final TeamInfo team = new TeamInfo("CS5430 é中🔒"); //Non ASCII on purpose
+    private final TeamUserInfo teamUser = new TeamUserInfo(UserPermissions.WRITE, "team key");
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertEquals(user, BinaryCodec.decodeUser(BinaryCodec.encode(user)));
+        assertEquals(entry, BinaryCodec.decodeEntry(BinaryCodec.encode(entry)));
+        assertEquals(team, BinaryCodec.decodeTeam(BinaryCodec.encode(team)));
+        for (UserPermissions p : UserPermissions.values()) {
+            TeamUserInfo info = new TeamUserInfo(p, "");
+            assertEquals(info, BinaryCodec.decodeTeamUser(BinaryCodec.encode(info)));
+        }
+
+        //Long strings need multi byte lengths
+        char[] longName = new char[100000];
+        Arrays.fill(longName, 'a');
+        TeamInfo longTeam = new TeamInfo(new String(longName));
+        assertEquals(longTeam, BinaryCodec.decodeTeam(BinaryCodec.encode(longTeam)));
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception {
+        assertTrue(BinaryCodec.encode(user).length < Serializer.serialize(user).length);
+        assertTrue(BinaryCodec.encode(entry).length < Serializer.serialize(entry).length);
+        assertTrue(BinaryCodec.encode(team).length < Serializer.serialize(team).length);
+        assertTrue(BinaryCodec.encode(teamUser).length < Serializer.serialize(teamUser).length);
+    }
+
+    @Test
+    public void testReadsJavaSerialization() throws Exception {
+        assertTrue(BinaryCodec.isJavaSerialized(Serializer.serialize(user)));
+        assertFalse(BinaryCodec.isJavaSerialized(BinaryCodec.encode(user)));
+
+        assertEquals(user, BinaryCodec.decodeUser(Serializer.serialize(user)));
+        assertEquals(entry, BinaryCodec.decodeEntry(Serializer.serialize(entry)));
+        assertEquals(team, BinaryCodec.decodeTeam(Serializer.serialize(team)));
+        assertEquals(teamUser, BinaryCodec.decodeTeamUser(Serializer.serialize(teamUser)));
+    }
+
+    @Test
+    public void testReadsBaselineBlobs() throws Exception {
+        assertEquals(BaselineBlobs.USER_INFO, BinaryCodec.decodeUser(BaselineBlobs.USER));
+        assertEquals(BaselineBlobs.ENTRY_INFO, BinaryCodec.decodeEntry(BaselineBlobs.ENTRY));
+        assertEquals(BaselineBlobs.TEAM_INFO, BinaryCodec.decodeTeam(BaselineBlobs.TEAM));
+        assertEquals(BaselineBlobs.TEAM_USER_INFO, BinaryCodec.decodeTeamUser(BaselineBlobs.TEAM_USER));
+    }
+
+    @Test(expected = Serializer.SerializationException.class)
+    public void testWrongType() throws Exception {
+        BinaryCodec.decodeTeam(BinaryCodec.encode(entry));
+    }
+
+    @Test(expected = Serializer.SerializationException.class)
+    public void testWrongLegacyType() throws Exception {
+        BinaryCodec.decodeTeam(Serializer.serialize(entry));
+    }
+
+    @Test(expected = Serializer.SerializationException.class)
+    public void testTruncated() throws Exception {
+        byte[] blob = BinaryCodec.encode(user);
+        BinaryCodec.decodeUser(Arrays.copyOf(blob, blob.length - 1));
+    }
+
+    @Test(expected = Serializer.SerializationException.class)
+    public void testTrailingBytes() throws Exception {
+        byte[] blob = BinaryCodec.encode(entry);
+        BinaryCodec.decodeEntry(Arrays.copyOf(blob, blob.length + 1));
+    }
+}
@@ -0,0 +1,101 @@
+package test.util;
+
+import main.java.util.IntList;
+import main.java.util.IntMap;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for IntMap and IntList
+ */
+public class IntMapTest {
+    @Test
+    public void testMap() {
+        HashMap<Integer, String> expected = new HashMap<>();
+        IntMap.Builder<String> builder = new IntMap.Builder<>();
+        for (int i = -500; i < 5000; i += 3) { //Grows the table a few times
+            expected.put(i, "v" + i);
+            builder.put(i, "v" + i);
+        }
+        builder.put(1, "replaced");
+        expected.put(1, "replaced");
+        IntMap<String> map = builder.build();
+
+        assertEquals(expected.size(), map.size());
+        for (int i = -600; i < 5100; i++) {
+            assertEquals(expected.get(i), map.get(i));
+            assertEquals(expected.containsKey(i), map.containsKey(i));
+        }
+
+        //Same as any other map with these entries
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+        assertEquals(expected, new HashMap<>(map));
+        assertEquals(map, IntMap.copyOf(expected));
+
+        int[] keys = map.keyArray();
+        Arrays.sort(keys);
+        int[] expectedKeys = expected.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        assertArrayEquals(expectedKeys, keys);
+
+        Map<Integer, String> visited = new HashMap<>();
+        map.forEachEntry(visited::put);
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    public void testEmptyMap() {
+        IntMap<String> map = IntMap.copyOf(Collections.emptyMap());
+        assertSame(IntMap.empty(), map);
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(0, map.keyArray().length);
+        assertEquals(Collections.emptyMap(), map);
+    }
+
+    @Test
+    public void testBuilder() {
+        IntMap.Builder<String> builder = new IntMap.Builder<>();
+        try {
+            builder.put(1, null);
+            fail();
+        } catch (NullPointerException ignored) {
+        }
+
+        builder.build();
+        try {
+            builder.build();
+            fail();
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    @Test
+    public void testList() {
+        List<Integer> expected = Arrays.asList(5, 3, 9, 3);
+        IntList list = IntList.copyOf(expected);
+
+        assertEquals(expected, list);
+        assertEquals(list, expected);
+        assertEquals(expected.hashCode(), list.hashCode());
+        assertEquals(IntList.of(5, 3, 9, 3), list);
+        assertArrayEquals(new int[]{5, 3, 9, 3}, list.toIntArray());
+        assertEquals(9, list.getInt(2));
+        assertTrue(list.contains(9));
+        assertFalse(list.contains(4));
+        assertEquals(1, list.indexOf(3));
+        assertEquals(-1, list.indexOf(4));
+
+        IntList.Builder builder = new IntList.Builder(1);
+        expected.forEach(builder::add);
+        assertEquals(list, builder.build());
+
+        assertSame(IntList.empty(), IntList.copyOf(new ArrayList<>()));
+        assertSame(IntList.empty(), new IntList.Builder().build());
+    }
+}